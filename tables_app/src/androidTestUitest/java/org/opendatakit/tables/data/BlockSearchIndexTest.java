@@ -0,0 +1,56 @@
+package org.opendatakit.tables.data;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that find matches words by their start, ignoring case and punctuation
+ */
+@SmallTest
+public class BlockSearchIndexTest {
+
+  // two columns, three rows
+  private static final String[][] TEXT = {
+      { "John Smith", "smith, jo", null },
+      { "Seattle", "SMITHERS", "12.5 kg" } };
+
+  private static int[] cells(BitSet matched) {
+    int[] cells = new int[matched.cardinality()];
+    int next = 0;
+    for (int c = matched.nextSetBit(0); c >= 0; c = matched.nextSetBit(c + 1)) {
+      cells[next++] = c;
+    }
+    return cells;
+  }
+
+  private static int[] find(String query) {
+    return cells(BlockSearchIndex.build(TEXT, 3).match(BlockSearchIndex.tokenize(query)));
+  }
+
+  @Test
+  public void tokensAreCaseFoldedAndSplitOnPunctuation() {
+    assertArrayEquals(new String[] { "smith", "jo" }, BlockSearchIndex.tokenize("SMITH, Jo!"));
+    assertArrayEquals(new String[] { "12", "5", "kg" }, BlockSearchIndex.tokenize("12.5 kg"));
+    assertEquals(0, BlockSearchIndex.tokenize(" - ").length);
+  }
+
+  @Test
+  public void everyQueryTokenHasToStartSomeWordOfTheCell() {
+    // cells are numbered row * columns + column
+    assertArrayEquals(new int[] { 0, 2, 3 }, find("smi"));
+    assertArrayEquals(new int[] { 0, 2 }, find("jo sm"));
+    assertArrayEquals(new int[] { 5 }, find("12.5"));
+    assertArrayEquals(new int[] {}, find("mith"));
+  }
+
+  @Test
+  public void aQueryWithoutWordsMatchesNothing() {
+    assertArrayEquals(new int[] {}, find("?!"));
+  }
+}
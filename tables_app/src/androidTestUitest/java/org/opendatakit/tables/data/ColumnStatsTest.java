@@ -0,0 +1,72 @@
+package org.opendatakit.tables.data;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the totals of a column come out the same however its rows are split into blocks
+ */
+@SmallTest
+public class ColumnStatsTest {
+
+  private static final boolean[] NUMERIC = { true, false };
+
+  @Test
+  public void numbersAreComparedAsNumbersAndTextAsText() {
+    ColumnStats stats = new ColumnStats(NUMERIC);
+    for (String value : new String[] { "9", "10", " 2.5 ", null }) {
+      stats.add(0, value);
+      stats.add(1, value);
+    }
+    assertEquals(3, stats.getCount(0));
+    assertEquals(21.5, stats.getSum(0), 0);
+    assertEquals(" 2.5 ", stats.getMin(0));
+    assertEquals("10", stats.getMax(0));
+    assertEquals(" 2.5 ", stats.getMin(1));
+    assertEquals("9", stats.getMax(1));
+    assertFalse(stats.hasNumbers(1));
+  }
+
+  @Test
+  public void cellsThatDoNotParseAreCountedButNotSummed() {
+    ColumnStats stats = new ColumnStats(NUMERIC);
+    stats.add(0, "4");
+    stats.add(0, "n/a");
+    assertEquals(2, stats.getCount(0));
+    assertEquals(4, stats.getMean(0), 0);
+  }
+
+  @Test
+  public void blocksAddUpToTheWholeColumn() {
+    ColumnStats first = new ColumnStats(NUMERIC);
+    first.add(0, "1");
+    first.add(1, "b");
+    ColumnStats second = new ColumnStats(NUMERIC);
+    second.add(0, "-3");
+    second.add(1, "a");
+    ColumnStats totals = new ColumnStats(NUMERIC);
+    totals.addAll(first);
+    totals.addAll(second);
+    assertEquals(2, totals.getCount(0));
+    assertEquals(-1, totals.getMean(0), 0);
+    assertEquals("-3", totals.getMin(0));
+    assertEquals("1", totals.getMax(0));
+    assertEquals("a", totals.getMin(1));
+    assertEquals("b", totals.getMax(1));
+  }
+
+  @Test
+  public void emptyColumnsHaveNoMeanOrExtremes() {
+    ColumnStats stats = new ColumnStats(NUMERIC);
+    stats.addAll(new ColumnStats(NUMERIC));
+    assertTrue(Double.isNaN(stats.getMean(0)));
+    assertNull(stats.getMin(0));
+    assertNull(stats.getMax(1));
+  }
+}
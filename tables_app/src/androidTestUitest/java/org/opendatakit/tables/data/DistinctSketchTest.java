@@ -0,0 +1,40 @@
+package org.opendatakit.tables.data;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that distinct values are counted exactly while there are few, and closely after that
+ */
+@SmallTest
+public class DistinctSketchTest {
+
+  @Test
+  public void fewValuesAreCountedExactly() {
+    DistinctSketch sketch = new DistinctSketch();
+    for (int i = 0; i < 1000; ++i) {
+      sketch.add("value " + (i % 10));
+    }
+    sketch.add(null);
+    assertTrue(sketch.isExact());
+    assertEquals(10, sketch.estimate());
+  }
+
+  @Test
+  public void manyValuesAreEstimatedWithinAFewPercent() {
+    DistinctSketch sketch = new DistinctSketch();
+    int distinct = 50000;
+    for (int i = 0; i < distinct; ++i) {
+      sketch.add(Integer.toString(i));
+      // seeing a value again doesn't change the estimate
+      sketch.add(Integer.toString(i / 2));
+    }
+    assertFalse(sketch.isExact());
+    assertEquals(distinct, sketch.estimate(), distinct * 0.06);
+  }
+}
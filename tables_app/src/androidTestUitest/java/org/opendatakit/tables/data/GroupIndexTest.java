@@ -0,0 +1,54 @@
+package org.opendatakit.tables.data;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that grouping in memory keeps every row of each group, in sorted order
+ */
+@SmallTest
+public class GroupIndexTest {
+
+  private static final String[][] GROUPS = { { "x", null, "y", "x", null, "y" } };
+  private static final int[] ORDER = { 5, 4, 3, 2, 1, 0 };
+
+  @Test
+  public void collapsedLayoutKeepsTheFirstRowOfEachGroup() {
+    GroupIndex index = GroupIndex.build(ORDER, GROUPS);
+    assertEquals(3, index.getNumberOfGroups());
+    assertArrayEquals(new int[] { 5, 4, 3 }, index.layout(new BitSet()));
+  }
+
+  @Test
+  public void groupsKeepTheirRowsInSortedOrder() {
+    GroupIndex index = GroupIndex.build(ORDER, GROUPS);
+    int group = index.getGroup(0);
+    assertEquals(index.getGroup(3), group);
+    assertEquals(2, index.getGroupSize(group));
+    assertEquals(3, index.getRow(group, 0));
+    assertEquals(0, index.getRow(group, 1));
+  }
+
+  @Test
+  public void expandedGroupsShowEveryRowBelowTheFirst() {
+    GroupIndex index = GroupIndex.build(ORDER, GROUPS);
+    BitSet expanded = new BitSet();
+    expanded.set(index.getGroup(4));
+    assertArrayEquals(new int[] { 5, 4, 1, 3 }, index.layout(expanded));
+  }
+
+  @Test
+  public void nullsAndMultipleColumnsFormTheirOwnGroups() {
+    String[][] groups = { { "a", "a", null, "a" }, { "1", null, "1", "1" } };
+    GroupIndex index = GroupIndex.build(new int[] { 0, 1, 2, 3 }, groups);
+    assertEquals(3, index.getNumberOfGroups());
+    assertEquals(2, index.getGroupSize(index.getGroup(3)));
+    assertArrayEquals(new int[] { 0, 1, 2 }, index.layout(new BitSet()));
+  }
+}
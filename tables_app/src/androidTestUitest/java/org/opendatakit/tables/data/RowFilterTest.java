@@ -0,0 +1,101 @@
+package org.opendatakit.tables.data;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a filter passes the same rows in memory as its where clause would
+ */
+@SmallTest
+public class RowFilterTest {
+
+  private static final String[] NUMBERS = { "10", null, "2.5", "-3", "n/a", "10.0" };
+  private static final String[] TEXT = { "Smith", null, "smithers", "Jones", "50%_off", "" };
+
+  private static BitSet run(RowFilter filter, String[] values) {
+    return filter.evaluate(RowFilter.ColumnVector.build(filter.getType(), values));
+  }
+
+  private static BitSet rows(int... rows) {
+    BitSet set = new BitSet();
+    for (int row : rows) {
+      set.set(row);
+    }
+    return set;
+  }
+
+  @Test
+  public void numbersAreComparedAsNumbers() {
+    ElementDataType type = ElementDataType.number;
+    assertEquals(rows(0, 5),
+        run(new RowFilter("x", type, RowFilter.Operator.EQUALS, "10"), NUMBERS));
+    assertEquals(rows(2, 3),
+        run(new RowFilter("x", type, RowFilter.Operator.LESS_THAN, " 10 "), NUMBERS));
+    assertEquals(rows(0, 2, 5),
+        run(new RowFilter("x", type, RowFilter.Operator.AT_LEAST, "2.5"), NUMBERS));
+  }
+
+  @Test
+  public void notEqualsKeepsEmptyCells() {
+    assertEquals(rows(1, 2, 3, 4), run(new RowFilter("x", ElementDataType.number,
+        RowFilter.Operator.NOT_EQUALS, "10"), NUMBERS));
+    assertEquals(rows(1, 2, 3, 4, 5), run(new RowFilter("x", ElementDataType.string,
+        RowFilter.Operator.NOT_EQUALS, "Smith"), TEXT));
+  }
+
+  @Test
+  public void textMatchingIgnoresCase() {
+    ElementDataType type = ElementDataType.string;
+    assertEquals(rows(0, 2),
+        run(new RowFilter("x", type, RowFilter.Operator.STARTS_WITH, "SMITH"), TEXT));
+    assertEquals(rows(0, 2, 3), run(new RowFilter("x", type, RowFilter.Operator.CONTAINS, "s"),
+        TEXT));
+    assertEquals(rows(0), run(new RowFilter("x", type, RowFilter.Operator.EQUALS, "Smith"), TEXT));
+  }
+
+  @Test
+  public void emptyMeansNull() {
+    ElementDataType type = ElementDataType.string;
+    assertEquals(rows(1), run(new RowFilter("x", type, RowFilter.Operator.IS_EMPTY, null), TEXT));
+    assertEquals(rows(0, 2, 3, 4, 5),
+        run(new RowFilter("x", type, RowFilter.Operator.IS_NOT_EMPTY, "ignored"), TEXT));
+  }
+
+  @Test
+  public void numericFilterNeedsANumber() {
+    assertFalse(new RowFilter("x", ElementDataType.integer, RowFilter.Operator.EQUALS, "1-")
+        .isValid());
+    assertTrue(new RowFilter("x", ElementDataType.integer, RowFilter.Operator.IS_EMPTY, "1-")
+        .isValid());
+    assertTrue(new RowFilter("x", ElementDataType.string, RowFilter.Operator.EQUALS, "1-")
+        .isValid());
+  }
+
+  @Test
+  public void valuesAreBoundAndLikeWildcardsEscaped() {
+    StringBuilder where = new StringBuilder();
+    List<Object> args = new ArrayList<>();
+    new RowFilter("name", ElementDataType.string, RowFilter.Operator.CONTAINS, "50%_")
+        .appendWhereClause(where, args);
+    assertEquals("name LIKE ? ESCAPE '\\'", where.toString());
+    assertEquals(1, args.size());
+    assertEquals("%50\\%\\_%", args.get(0));
+
+    where.setLength(0);
+    args.clear();
+    new RowFilter("age", ElementDataType.integer, RowFilter.Operator.AT_MOST, "18")
+        .appendWhereClause(where, args);
+    assertEquals("age <= ?", where.toString());
+    assertEquals(18.0, args.get(0));
+  }
+}
@@ -0,0 +1,53 @@
+package org.opendatakit.tables.data;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks that sorting in memory matches what an ORDER BY would have given
+ */
+@SmallTest
+public class RowOrderingTest {
+
+  @Test
+  public void integersSortNumericallyWithNullsFirst() {
+    RowOrdering ordering = new RowOrdering(5);
+    ordering.addSortKey(ElementDataType.integer, new String[] { "10", "9", null, "-1", "100" },
+        false);
+    assertArrayEquals(new int[] { 2, 3, 1, 0, 4 }, ordering.sort());
+  }
+
+  @Test
+  public void descendingPutsNullsLast() {
+    RowOrdering ordering = new RowOrdering(4);
+    ordering.addSortKey(ElementDataType.number, new String[] { "1.5", null, "2.25", "-3" }, true);
+    assertArrayEquals(new int[] { 2, 0, 3, 1 }, ordering.sort());
+  }
+
+  @Test
+  public void nonNumericValuesFallBackToStrings() {
+    RowOrdering ordering = new RowOrdering(3);
+    ordering.addSortKey(ElementDataType.integer, new String[] { "b", "10", "9" }, false);
+    assertArrayEquals(new int[] { 1, 2, 0 }, ordering.sort());
+  }
+
+  @Test
+  public void laterKeysBreakTiesAndEqualRowsKeepTheirOrder() {
+    String[] first = new String[20];
+    String[] second = new String[20];
+    for (int i = 0; i < 20; ++i) {
+      first[i] = i % 2 == 0 ? "a" : "b";
+      second[i] = Integer.toString(i % 3);
+    }
+    RowOrdering ordering = new RowOrdering(20);
+    ordering.addSortKey(ElementDataType.string, first, false);
+    ordering.addSortKey(ElementDataType.integer, second, true);
+    assertArrayEquals(
+        new int[] { 2, 8, 14, 4, 10, 16, 0, 6, 12, 18, 5, 11, 17, 1, 7, 13, 19, 3, 9, 15 },
+        ordering.sort());
+  }
+}
@@ -0,0 +1,242 @@
+package org.opendatakit.tables.views;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.view.ContextMenu;
+import android.view.View;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.tables.data.PagedRowSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that once the text of the rows has been fitted, scrolling a laid out data table around
+ * and drawing it doesn't allocate anything, whether it draws its cells directly or copies them
+ * from its tiles
+ */
+@SmallTest
+public class CellRendererAllocationTest {
+
+  private static final String APP_NAME = "default";
+  private static final String TABLE_ID = "allocation_test";
+  private static final int FONT_SIZE = 16;
+  private static final int ROW_HEIGHT = FONT_SIZE + 14;
+  private static final int BLOCK_SIZE = 32;
+  private static final int NUM_ROWS = 200;
+  private static final int VISIBLE_ROWS = 20;
+  private static final int[] COLUMN_WIDTHS = { 40, 125, 125, 200, 80, 150, 90, 110 };
+  private static final int NUM_FRAMES = 60;
+  private static final int WARM_UP_PASSES = 3;
+  private static final long SETTLE_TIMEOUT_MS = 5000;
+
+  private final ScrollController controller = new ScrollController();
+  private PagedRowSource rowSource;
+  private TabularView view;
+  private Bitmap bitmap;
+  private Canvas canvas;
+  private int maxScrollX;
+  private int maxScrollY;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    controller.context = context;
+
+    List<Column> columns = new ArrayList<>();
+    String[] elementKeys = new String[COLUMN_WIDTHS.length];
+    String[][] displayText = new String[COLUMN_WIDTHS.length][NUM_ROWS];
+    for (int j = 0; j < COLUMN_WIDTHS.length; ++j) {
+      elementKeys[j] = "column_" + j;
+      columns.add(new Column(elementKeys[j], elementKeys[j], ElementDataType.string.name(), "[]"));
+      for (int i = 0; i < NUM_ROWS; ++i) {
+        displayText[j][i] = i % 7 == 0 ? null : "row " + i + " of column " + j + ", too long";
+      }
+    }
+    rowSource = PagedRowSource.fromDisplayText(APP_NAME, TABLE_ID,
+        new OrderedColumns(APP_NAME, TABLE_ID, columns), displayText, BLOCK_SIZE);
+    SpreadsheetModel model = SpreadsheetModel
+        .forRowSource(rowSource, elementKeys, COLUMN_WIDTHS, FONT_SIZE);
+    view = TabularView.getMainDataTable(context, controller, new SpreadsheetUserTable(model, null),
+        Arrays.asList(elementKeys), COLUMN_WIDTHS, FONT_SIZE);
+
+    int width = view.getTableWidth() / 2;
+    int height = (ROW_HEIGHT + 1) * VISIBLE_ROWS;
+    view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+    view.layout(0, 0, width, height);
+    maxScrollX = view.getTableWidth() - width;
+    maxScrollY = view.getTableHeight() - height;
+
+    bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    canvas = new Canvas(bitmap);
+  }
+
+  @After
+  public void tearDown() {
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override
+      public void run() {
+        view.stopTiles();
+      }
+    });
+    rowSource.close();
+    bitmap.recycle();
+  }
+
+  @Test
+  public void fitTextTruncatesWideText() {
+    CellRenderer renderer = new CellRenderer(FONT_SIZE, ROW_HEIGHT);
+    String wide = "this text is far too wide to fit into a forty pixel column";
+    String fitted = renderer.fitText(wide, false, 40);
+    assertNotEquals(wide, fitted);
+    assertTrue(fitted.endsWith("\u2026"));
+    assertEquals("ok", renderer.fitText("ok", false, 200));
+  }
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void scrollFramesDoNotAllocate() {
+    // a block's text is fitted to the columns the first time it's drawn, and the first frame
+    // can load classes and resolve methods, so draw every cell once before counting
+    for (int y = 0; y < maxScrollY + ROW_HEIGHT; y += ROW_HEIGHT * VISIBLE_ROWS / 2) {
+      drawFrame(0, y);
+      drawFrame(maxScrollX, y);
+    }
+
+    Debug.resetThreadAllocCount();
+    Debug.startAllocCounting();
+    for (int frame = 0; frame < NUM_FRAMES; ++frame) {
+      // down through the table and back, drifting sideways
+      int y = (frame * 2 * maxScrollY / NUM_FRAMES) % (2 * maxScrollY);
+      drawFrame(frame * maxScrollX / NUM_FRAMES, y > maxScrollY ? 2 * maxScrollY - y : y);
+    }
+    Debug.stopAllocCounting();
+
+    assertEquals(0, Debug.getThreadAllocCount());
+  }
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void scrollFramesFromTilesDoNotAllocate() {
+    final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    // a couple of screens, so that every tile scrolled over stays in the cache
+    final int maxY = Math.min(maxScrollY, 2 * VISIBLE_ROWS * ROW_HEIGHT);
+    instrumentation.runOnMainSync(new Runnable() {
+      @Override
+      public void run() {
+        view.startTiles();
+      }
+    });
+    // the tiles are drawn on the tile thread and put in place on the UI thread, so scroll over
+    // them and wait for them until they're all there
+    for (int pass = 0; pass < WARM_UP_PASSES; ++pass) {
+      instrumentation.runOnMainSync(new Runnable() {
+        @Override
+        public void run() {
+          drawFrames(maxY);
+        }
+      });
+      waitForTiles(instrumentation);
+    }
+
+    final long[] allocations = new long[1];
+    instrumentation.runOnMainSync(new Runnable() {
+      @Override
+      public void run() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        drawFrames(maxY);
+        Debug.stopAllocCounting();
+        allocations[0] = Debug.getThreadAllocCount();
+      }
+    });
+
+    assertEquals(0, allocations[0]);
+  }
+
+  /**
+   * Scrolls down to maxY and back, drifting sideways
+   */
+  private void drawFrames(int maxY) {
+    for (int frame = 0; frame < NUM_FRAMES; ++frame) {
+      int y = (frame * 2 * maxY / NUM_FRAMES) % (2 * maxY);
+      drawFrame(frame * maxScrollX / NUM_FRAMES, y > maxY ? 2 * maxY - y : y);
+    }
+  }
+
+  private void waitForTiles(Instrumentation instrumentation) {
+    final boolean[] settled = new boolean[1];
+    long deadline = SystemClock.uptimeMillis() + SETTLE_TIMEOUT_MS;
+    while (SystemClock.uptimeMillis() < deadline) {
+      instrumentation.waitForIdleSync();
+      instrumentation.runOnMainSync(new Runnable() {
+        @Override
+        public void run() {
+          settled[0] = view.areTilesSettled();
+        }
+      });
+      if (settled[0]) {
+        return;
+      }
+      SystemClock.sleep(10);
+    }
+    assertTrue("tiles were not drawn in time", settled[0]);
+  }
+
+  private void drawFrame(int scrollX, int scrollY) {
+    controller.scrollX = scrollX;
+    controller.scrollY = scrollY;
+    view.draw(canvas);
+  }
+
+  /**
+   * Stands in for the spreadsheet, which scrolls the data table
+   */
+  private static final class ScrollController implements TabularView.Controller {
+    private Context context;
+    private int scrollX = 0;
+    private int scrollY = 0;
+
+    @Override
+    public void onCreateDataContextMenu(ContextMenu menu) {
+    }
+
+    @Override
+    public void onCreateHeaderContextMenu(ContextMenu menu) {
+    }
+
+    @Override
+    public int getMainScrollX() {
+      return scrollX;
+    }
+
+    @Override
+    public int getMainScrollY() {
+      return scrollY;
+    }
+
+    @Override
+    public Context getContext() {
+      return context;
+    }
+  }
+}
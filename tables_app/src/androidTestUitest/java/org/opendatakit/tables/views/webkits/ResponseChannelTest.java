@@ -0,0 +1,165 @@
+package org.opendatakit.tables.views.webkits;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that responses come out of a channel in order, that a full channel writes more of them to
+ * files rather than holding up the thread offering them, and that big responses are saved to files
+ */
+@SmallTest
+public class ResponseChannelTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void responsesComeOutInTheOrderTheyWentIn() {
+    ResponseChannel channel = new ResponseChannel();
+    channel.offer("first", folder.getRoot());
+    channel.offer("second", folder.getRoot());
+    channel.offer("third", folder.getRoot());
+    assertEquals("first", channel.poll());
+    assertEquals("second", channel.poll());
+    assertEquals("third", channel.poll());
+    assertNull(channel.poll());
+    assertEquals(3, channel.getStats().getDelivered());
+    assertEquals(3, channel.getStats().getMaxDepth());
+  }
+
+  @Test
+  public void restoredResponsesGoInFront() throws IOException {
+    ResponseChannel channel = new ResponseChannel();
+    channel.offer("new", folder.getRoot());
+    channel.restore(new String[] { "old1", "old2" }, null, folder.getRoot());
+    assertArrayEquals(new String[] { "old1", "old2", "new" }, channel.peekAll());
+    assertEquals(ResponseChannel.sizeOf("old1old2new"), channel.getStats().getBytes());
+  }
+
+  @Test
+  public void bigResponsesAreSavedToFilesAndReadBackWhenTaken() throws IOException {
+    File dir = folder.getRoot();
+    ResponseChannel channel = new ResponseChannel();
+    channel.offer("small", dir);
+    channel.offer("big response", dir);
+    ResponseChannel.SavedResponses saved =
+        channel.save(dir, ResponseChannel.sizeOf("big response"));
+    assertEquals(0, saved.getFailures());
+    assertTrue(saved.hasSpillFiles());
+    assertArrayEquals(new String[] { "small", null }, saved.getResponses());
+    assertNull(saved.getSpillFiles()[0]);
+    File spillFile = new File(dir, saved.getSpillFiles()[1]);
+    assertTrue(spillFile.exists());
+
+    ResponseChannel restored = new ResponseChannel();
+    restored.restore(saved.getResponses(), saved.getSpillFiles(), dir);
+    assertEquals(ResponseChannel.sizeOf("small"), restored.getStats().getBytes());
+    assertEquals("small", restored.poll());
+    assertEquals("big response", restored.poll());
+    assertFalse(spillFile.exists());
+    assertNull(restored.poll());
+  }
+
+  @Test
+  public void aMissingFileIsAnsweredWithAnErrorForItsCallback() {
+    File dir = folder.getRoot();
+    ResponseChannel channel = new ResponseChannel(ResponseChannel.sizeOf("aaaa"));
+    channel.offer("aaaa", dir);
+    channel.offer("{\"data\":[\"callbackJSON\"],\"callbackJSON\" : \"cb \\\"7\\\"\"}", dir);
+    for (File file : dir.listFiles()) {
+      assertTrue(file.delete());
+    }
+    assertEquals("aaaa", channel.poll());
+    String error = channel.poll();
+    assertTrue(error.startsWith("{\"callbackJSON\":\"cb \\\"7\\\"\",\"error\":"));
+    assertNull(channel.poll());
+    assertEquals(1, channel.getStats().getLost());
+  }
+
+  @Test
+  public void aMissingFileWithoutACallbackIsSkipped() {
+    ResponseChannel channel = new ResponseChannel();
+    channel.restore(new String[] { null, "next" }, new String[] { "response-gone.json", null },
+        folder.getRoot());
+    assertEquals("next", channel.poll());
+    assertEquals(1, channel.getStats().getLost());
+  }
+
+  @Test
+  public void theErrorForASavedResponseIsSavedWithIt() {
+    File dir = folder.getRoot();
+    ResponseChannel channel = new ResponseChannel();
+    channel.offer("{\"callbackJSON\":12,\"data\":null}", dir);
+    ResponseChannel.SavedResponses saved = channel.save(dir, 0);
+    assertEquals(ResponseChannel.errorResponseFor("{\"callbackJSON\":12}"),
+        saved.getResponses()[0]);
+    assertTrue(saved.getResponses()[0].startsWith("{\"callbackJSON\":12,"));
+    assertNull(ResponseChannel.errorResponseFor("{\"data\":[\"callbackJSON\"]}"));
+  }
+
+  @Test
+  public void discardDeletesTheFiles() {
+    File dir = folder.getRoot();
+    ResponseChannel channel = new ResponseChannel();
+    channel.offer("big response", dir);
+    ResponseChannel.SavedResponses saved = channel.save(dir, 0);
+    File spillFile = new File(dir, saved.getSpillFiles()[0]);
+    assertTrue(spillFile.exists());
+    assertEquals(0, channel.getStats().getBytes());
+    channel.discard();
+    assertFalse(spillFile.exists());
+    assertNull(channel.poll());
+  }
+
+  @Test
+  public void aResponseBiggerThanTheLimitIsTakenWhenEmpty() {
+    ResponseChannel channel = new ResponseChannel(4);
+    channel.offer("far too big for the channel", folder.getRoot());
+    assertEquals(1, channel.getStats().getDepth());
+    assertEquals(0, channel.getStats().getSpills());
+    assertEquals(ResponseChannel.sizeOf("far too big for the channel"),
+        channel.getStats().getBytes());
+  }
+
+  @Test
+  public void aFullChannelWritesResponsesToFiles() {
+    File dir = folder.getRoot();
+    ResponseChannel channel = new ResponseChannel(ResponseChannel.sizeOf("aaaa"));
+    channel.offer("aaaa", dir);
+    channel.offer("bbbb", dir);
+    assertEquals(2, channel.getStats().getDepth());
+    assertEquals(ResponseChannel.sizeOf("aaaa"), channel.getStats().getBytes());
+    assertEquals(1, channel.getStats().getSpills());
+    assertEquals(1, dir.listFiles().length);
+
+    assertEquals("aaaa", channel.poll());
+    assertEquals("bbbb", channel.poll());
+    assertEquals(0, dir.listFiles().length);
+    assertEquals(0, channel.getStats().getOverflows());
+  }
+
+  @Test
+  public void aResponseThatCantBeWrittenIsHeldInMemory() throws IOException {
+    File notADirectory = folder.newFile("not-a-directory");
+    ResponseChannel channel = new ResponseChannel(ResponseChannel.sizeOf("aaaa"));
+    channel.offer("aaaa", notADirectory);
+    channel.offer("bbbb", notADirectory);
+    assertEquals(2, channel.getStats().getDepth());
+    assertEquals(0, channel.getStats().getSpills());
+    assertEquals(1, channel.getStats().getOverflows());
+    assertEquals("aaaa", channel.poll());
+    assertEquals("bbbb", channel.poll());
+  }
+}
@@ -69,6 +69,11 @@ public abstract class AbsBaseActivity extends BaseActivity {
    * row
    */
   private String mActionTableId = null;
+  /**
+   * The id of the row that survey was started to add or edit, so that just that row can be
+   * reloaded when it returns
+   */
+  private String mActionRowId = null;
 
   private Bundle mCheckpointTables = new Bundle();
   private Bundle mConflictTables = new Bundle();
@@ -84,6 +89,7 @@ public abstract class AbsBaseActivity extends BaseActivity {
           mActionTableId = null;
         }
       }
+      mActionRowId = savedInstanceState.getString(Constants.IntentKeys.ACTION_ROW_ID);
 
       if (savedInstanceState.containsKey(Constants.IntentKeys.CHECKPOINT_TABLES)) {
         mCheckpointTables = savedInstanceState.getBundle(Constants.IntentKeys.CHECKPOINT_TABLES);
@@ -107,6 +113,9 @@ public abstract class AbsBaseActivity extends BaseActivity {
     if (mActionTableId != null && !mActionTableId.isEmpty()) {
       outState.putString(Constants.IntentKeys.ACTION_TABLE_ID, mActionTableId);
     }
+    if (mActionRowId != null) {
+      outState.putString(Constants.IntentKeys.ACTION_ROW_ID, mActionRowId);
+    }
     if (mCheckpointTables != null && !mCheckpointTables.isEmpty()) {
       outState.putBundle(Constants.IntentKeys.CHECKPOINT_TABLES, mCheckpointTables);
     }
@@ -135,6 +144,14 @@ public abstract class AbsBaseActivity extends BaseActivity {
     mActionTableId = tableId;
   }
 
+  public String getActionRowId() {
+    return mActionRowId;
+  }
+
+  public void setActionRowId(String rowId) {
+    mActionRowId = rowId;
+  }
+
   /**
    * Checks all tables for checkpoints and conflicts, adding them to mConflictTables and
    * mCheckpointTables
@@ -15,6 +15,7 @@ import org.opendatakit.properties.DynamicPropertiesCallback;
 import org.opendatakit.properties.PropertyManager;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.views.webkits.ResponseChannel;
 import org.opendatakit.tables.views.webkits.TableDataExecutorProcessor;
 import org.opendatakit.utilities.ODKFileUtils;
 import org.opendatakit.views.ExecutorContext;
@@ -23,6 +24,7 @@ import org.opendatakit.views.ODKWebView;
 import org.opendatakit.webkitserver.utilities.DoActionUtils;
 import org.opendatakit.webkitserver.utilities.UrlUtils;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.LinkedList;
 
@@ -50,13 +52,22 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
   private static final String QUEUED_ACTIONS = "queuedActions";
   private static final String RESPONSE_JSON_MAIN = "responseJSON_main";
   private static final String RESPONSE_JSON_SUBLIST = "responseJSON_sublist";
+  private static final String RESPONSE_SPILL_MAIN = "responseSpill_main";
+  private static final String RESPONSE_SPILL_SUBLIST = "responseSpill_sublist";
+
+  // where big queued responses are written when saving state, under the app's private files
+  private static final String RESPONSE_SPILL_DIR = "web_responses";
+  // written responses no activity came back for are deleted after a week
+  private static final long RESPONSE_SPILL_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
 
   /**
    * With the advent of the split screen detail-with-sublist view, we need to
    * guard access to the data and result queues and session variable data structures.
    *
-   * The queued data response lists need to be separated into response streams for each webkit
-   * that is active. We currently can have either one or two (detail-with-sublist) active.
+   * The queued data responses are separated into a response channel for each webkit that is
+   * active. We currently can have either one or two (detail-with-sublist) active. The channels
+   * hand the responses over in the order they came in and have their own locks, see
+   * {@link ResponseChannel}.
    *
    * The dispatchString, action, and queuedActions (action results) are guarded only
    * to ensure that they are updated concurrently and consistently. Results are expected
@@ -67,8 +78,8 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
    * will be the same thread or different).  Session variables are shared across the webkits.
    */
   private final Object guardCachedContent = new Object();
-  private LinkedList<String> guardedQueueResponseJSON_main = new LinkedList<>();
-  private LinkedList<String> guardedQueueResponseJSON_sublist = new LinkedList<>();
+  private final ResponseChannel responseChannelMain = new ResponseChannel();
+  private final ResponseChannel responseChannelSublist = new ResponseChannel();
   private String guardedDispatchStringWaitingForData = null;
   private String guardedActionWaitingForData = null;
   private LinkedList<String> guardedQueuedActions = new LinkedList<>();
@@ -95,7 +106,8 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
 
   /**
    * We need to save whether we were waiting for data (a json string), our session variables, our
-   * queued actions and the queue response.
+   * queued actions and the queue response. Big queued responses are written to files and only
+   * their names saved, so they can't take the saved state over the size the system allows.
    *
    * @param outState the state to be saved
    */
@@ -119,18 +131,33 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
         outState.putStringArray(QUEUED_ACTIONS, actionOutcomesArray);
       }
 
-      if (!guardedQueueResponseJSON_main.isEmpty()) {
-        String[] qra = guardedQueueResponseJSON_main.toArray(new String[guardedQueueResponseJSON_main.size()]);
-        outState.putStringArray(RESPONSE_JSON_MAIN, qra);
-      }
+    }
 
-      if (!guardedQueueResponseJSON_sublist.isEmpty()) {
-        String[] qra = guardedQueueResponseJSON_sublist.toArray(new String[guardedQueueResponseJSON_sublist.size()]);
-        outState.putStringArray(RESPONSE_JSON_SUBLIST, qra);
+    saveResponses(outState, responseChannelMain, RESPONSE_JSON_MAIN, RESPONSE_SPILL_MAIN);
+    saveResponses(outState, responseChannelSublist, RESPONSE_JSON_SUBLIST,
+        RESPONSE_SPILL_SUBLIST);
+  }
+
+  private void saveResponses(Bundle outState, ResponseChannel channel, String key,
+      String spillKey) {
+    ResponseChannel.SavedResponses saved = channel
+        .save(getResponseSpillDir(), ResponseChannel.DEFAULT_MIN_SPILL_BYTES);
+    if (saved.getFailures() != 0) {
+      WebLogger.getLogger(getAppName()).w(TAG, "Unable to write " + saved.getFailures()
+          + " queued responses to files -- saving them with the state instead");
+    }
+    if (saved.getResponses().length != 0) {
+      outState.putStringArray(key, saved.getResponses());
+      if (saved.hasSpillFiles()) {
+        outState.putStringArray(spillKey, saved.getSpillFiles());
       }
     }
   }
 
+  private File getResponseSpillDir() {
+    return new File(getFilesDir(), RESPONSE_SPILL_DIR);
+  }
+
   /**
    * Pulls out the things we saved earlier, including whether we were waiting for data, our
    * session variables, our queued actions and the queued response
@@ -166,26 +193,40 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
             guardedQueuedActions.addAll(Arrays.asList(actionOutcomesArray));
           }
         }
+      }
+    }
 
-        if (savedInstanceState.containsKey(RESPONSE_JSON_MAIN)) {
-          String[] pendingResponseJSON = savedInstanceState.getStringArray(RESPONSE_JSON_MAIN);
-          guardedQueueResponseJSON_main.clear();
-          if (pendingResponseJSON != null) {
-            guardedQueueResponseJSON_main.addAll(Arrays.asList(pendingResponseJSON));
-          }
-        }
+    if (savedInstanceState != null) {
+      // responses that were written to files are read back in as they're taken
+      String[] pendingResponseJSON = savedInstanceState.getStringArray(RESPONSE_JSON_MAIN);
+      if (pendingResponseJSON != null) {
+        responseChannelMain.restore(pendingResponseJSON,
+            savedInstanceState.getStringArray(RESPONSE_SPILL_MAIN), getResponseSpillDir());
+      }
 
-        if (savedInstanceState.containsKey(RESPONSE_JSON_SUBLIST)) {
-          String[] pendingResponseJSON = savedInstanceState.getStringArray(RESPONSE_JSON_SUBLIST);
-          guardedQueueResponseJSON_sublist.clear();
-          if (pendingResponseJSON != null) {
-            guardedQueueResponseJSON_sublist.addAll(Arrays.asList(pendingResponseJSON));
-          }
-        }
+      pendingResponseJSON = savedInstanceState.getStringArray(RESPONSE_JSON_SUBLIST);
+      if (pendingResponseJSON != null) {
+        responseChannelSublist.restore(pendingResponseJSON,
+            savedInstanceState.getStringArray(RESPONSE_SPILL_SUBLIST), getResponseSpillDir());
       }
+    } else {
+      ResponseChannel.deleteStaleSpillFiles(getResponseSpillDir(), RESPONSE_SPILL_MAX_AGE_MS);
     }
   }
 
+  /**
+   * If the activity isn't coming back, drops the responses still waiting and deletes the files of
+   * any big ones that were written out
+   */
+  @Override
+  protected void onDestroy() {
+    if (isFinishing()) {
+      responseChannelMain.discard();
+      responseChannelSublist.discard();
+    }
+    super.onDestroy();
+  }
+
   /**
    * Tries to pull the active user from the database
    *
@@ -367,13 +408,9 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
     }
 
     if (responseJSON != null) {
-      synchronized (guardCachedContent) {
-        if (fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID)) {
-          this.guardedQueueResponseJSON_sublist.push(responseJSON);
-        } else {
-          this.guardedQueueResponseJSON_main.push(responseJSON);
-        }
-      }
+      // if the page is behind on its responses, this is written to a file rather than waiting
+      // for it to catch up, which would hold up the database thread every web view shares
+      getResponseChannel(fragmentID).offer(responseJSON, getResponseSpillDir());
       final ODKWebView webView = getWebKitView(fragmentID);
       if (webView != null) {
         runOnUiThread(new Runnable() {
@@ -388,19 +425,36 @@ public abstract class AbsBaseWebActivity extends AbsTableActivity implements IOd
 
   @Override
   public String getResponseJSON(String fragmentID) {
-    synchronized (guardCachedContent) {
-      if (fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID)) {
-        if (guardedQueueResponseJSON_sublist.isEmpty()) {
-          return null;
-        }
-        return guardedQueueResponseJSON_sublist.removeFirst();
-      } else {
-        if (guardedQueueResponseJSON_main.isEmpty()) {
-          return null;
-        }
-        return guardedQueueResponseJSON_main.removeFirst();
-      }
+    return getResponseChannel(fragmentID).poll();
+  }
+
+  /**
+   * @param fragmentID the id of the webkit in the view hierarchy, or null for the main one
+   * @return how many responses are waiting for the webkit and how long they've been waiting
+   */
+  public ResponseChannel.Stats getResponseChannelStats(String fragmentID) {
+    return getResponseChannel(fragmentID).getStats();
+  }
+
+  /**
+   * Drops the responses waiting for a webkit, for when it has been given a new query and they
+   * were for the old one
+   *
+   * @param fragmentID the id of the webkit in the view hierarchy, or null for the main one
+   */
+  protected void cancelPendingResponses(String fragmentID) {
+    int dropped = getResponseChannel(fragmentID).discard();
+    if (dropped != 0) {
+      WebLogger.getLogger(getAppName())
+          .i(TAG, "cancelPendingResponses -- dropped " + dropped + " responses for " + fragmentID);
+    }
+  }
+
+  private ResponseChannel getResponseChannel(String fragmentID) {
+    if (fragmentID != null && Constants.FragmentTags.DETAIL_WITH_LIST_LIST.equals(fragmentID)) {
+      return responseChannelSublist;
     }
+    return responseChannelMain;
   }
 
   @Override
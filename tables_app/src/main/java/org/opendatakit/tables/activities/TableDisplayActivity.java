@@ -32,10 +32,10 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.webkit.ValueCallback;
 import android.widget.Toast;
 import org.opendatakit.consts.IntentConsts;
 import org.opendatakit.consts.RequestCodeConsts;
-import org.opendatakit.data.utilities.TableUtil;
 import org.opendatakit.database.data.UserTable;
 import org.opendatakit.database.queries.ArbitraryQuery;
 import org.opendatakit.database.queries.BindArgs;
@@ -47,8 +47,14 @@ import org.opendatakit.database.utilities.QueryUtil;
 import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.listener.DatabaseConnectionListener;
 import org.opendatakit.logging.WebLogger;
+import org.opendatakit.properties.CommonToolProperties;
 import org.opendatakit.tables.R;
+import org.opendatakit.tables.data.PagedRowSource;
 import org.opendatakit.tables.data.PossibleTableViewTypes;
+import org.opendatakit.tables.data.QueryResultCache;
+import org.opendatakit.tables.data.RowFilter;
+import org.opendatakit.tables.data.TableChangeNotifier;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 import org.opendatakit.tables.data.ViewFragmentType;
 import org.opendatakit.tables.fragments.DetailViewFragment;
 import org.opendatakit.tables.fragments.DetailWithListDetailViewFragment;
@@ -71,6 +77,8 @@ import org.opendatakit.views.OdkData;
 import org.opendatakit.webkitserver.utilities.UrlUtils;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -124,6 +132,16 @@ public class TableDisplayActivity extends AbsBaseWebActivity
    * Request code for requesting location permission
    */
   private static final int LOCATION_PERM_REQ_CODE = 0;
+  /**
+   * Fires the sub list update event on the page in the sub list web view. Evaluates to true if
+   * nothing on the page handled the event, so that the page has to be reloaded. Uses initEvent
+   * since older web views have no CustomEvent.
+   */
+  private static final String SUB_LIST_UPDATE_SCRIPT = "(function() {"
+      + "var e = document.createEvent('Event');"
+      + "e.initEvent('" + Constants.JavaScriptHandles.SUB_LIST_UPDATE_EVENT + "', false, true);"
+      + "return window.dispatchEvent(e);"
+      + "})();";
   /**
    * Keep references to all queries used to populate all fragments. Use the array index as the
    * viewID.
@@ -154,6 +172,30 @@ public class TableDisplayActivity extends AbsBaseWebActivity
    * The {@link UserTable} that is being displayed in this activity.
    */
   private UserTable mUserTable = null;
+  /**
+   * Pages the rows of the same query as {@link #mUserTable} in blocks, for the spreadsheet
+   */
+  private PagedRowSource mRowSource = null;
+  /**
+   * A row survey added or edited, to be patched into mRowSource before it's next used, and
+   * whether it was added. Guarded by this.
+   */
+  private String mRowToPatch = null;
+  private boolean mRowToPatchAdded = false;
+  /**
+   * Whether mRowSource is out of date because the table changed underneath it. Guarded by this.
+   */
+  private boolean mRowSourceStale = false;
+  /**
+   * The filter the query of mRowSource was run with, or null if it was run without one. Guarded
+   * by this.
+   */
+  private RowFilter mRowSourceFilter = null;
+  /**
+   * The version of the table, see {@link TableChangeNotifier#getVersion(String, String)}, that
+   * mRowSource is known to be up to date with, or -1 if it isn't known. Guarded by this.
+   */
+  private long mRowSourceVersion = -1;
   private boolean pullFromDatabase;
   private String mDefaultRowId;
 
@@ -423,17 +465,27 @@ public class TableDisplayActivity extends AbsBaseWebActivity
   public void databaseAvailable() {
     WebLogger.getLogger(getAppName()).i(TAG, "databaseAvailable called");
     if (pullFromDatabase) {
+      UserDbInterface dbInt = getDatabase();
+      DbHandle db = null;
       try {
-        UserDbInterface dbInt = getDatabase();
-        DbHandle db = dbInt.openDatabase(mAppName);
-        props.setSortOrder(TableUtil.get().getSortOrder(dbInt, mAppName, db, getTableId()));
-        props.setSort(TableUtil.get().getSortColumn(dbInt, mAppName, db, getTableId()));
-        List<String> temp = TableUtil.get().getGroupByColumns(dbInt, mAppName, db, getTableId());
+        db = dbInt.openDatabase(mAppName);
+        TableMetadataSnapshot metadata = getTableMetadata(dbInt, db);
+        props.setSortOrder(metadata.getSortOrder());
+        props.setSort(metadata.getSortColumn());
+        List<String> temp = metadata.getGroupByColumns();
         props.setGroupBy(temp.toArray(new String[temp.size()]));
         pullFromDatabase = false;
       } catch (ServicesAvailabilityException e) {
         Toast.makeText(this, R.string.database_unavailable, Toast.LENGTH_LONG).show();
         WebLogger.getLogger(getAppName()).printStackTrace(e);
+      } finally {
+        if (db != null) {
+          try {
+            dbInt.closeDatabase(mAppName, db);
+          } catch (ServicesAvailabilityException e) {
+            WebLogger.getLogger(getAppName()).printStackTrace(e);
+          }
+        }
       }
     }
     showCurrentDisplayFragment(true);
@@ -466,11 +518,48 @@ public class TableDisplayActivity extends AbsBaseWebActivity
   }
 
   /**
-   * Get the {@link UserTable} that is being held by this activity. AND CHANGES mUserTable! to
-   * be that table
+   * Builds the query used to populate the table being displayed, from the intent and the current
+   * props.
    * If we're in a collection, put an empty group by in the query so we don't only get one result.
    * Getting only the rows in this collection is handled by the where clause passed in to the
-   * intent by SpreadsheetFragment's openCollectionView
+   * intent by SpreadsheetFragment's openCollectionView. The filter from the spreadsheet's filter
+   * bar, if any, is added to the where clause.
+   *
+   * @return the where/group by/having/order by of the displayed rows
+   */
+  private SQLQueryStruct getDisplayQuery() {
+    SQLQueryStruct sqlQueryStruct = IntentUtil
+        .getSQLQueryStructFromBundle(this.getIntent().getExtras());
+
+    if (getIntentExtras().containsKey("inCollection")) {
+      sqlQueryStruct.groupBy = null;
+    } else {
+      sqlQueryStruct.groupBy = props.getGroupBy();
+    }
+
+    sqlQueryStruct.orderByElementKey = props.getSort();
+    sqlQueryStruct.orderByDirection = props.getSortOrder();
+
+    RowFilter filter = props.getFilter();
+    if (filter != null && filter.isValid()) {
+      StringBuilder where = new StringBuilder();
+      if (sqlQueryStruct.whereClause != null && !sqlQueryStruct.whereClause.isEmpty()) {
+        where.append("(").append(sqlQueryStruct.whereClause).append(") AND ");
+      }
+      List<Object> args = new ArrayList<>();
+      if (sqlQueryStruct.selectionArgs != null && sqlQueryStruct.selectionArgs.bindArgs != null) {
+        args.addAll(Arrays.asList(sqlQueryStruct.selectionArgs.bindArgs));
+      }
+      filter.appendWhereClause(where, args);
+      sqlQueryStruct.whereClause = where.toString();
+      sqlQueryStruct.selectionArgs = new BindArgs(args.toArray(new Object[args.size()]));
+    }
+    return sqlQueryStruct;
+  }
+
+  /**
+   * Get the {@link UserTable} that is being held by this activity. AND CHANGES mUserTable! to
+   * be that table
    *
    * @return the UserTable pulled from tables
    */
@@ -480,20 +569,12 @@ public class TableDisplayActivity extends AbsBaseWebActivity
       DbHandle db = null;
       try {
         db = getDatabase().openDatabase(getAppName());
-        SQLQueryStruct sqlQueryStruct = IntentUtil
-            .getSQLQueryStructFromBundle(this.getIntent().getExtras());
-
-        if (getIntentExtras().containsKey("inCollection")) {
-          sqlQueryStruct.groupBy = null;
-        } else {
-          sqlQueryStruct.groupBy = props.getGroupBy();
-        }
-
-        sqlQueryStruct.orderByElementKey = props.getSort();
-        sqlQueryStruct.orderByDirection = props.getSortOrder();
+        SQLQueryStruct sqlQueryStruct = getDisplayQuery();
 
-        mUserTable = getDatabase()
-            .simpleQuery(this.getAppName(), db, this.getTableId(), getColumnDefinitions(),
+        // the other views of the table usually ran the same query already
+        mUserTable = QueryResultCache.get()
+            .simpleQuery(getDatabase(), this.getAppName(), db, this.getTableId(),
+                getColumnDefinitions(),
                 sqlQueryStruct.whereClause, sqlQueryStruct.selectionArgs,
                 sqlQueryStruct.groupBy == null ? emptyArray : sqlQueryStruct.groupBy,
                 sqlQueryStruct.having,
@@ -516,6 +597,158 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     return mUserTable;
   }
 
+  /**
+   * Get the {@link PagedRowSource} over the rows being displayed, creating it if needed. Unlike
+   * {@link #getUserTable()}, this only counts the rows and loads the first block up front, the
+   * rest are loaded in the background as they are scrolled to.
+   * <p>
+   * If the rows are grouped and every row of the table fits in memory, the grouping is done in
+   * memory instead of by the query, so that the spreadsheet can expand a group in place. Too many
+   * rows, or a having clause, and the query does the grouping as before.
+   * <p>
+   * Opening the source queries the database, so the spreadsheet calls this from a background
+   * thread, hence the synchronization. A row that survey added or edited is patched in here if
+   * the spreadsheet loads its rows before it gets to patch them itself, see
+   * {@link #patchPagedRowSource(PagedRowSource)}.
+   *
+   * @return the row source, or null if the database is unavailable
+   */
+  public synchronized PagedRowSource getPagedRowSource() {
+    PagedRowSource stale = null;
+    if (mRowSourceStale) {
+      // keep serving the rows on screen until the new source is open
+      stale = mRowSource;
+      mRowSource = null;
+      mRowSourceStale = false;
+    }
+    patchWaitingRow();
+    if (mRowSource == null) {
+      long version = getTableVersion();
+      SQLQueryStruct query = getDisplayQuery();
+      RowFilter filter = props.getFilter();
+      PagedRowSource source = null;
+      try {
+        if (query.groupBy != null && query.groupBy.length != 0 && (query.having == null
+            || query.having.isEmpty())) {
+          source = openGroupedInMemory(query);
+        }
+        if (source == null) {
+          source = new PagedRowSource(getAppName(), getTableId(), getColumnDefinitions(), query);
+          source.open();
+        }
+        mRowSource = source;
+        mRowSourceFilter = filter != null && filter.isValid() ? filter : null;
+        mRowSourceVersion = version;
+      } catch (ServicesAvailabilityException e) {
+        if (source != null) {
+          source.close();
+        }
+        WebLogger.getLogger(getAppName()).printStackTrace(e);
+      }
+    }
+    if (stale != null) {
+      stale.close();
+    }
+    return mRowSource;
+  }
+
+  /**
+   * Patches the row survey added or edited into the row source, if there is one waiting, or
+   * drops the source if it can't be. Queries the database, and must be called while synchronized.
+   */
+  private void patchWaitingRow() {
+    if (mRowSource != null && mRowToPatch != null) {
+      try {
+        if (mRowSource.patchRow(mRowToPatch, mRowToPatchAdded)) {
+          // survey's write is in the rows now, so its notification can be skipped
+          mRowSourceVersion = getTableVersion();
+        } else {
+          closePagedRowSource();
+        }
+      } catch (ServicesAvailabilityException e) {
+        WebLogger.getLogger(getAppName()).printStackTrace(e);
+        closePagedRowSource();
+      }
+    }
+    mRowToPatch = null;
+  }
+
+  /**
+   * Patches the row survey added or edited into the row source the spreadsheet is showing, see
+   * {@link PagedRowSource#patchRow(String, boolean)}. Queries the database, so the spreadsheet
+   * calls this from a background thread.
+   *
+   * @param rowSource the row source the spreadsheet is showing
+   * @return true if it's up to date, false if it isn't the current source any more or it has to
+   * be opened again
+   */
+  public synchronized boolean patchPagedRowSource(PagedRowSource rowSource) {
+    if (rowSource == null || rowSource != mRowSource || mRowSourceStale) {
+      return false;
+    }
+    patchWaitingRow();
+    if (mRowSource != rowSource) {
+      return false;
+    }
+    mUserTable = null;
+    return true;
+  }
+
+  /**
+   * @return the filter the current row source's query was run with, null if it wasn't run with
+   * one. A row source without one can filter its rows in memory instead.
+   */
+  public synchronized RowFilter getRowSourceQueryFilter() {
+    return mRowSource == null ? null : mRowSourceFilter;
+  }
+
+  /**
+   * Opens a row source over every row of a grouped query, and groups the rows in memory
+   *
+   * @param query the grouped query
+   * @return the row source, or null if the rows don't all fit in memory
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  private PagedRowSource openGroupedInMemory(SQLQueryStruct query)
+      throws ServicesAvailabilityException {
+    SQLQueryStruct ungrouped = new SQLQueryStruct(query.whereClause, query.selectionArgs, null,
+        null, query.orderByElementKey, query.orderByDirection);
+    PagedRowSource source = new PagedRowSource(getAppName(), getTableId(),
+        getColumnDefinitions(), ungrouped);
+    boolean grouped = false;
+    try {
+      // a wide table only comes with the columns it's sorted by unless told otherwise
+      source.pinColumns(Arrays.asList(query.groupBy));
+      source.open();
+      grouped = source.loadAllIfFits() && source
+          .reorder(query.groupBy, QueryUtil.convertStringToArray(query.orderByElementKey),
+              QueryUtil.convertStringToArray(query.orderByDirection));
+    } finally {
+      if (!grouped) {
+        source.close();
+      }
+    }
+    return grouped ? source : null;
+  }
+
+  /**
+   * Stops the background loading of the current row source, if any, and drops it
+   */
+  private synchronized void closePagedRowSource() {
+    if (mRowSource != null) {
+      mRowSource.close();
+      mRowSource = null;
+    }
+    mRowSourceVersion = -1;
+  }
+
+  /**
+   * @return the version of the table the change notifier is at, -1 if it isn't following it
+   */
+  private long getTableVersion() {
+    return TableChangeNotifier.get().getVersion(getAppName(), getTableId());
+  }
+
   /**
    * If we're on a list view, pull the filename that the list view is using, otherwise return the
    * filename if possible, or null if neither of those are set
@@ -593,6 +826,7 @@ public class TableDisplayActivity extends AbsBaseWebActivity
   protected void onDestroy() {
     super.onDestroy();
     this.destroyed = true;
+    closePagedRowSource();
     WebLogger.getLogger(getAppName()).d(TAG, "[onDestroy]");
   }
   private boolean destroyed = false;
@@ -692,6 +926,13 @@ public class TableDisplayActivity extends AbsBaseWebActivity
           mPossibleTableViewTypes != null && mPossibleTableViewTypes.mapViewIsPossible());
       navigateItem.setEnabled(
           mPossibleTableViewTypes != null && mPossibleTableViewTypes.navigateViewIsPossible());
+      menu.findItem(R.id.top_level_table_menu_find)
+          .setVisible(mCurrentFragmentType == ViewFragmentType.SPREADSHEET);
+      menu.findItem(R.id.top_level_table_menu_go_to_row)
+          .setVisible(mCurrentFragmentType == ViewFragmentType.SPREADSHEET);
+      menu.findItem(R.id.top_level_table_menu_column_totals)
+          .setVisible(mCurrentFragmentType == ViewFragmentType.SPREADSHEET)
+          .setChecked(getProps().columnTotalsShown);
       // Set the checkbox highlight to the view type being displayed.
       switch (mCurrentFragmentType) {
       case SPREADSHEET:
@@ -763,6 +1004,22 @@ public class TableDisplayActivity extends AbsBaseWebActivity
         Toast.makeText(this, "Unable to access database", Toast.LENGTH_LONG).show();
       }
       return true;
+    case R.id.top_level_table_menu_find:
+    case R.id.top_level_table_menu_go_to_row:
+    case R.id.top_level_table_menu_column_totals:
+      Fragment spreadsheetFragment = getSupportFragmentManager()
+          .findFragmentByTag(ViewFragmentType.SPREADSHEET.name());
+      if (spreadsheetFragment instanceof SpreadsheetFragment) {
+        if (item.getItemId() == R.id.top_level_table_menu_find) {
+          ((SpreadsheetFragment) spreadsheetFragment).showFindBar();
+        } else if (item.getItemId() == R.id.top_level_table_menu_go_to_row) {
+          ((SpreadsheetFragment) spreadsheetFragment).openGoToRowDialog();
+        } else {
+          ((SpreadsheetFragment) spreadsheetFragment).toggleColumnTotals();
+          item.setChecked(getProps().columnTotalsShown);
+        }
+      }
+      return true;
     case R.id.top_level_table_menu_table_properties:
       ActivityUtil.launchTableLevelPreferencesActivity(this, this.getAppName(), this.getTableId(),
           TableLevelPreferencesActivity.FragmentType.TABLE_PREFERENCE);
@@ -813,7 +1070,8 @@ public class TableDisplayActivity extends AbsBaseWebActivity
 
   /**
    * Called when an activity returns to this activity.
-   * If it was an add row or edit row action, just log a message
+   * If it was an add row or edit row action on the spreadsheet, only that row is queried again,
+   * otherwise the data is refreshed.
    * If it was from launching a collection view or a join table view, update properties as they
    * may have been changed in the subactivity.
    *
@@ -832,10 +1090,32 @@ public class TableDisplayActivity extends AbsBaseWebActivity
         props = data.getParcelableExtra("props");
         props.setActivity(this);
       }
-      // This fallthrough is on purpose, we need to refresh because props (may have) changed
+      try {
+        // always refresh, as props may have changed
+        refreshDataAndDisplayFragment();
+      } catch (IllegalStateException e) {
+        WebLogger.getLogger(getAppName()).printStackTrace(e);
+      }
+      break;
     case RequestCodeConsts.RequestCodes.ADD_ROW_SURVEY:
     case RequestCodeConsts.RequestCodes.EDIT_ROW_SURVEY:
+      String rowId = getActionRowId();
+      setActionRowId(null);
+      // survey wrote to the table, and its report of that may not be in yet
+      TableChangeNotifier.get().tableWritten(getAppName(), getTableId());
       try {
+        if (rowId != null && mCurrentFragmentType == ViewFragmentType.SPREADSHEET
+            && patchRowOnNextLoad(rowId,
+            requestCode == RequestCodeConsts.RequestCodes.ADD_ROW_SURVEY)) {
+          // the spreadsheet patches the row into the rows on screen, or when it next loads them
+          mUserTable = null;
+          Fragment spreadsheet = getSupportFragmentManager()
+              .findFragmentByTag(ViewFragmentType.SPREADSHEET.name());
+          if (spreadsheet instanceof SpreadsheetFragment) {
+            ((SpreadsheetFragment) spreadsheet).patchRowInPlace();
+          }
+          break;
+        }
         // verify that the data table doesn't contain checkpoints...
         // always refresh, as table properties may have done something
         refreshDataAndDisplayFragment();
@@ -848,6 +1128,84 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     }
   }
 
+  /**
+   * Asks for a row to be patched into the row source, by the spreadsheet in the background or
+   * the next time it gets the source, instead of the source being dropped
+   *
+   * @param rowId the id of the row survey added or edited
+   * @param added whether it was added
+   * @return false if there is no row source to patch
+   */
+  private synchronized boolean patchRowOnNextLoad(String rowId, boolean added) {
+    if (mRowSource == null) {
+      return false;
+    }
+    if (mRowToPatch != null && !mRowToPatch.equals(rowId)) {
+      // two rows waiting is more than patching is for
+      closePagedRowSource();
+      mRowToPatch = null;
+      return false;
+    }
+    mRowToPatch = rowId;
+    mRowToPatchAdded = added;
+    return true;
+  }
+
+  /**
+   * Marks the rows as out of date, because something else changed the table. The next call to
+   * {@link #getPagedRowSource()} opens a new row source, and the cached {@link UserTable} is
+   * queried again the next time it's asked for.
+   */
+  public synchronized void invalidatePagedRowSource() {
+    mUserTable = null;
+    if (mRowSource != null) {
+      mRowSourceStale = true;
+    }
+  }
+
+  /**
+   * @return whether the table has changed since the row source was opened or last brought up to
+   * date. A change the spreadsheet has already patched in, like a row survey edited, doesn't
+   * count.
+   */
+  public synchronized boolean isPagedRowSourceBehind() {
+    return mRowSource == null || mRowSourceStale || mRowSourceVersion == -1
+        || mRowSourceVersion != getTableVersion();
+  }
+
+  /**
+   * Brings the row source up to date in place after something else changed the table, see
+   * {@link PagedRowSource#refresh()}. Queries the database, so the spreadsheet calls this from a
+   * background thread.
+   *
+   * @param rowSource the row source the spreadsheet is showing
+   * @return true if it's up to date, false if it isn't the current source any more or it has to
+   * be opened again
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public synchronized boolean refreshPagedRowSource(PagedRowSource rowSource)
+      throws ServicesAvailabilityException {
+    if (rowSource == null || rowSource != mRowSource || mRowSourceStale || mRowToPatch != null) {
+      return false;
+    }
+    long version = getTableVersion();
+    if (!rowSource.refresh()) {
+      return false;
+    }
+    mRowSourceVersion = version;
+    mUserTable = null;
+    return true;
+  }
+
+  /**
+   * Drops the cached {@link UserTable} so that it's queried again, with the current props, the
+   * next time it's asked for. Used when the spreadsheet has re-sorted or re-grouped its rows in
+   * memory, leaving the row source and the fragment as they are.
+   */
+  public void invalidateUserTable() {
+    mUserTable = null;
+  }
+
   /**
    * Destroys the data in the current table, destroys the current fragment and recreates it
    */
@@ -855,6 +1213,7 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     WebLogger.getLogger(getAppName()).d(TAG, "refreshDataAndDisplayFragment called");
     // drop cached table, if any...
     mUserTable = null;
+    closePagedRowSource();
     // drop default filenames...
     mPossibleTableViewTypes = null;
     showCurrentDisplayFragment(true);
@@ -880,6 +1239,22 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     showCurrentDisplayFragment(false);
   }
 
+  /**
+   * Gets the cached key value store settings of the table, reloading them if they've changed
+   *
+   * @param dbInterface the database interface to use
+   * @param db          an open database handle
+   * @return the settings of the table
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  private TableMetadataSnapshot getTableMetadata(UserDbInterface dbInterface, DbHandle db)
+      throws ServicesAvailabilityException {
+    String userSelectedDefaultLocale = CommonToolProperties.get(this, getAppName())
+        .getUserSelectedDefaultLocale();
+    return TableMetadataSnapshot.get(dbInterface, getAppName(), db, getTableId(),
+        getColumnDefinitions(), userSelectedDefaultLocale);
+  }
+
   /**
    * Used in showCurrentDisplayFragment, tries to pull the possible table view types from the
    * database and set up the default filename and sub-filename if possible
@@ -891,8 +1266,8 @@ public class TableDisplayActivity extends AbsBaseWebActivity
       DbHandle db = null;
       try {
         db = dbInterface.openDatabase(getAppName());
-        mPossibleTableViewTypes = new PossibleTableViewTypes(dbInterface, getAppName(), db,
-            getTableId(), getColumnDefinitions());
+        mPossibleTableViewTypes = new PossibleTableViewTypes(getTableMetadata(dbInterface, db),
+            getColumnDefinitions());
       } catch (ServicesAvailabilityException e) {
         WebLogger.getLogger(getAppName()).printStackTrace(e);
         WebLogger.getLogger(getAppName()).e(TAG, "[databaseAvailable] unable to access database");
@@ -1147,7 +1522,9 @@ public class TableDisplayActivity extends AbsBaseWebActivity
   }
 
   /**
-   * Gives new arguments to an existing fragment
+   * Gives new arguments to an existing fragment. If the sub list web view is already up, the new
+   * query goes straight to it rather than to a new fragment, see
+   * {@link #updateSubListInPlace(String)}.
    *
    * @param fragmentID The id of the fragment to search the fragment manager for
    * @param args       the arguments to give to the fragment
@@ -1166,6 +1543,7 @@ public class TableDisplayActivity extends AbsBaseWebActivity
       return;
     }
 
+    String previousSubFileName = mCurrentSubFileName;
     String queryType = IntentUtil.retrieveQueryTypeFromBundle(args);
     ResumableQuery viewDataQuery;
     if (queryType.equals(OdkData.QueryTypes.SIMPLE_QUERY)) {
@@ -1190,6 +1568,10 @@ public class TableDisplayActivity extends AbsBaseWebActivity
 
     mQueries[1] = viewDataQuery;
 
+    if (updateSubListInPlace(previousSubFileName)) {
+      return;
+    }
+
     FragmentManager fragmentManager = this.getSupportFragmentManager();
     FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
 
@@ -1215,6 +1597,64 @@ public class TableDisplayActivity extends AbsBaseWebActivity
     }
   }
 
+  /**
+   * Hands the new sub list query to the sub list web view that is already showing, so it doesn't
+   * have to be inflated again and its page reloaded. If the page hasn't changed it gets a
+   * {@link Constants.JavaScriptHandles#SUB_LIST_UPDATE_EVENT} to fetch the new data and redraw
+   * itself, and the responses still waiting for it are left for it to take, since its callbacks
+   * are still waiting for them. Otherwise, or if nothing on the page handles the event, the page
+   * is reloaded into the same web view and the responses still waiting are dropped, since nothing
+   * is left to take them.
+   *
+   * @param previousSubFileName the page the sub list was showing before the update
+   * @return whether the web view took the update, false if a new fragment is needed
+   */
+  private boolean updateSubListInPlace(String previousSubFileName) {
+    if (mCurrentSubFileName == null) {
+      return false;
+    }
+    ODKWebView webView = getWebKitView(Constants.FragmentTags.DETAIL_WITH_LIST_LIST);
+    if (webView == null || webView.isInactive()) {
+      return false;
+    }
+    boolean samePage = mCurrentSubFileName.equals(previousSubFileName);
+    if (!samePage && getDatabase() == null) {
+      // the page can only be loaded with the database up, the new fragment will wait for it
+      return false;
+    }
+
+    if (samePage) {
+      WebLogger.getLogger(getAppName())
+          .d(TAG, "[updateSubListInPlace] signalling sub list of new query");
+      final ODKWebView signalled = webView;
+      webView.evaluateJavascript(SUB_LIST_UPDATE_SCRIPT, new ValueCallback<String>() {
+        @Override
+        public void onReceiveValue(String notHandled) {
+          // false only if the page called preventDefault, anything else and it has to be reloaded
+          if (!"false".equals(notHandled) && !destroyed && !signalled.isInactive()) {
+            reloadSubList(signalled);
+          }
+        }
+      });
+    } else {
+      reloadSubList(webView);
+    }
+    return true;
+  }
+
+  /**
+   * Loads the current sub list page into the sub list web view again, dropping the responses
+   * still waiting for the page it had
+   *
+   * @param webView the sub list web view
+   */
+  private void reloadSubList(ODKWebView webView) {
+    WebLogger.getLogger(getAppName())
+        .d(TAG, "[updateSubListInPlace] loading " + mCurrentSubFileName + " into sub list");
+    cancelPendingResponses(Constants.FragmentTags.DETAIL_WITH_LIST_LIST);
+    webView.reloadPage();
+  }
+
   /**
    * Gets the view parameters being used with that fragment
    *
@@ -21,6 +21,7 @@ import androidx.multidex.MultiDex;
 import com.google.firebase.analytics.FirebaseAnalytics;
 import org.opendatakit.application.CommonApplication;
 import org.opendatakit.tables.R;
+import org.opendatakit.tables.data.QueryResultCache;
 
 import java.lang.ref.WeakReference;
 
@@ -81,4 +82,10 @@ public class Tables extends CommonApplication {
     analytics = FirebaseAnalytics.getInstance(this);
     analytics.logEvent(FirebaseAnalytics.Event.APP_OPEN, null);
   }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    QueryResultCache.get().onTrimMemory(level);
+  }
 }
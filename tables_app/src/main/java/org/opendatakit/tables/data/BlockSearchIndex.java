@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the words in the display text of one block of rows, for find.
+ * <p>
+ * Text is split into tokens on anything that isn't a letter or a digit, and each token is case
+ * folded. The distinct tokens of the block are kept sorted, each with the cells it appears in, so
+ * all the tokens starting with a prefix are one binary search and a short walk away. A cell
+ * matches a query when every token of the query is the start of some token of the cell, so
+ * "jo sm" finds "John Smith" and "smith, jo".
+ * <p>
+ * Cells are numbered row by row: row within the block * number of columns + column. An index
+ * never changes once it's built.
+ */
+final class BlockSearchIndex {
+
+  private static final String[] NO_TOKENS = {};
+
+  private final int numColumns;
+  private final int numCells;
+  // Every distinct token in the block, sorted
+  private final String[] tokens;
+  // Where the cells of each token start in postings, with one extra entry for the end of the last
+  private final int[] postingStarts;
+  // The cells each token is in, one token after the other, each token's cells in order
+  private final int[] postings;
+
+  private BlockSearchIndex(int numColumns, int numCells, String[] tokens, int[] postingStarts,
+      int[] postings) {
+    this.numColumns = numColumns;
+    this.numCells = numCells;
+    this.tokens = tokens;
+    this.postingStarts = postingStarts;
+    this.postings = postings;
+  }
+
+  /**
+   * Indexes the text of a block
+   *
+   * @param columnText the display text of each column, indexed by row within the block. A column
+   *                   may be null to leave it out of the index, and any cell may be null
+   * @param numRows    the number of rows in the block
+   * @return the index
+   */
+  static BlockSearchIndex build(String[][] columnText, int numRows) {
+    int numColumns = columnText.length;
+    Map<String, Integer> tokenIds = new HashMap<>();
+    List<String> distinct = new ArrayList<>();
+    // the last cell each token was seen in, so a token that repeats in a cell is only listed once
+    int[] lastCell = new int[16];
+    // one (token, cell) pair per occurrence, in cell order
+    int[] pairTokens = new int[64];
+    int[] pairCells = new int[64];
+    int numPairs = 0;
+    for (int row = 0; row < numRows; ++row) {
+      for (int col = 0; col < numColumns; ++col) {
+        if (columnText[col] == null) {
+          continue;
+        }
+        int cell = row * numColumns + col;
+        for (String token : tokenize(columnText[col][row])) {
+          Integer id = tokenIds.get(token);
+          if (id == null) {
+            id = distinct.size();
+            tokenIds.put(token, id);
+            distinct.add(token);
+            if (id == lastCell.length) {
+              lastCell = Arrays.copyOf(lastCell, id * 2);
+            }
+          } else if (lastCell[id] == cell) {
+            continue;
+          }
+          lastCell[id] = cell;
+          if (numPairs == pairTokens.length) {
+            pairTokens = Arrays.copyOf(pairTokens, numPairs * 2);
+            pairCells = Arrays.copyOf(pairCells, numPairs * 2);
+          }
+          pairTokens[numPairs] = id;
+          pairCells[numPairs] = cell;
+          ++numPairs;
+        }
+      }
+    }
+
+    String[] tokens = distinct.toArray(new String[distinct.size()]);
+    Arrays.sort(tokens);
+    int[] rankOfId = new int[tokens.length];
+    for (int rank = 0; rank < tokens.length; ++rank) {
+      rankOfId[tokenIds.get(tokens[rank])] = rank;
+    }
+    // a counting sort by token keeps the cells of each token in order
+    int[] postingStarts = new int[tokens.length + 1];
+    for (int i = 0; i < numPairs; ++i) {
+      ++postingStarts[rankOfId[pairTokens[i]] + 1];
+    }
+    for (int rank = 0; rank < tokens.length; ++rank) {
+      postingStarts[rank + 1] += postingStarts[rank];
+    }
+    int[] next = Arrays.copyOf(postingStarts, tokens.length);
+    int[] postings = new int[numPairs];
+    for (int i = 0; i < numPairs; ++i) {
+      postings[next[rankOfId[pairTokens[i]]]++] = pairCells[i];
+    }
+    return new BlockSearchIndex(numColumns, numRows * numColumns, tokens, postingStarts,
+        postings);
+  }
+
+  /**
+   * Splits text into case folded tokens, the same way for the text of a cell and for a query
+   *
+   * @param text the text to split, may be null
+   * @return the tokens, in the order they appear
+   */
+  static String[] tokenize(String text) {
+    if (text == null || text.isEmpty()) {
+      return NO_TOKENS;
+    }
+    List<String> found = null;
+    StringBuilder token = new StringBuilder();
+    int i = 0;
+    while (i <= text.length()) {
+      int cp = i < text.length() ? text.codePointAt(i) : ' ';
+      i += Character.charCount(cp);
+      if (Character.isLetterOrDigit(cp) || Character.getType(cp) == Character.NON_SPACING_MARK) {
+        token.appendCodePoint(Character.toLowerCase(Character.toUpperCase(cp)));
+      } else if (token.length() != 0) {
+        if (found == null) {
+          found = new ArrayList<>();
+        }
+        found.add(token.toString());
+        token.setLength(0);
+      }
+    }
+    return found == null ? NO_TOKENS : found.toArray(new String[found.size()]);
+  }
+
+  int getNumberOfColumns() {
+    return numColumns;
+  }
+
+  /**
+   * Finds the cells that match a query
+   *
+   * @param queryTokens the query, from {@link #tokenize(String)}
+   * @return the matching cells, empty if there are no query tokens
+   */
+  BitSet match(String[] queryTokens) {
+    BitSet matched = null;
+    for (String prefix : queryTokens) {
+      BitSet cells = new BitSet(numCells);
+      for (int t = lowerBound(prefix); t < tokens.length && tokens[t].startsWith(prefix); ++t) {
+        for (int p = postingStarts[t]; p < postingStarts[t + 1]; ++p) {
+          cells.set(postings[p]);
+        }
+      }
+      if (matched == null) {
+        matched = cells;
+      } else {
+        matched.and(cells);
+      }
+      if (matched.isEmpty()) {
+        break;
+      }
+    }
+    return matched == null ? new BitSet() : matched;
+  }
+
+  /**
+   * @return the index of the first token that isn't less than key
+   */
+  private int lowerBound(String key) {
+    int low = 0;
+    int high = tokens.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (tokens[mid].compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import org.opendatakit.data.ColorRuleGroup;
+import org.opendatakit.database.data.KeyValueStoreEntry;
+import org.opendatakit.database.data.TableMetaDataEntries;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.database.utilities.KeyValueStoreUtils;
+import org.opendatakit.exception.ServicesAvailabilityException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The table, status column and column color rules of each table, kept for the life of the
+ * process. Every group of rules is its own key value store read, and a web view used to read the
+ * table's, the status column's and those of every one of its columns again for each query it
+ * ran. With the cache only the first query of a table reads them.
+ * <p>
+ * The rules are only read again after {@link #invalidate(String, String)}, which the color rule
+ * editors call whenever they save, and which {@link TableMetadataSnapshot} calls when it finds
+ * that the table's metadata has changed under it, like after a sync. Callers that don't go
+ * through the snapshot, like the web views, call
+ * {@link #checkRevision(UserDbInterface, String, DbHandle, String)} first instead, which does
+ * the same check against the metadata revision the rules were read at.
+ * <p>
+ * The groups handed out are shared, so they must not be changed. The editors load their own
+ * copies to change and save.
+ * <p>
+ * Along with the rules the cache keeps the table's {@link #KEY_COMPACT_COLORS} property, read
+ * from the same metadata as the revision, which says which form the web views send the colors in.
+ */
+public final class ColorRuleCache {
+
+  /**
+   * The key value store partition of the table property that picks the form of the colors
+   */
+  public static final String KVS_PARTITION = "ColorRules";
+  /**
+   * The key value store aspect of the table property that picks the form of the colors
+   */
+  public static final String KVS_ASPECT = "default";
+  /**
+   * The key value store key of the table property that, when true, has the web views send the
+   * colors of the table's rows only in the compact form. Left out or false, they're sent only in
+   * the form deployed pages read.
+   */
+  public static final String KEY_COMPACT_COLORS = "compactColors";
+
+  // The rules of every table asked for so far, by app name and table id
+  private static final Map<String, ColorRuleCache> tables = new HashMap<>();
+
+  private static final String TABLE_RULES = "table";
+  private static final String STATUS_RULES = "status";
+  // Prefixed to the element key of a column to get the key of its rules
+  private static final String COLUMN_RULES = "column/";
+
+  // The groups loaded so far, by TABLE_RULES, STATUS_RULES or COLUMN_RULES and an element key
+  private final Map<String, ColorRuleGroup> groups = new ConcurrentHashMap<>();
+  // The revision of the table's metadata the groups were read at, null if it isn't known
+  private final String revId;
+  // The table's KEY_COMPACT_COLORS property at that revision
+  private final boolean compactColors;
+
+  private ColorRuleCache(String revId, boolean compactColors) {
+    this.revId = revId;
+    this.compactColors = compactColors;
+  }
+
+  /**
+   * Drops the cached rules of a table if its metadata has changed since they were read, so that
+   * rules changed by a sync or an import of the table's properties are picked up. Cheap when
+   * nothing changed, since the database doesn't send back the entries of a revision we already
+   * have. Call this once before getting the rules, unless the caller has just had the table's
+   * {@link TableMetadataSnapshot}, which checks for itself.
+   *
+   * @param dbInterface the database interface to use
+   * @param appName     the app name
+   * @param db          an open database handle
+   * @param tableId     the table
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static void checkRevision(UserDbInterface dbInterface, String appName, DbHandle db,
+      String tableId) throws ServicesAvailabilityException {
+    ColorRuleCache cache = forTable(appName, tableId);
+    TableMetaDataEntries metadata = dbInterface.getTableMetadata(appName, db, tableId, null, null,
+        null, cache.revId);
+    String revId = metadata.getRevId();
+    if (revId != null && revId.equals(cache.revId)) {
+      return;
+    }
+    boolean compactColors = readCompactColors(metadata.getEntries());
+    String key = getKey(appName, tableId);
+    synchronized (tables) {
+      // unless it was already replaced while the revision was being read
+      if (tables.get(key) == cache) {
+        tables.put(key, new ColorRuleCache(revId, compactColors));
+      }
+    }
+  }
+
+  /**
+   * Whether the web views send the colors of a table's rows only in the compact form, going by
+   * its {@link #KEY_COMPACT_COLORS} property as of the last
+   * {@link #checkRevision(UserDbInterface, String, DbHandle, String)}
+   *
+   * @param appName the app name
+   * @param tableId the table
+   * @return true for only the compact form, false for only the form deployed pages read
+   */
+  public static boolean isCompactColors(String appName, String tableId) {
+    return forTable(appName, tableId).compactColors;
+  }
+
+  private static boolean readCompactColors(List<KeyValueStoreEntry> entries) {
+    if (entries == null) {
+      return false;
+    }
+    for (KeyValueStoreEntry entry : entries) {
+      if (KVS_PARTITION.equals(entry.partition) && KVS_ASPECT.equals(entry.aspect)
+          && KEY_COMPACT_COLORS.equals(entry.key)) {
+        return Boolean.TRUE.equals(KeyValueStoreUtils.getBoolean(entry));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param dbInterface  the database interface to use
+   * @param appName      the app name
+   * @param db           an open database handle
+   * @param tableId      the table
+   * @param adminColumns the admin columns of the database
+   * @return the rules that color whole rows of the table
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static ColorRuleGroup getTableRules(UserDbInterface dbInterface, String appName,
+      DbHandle db, String tableId, String[] adminColumns) throws ServicesAvailabilityException {
+    ColorRuleCache cache = forTable(appName, tableId);
+    ColorRuleGroup group = cache.groups.get(TABLE_RULES);
+    if (group == null) {
+      group = ColorRuleGroup
+          .getTableColorRuleGroup(dbInterface, appName, db, tableId, adminColumns);
+      cache.put(TABLE_RULES, group);
+    }
+    return group;
+  }
+
+  /**
+   * @param dbInterface  the database interface to use
+   * @param appName      the app name
+   * @param db           an open database handle
+   * @param tableId      the table
+   * @param adminColumns the admin columns of the database
+   * @return the rules that color the status column of the table
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static ColorRuleGroup getStatusRules(UserDbInterface dbInterface, String appName,
+      DbHandle db, String tableId, String[] adminColumns) throws ServicesAvailabilityException {
+    ColorRuleCache cache = forTable(appName, tableId);
+    ColorRuleGroup group = cache.groups.get(STATUS_RULES);
+    if (group == null) {
+      group = ColorRuleGroup
+          .getStatusColumnRuleGroup(dbInterface, appName, db, tableId, adminColumns);
+      cache.put(STATUS_RULES, group);
+    }
+    return group;
+  }
+
+  /**
+   * @param dbInterface  the database interface to use
+   * @param appName      the app name
+   * @param db           an open database handle
+   * @param tableId      the table
+   * @param elementKey   the column
+   * @param adminColumns the admin columns of the database
+   * @return the rules that color the cells of the column
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static ColorRuleGroup getColumnRules(UserDbInterface dbInterface, String appName,
+      DbHandle db, String tableId, String elementKey, String[] adminColumns)
+      throws ServicesAvailabilityException {
+    ColorRuleCache cache = forTable(appName, tableId);
+    String key = COLUMN_RULES + elementKey;
+    ColorRuleGroup group = cache.groups.get(key);
+    if (group == null) {
+      group = ColorRuleGroup
+          .getColumnColorRuleGroup(dbInterface, appName, db, tableId, elementKey, adminColumns);
+      cache.put(key, group);
+    }
+    return group;
+  }
+
+  /**
+   * Drops the cached rules of a table. Call this after saving any of its color rules.
+   *
+   * @param appName the app name
+   * @param tableId the table whose rules were changed
+   */
+  public static void invalidate(String appName, String tableId) {
+    synchronized (tables) {
+      tables.remove(getKey(appName, tableId));
+    }
+  }
+
+  /**
+   * Gets the rules of a table, empty the first time. A load that is still going when the table is
+   * invalidated puts what it read into the dropped cache, so the stale rules are never handed out.
+   */
+  private static ColorRuleCache forTable(String appName, String tableId) {
+    String key = getKey(appName, tableId);
+    synchronized (tables) {
+      ColorRuleCache cache = tables.get(key);
+      if (cache == null) {
+        cache = new ColorRuleCache(null, false);
+        tables.put(key, cache);
+      }
+      return cache;
+    }
+  }
+
+  private static String getKey(String appName, String tableId) {
+    return appName + "/" + tableId;
+  }
+
+  private void put(String key, ColorRuleGroup group) {
+    if (group != null) {
+      groups.put(key, group);
+    }
+  }
+}
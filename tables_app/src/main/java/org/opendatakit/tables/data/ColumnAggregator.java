@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.database.data.ColumnDefinition;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.PagedRowSource.RowBlock;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Works out the count, sum, mean, smallest and largest value and number of distinct values of
+ * each column of a {@link PagedRowSource}, for the totals footer of the spreadsheet.
+ * <p>
+ * The first time it's started it walks every block of the result on a background thread, the
+ * same way {@link RowSearcher} does: blocks in memory are used as they are, the rest are queried
+ * and not kept. The totals so far are posted to the UI thread as it goes, with the intervals
+ * between updates growing. The stats of each block are kept (see {@link ColumnStats}), so when
+ * the row source patches a row in place, only the block the row is in is gone over again.
+ * Distinct values are counted with a {@link DistinctSketch}, which can't forget a value, so a
+ * value edited away is still counted until the table is reloaded. Rows hidden by a filter set on
+ * the row source in memory are left out, so a new aggregator is needed whenever it changes.
+ */
+public class ColumnAggregator implements PagedRowSource.Listener {
+
+  // Used for logging
+  private static final String TAG = ColumnAggregator.class.getSimpleName();
+  // How long to wait before posting the first partial totals
+  private static final long FIRST_UPDATE_INTERVAL_MS = 250;
+
+  private final PagedRowSource rowSource;
+  private final String[] elementKeys;
+  // The display text index in the row source of each column, or -1 if it has none
+  private final int[] displayColumns;
+  private final boolean[] numeric;
+  private final ExecutorService worker;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private volatile boolean closed = false;
+  // Only touched on the UI thread
+  private Listener listener = null;
+  private Aggregates latest = null;
+
+  /**
+   * The stats of each block, null for one that hasn't been gone over yet, and the distinct
+   * values of each column. Only touched on the worker thread.
+   */
+  private final List<ColumnStats> blockStats = new ArrayList<>();
+  private final DistinctSketch[] distinct;
+  private boolean finished = false;
+
+  /**
+   * @param rowSource the rows to total up
+   * @param columns   the columns to total up. The totals are indexed the same way.
+   */
+  public ColumnAggregator(PagedRowSource rowSource, ColumnDefinition[] columns) {
+    this.rowSource = rowSource;
+    this.elementKeys = new String[columns.length];
+    this.displayColumns = new int[columns.length];
+    this.numeric = new boolean[columns.length];
+    this.distinct = new DistinctSketch[columns.length];
+    for (int i = 0; i < columns.length; ++i) {
+      elementKeys[i] = columns[i].getElementKey();
+      displayColumns[i] = rowSource.getDisplayColumnIndex(elementKeys[i]);
+      ElementDataType type = columns[i].getType().getDataType();
+      numeric[i] = type == ElementDataType.integer || type == ElementDataType.number;
+      distinct[i] = new DistinctSketch();
+    }
+    this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+
+  public PagedRowSource getRowSource() {
+    return rowSource;
+  }
+
+  /**
+   * Starts totalling up the rows in the background the first time it's called, and tells the
+   * listener about the totals from then on. Must be called on the UI thread.
+   *
+   * @param listener told about the totals on the UI thread, right away if there are some already
+   */
+  public void start(Listener listener) {
+    if (closed) {
+      return;
+    }
+    boolean first = this.listener == null && latest == null;
+    this.listener = listener;
+    if (latest != null) {
+      listener.onAggregatesChanged(latest);
+    }
+    if (first) {
+      rowSource.addListener(this);
+      worker.execute(new Runnable() {
+        @Override
+        public void run() {
+          aggregateInBackground();
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops totalling up for good. The aggregator can't be used after this.
+   */
+  public void close() {
+    closed = true;
+    listener = null;
+    rowSource.removeListener(this);
+    worker.shutdownNow();
+  }
+
+  /**
+   * Goes over a block again if rows were patched into it, so that the totals follow edits made
+   * in place. Blocks that were just paged in haven't changed.
+   */
+  @Override
+  public void onBlockLoaded(int firstRow, int numRows) {
+    if (closed) {
+      return;
+    }
+    final int blockNumber = firstRow / rowSource.getBlockSize();
+    worker.execute(new Runnable() {
+      @Override
+      public void run() {
+        refreshBlock(blockNumber);
+      }
+    });
+  }
+
+  /**
+   * Rows that moved are still in the same blocks, so the totals don't change
+   */
+  @Override
+  public void onRowsMoved() {
+  }
+
+  /**
+   * Runs on the worker thread. Goes through the blocks in order.
+   */
+  private void aggregateInBackground() {
+    String appName = rowSource.getAppName();
+    int numBlocks = rowSource.getNumberOfBlocks();
+    long updateInterval = FIRST_UPDATE_INTERVAL_MS;
+    long nextUpdate = SystemClock.uptimeMillis() + updateInterval;
+    UserDbInterface dbInterface = null;
+    DbHandle db = null;
+    try {
+      for (int b = 0; b < numBlocks; ++b) {
+        if (closed) {
+          return;
+        }
+        RowBlock block = rowSource.getResidentBlock(b);
+        // the blocks of a wide table in memory only have the columns that were drawn
+        if (block == null || !block.isComplete()) {
+          if (db == null) {
+            dbInterface = Tables.getInstance().getDatabase();
+            db = dbInterface.openDatabase(appName);
+          }
+          block = rowSource.completeBlock(dbInterface, db, b, block);
+        }
+        setBlockStats(b, aggregateBlock(block, null));
+        if (SystemClock.uptimeMillis() >= nextUpdate) {
+          publish();
+          updateInterval *= 2;
+          nextUpdate = SystemClock.uptimeMillis() + updateInterval;
+        }
+      }
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to total up rows: " + e);
+    } finally {
+      if (db != null) {
+        try {
+          dbInterface.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+    // if the database went away, the totals are as far as it got
+    finished = true;
+    publish();
+  }
+
+  /**
+   * Runs on the worker thread, after the first pass, since there's only one worker. Works a
+   * block out again from the copy in memory, if it has patched rows.
+   */
+  private void refreshBlock(int blockNumber) {
+    RowBlock block = rowSource.getResidentBlock(blockNumber);
+    if (closed || block == null || !block.hasPatches()) {
+      return;
+    }
+    ColumnStats old = blockNumber < blockStats.size() ? blockStats.get(blockNumber) : null;
+    setBlockStats(blockNumber, aggregateBlock(block, old));
+    publish();
+  }
+
+  /**
+   * Works out the stats of a block, and adds its values to the distinct counts
+   *
+   * @param block the block
+   * @param old   the stats the block had before, to keep for any column it doesn't have, or null
+   * @return the stats of the block
+   */
+  private ColumnStats aggregateBlock(RowBlock block, ColumnStats old) {
+    ColumnStats stats = new ColumnStats(numeric);
+    int numRows = block.getNumberOfRows();
+    // rows the filter hides aren't totalled, the same as they aren't found
+    BitSet mask = rowSource.getFilterMask();
+    int firstRow = block.getFirstRow();
+    for (int col = 0; col < displayColumns.length; ++col) {
+      String[] text = displayColumns[col] == -1 ? null : block.getColumnText(displayColumns[col]);
+      if (text == null) {
+        if (old != null) {
+          stats.copyColumn(old, col);
+        }
+        continue;
+      }
+      for (int row = 0; row < numRows; ++row) {
+        if (mask != null && !mask.get(firstRow + row)) {
+          continue;
+        }
+        stats.add(col, text[row]);
+        distinct[col].add(text[row]);
+      }
+    }
+    return stats;
+  }
+
+  private void setBlockStats(int blockNumber, ColumnStats stats) {
+    while (blockStats.size() <= blockNumber) {
+      blockStats.add(null);
+    }
+    blockStats.set(blockNumber, stats);
+  }
+
+  /**
+   * Adds up the stats of the blocks gone over so far and posts them to the listener
+   */
+  private void publish() {
+    ColumnStats totals = new ColumnStats(numeric);
+    for (ColumnStats stats : blockStats) {
+      if (stats != null) {
+        totals.addAll(stats);
+      }
+    }
+    long[] distinctCounts = new long[distinct.length];
+    boolean[] distinctExact = new boolean[distinct.length];
+    for (int col = 0; col < distinct.length; ++col) {
+      distinctCounts[col] = distinct[col].estimate();
+      distinctExact[col] = distinct[col].isExact();
+    }
+    final Aggregates aggregates = new Aggregates(elementKeys, totals, distinctCounts,
+        distinctExact, finished);
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (!closed) {
+          latest = aggregates;
+          if (listener != null) {
+            listener.onAggregatesChanged(aggregates);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Notified on the UI thread as the totals are worked out
+   */
+  public interface Listener {
+    /**
+     * Called as the blocks are gone over, once more when they all have been, and whenever rows
+     * are edited in place after that
+     *
+     * @param aggregates the totals of every block gone over so far
+     */
+    void onAggregatesChanged(Aggregates aggregates);
+  }
+
+  /**
+   * The totals of each column at one point, which don't change once they've been posted
+   */
+  public static final class Aggregates {
+    private final String[] elementKeys;
+    private final ColumnStats stats;
+    private final long[] distinct;
+    private final boolean[] distinctExact;
+    private final boolean finished;
+
+    Aggregates(String[] elementKeys, ColumnStats stats, long[] distinct, boolean[] distinctExact,
+        boolean finished) {
+      this.elementKeys = elementKeys;
+      this.stats = stats;
+      this.distinct = distinct;
+      this.distinctExact = distinctExact;
+      this.finished = finished;
+    }
+
+    /**
+     * @param elementKey a column
+     * @return the index of the column in the stats, or -1 if it wasn't totalled up
+     */
+    public int indexOf(String elementKey) {
+      for (int i = 0; i < elementKeys.length; ++i) {
+        if (elementKeys[i].equals(elementKey)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    public ColumnStats getStats() {
+      return stats;
+    }
+
+    /**
+     * @param column the column, as an index into the stats
+     * @return the number of distinct values, an estimate unless {@link #isDistinctExact(int)}
+     */
+    public long getDistinct(int column) {
+      return distinct[column];
+    }
+
+    public boolean isDistinctExact(int column) {
+      return distinctExact[column];
+    }
+
+    /**
+     * @return whether every row has been gone over, rather than only some of them so far
+     */
+    public boolean isFinished() {
+      return finished;
+    }
+  }
+}
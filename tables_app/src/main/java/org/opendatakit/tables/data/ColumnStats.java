@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.Arrays;
+
+/**
+ * The count, sum, smallest and largest value of some columns, over whichever rows have been added
+ * to it. {@link ColumnAggregator} keeps one for each block of rows and adds them together, so
+ * that a block whose rows change can be worked out again without going over the others.
+ * <p>
+ * The cells of a numeric column are parsed once, as they're added; a cell that doesn't parse is
+ * counted but left out of the sum. The smallest and largest values of a numeric column are
+ * compared as numbers, those of any other column as text, and either way are kept as the text
+ * of the cell they came from.
+ */
+public final class ColumnStats {
+
+  // Whether each column is an integer or number column
+  private final boolean[] numeric;
+  // The number of cells of each column that aren't null
+  private final long[] count;
+  // How many of them parsed as numbers, for a numeric column
+  private final long[] numericCount;
+  private final double[] sum;
+  private final double[] min;
+  private final double[] max;
+  private final String[] minText;
+  private final String[] maxText;
+
+  /**
+   * @param numeric for each column, whether it holds numbers
+   */
+  ColumnStats(boolean[] numeric) {
+    int numColumns = numeric.length;
+    this.numeric = numeric;
+    this.count = new long[numColumns];
+    this.numericCount = new long[numColumns];
+    this.sum = new double[numColumns];
+    this.min = new double[numColumns];
+    this.max = new double[numColumns];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    this.minText = new String[numColumns];
+    this.maxText = new String[numColumns];
+  }
+
+  /**
+   * @return the number of columns
+   */
+  public int getNumberOfColumns() {
+    return numeric.length;
+  }
+
+  /**
+   * Adds a cell
+   *
+   * @param column the column
+   * @param value  the text of the cell, ignored if it's null
+   */
+  void add(int column, String value) {
+    if (value == null) {
+      return;
+    }
+    ++count[column];
+    if (numeric[column]) {
+      double number;
+      try {
+        number = Double.parseDouble(value.trim());
+      } catch (NumberFormatException e) {
+        return;
+      }
+      ++numericCount[column];
+      sum[column] += number;
+      if (number < min[column]) {
+        min[column] = number;
+        minText[column] = value;
+      }
+      if (number > max[column]) {
+        max[column] = number;
+        maxText[column] = value;
+      }
+    } else {
+      if (minText[column] == null || value.compareTo(minText[column]) < 0) {
+        minText[column] = value;
+      }
+      if (maxText[column] == null || value.compareTo(maxText[column]) > 0) {
+        maxText[column] = value;
+      }
+    }
+  }
+
+  /**
+   * Adds every row of another set of stats over the same columns
+   *
+   * @param other the stats of some other rows
+   */
+  void addAll(ColumnStats other) {
+    for (int column = 0; column < numeric.length; ++column) {
+      count[column] += other.count[column];
+      numericCount[column] += other.numericCount[column];
+      sum[column] += other.sum[column];
+      String otherMin = other.minText[column];
+      String otherMax = other.maxText[column];
+      if (numeric[column]) {
+        if (other.min[column] < min[column]) {
+          min[column] = other.min[column];
+          minText[column] = otherMin;
+        }
+        if (other.max[column] > max[column]) {
+          max[column] = other.max[column];
+          maxText[column] = otherMax;
+        }
+      } else {
+        if (otherMin != null && (minText[column] == null || otherMin.compareTo(minText[column])
+            < 0)) {
+          minText[column] = otherMin;
+        }
+        if (otherMax != null && (maxText[column] == null || otherMax.compareTo(maxText[column])
+            > 0)) {
+          maxText[column] = otherMax;
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes one column from another set of stats over the same rows, for a column that couldn't be
+   * worked out again
+   *
+   * @param other  the old stats of the rows
+   * @param column the column to copy
+   */
+  void copyColumn(ColumnStats other, int column) {
+    count[column] = other.count[column];
+    numericCount[column] = other.numericCount[column];
+    sum[column] = other.sum[column];
+    min[column] = other.min[column];
+    max[column] = other.max[column];
+    minText[column] = other.minText[column];
+    maxText[column] = other.maxText[column];
+  }
+
+  /**
+   * @param column the column
+   * @return the number of cells that aren't null
+   */
+  public long getCount(int column) {
+    return count[column];
+  }
+
+  /**
+   * @param column the column
+   * @return whether the column holds numbers and any of them were added, so that it has a sum
+   * and a mean
+   */
+  public boolean hasNumbers(int column) {
+    return numericCount[column] != 0;
+  }
+
+  /**
+   * @param column the column
+   * @return the sum of the numbers in the column
+   */
+  public double getSum(int column) {
+    return sum[column];
+  }
+
+  /**
+   * @param column the column
+   * @return the mean of the numbers in the column, NaN if there aren't any
+   */
+  public double getMean(int column) {
+    return numericCount[column] == 0 ? Double.NaN : sum[column] / numericCount[column];
+  }
+
+  /**
+   * @param column the column
+   * @return the text of the smallest value, or null if every cell was null
+   */
+  public String getMin(int column) {
+    return minText[column];
+  }
+
+  /**
+   * @param column the column
+   * @return the text of the largest value, or null if every cell was null
+   */
+  public String getMax(int column) {
+    return maxText[column];
+  }
+}
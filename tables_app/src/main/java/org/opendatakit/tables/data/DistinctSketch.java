@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Counts the distinct values of a column. The values are kept as they are until there are more
+ * than {@link #MAX_EXACT} of them, after which only a HyperLogLog sketch of them is, so a column
+ * with a different value in every row of a big table costs a couple of kilobytes rather than a
+ * copy of the column. The sketch is off by around two percent.
+ * <p>
+ * Values can't be taken out again, so a count that has seen a value edited away still counts it.
+ */
+final class DistinctSketch {
+
+  /**
+   * The most values counted exactly
+   */
+  static final int MAX_EXACT = 512;
+
+  // 2^PRECISION registers, for a standard error of about 1.04 / sqrt(2^PRECISION)
+  private static final int PRECISION = 11;
+  private static final int NUM_REGISTERS = 1 << PRECISION;
+
+  // The values seen so far, until there are too many, then null
+  private Set<String> exact = new HashSet<>();
+  // The sketch, null until the values no longer fit in exact
+  private byte[] registers = null;
+
+  /**
+   * @param value a cell of the column, ignored if it's null
+   */
+  void add(String value) {
+    if (value == null) {
+      return;
+    }
+    if (exact != null) {
+      exact.add(value);
+      if (exact.size() > MAX_EXACT) {
+        registers = new byte[NUM_REGISTERS];
+        for (String seen : exact) {
+          addHash(hash(seen));
+        }
+        exact = null;
+      }
+    } else {
+      addHash(hash(value));
+    }
+  }
+
+  /**
+   * @return whether the count is exact rather than an estimate
+   */
+  boolean isExact() {
+    return exact != null;
+  }
+
+  /**
+   * @return the number of distinct values, or an estimate of it once there are many
+   */
+  long estimate() {
+    if (exact != null) {
+      return exact.size();
+    }
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        ++zeros;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / NUM_REGISTERS);
+    double estimate = alpha * NUM_REGISTERS * NUM_REGISTERS / sum;
+    if (estimate <= 2.5 * NUM_REGISTERS && zeros != 0) {
+      // the raw estimate is biased for small counts, linear counting isn't
+      estimate = NUM_REGISTERS * Math.log((double) NUM_REGISTERS / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  private void addHash(long hash) {
+    int index = (int) (hash >>> (64 - PRECISION));
+    // the position of the first set bit of what's left, counting from 1
+    int rank = Math.min(Long.numberOfLeadingZeros(hash << PRECISION), 64 - PRECISION) + 1;
+    if (rank > registers[index]) {
+      registers[index] = (byte) rank;
+    }
+  }
+
+  /**
+   * A 64 bit hash of a string, FNV-1a over its characters mixed with the finalizer of
+   * MurmurHash3, since String.hashCode doesn't have enough bits to spread over the registers
+   */
+  private static long hash(String value) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); ++i) {
+      h ^= value.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.PagedRowSource.RowBlock;
+
+import java.util.Arrays;
+
+/**
+ * The display text of one column, usually the one the rows are sorted by, at rows spread evenly
+ * through a {@link PagedRowSource}. It's what the fast scroll bubble of the spreadsheet shows
+ * while the thumb is dragged over rows that haven't been loaded, so that the user can tell where
+ * they are without every block in between being queried.
+ * <p>
+ * Building it only looks at one row per sample, and queries at most one block of the one column
+ * per sample, so it reads a small, fixed part of a big table. It should still be built off the UI
+ * thread. An index never changes once it's built, and only matches the row order it was built
+ * against.
+ */
+public final class FastScrollIndex {
+
+  /**
+   * The most rows to sample
+   */
+  public static final int MAX_SAMPLES = 128;
+
+  // The rows that were sampled, as displayed, in order
+  private final int[] rows;
+  // The display text of the column in each sampled row, may be null
+  private final String[] labels;
+
+  private FastScrollIndex(int[] rows, String[] labels) {
+    this.rows = rows;
+    this.labels = labels;
+  }
+
+  /**
+   * Samples a column of a row source. Blocks that are in memory are used as they are, for the
+   * rest just the column is queried, and not kept.
+   *
+   * @param rowSource  the rows to sample, in their current order
+   * @param elementKey the column to take the text of
+   * @return the index, empty if the column has no display text
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static FastScrollIndex build(PagedRowSource rowSource, String elementKey)
+      throws ServicesAvailabilityException {
+    int rowCount = rowSource.getRowCount();
+    int displayColumn = rowSource.getDisplayColumnIndex(elementKey);
+    int numSamples = Math.min(rowCount, MAX_SAMPLES);
+    if (displayColumn == -1 || numSamples == 0) {
+      return new FastScrollIndex(new int[0], new String[0]);
+    }
+    int[] rows = new int[numSamples];
+    String[] labels = new String[numSamples];
+    int blockSize = rowSource.getBlockSize();
+    UserDbInterface dbInterface = null;
+    DbHandle db = null;
+    // samples near each other often share a block, so keep the last one
+    RowBlock block = null;
+    int blockNumber = -1;
+    try {
+      for (int i = 0; i < numSamples; ++i) {
+        int row = numSamples == 1 ? 0 : (int) ((long) i * (rowCount - 1) / (numSamples - 1));
+        int queryRow = rowSource.toQueryRow(row);
+        if (queryRow / blockSize != blockNumber) {
+          blockNumber = queryRow / blockSize;
+          block = rowSource.getResidentBlock(blockNumber);
+          if (block == null || !block.hasColumn(displayColumn)) {
+            if (db == null) {
+              dbInterface = Tables.getInstance().getDatabase();
+              db = dbInterface.openDatabase(rowSource.getAppName());
+            }
+            block = rowSource.queryColumnBlock(dbInterface, db, blockNumber, displayColumn);
+          }
+        }
+        rows[i] = row;
+        labels[i] = block.contains(queryRow) ? block.getDisplayText(displayColumn, queryRow) : null;
+      }
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(rowSource.getAppName(), db);
+      }
+    }
+    return new FastScrollIndex(rows, labels);
+  }
+
+  /**
+   * Gets the label to show for a row: the text of the closest sample at or before it
+   *
+   * @param rowIndex the row, as displayed
+   * @return the text, or null if there is no sample for it or the sampled cell was null
+   */
+  public String getLabel(int rowIndex) {
+    int i = Arrays.binarySearch(rows, rowIndex);
+    if (i < 0) {
+      i = -i - 2;
+    }
+    return i < 0 ? null : labels[i];
+  }
+}
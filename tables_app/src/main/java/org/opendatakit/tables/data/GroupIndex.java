@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The rows of a fully loaded result, grouped by the values of the group by columns the way a
+ * GROUP BY would, but with every row of each group kept rather than just one.
+ * <p>
+ * The groups are numbered in the order their first row comes in the sorted rows, and the rows of
+ * each group are kept together in one array in sorted order, so a group is just a range of that
+ * array. That makes laying out the rows with some of the groups expanded a single pass over it,
+ * which is what lets a group be opened in place instead of querying for its rows.
+ * <p>
+ * An index never changes once it's built.
+ */
+final class GroupIndex {
+
+  // The query rows of every group, one group after the other
+  private final int[] members;
+  // Where each group starts in members, with one extra entry for the end of the last group
+  private final int[] groupStarts;
+  // The group of each row, indexed by query row, -1 for a row that was left out
+  private final int[] groupOfRow;
+
+  private GroupIndex(int[] members, int[] groupStarts, int[] groupOfRow) {
+    this.members = members;
+    this.groupStarts = groupStarts;
+    this.groupOfRow = groupOfRow;
+  }
+
+  /**
+   * Groups the rows of a result
+   *
+   * @param order       the query rows of the result to group, in the order to display them. Rows
+   *                    left out, like ones a filter hid, aren't in any group.
+   * @param groupValues the raw values of each group by column, indexed by column and then query row
+   * @return the groups
+   */
+  static GroupIndex build(int[] order, String[][] groupValues) {
+    Map<String, Integer> groupsByKey = new HashMap<>();
+    int[] groupOfRow = new int[groupValues.length == 0 ? order.length : groupValues[0].length];
+    Arrays.fill(groupOfRow, -1);
+    int[] sizes = new int[order.length];
+    int numGroups = 0;
+    StringBuilder groupKey = new StringBuilder();
+    for (int row : order) {
+      groupKey.setLength(0);
+      for (String[] column : groupValues) {
+        String value = column[row];
+        // tell a null apart from any string, and keep the columns apart from each other
+        if (value == null) {
+          groupKey.append('\u0000');
+        } else {
+          groupKey.append('\u0001').append(value.replace("\u0001", "\u0001\u0001"));
+        }
+        groupKey.append('\u0002');
+      }
+      String key = groupKey.toString();
+      Integer group = groupsByKey.get(key);
+      if (group == null) {
+        group = numGroups++;
+        groupsByKey.put(key, group);
+      }
+      groupOfRow[row] = group;
+      ++sizes[group];
+    }
+
+    int[] groupStarts = new int[numGroups + 1];
+    for (int g = 0; g < numGroups; ++g) {
+      groupStarts[g + 1] = groupStarts[g] + sizes[g];
+    }
+    // reuse sizes as the next free position in each group
+    System.arraycopy(groupStarts, 0, sizes, 0, numGroups);
+    int[] members = new int[order.length];
+    for (int row : order) {
+      members[sizes[groupOfRow[row]]++] = row;
+    }
+    return new GroupIndex(members, groupStarts, groupOfRow);
+  }
+
+  int getNumberOfGroups() {
+    return groupStarts.length - 1;
+  }
+
+  /**
+   * @param group the group number
+   * @return the number of rows in the group
+   */
+  int getGroupSize(int group) {
+    return groupStarts[group + 1] - groupStarts[group];
+  }
+
+  /**
+   * @param group the group number
+   * @param i     which row of the group to get
+   * @return the query row of the i-th row of the group
+   */
+  int getRow(int group, int i) {
+    return members[groupStarts[group] + i];
+  }
+
+  /**
+   * @param queryRow a row of the result
+   * @return the number of the group that row is in
+   */
+  int getGroup(int queryRow) {
+    return groupOfRow[queryRow];
+  }
+
+  /**
+   * Lays out the rows to display: the first row of each group, followed by the rest of the rows
+   * of that group if it is expanded.
+   *
+   * @param expanded the numbers of the groups that are expanded
+   * @return the query row of each displayed row
+   */
+  int[] layout(BitSet expanded) {
+    int numGroups = getNumberOfGroups();
+    int numRows = numGroups;
+    for (int g = expanded.nextSetBit(0); g >= 0 && g < numGroups; g = expanded.nextSetBit(g + 1)) {
+      numRows += getGroupSize(g) - 1;
+    }
+    int[] rows = new int[numRows];
+    int next = 0;
+    for (int g = 0; g < numGroups; ++g) {
+      if (expanded.get(g)) {
+        int size = getGroupSize(g);
+        System.arraycopy(members, groupStarts[g], rows, next, size);
+        next += size;
+      } else {
+        rows[next++] = members[groupStarts[g]];
+      }
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import org.opendatakit.data.ColorRuleGroup;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.application.Tables;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The header names and color rules of the columns of a spreadsheet, looked up
+ * {@link PagedRowSource#COLUMN_BLOCK_SIZE} columns at a time as they scroll into view, rather
+ * than for every column before the table can be shown. Each column costs a couple of key value
+ * store reads, which adds up to seconds for a table with hundreds of columns.
+ * <p>
+ * Column blocks are loaded on a background thread by {@link #ensureLoaded(int, int)}, and the
+ * listeners are told on the UI thread once the names are in. The color rules that are found are
+ * merged into the rules of the row source, see {@link RowColorRules#withColumnRules(Map)}.
+ * Columns are indexed by their position in the column order, like the header of the spreadsheet.
+ */
+public final class PagedColumnMetadata {
+
+  // Used for logging
+  private static final String TAG = PagedColumnMetadata.class.getSimpleName();
+  // How long the loader thread hangs around with nothing to do, in seconds
+  private static final long IDLE_SECONDS = 30;
+
+  private final String appName;
+  private final String tableId;
+  private final String[] elementKeys;
+  private final TableMetadataSnapshot snapshot;
+  private final String[] adminColumns;
+  private final PagedRowSource rowSource;
+  // The localized name of each column, null until its block is loaded
+  private final AtomicReferenceArray<String> names;
+  /**
+   * The column blocks that are loaded, and the ones handed to the loader that haven't come back
+   * yet. Guarded by this.
+   */
+  private final BitSet loadedBlocks = new BitSet();
+  private final BitSet pendingBlocks = new BitSet();
+  private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // Merges of the column rules are made one at a time, so none of them get lost
+  private final Object rulesLock = new Object();
+  private RowColorRules colorRules;
+  // Created the first time a block is loaded in the background. Guarded by this.
+  private ThreadPoolExecutor loader = null;
+
+  /**
+   * Nothing is looked up until a block of columns is loaded.
+   *
+   * @param appName      the app name
+   * @param tableId      the table
+   * @param elementKeys  the columns, in the order they're displayed
+   * @param snapshot     the settings of the table, which the names are looked up through
+   * @param adminColumns the metadata columns, for looking up the color rules
+   * @param colorRules   the table and status rules, to merge the column rules into
+   * @param rowSource    the row source to hand the merged rules to, may be null
+   */
+  public PagedColumnMetadata(String appName, String tableId, String[] elementKeys,
+      TableMetadataSnapshot snapshot, String[] adminColumns, RowColorRules colorRules,
+      PagedRowSource rowSource) {
+    this.appName = appName;
+    this.tableId = tableId;
+    this.elementKeys = elementKeys;
+    this.snapshot = snapshot;
+    this.adminColumns = adminColumns;
+    this.colorRules = colorRules;
+    this.rowSource = rowSource;
+    this.names = new AtomicReferenceArray<>(elementKeys.length);
+  }
+
+  /**
+   * @return the number of columns
+   */
+  public int getNumberOfColumns() {
+    return elementKeys.length;
+  }
+
+  /**
+   * @param column the position of the column in the column order
+   * @return the localized name of the column, or null if its block hasn't been loaded yet
+   */
+  public String getDisplayName(int column) {
+    return names.get(column);
+  }
+
+  public void addListener(Listener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Loads the blocks holding some columns on the calling thread, unless they're already loaded
+   *
+   * @param dbInterface the database interface to use
+   * @param db          an open database handle
+   * @param firstColumn the first column, as a position in the column order
+   * @param lastColumn  the last column
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public void loadBlocking(UserDbInterface dbInterface, DbHandle db, int firstColumn,
+      int lastColumn) throws ServicesAvailabilityException {
+    int blockSize = PagedRowSource.COLUMN_BLOCK_SIZE;
+    int lastBlock = (Math.min(lastColumn, elementKeys.length - 1)) / blockSize;
+    Map<String, ColorRuleGroup> found = new HashMap<>();
+    for (int b = Math.max(0, firstColumn / blockSize); b <= lastBlock; ++b) {
+      synchronized (this) {
+        if (loadedBlocks.get(b)) {
+          continue;
+        }
+      }
+      int end = Math.min(elementKeys.length, (b + 1) * blockSize);
+      for (int i = b * blockSize; i < end; ++i) {
+        String elementKey = elementKeys[i];
+        names.set(i, snapshot.getLocalizedDisplayName(dbInterface, db, elementKey));
+        ColorRuleGroup group = ColorRuleCache
+            .getColumnRules(dbInterface, appName, db, tableId, elementKey, adminColumns);
+        if (group != null && !group.getColorRules().isEmpty()) {
+          found.put(elementKey, group);
+        }
+      }
+      synchronized (this) {
+        loadedBlocks.set(b);
+      }
+    }
+    if (!found.isEmpty()) {
+      synchronized (rulesLock) {
+        colorRules = colorRules.withColumnRules(found);
+        if (rowSource != null) {
+          rowSource.setColorRules(colorRules);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads every column on the calling thread, for things that need all the names at once like
+   * fitting the column widths
+   *
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public void loadAll() throws ServicesAvailabilityException {
+    synchronized (this) {
+      if (loadedBlocks.cardinality() * PagedRowSource.COLUMN_BLOCK_SIZE >= elementKeys.length) {
+        return;
+      }
+    }
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      db = dbInterface.openDatabase(appName);
+      loadBlocking(dbInterface, db, 0, elementKeys.length - 1);
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+  }
+
+  /**
+   * Tells the metadata which columns are on screen. Any block of them that isn't loaded is
+   * queued for loading in the background.
+   *
+   * @param firstColumn the first visible column, as a position in the column order
+   * @param lastColumn  the last visible column
+   */
+  public synchronized void ensureLoaded(int firstColumn, int lastColumn) {
+    int blockSize = PagedRowSource.COLUMN_BLOCK_SIZE;
+    int lastBlock = (Math.min(lastColumn, elementKeys.length - 1)) / blockSize;
+    for (int b = Math.max(0, firstColumn / blockSize); b <= lastBlock; ++b) {
+      if (loadedBlocks.get(b) || pendingBlocks.get(b)) {
+        continue;
+      }
+      pendingBlocks.set(b);
+      final int blockNumber = b;
+      getLoader().execute(new Runnable() {
+        @Override
+        public void run() {
+          loadInBackground(blockNumber);
+        }
+      });
+    }
+  }
+
+  /**
+   * Must be called while holding the lock on this
+   */
+  private ThreadPoolExecutor getLoader() {
+    if (loader == null) {
+      loader = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, TAG);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      // a spreadsheet that was closed doesn't leave its thread behind
+      loader.allowCoreThreadTimeOut(true);
+    }
+    return loader;
+  }
+
+  /**
+   * Runs on the loader thread. Loads a block of columns and tells the listeners.
+   *
+   * @param blockNumber the column block
+   */
+  private void loadInBackground(int blockNumber) {
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      if (dbInterface == null) {
+        return;
+      }
+      db = dbInterface.openDatabase(appName);
+      int firstColumn = blockNumber * PagedRowSource.COLUMN_BLOCK_SIZE;
+      loadBlocking(dbInterface, db, firstColumn, firstColumn);
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          for (Listener listener : listeners) {
+            listener.onColumnsLoaded();
+          }
+        }
+      });
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to load columns of " + tableId);
+    } finally {
+      synchronized (this) {
+        pendingBlocks.clear(blockNumber);
+      }
+      if (db != null) {
+        try {
+          dbInterface.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Notified on the UI thread whenever a block of columns finishes loading in the background
+   */
+  public interface Listener {
+    /**
+     * Called once the names of some more columns are in and their color rules have been handed
+     * to the row source
+     */
+    void onColumnsLoaded();
+  }
+}
@@ -0,0 +1,2499 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.VisibleForTesting;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.database.data.BaseTable;
+import org.opendatakit.database.data.ColumnDefinition;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.TypedRow;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.database.utilities.QueryUtil;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.SQLQueryStruct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serves the rows of a (possibly very large) query in fixed-size blocks instead of
+ * materializing the whole result into a single {@link UserTable}.
+ * <p>
+ * A COUNT query is run up front so that the size of the result is known, and rows are
+ * then fetched a block at a time using limit/offset on a single background thread. Loaded
+ * blocks are kept in a bounded LRU, and the block after the visible range (in the direction
+ * the user is scrolling) is prefetched so that it is usually ready before it is drawn.
+ * <p>
+ * The display text of every cell is formatted on the loader thread as each block comes in and
+ * kept with the block, so drawing a cell is just an array lookup. The same goes for the colors of
+ * each cell once {@link #setColorRules(RowColorRules)} has been called. Looking up a block that is
+ * already in memory doesn't allocate, since it happens for every row of every frame.
+ * <p>
+ * The rows can be re-sorted or re-grouped in memory with
+ * {@link #reorder(String[], String[], String[])}. Row indexes passed to the source are always in
+ * the current display order; {@link #toQueryRow(int)} turns one into the index of the row in the
+ * result of the query, which is what {@link RowBlock} is indexed by. When the rows are grouped in
+ * memory every row of each group is kept, so a group can be expanded in place with
+ * {@link #toggleGroup(int)}.
+ * <p>
+ * While every row is in memory they can also be narrowed down by a {@link RowFilter} with
+ * {@link #setFilter(RowFilter)}, which hides the rows that don't pass without querying anything.
+ * <p>
+ * A row that was added or edited somewhere else can be brought in with
+ * {@link #patchRow(String, boolean)}, which queries just that row and replaces it in its block
+ * rather than dropping every block.
+ * <p>
+ * A table with more than {@link #WIDE_TABLE_COLUMNS} columns is paged by column as well as by
+ * row. Its blocks are queried with just the metadata columns and the ones the rows are sorted,
+ * grouped or colored by, and the rest come in {@link #COLUMN_BLOCK_SIZE} columns at a time, for
+ * the blocks on screen, once {@link #ensureColumnsLoaded(int, int, int, int)} says they're being
+ * drawn. Until then {@link RowBlock#hasColumn(int)} is false for them.
+ * <p>
+ * All the methods may be called from the UI thread; listeners are notified on the UI thread.
+ */
+public class PagedRowSource {
+
+  /**
+   * Number of rows fetched by a single limit/offset query
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 128;
+  /**
+   * Maximum number of blocks kept in memory before the least recently used one is dropped
+   */
+  public static final int DEFAULT_MAX_BLOCKS = 16;
+  /**
+   * The most rows {@link #loadAllIfFits()} brings into memory at once, so they can be sorted,
+   * grouped and filtered without querying again. Past this, re-sorting or re-grouping runs the
+   * query again, apart from flipping the sort direction. Keeping every row of a table of tens of
+   * thousands of rows in memory isn't attempted, since their display text alone would take more
+   * memory than most devices give an app.
+   */
+  public static final int MAX_IN_MEMORY_ROWS = 8192;
+  /**
+   * Tables with more columns than this are paged by column as well as by row
+   */
+  public static final int WIDE_TABLE_COLUMNS = 64;
+  /**
+   * Number of columns, in the order they're displayed, fetched together for a wide table
+   */
+  public static final int COLUMN_BLOCK_SIZE = 32;
+  // How many column blocks are filled into blocks as they're loaded, the most recently drawn
+  private static final int MAX_WANTED_COLUMN_BLOCKS = 4;
+
+  // Used for logging
+  private static final String TAG = PagedRowSource.class.getSimpleName();
+  // The name of the column holding the result of the count query
+  private static final String COUNT_COLUMN = "row_count";
+  private static final String[] EMPTY_ARRAY = {};
+  // The metadata columns that tell one version of a row from another
+  private static final String[] ROW_VERSION_COLUMNS = { DataTableColumns.ID,
+      DataTableColumns.SAVEPOINT_TIMESTAMP, DataTableColumns.ROW_ETAG, DataTableColumns.SYNC_STATE,
+      DataTableColumns.CONFLICT_TYPE };
+
+  private final String appName;
+  private final String tableId;
+  private final OrderedColumns columns;
+  private final SQLQueryStruct query;
+  private final int blockSize;
+  /**
+   * The order the blocks are paged in: the query's sort columns with the row id last, so that
+   * rows that tie on them, or a query without any, come back in the same order for every block
+   * and none are repeated or skipped across block boundaries
+   */
+  private final String[] pagingOrderBy;
+  private final String[] pagingDirections;
+  /**
+   * The columns that display text is computed for, and the index of each one by element key
+   */
+  private final ColumnDefinition[] displayColumns;
+  private final Map<String, Integer> displayColumnIndexes = new HashMap<>();
+  // Whether the table is wide enough to be paged by column too
+  private final boolean windowed;
+
+  /**
+   * Loaded blocks, in no particular order, with null for an empty slot. There is room for every
+   * block of {@link #MAX_IN_MEMORY_ROWS} rows, but only cacheLimit of them are kept until
+   * {@link #loadAllIfFits()} is called. They are searched linearly. Guarded by itself.
+   */
+  private final RowBlock[] blocks;
+  /**
+   * When each slot of blocks was last used, as a value of useClock. Guarded by blocks.
+   */
+  private final long[] blockLastUsed;
+  private long useClock = 0;
+  /**
+   * How many blocks are kept before the least recently used one is dropped. Guarded by blocks.
+   */
+  private int cacheLimit;
+  /**
+   * Block numbers that have been handed to the loader but have not come back yet. Guarded by
+   * blocks.
+   */
+  private final BitSet pendingBlocks = new BitSet();
+  private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService loader;
+
+  private volatile int rowCount = 0;
+  private volatile boolean closed = false;
+  private volatile RowColorRules colorRules = null;
+  /**
+   * The order the rows are displayed in, if it isn't the order of the query: the query row of
+   * each displayed row. It can be shorter than the result if the rows were grouped in memory.
+   * Only set while every block is in memory, and replaced rather than modified.
+   */
+  private volatile int[] rowOrder = null;
+  // Whether the rows are displayed in the reverse of the order of the query
+  private volatile boolean reversed = false;
+  /**
+   * The display row of each query row, -1 for a row that isn't displayed, and the row order it
+   * was built from. Built the first time it's needed after the rows are reordered. Guarded by
+   * blocks.
+   */
+  private int[] inverseOrder = null;
+  private int[] inverseOrderOf = null;
+  // The last order handed out by getRowOrder, reused until the rows move. Guarded by blocks.
+  private RowOrder lastRowOrder = null;
+  /**
+   * The groups, if the rows were grouped in memory rather than by the query, and the numbers of
+   * the groups that are expanded. Guarded by blocks.
+   */
+  private GroupIndex groupIndex = null;
+  private final BitSet expandedGroups = new BitSet();
+  /**
+   * The rows sorted in memory before they're filtered and grouped, null for the order of the
+   * query, and the raw values of the columns they're grouped by in memory, or null if they aren't.
+   * Guarded by blocks.
+   */
+  private int[] sortedOrder = null;
+  private String[][] groupValues = null;
+  /**
+   * The filter the rows are narrowed down by in memory, the query rows that pass it, and the
+   * columns it has been run against so far, pulled out of the rows. The columns are dropped
+   * whenever a block changes. Guarded by blocks, though the mask is only ever replaced, never
+   * changed, so it can be read without the lock.
+   */
+  private RowFilter filter = null;
+  private volatile BitSet filterMask = null;
+  private final Map<String, RowFilter.ColumnVector> filterColumns = new HashMap<>();
+  /**
+   * The grouping and sort the rows are displayed in, either the query's own or the last ones
+   * passed to reorder, so that a patched row can be put back in its place. Guarded by blocks.
+   */
+  private String[] currentGroupBy;
+  private String[] currentOrderBy;
+  private String[] currentDirections;
+  // The most recently requested visible range, in blocks. Guarded by blocks.
+  private int firstVisibleBlock = 0;
+  private int lastVisibleBlock = 0;
+  private int lastFirstVisibleRow = 0;
+  /**
+   * For a wide table, the display columns every block is queried with; the others are filled in
+   * a column block at a time. Replaced rather than modified, guarded by blocks.
+   */
+  private BitSet rowColumns = null;
+  // The metadata columns, which every query of a wide table selects. Set by open()
+  private volatile String[] adminColumns = EMPTY_ARRAY;
+  /**
+   * The display columns of each column block, in the order the columns are displayed, with any
+   * that aren't displayed in blocks of their own at the end. Guarded by blocks.
+   */
+  private int[][] columnBlocks = new int[0][];
+  /**
+   * The column blocks that were drawn most recently, most recent first, which are filled into
+   * blocks as they're loaded. Guarded by blocks.
+   */
+  private final int[] wantedColumnBlocks = new int[MAX_WANTED_COLUMN_BLOCKS];
+  private int numWantedColumnBlocks = 0;
+  /**
+   * Column blocks that have been handed to the loader but not filled in yet, each as the block
+   * number in the high half and the column block in the low half. Guarded by blocks.
+   */
+  private final Set<Long> pendingFills = new HashSet<>();
+
+  /**
+   * Constructs a row source over the given query, using the default block size and cache size.
+   * Call {@link #open()} before asking for any rows.
+   *
+   * @param appName the app name
+   * @param tableId the table to query
+   * @param columns the column definitions of the table
+   * @param query   the where/group by/having/order by of the query to page through
+   */
+  public PagedRowSource(String appName, String tableId, OrderedColumns columns,
+      SQLQueryStruct query) {
+    this(appName, tableId, columns, query, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS);
+  }
+
+  /**
+   * Constructs a row source over the given query. Call {@link #open()} before asking for any
+   * rows.
+   *
+   * @param appName   the app name
+   * @param tableId   the table to query
+   * @param columns   the column definitions of the table
+   * @param query     the where/group by/having/order by of the query to page through
+   * @param blockSize the number of rows to fetch per query
+   * @param maxBlocks the number of blocks to keep in memory
+   */
+  public PagedRowSource(String appName, String tableId, OrderedColumns columns,
+      SQLQueryStruct query, int blockSize, int maxBlocks) {
+    this.appName = appName;
+    this.tableId = tableId;
+    this.columns = columns;
+    this.query = query;
+    this.blockSize = blockSize;
+    List<ColumnDefinition> retained = new ArrayList<>();
+    for (ColumnDefinition cd : columns.getColumnDefinitions()) {
+      if (cd.isUnitOfRetention()) {
+        displayColumnIndexes.put(cd.getElementKey(), retained.size());
+        retained.add(cd);
+      }
+    }
+    this.displayColumns = retained.toArray(new ColumnDefinition[retained.size()]);
+    // a grouped query can't be split by column, since the columns come out of the grouping
+    this.windowed = displayColumns.length > WIDE_TABLE_COLUMNS && (query.groupBy == null
+        || query.groupBy.length == 0);
+    this.currentGroupBy = query.groupBy == null ? EMPTY_ARRAY : query.groupBy;
+    String[] queryOrderBy = QueryUtil.convertStringToArray(query.orderByElementKey);
+    this.currentOrderBy = queryOrderBy == null ? EMPTY_ARRAY : queryOrderBy;
+    this.currentDirections = QueryUtil.convertStringToArray(query.orderByDirection);
+    List<String> orderBy = new ArrayList<>(Arrays.asList(currentOrderBy));
+    List<String> directions = new ArrayList<>();
+    for (int i = 0; i < currentOrderBy.length; ++i) {
+      directions.add(isDescending(currentDirections, i) ? "DESC" : "ASC");
+    }
+    if (!orderBy.contains(DataTableColumns.ID)) {
+      orderBy.add(DataTableColumns.ID);
+      directions.add("ASC");
+    }
+    this.pagingOrderBy = orderBy.toArray(new String[orderBy.size()]);
+    this.pagingDirections = directions.toArray(new String[directions.size()]);
+    int capacity = Math.max(maxBlocks, (MAX_IN_MEMORY_ROWS + blockSize - 1) / blockSize);
+    this.blocks = new RowBlock[capacity];
+    this.blockLastUsed = new long[capacity];
+    this.cacheLimit = maxBlocks;
+    if (windowed) {
+      rowColumns = new BitSet(displayColumns.length);
+      for (String elementKey : currentOrderBy) {
+        Integer index = displayColumnIndexes.get(elementKey);
+        if (index != null) {
+          rowColumns.set(index);
+        }
+      }
+      setColumnOrder(EMPTY_ARRAY);
+    }
+    this.loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Makes a row source that holds every row already, as display text, and never touches the
+   * database. For drawing a spreadsheet in tests.
+   *
+   * @param appName     the app name
+   * @param tableId     the table
+   * @param columns     the column definitions, which must not make a wide table
+   * @param displayText the display text of each cell, indexed by display column index and then
+   *                    row
+   * @param blockSize   the number of rows per block
+   * @return the row source, with every block in memory
+   */
+  @VisibleForTesting
+  public static PagedRowSource fromDisplayText(String appName, String tableId,
+      OrderedColumns columns, String[][] displayText, int blockSize) {
+    int numRows = displayText.length == 0 ? 0 : displayText[0].length;
+    int numBlocks = Math.max(1, (numRows + blockSize - 1) / blockSize);
+    PagedRowSource source = new PagedRowSource(appName, tableId, columns,
+        new SQLQueryStruct(null, null, null, null, null, null), blockSize, numBlocks);
+    source.rowCount = numRows;
+    for (int b = 0; b * blockSize < numRows; ++b) {
+      int firstRow = b * blockSize;
+      int rows = Math.min(blockSize, numRows - firstRow);
+      String[][] text = new String[displayText.length][];
+      for (int col = 0; col < text.length; ++col) {
+        text[col] = Arrays.copyOfRange(displayText[col], firstRow, firstRow + rows);
+      }
+      source.storeBlock(b, new RowBlock(firstRow, rows, text));
+    }
+    return source;
+  }
+
+  /**
+   * Runs the count query and loads the first block, so that the first screen of rows can be
+   * drawn immediately. For a wide table that's the first block of columns too, unless
+   * {@link #loadColumns(int, int)} has already asked for others.
+   *
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public void open() throws ServicesAvailabilityException {
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      db = dbInterface.openDatabase(appName);
+      if (windowed) {
+        adminColumns = dbInterface.getAdminColumns();
+        synchronized (blocks) {
+          if (numWantedColumnBlocks == 0) {
+            wantColumnBlock(0);
+          }
+        }
+      }
+      rowCount = queryRowCount(dbInterface, db);
+      if (rowCount > 0) {
+        storeBlock(0, loadBlock(dbInterface, db, 0));
+      }
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+  }
+
+  /**
+   * Loads every block of the result on the calling thread, as long as there are no more than
+   * {@link #MAX_IN_MEMORY_ROWS} rows. They're all kept from then on, and can be sorted and
+   * grouped in memory by {@link #reorder(String[], String[], String[])}.
+   *
+   * @return true if every row is now in memory, false if there are too many of them
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public boolean loadAllIfFits() throws ServicesAvailabilityException {
+    int numBlocks = (rowCount + blockSize - 1) / blockSize;
+    if (numBlocks > blocks.length) {
+      return false;
+    }
+    synchronized (blocks) {
+      cacheLimit = blocks.length;
+    }
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      db = dbInterface.openDatabase(appName);
+      for (int b = 0; b * blockSize < rowCount; ++b) {
+        synchronized (blocks) {
+          if (findSlot(b) != -1) {
+            continue;
+          }
+        }
+        storeBlock(b, loadBlock(dbInterface, db, b));
+      }
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+    synchronized (blocks) {
+      return getResidentBlocks() != null;
+    }
+  }
+
+  /**
+   * Stops the loader and drops every cached block. The source can't be used after this.
+   */
+  public void close() {
+    closed = true;
+    loader.shutdownNow();
+    listeners.clear();
+    synchronized (blocks) {
+      Arrays.fill(blocks, null);
+      pendingBlocks.clear();
+      pendingFills.clear();
+    }
+  }
+
+  public String getAppName() {
+    return appName;
+  }
+
+  public String getTableId() {
+    return tableId;
+  }
+
+  /**
+   * The number of rows in the result. This starts out as the result of the count query and is
+   * lowered if a block comes back shorter than the count said it would be, or if the rows are
+   * grouped in memory. It only goes up when a new row is patched in.
+   *
+   * @return the number of rows
+   */
+  public int getRowCount() {
+    int[] order = rowOrder;
+    return order == null ? rowCount : order.length;
+  }
+
+  /**
+   * Turns the index of a row as it is displayed into the index of the row in the result of the
+   * query, which is what {@link RowBlock} uses. They only differ once the rows have been
+   * reordered in memory.
+   *
+   * @param rowIndex the index of the row as displayed
+   * @return the index of the same row in the query result
+   */
+  public int toQueryRow(int rowIndex) {
+    int[] order = rowOrder;
+    if (order != null) {
+      return order[rowIndex];
+    }
+    return reversed ? rowCount - 1 - rowIndex : rowIndex;
+  }
+
+  /**
+   * The inverse of {@link #toQueryRow(int)}: finds where a row of the query result is displayed
+   *
+   * @param queryRow the index of the row in the query result
+   * @return the index of the row as displayed, or -1 if it isn't displayed, like a row inside a
+   * collapsed group
+   */
+  public int toDisplayRow(int queryRow) {
+    int[] order = rowOrder;
+    if (order == null) {
+      int count = rowCount;
+      if (queryRow < 0 || queryRow >= count) {
+        return -1;
+      }
+      return reversed ? count - 1 - queryRow : queryRow;
+    }
+    synchronized (blocks) {
+      if (inverseOrderOf != order) {
+        inverseOrder = new int[rowCount];
+        Arrays.fill(inverseOrder, -1);
+        for (int i = 0; i < order.length; ++i) {
+          inverseOrder[order[i]] = i;
+        }
+        inverseOrderOf = order;
+      }
+      return queryRow < 0 || queryRow >= inverseOrder.length ? -1 : inverseOrder[queryRow];
+    }
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Gets the index to pass to {@link RowBlock#getDisplayText(int, int)} for a column. Look this
+   * up once, not per cell.
+   *
+   * @param elementKey the element key of the column
+   * @return the display text index of the column, or -1 if it has no display text
+   */
+  public int getDisplayColumnIndex(String elementKey) {
+    Integer index = displayColumnIndexes.get(elementKey);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * @return whether the table is wide enough to be paged by column as well as by row, so that
+   * its blocks only have some of its columns
+   */
+  public boolean isWindowed() {
+    return windowed;
+  }
+
+  /**
+   * Sets the order the columns are displayed in, which is how the columns of a wide table are
+   * split into column blocks. Nothing is queried. Does nothing for a table that isn't wide.
+   *
+   * @param elementKeys the columns as displayed, ones that have no display text are skipped
+   */
+  public void setColumnOrder(String[] elementKeys) {
+    if (!windowed) {
+      return;
+    }
+    List<int[]> split = new ArrayList<>();
+    BitSet placed = new BitSet(displayColumns.length);
+    for (int start = 0; start < elementKeys.length; start += COLUMN_BLOCK_SIZE) {
+      int end = Math.min(elementKeys.length, start + COLUMN_BLOCK_SIZE);
+      List<Integer> block = new ArrayList<>();
+      for (int i = start; i < end; ++i) {
+        Integer index = displayColumnIndexes.get(elementKeys[i]);
+        if (index != null && !placed.get(index)) {
+          placed.set(index);
+          block.add(index);
+        }
+      }
+      split.add(toArray(block));
+    }
+    List<Integer> rest = new ArrayList<>();
+    for (int col = placed.nextClearBit(0); col < displayColumns.length;
+         col = placed.nextClearBit(col + 1)) {
+      rest.add(col);
+      if (rest.size() == COLUMN_BLOCK_SIZE) {
+        split.add(toArray(rest));
+        rest.clear();
+      }
+    }
+    if (!rest.isEmpty()) {
+      split.add(toArray(rest));
+    }
+    synchronized (blocks) {
+      columnBlocks = split.toArray(new int[split.size()][]);
+      // the numbers of the old column blocks mean nothing now
+      numWantedColumnBlocks = 0;
+    }
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; ++i) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * Makes sure some columns of a wide table come with every block, rather than only once they're
+   * drawn, like the ones its rows are grouped or colored by. Blocks that are already in memory
+   * without them are queried again on the calling thread. Does nothing for a table that isn't
+   * wide.
+   *
+   * @param elementKeys the columns
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public void pinColumns(Collection<String> elementKeys) throws ServicesAvailabilityException {
+    if (!windowed) {
+      return;
+    }
+    RowBlock[] stale;
+    synchronized (blocks) {
+      BitSet pinned = (BitSet) rowColumns.clone();
+      for (String elementKey : elementKeys) {
+        Integer index = displayColumnIndexes.get(elementKey);
+        if (index != null) {
+          pinned.set(index);
+        }
+      }
+      if (pinned.equals(rowColumns)) {
+        return;
+      }
+      rowColumns = pinned;
+      stale = blocks.clone();
+    }
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      for (RowBlock block : stale) {
+        if (block == null || closed) {
+          continue;
+        }
+        if (db == null) {
+          db = dbInterface.openDatabase(appName);
+        }
+        int blockNumber = block.getFirstRow() / blockSize;
+        RowBlock fresh = loadBlock(dbInterface, db, blockNumber);
+        synchronized (blocks) {
+          if (findSlot(blockNumber) == -1) {
+            continue;
+          }
+        }
+        storeBlock(blockNumber, fresh);
+        notifyBlockLoaded(fresh);
+      }
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+  }
+
+  /**
+   * Sets the color rules to evaluate against each block as it is loaded. The blocks that are
+   * already in memory are evaluated on the calling thread. For a wide table, the columns the
+   * table and status rules look at are pinned first, see {@link #pinColumns(Collection)}.
+   *
+   * @param rules the rules, or null to stop coloring rows
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public void setColorRules(RowColorRules rules) throws ServicesAvailabilityException {
+    if (rules != null) {
+      pinColumns(rules.getRowElementKeys());
+    }
+    colorRules = rules;
+    RowBlock[] loaded;
+    synchronized (blocks) {
+      loaded = blocks.clone();
+    }
+    for (RowBlock block : loaded) {
+      if (block != null) {
+        applyColorRules(block);
+      }
+    }
+  }
+
+  public void addListener(Listener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Gets the block holding the given row if it is in memory. Never touches the database.
+   *
+   * @param rowIndex the index of the row as displayed
+   * @return the block containing that row, or null if it hasn't been loaded
+   */
+  public RowBlock peekBlock(int rowIndex) {
+    if (rowIndex < 0 || rowIndex >= getRowCount()) {
+      return null;
+    }
+    synchronized (blocks) {
+      int slot = findSlot(toQueryRow(rowIndex) / blockSize);
+      if (slot == -1) {
+        return null;
+      }
+      blockLastUsed[slot] = ++useClock;
+      return blocks[slot];
+    }
+  }
+
+  /**
+   * Gets the order the rows are displayed in right now, for drawing rows off the UI thread,
+   * where the rows may be reordered part way through. The same one is handed out until they are.
+   *
+   * @return the order
+   */
+  public RowOrder getRowOrder() {
+    synchronized (blocks) {
+      RowOrder last = lastRowOrder;
+      if (last == null || last.order != rowOrder || last.reversed != reversed
+          || last.rowCount != rowCount) {
+        last = new RowOrder(rowOrder, reversed, rowCount);
+        lastRowOrder = last;
+      }
+      return last;
+    }
+  }
+
+  /**
+   * Gets the block holding a row if it is in memory, going by an order the rows were in. Never
+   * touches the database.
+   *
+   * @param order    the order, from {@link #getRowOrder()}
+   * @param rowIndex the index of the row as displayed in that order
+   * @return the block containing that row, or null if it hasn't been loaded
+   */
+  public RowBlock peekBlock(RowOrder order, int rowIndex) {
+    if (rowIndex < 0 || rowIndex >= order.getRowCount()) {
+      return null;
+    }
+    int queryRow = order.toQueryRow(rowIndex);
+    synchronized (blocks) {
+      int slot = findSlot(queryRow / blockSize);
+      if (slot == -1 || !blocks[slot].contains(queryRow)) {
+        return null;
+      }
+      blockLastUsed[slot] = ++useClock;
+      return blocks[slot];
+    }
+  }
+
+  /**
+   * Finds the slot holding a block. Must be called while holding the blocks lock.
+   *
+   * @param blockNumber the block to look for
+   * @return its index in blocks, or -1 if it isn't loaded
+   */
+  private int findSlot(int blockNumber) {
+    int firstRow = blockNumber * blockSize;
+    for (int i = 0; i < blocks.length; ++i) {
+      if (blocks[i] != null && blocks[i].getFirstRow() == firstRow) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the row at the given index, querying the database on the calling thread if the block
+   * holding it isn't in memory. Meant for one-off lookups like building a context menu, not for
+   * drawing.
+   *
+   * @param rowIndex the index of the row as displayed
+   * @return the row, or null if the index is out of bounds
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public TypedRow getRowBlocking(int rowIndex) throws ServicesAvailabilityException {
+    RowBlock block = getBlockBlocking(rowIndex);
+    return block == null ? null : block.getRow(toQueryRow(rowIndex));
+  }
+
+  /**
+   * Gets the block holding the given row, querying the database on the calling thread if it
+   * isn't in memory. The block is loaded the same way the loader thread does it, so for a wide
+   * table it has the columns that were drawn most recently too, and the listeners are told.
+   *
+   * @param rowIndex the index of the row as displayed
+   * @return the block containing that row, or null if the index is out of bounds
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public RowBlock getBlockBlocking(int rowIndex) throws ServicesAvailabilityException {
+    if (rowIndex < 0 || rowIndex >= getRowCount()) {
+      return null;
+    }
+    RowBlock block = peekBlock(rowIndex);
+    if (block != null) {
+      return block;
+    }
+    int queryRow = toQueryRow(rowIndex);
+    int blockNumber = queryRow / blockSize;
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      db = dbInterface.openDatabase(appName);
+      block = loadBlock(dbInterface, db, blockNumber);
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+    if (!closed) {
+      storeBlock(blockNumber, block);
+      notifyBlockLoaded(block);
+    }
+    return block.contains(queryRow) ? block : null;
+  }
+
+  /**
+   * @return the number of blocks the result of the query is split into
+   */
+  int getNumberOfBlocks() {
+    return (rowCount + blockSize - 1) / blockSize;
+  }
+
+  /**
+   * Gets a block if it is in memory, without counting it as used
+   *
+   * @param blockNumber the block to look for
+   * @return the block, or null if it isn't loaded
+   */
+  RowBlock getResidentBlock(int blockNumber) {
+    synchronized (blocks) {
+      int slot = findSlot(blockNumber);
+      return slot == -1 ? null : blocks[slot];
+    }
+  }
+
+  /**
+   * Gets a sample of the result for working out things like column widths: up to the given
+   * number of blocks, spread evenly from the first block to the last, with every column. Blocks
+   * that are in memory are used as they are, as long as they have every column. The rest are
+   * queried on the calling thread and not kept, so that sampling doesn't push the rows on screen
+   * out of memory.
+   *
+   * @param maxBlocks the most blocks to return
+   * @return the sampled blocks, in order
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public List<RowBlock> sampleBlocks(int maxBlocks) throws ServicesAvailabilityException {
+    List<RowBlock> sample = new ArrayList<>();
+    int numBlocks = getNumberOfBlocks();
+    int numSamples = Math.min(numBlocks, maxBlocks);
+    if (closed || numSamples <= 0) {
+      return sample;
+    }
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      for (int i = 0; i < numSamples; ++i) {
+        int blockNumber = numSamples == 1 ? 0 : (int) ((long) i * (numBlocks - 1)
+            / (numSamples - 1));
+        RowBlock block = getResidentBlock(blockNumber);
+        if (block == null || !block.isComplete()) {
+          if (db == null) {
+            db = dbInterface.openDatabase(appName);
+          }
+          block = completeBlock(dbInterface, db, blockNumber, block);
+        }
+        sample.add(block);
+      }
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+    return sample;
+  }
+
+  /**
+   * Tells the source which rows are on screen. Any block in that range that isn't in memory is
+   * queued for loading, along with the next block in the direction the user is scrolling.
+   *
+   * @param firstRow the first visible row
+   * @param lastRow  the last visible row
+   */
+  public void ensureLoaded(int firstRow, int lastRow) {
+    int count = rowCount;
+    if (closed || count == 0 || rowOrder != null) {
+      // the rows are only ever reordered once they are all in memory
+      return;
+    }
+    firstRow = Math.max(0, Math.min(firstRow, count - 1));
+    lastRow = Math.max(firstRow, Math.min(lastRow, count - 1));
+    if (reversed) {
+      int lastQueryRow = count - 1 - firstRow;
+      firstRow = count - 1 - lastRow;
+      lastRow = lastQueryRow;
+    }
+    synchronized (blocks) {
+      boolean scrollingDown = firstRow >= lastFirstVisibleRow;
+      lastFirstVisibleRow = firstRow;
+      firstVisibleBlock = firstRow / blockSize;
+      lastVisibleBlock = lastRow / blockSize;
+      for (int b = firstVisibleBlock; b <= lastVisibleBlock; ++b) {
+        requestBlock(b);
+      }
+      requestBlock(scrollingDown ? lastVisibleBlock + 1 : firstVisibleBlock - 1);
+    }
+  }
+
+  /**
+   * Queues a block for loading unless it is already loaded, already queued or out of range.
+   * Must be called while holding the blocks lock.
+   *
+   * @param blockNumber the block to load
+   */
+  private void requestBlock(final int blockNumber) {
+    if (blockNumber < 0 || blockNumber * blockSize >= rowCount) {
+      return;
+    }
+    if (pendingBlocks.get(blockNumber) || findSlot(blockNumber) != -1) {
+      return;
+    }
+    pendingBlocks.set(blockNumber);
+    loader.execute(new Runnable() {
+      @Override
+      public void run() {
+        loadInBackground(blockNumber);
+      }
+    });
+  }
+
+  /**
+   * Tells the source which columns of a wide table are on screen. Those column blocks are filled
+   * into whichever blocks on screen don't have them yet, in the background, and into blocks
+   * loaded from now on, until enough other columns have been drawn. Call it after
+   * {@link #ensureLoaded(int, int)}. Does nothing for a table that isn't wide.
+   *
+   * @param firstRow    the first visible row
+   * @param lastRow     the last visible row
+   * @param firstColumn the first visible column, as an index into the order passed to
+   *                    {@link #setColumnOrder(String[])}
+   * @param lastColumn  the last visible column
+   */
+  public void ensureColumnsLoaded(int firstRow, int lastRow, int firstColumn, int lastColumn) {
+    int count = getRowCount();
+    if (!windowed || closed || count == 0) {
+      return;
+    }
+    firstRow = Math.max(0, Math.min(firstRow, count - 1));
+    lastRow = Math.max(firstRow, Math.min(lastRow, count - 1));
+    synchronized (blocks) {
+      int firstColumnBlock = Math.max(0, firstColumn / COLUMN_BLOCK_SIZE);
+      int lastColumnBlock = Math.min(columnBlocks.length - 1, lastColumn / COLUMN_BLOCK_SIZE);
+      for (int c = firstColumnBlock; c <= lastColumnBlock; ++c) {
+        wantColumnBlock(c);
+        if (rowOrder == null) {
+          int a = toQueryRow(firstRow);
+          int b = toQueryRow(lastRow);
+          for (int n = Math.min(a, b) / blockSize; n <= Math.max(a, b) / blockSize; ++n) {
+            requestFill(n, c);
+          }
+        } else {
+          for (int row = firstRow; row <= lastRow; ++row) {
+            requestFill(toQueryRow(row) / blockSize, c);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Fills column blocks of a wide table into every block in memory on the calling thread, and
+   * into blocks loaded from now on, for opening the table at the columns that are about to be
+   * drawn. Does nothing for a table that isn't wide.
+   *
+   * @param firstColumn the first column, as an index into the order passed to
+   *                    {@link #setColumnOrder(String[])}
+   * @param lastColumn  the last column
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public void loadColumns(int firstColumn, int lastColumn)
+      throws ServicesAvailabilityException {
+    if (!windowed || closed) {
+      return;
+    }
+    int[] wanted;
+    RowBlock[] resident;
+    synchronized (blocks) {
+      int lastColumnBlock = Math.min(columnBlocks.length - 1, lastColumn / COLUMN_BLOCK_SIZE);
+      List<Integer> columns = new ArrayList<>();
+      for (int c = Math.max(0, firstColumn / COLUMN_BLOCK_SIZE); c <= lastColumnBlock; ++c) {
+        wantColumnBlock(c);
+        for (int col : columnBlocks[c]) {
+          columns.add(col);
+        }
+      }
+      wanted = toArray(columns);
+      resident = blocks.clone();
+    }
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      for (RowBlock block : resident) {
+        int[] missing = block == null ? null : block.getMissingColumns(wanted);
+        if (missing == null || missing.length == 0) {
+          continue;
+        }
+        if (db == null) {
+          db = dbInterface.openDatabase(appName);
+        }
+        UserTable fill = queryColumns(dbInterface, db, block.getFirstRow(), missing);
+        RowBlock filled = storeFill(block.getFirstRow() / blockSize, missing, fill);
+        if (filled != null) {
+          notifyBlockLoaded(filled);
+        }
+      }
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+  }
+
+  /**
+   * Moves a column block to the front of the ones filled into blocks as they're loaded. Must be
+   * called while holding the blocks lock.
+   *
+   * @param columnBlock the column block
+   */
+  private void wantColumnBlock(int columnBlock) {
+    int i = 0;
+    while (i < numWantedColumnBlocks && wantedColumnBlocks[i] != columnBlock) {
+      ++i;
+    }
+    if (i == numWantedColumnBlocks && numWantedColumnBlocks < MAX_WANTED_COLUMN_BLOCKS) {
+      ++numWantedColumnBlocks;
+    }
+    for (i = Math.min(i, MAX_WANTED_COLUMN_BLOCKS - 1); i > 0; --i) {
+      wantedColumnBlocks[i] = wantedColumnBlocks[i - 1];
+    }
+    wantedColumnBlocks[0] = columnBlock;
+  }
+
+  /**
+   * @return whether a column block is one of the ones drawn most recently. Must be called while
+   * holding the blocks lock.
+   */
+  private boolean isWanted(int columnBlock) {
+    for (int i = 0; i < numWantedColumnBlocks; ++i) {
+      if (wantedColumnBlocks[i] == columnBlock) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Queues a column block to be filled into a block in memory, unless the block isn't in memory,
+   * already has the columns or is already queued for them. Must be called while holding the
+   * blocks lock.
+   *
+   * @param blockNumber the block
+   * @param columnBlock the column block
+   */
+  private void requestFill(final int blockNumber, final int columnBlock) {
+    int slot = findSlot(blockNumber);
+    if (slot == -1 || blocks[slot].hasColumns(columnBlocks[columnBlock])) {
+      // a block that's still loading is filled with the wanted columns when it comes in
+      return;
+    }
+    final Long key = ((long) blockNumber << 32) | columnBlock;
+    if (!pendingFills.add(key)) {
+      return;
+    }
+    loader.execute(new Runnable() {
+      @Override
+      public void run() {
+        fillInBackground(blockNumber, columnBlock, key);
+      }
+    });
+  }
+
+  /**
+   * Runs on the loader thread. Skips the fill if the block was dropped, the columns haven't been
+   * drawn in a while or the user has scrolled well away from the block, otherwise queries the
+   * columns and tells the listeners.
+   *
+   * @param blockNumber the block
+   * @param columnBlock the column block
+   * @param key         the key of the fill in pendingFills
+   */
+  private void fillInBackground(int blockNumber, int columnBlock, Long key) {
+    RowBlock block;
+    int[] missing;
+    synchronized (blocks) {
+      int slot = findSlot(blockNumber);
+      boolean visible = rowOrder != null || (blockNumber >= firstVisibleBlock - 1
+          && blockNumber <= lastVisibleBlock + 1);
+      if (closed || slot == -1 || !visible || !isWanted(columnBlock)) {
+        pendingFills.remove(key);
+        return;
+      }
+      block = blocks[slot];
+      missing = block.getMissingColumns(columnBlocks[columnBlock]);
+    }
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      if (dbInterface != null && missing.length != 0) {
+        db = dbInterface.openDatabase(appName);
+        UserTable fill = queryColumns(dbInterface, db, block.getFirstRow(), missing);
+        RowBlock filled = closed ? null : storeFill(blockNumber, missing, fill);
+        if (filled != null) {
+          notifyBlockLoaded(filled);
+        }
+      }
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to load columns for block " + blockNumber);
+    } finally {
+      synchronized (blocks) {
+        pendingFills.remove(key);
+      }
+      if (db != null) {
+        try {
+          dbInterface.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs on the loader thread. Skips the block if the user has scrolled well away from it
+   * since it was queued, otherwise queries it and tells the listeners.
+   *
+   * @param blockNumber the block to load
+   */
+  private void loadInBackground(int blockNumber) {
+    synchronized (blocks) {
+      if (closed || blockNumber < firstVisibleBlock - 1 || blockNumber > lastVisibleBlock + 1) {
+        pendingBlocks.clear(blockNumber);
+        return;
+      }
+    }
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    if (dbInterface == null) {
+      synchronized (blocks) {
+        pendingBlocks.clear(blockNumber);
+      }
+      return;
+    }
+    DbHandle db = null;
+    try {
+      db = dbInterface.openDatabase(appName);
+      RowBlock block = loadBlock(dbInterface, db, blockNumber);
+      if (!closed) {
+        storeBlock(blockNumber, block);
+        notifyBlockLoaded(block);
+      }
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to load rows for block " + blockNumber);
+    } finally {
+      synchronized (blocks) {
+        pendingBlocks.clear(blockNumber);
+      }
+      if (db != null) {
+        try {
+          dbInterface.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Changes the order of the rows without running the query again, if that can be done.
+   * <p>
+   * If every row of the result is in memory, the rows are sorted (and grouped, if the query
+   * wasn't already grouped) right here, and any groups that were expanded are collapsed.
+   * Otherwise the only change that can be made is reversing the order of the query, which is just
+   * a matter of counting the rows from the other end, so flipping the sort direction works however
+   * big the table is.
+   *
+   * @param groupBy            the columns to group by, may be null
+   * @param orderByElementKeys the columns to sort by, in order, may be null
+   * @param orderByDirections  ASC or DESC for each sort column, may be null
+   * @return true if the new order is in place, false if the query has to be run again for it
+   */
+  public boolean reorder(String[] groupBy, String[] orderByElementKeys,
+      String[] orderByDirections) {
+    if (closed) {
+      return false;
+    }
+    String[] queryGroupBy = query.groupBy == null ? EMPTY_ARRAY : query.groupBy;
+    groupBy = groupBy == null ? EMPTY_ARRAY : groupBy;
+    String[] orderBy = orderByElementKeys == null ? EMPTY_ARRAY : orderByElementKeys;
+    boolean sameGroups = Arrays.equals(queryGroupBy, groupBy);
+    synchronized (blocks) {
+      RowBlock[] resident = getResidentBlocks();
+      // a grouped result doesn't have the rows needed to group it any other way
+      if (resident != null && (sameGroups || queryGroupBy.length == 0) && hasRowColumns(groupBy)
+          && hasRowColumns(orderBy)) {
+        if (sameGroups) {
+          groupValues = null;
+          sortedOrder = sortRows(resident, EMPTY_ARRAY, orderBy, orderByDirections);
+        } else {
+          groupValues = new String[groupBy.length][];
+          for (int i = 0; i < groupBy.length; ++i) {
+            groupValues[i] = getRawValues(resident, groupBy[i]);
+          }
+          sortedOrder = sortRows(resident, groupBy, orderBy, orderByDirections);
+        }
+        reversed = false;
+        if (filter != null) {
+          // the rows may have changed since the filter was run
+          filterMask = filter.evaluate(getFilterColumn(resident, filter.getElementKey()));
+        }
+        layoutRows();
+        setCurrentOrder(groupBy, orderBy, orderByDirections);
+        return true;
+      }
+      if (!sameGroups || rowOrder != null) {
+        return false;
+      }
+      String[] queryOrderBy = QueryUtil.convertStringToArray(query.orderByElementKey);
+      if (queryOrderBy == null || queryOrderBy.length == 0 || !Arrays
+          .equals(queryOrderBy, orderBy)) {
+        return false;
+      }
+      String[] queryDirections = QueryUtil.convertStringToArray(query.orderByDirection);
+      boolean allSame = true;
+      boolean allFlipped = true;
+      for (int i = 0; i < orderBy.length; ++i) {
+        boolean queryDescending = isDescending(queryDirections, i);
+        boolean descending = isDescending(orderByDirections, i);
+        allSame &= queryDescending == descending;
+        allFlipped &= queryDescending != descending;
+      }
+      if (allSame || allFlipped) {
+        reversed = allFlipped;
+        setCurrentOrder(groupBy, orderBy, orderByDirections);
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Narrows the rows down to the ones that pass a filter, or shows them all again, without
+   * running the query again, if that can be done. It can if every row of the result is in memory
+   * (see {@link #loadAllIfFits()}) and, for a wide table, has the column filtered on (see
+   * {@link #pinColumns(Collection)}). The rows keep their order and grouping, and any groups that
+   * were expanded are collapsed.
+   *
+   * @param newFilter the filter, or null to show every row
+   * @return true if the rows are now filtered, false if the query has to be run with the filter
+   * in its where clause instead
+   */
+  public boolean setFilter(RowFilter newFilter) {
+    synchronized (blocks) {
+      if (newFilter == null) {
+        if (filter != null) {
+          filter = null;
+          filterMask = null;
+          layoutRows();
+        }
+        return true;
+      }
+      // a query that does the grouping itself has no rows to filter, just groups
+      RowBlock[] resident = getResidentBlocks();
+      if (closed || resident == null || (query.groupBy != null && query.groupBy.length != 0)
+          || !hasRowColumns(new String[] { newFilter.getElementKey() })) {
+        return false;
+      }
+      filter = newFilter;
+      filterMask = newFilter.evaluate(getFilterColumn(resident, newFilter.getElementKey()));
+      layoutRows();
+      return true;
+    }
+  }
+
+  /**
+   * Gets the rows of the query result that pass the filter set in memory. Unlike
+   * {@link #toDisplayRow(int)}, a row hidden in a collapsed group still passes.
+   *
+   * @return the query rows that pass, or null if the rows aren't filtered in memory. Don't change
+   * it.
+   */
+  BitSet getFilterMask() {
+    return filterMask;
+  }
+
+  /**
+   * Gets the values of a column to run a filter against, pulling them out of the rows the first
+   * time. Must be called while holding the blocks lock.
+   *
+   * @param resident   every block of the result, in order
+   * @param elementKey the column
+   * @return the values of the column in every row
+   */
+  private RowFilter.ColumnVector getFilterColumn(RowBlock[] resident, String elementKey) {
+    RowFilter.ColumnVector column = filterColumns.get(elementKey);
+    if (column == null) {
+      column = RowFilter.ColumnVector
+          .build(getDataType(elementKey), getRawValues(resident, elementKey));
+      filterColumns.put(elementKey, column);
+    }
+    return column;
+  }
+
+  /**
+   * Works out the rows to display from the sorted rows: the ones that pass the filter, grouped
+   * if the rows are grouped in memory. Must be called while holding the blocks lock.
+   */
+  private void layoutRows() {
+    int[] order = sortedOrder;
+    if (filterMask != null) {
+      int[] passed = new int[filterMask.cardinality()];
+      int next = 0;
+      int numRows = order != null ? order.length : rowCount;
+      for (int i = 0; i < numRows && next < passed.length; ++i) {
+        int row = order != null ? order[i] : (reversed ? rowCount - 1 - i : i);
+        if (filterMask.get(row)) {
+          passed[next++] = row;
+        }
+      }
+      order = passed;
+    }
+    // the group numbers change with the rows in them
+    expandedGroups.clear();
+    if (groupValues != null && order != null) {
+      groupIndex = GroupIndex.build(order, groupValues);
+      rowOrder = groupIndex.layout(expandedGroups);
+    } else {
+      groupIndex = null;
+      rowOrder = order;
+    }
+  }
+
+  /**
+   * @return whether every block has the given columns, which only a wide table can be missing.
+   * Must be called while holding the blocks lock.
+   */
+  private boolean hasRowColumns(String[] elementKeys) {
+    if (!windowed) {
+      return true;
+    }
+    for (String elementKey : elementKeys) {
+      Integer index = displayColumnIndexes.get(elementKey);
+      if (index != null && !rowColumns.get(index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remembers the order the rows are in. Must be called while holding the blocks lock.
+   */
+  private void setCurrentOrder(String[] groupBy, String[] orderBy, String[] orderByDirections) {
+    currentGroupBy = groupBy;
+    currentOrderBy = orderBy;
+    currentDirections = orderByDirections;
+  }
+
+  /**
+   * Brings in a row that was added or edited somewhere else, like in Survey, without running the
+   * query again. Only that row is queried, by its id, and the block it's in is replaced by a copy
+   * with the new values, display text and colors of that one row, so nothing else is reloaded or
+   * reformatted.
+   * <p>
+   * A row that moves, because a value it's sorted or grouped by changed or because it's new, is
+   * put in its place by sorting the rows in memory again, which needs every row to be in memory.
+   * The exception is a new row when the rows are in the order they were inserted, which just goes
+   * on the end. Anything else, like a row that no longer matches the query or a query that does
+   * the grouping itself, needs the query to be run again. Only the patched block is reported to
+   * the listeners, unless rows were added or moved, when they're told that too.
+   *
+   * @param rowId the id of the row
+   * @param added whether the row is new, rather than edited
+   * @return true if the source is up to date, false if the query has to be run again
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public boolean patchRow(String rowId, boolean added) throws ServicesAvailabilityException {
+    if (closed || (query.groupBy != null && query.groupBy.length != 0)) {
+      return false;
+    }
+    UserTable fetched = queryRowById(rowId);
+    boolean matches = fetched != null && fetched.getNumberOfRows() != 0;
+    RowBlock patched = null;
+    synchronized (blocks) {
+      if (closed) {
+        return false;
+      }
+      int queryRow = findQueryRow(rowId);
+      if (!matches) {
+        // a new row the query doesn't show changes nothing, anything else might have left it
+        return added && queryRow == -1;
+      }
+      boolean ordered = currentOrderBy.length != 0 || currentGroupBy.length != 0;
+      RowBlock[] resident = getResidentBlocks();
+      boolean resort;
+      boolean moved;
+      if (queryRow != -1) {
+        int slot = findSlot(queryRow / blockSize);
+        resort = keysChanged(blocks[slot].getRow(queryRow), fetched.getRowAtIndex(0));
+        if (resort && resident == null) {
+          return false;
+        }
+        patched = patchBlock(slot, queryRow, fetched);
+        moved = resort;
+      } else {
+        // an edited row that isn't in memory may or may not have been in the result before
+        if ((!added || ordered) && resident == null) {
+          return false;
+        }
+        int slot = findSlot(rowCount / blockSize);
+        if (slot != -1) {
+          patched = patchBlock(slot, rowCount, fetched);
+        } else if (resident != null) {
+          // the last block is full, so the row starts a new one
+          if (resident.length == blocks.length) {
+            return false;
+          }
+          patched = new RowBlock(rowCount, fetched, formatDisplayText(fetched, null), null);
+          storeBlock(rowCount / blockSize, patched);
+        }
+        rowCount = rowCount + 1;
+        resort = ordered;
+        moved = true;
+      }
+      if (resort) {
+        // the row is in its block but not in its place, so the query has to be run again
+        if (!reorder(currentGroupBy, currentOrderBy, currentDirections)) {
+          return false;
+        }
+      } else if (filter != null) {
+        // the row may have started or stopped passing the filter
+        RowBlock[] all = getResidentBlocks();
+        if (all == null) {
+          return false;
+        }
+        filterMask = filter.evaluate(getFilterColumn(all, filter.getElementKey()));
+        layoutRows();
+        moved = true;
+      }
+    }
+    if (patched != null) {
+      notifyBlockLoaded(patched);
+    }
+    if (moved) {
+      notifyRowsMoved();
+    }
+    return true;
+  }
+
+  /**
+   * Brings the rows in memory up to date after something else changed the table, without
+   * starting over. The rows are counted again and every block in memory is queried again on the
+   * calling thread, but only the blocks whose rows changed are replaced and reported to the
+   * listeners. Blocks that aren't in memory are read fresh whenever they're next needed anyway.
+   * <p>
+   * A count that moved shifts every block after the change, and rows sorted, grouped or filtered
+   * in memory are laid out from all of them, so those are left to a new source, as is a query
+   * that does the grouping itself.
+   *
+   * @return true if the source is up to date, false if the query has to be run again
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public boolean refresh() throws ServicesAvailabilityException {
+    List<Integer> resident = new ArrayList<>();
+    synchronized (blocks) {
+      if (closed || rowOrder != null || filter != null || (query.groupBy != null
+          && query.groupBy.length != 0)) {
+        return false;
+      }
+      for (RowBlock block : blocks) {
+        if (block != null) {
+          resident.add(block.getFirstRow() / blockSize);
+        }
+      }
+    }
+    List<RowBlock> changed = new ArrayList<>();
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      db = dbInterface.openDatabase(appName);
+      if (queryRowCount(dbInterface, db) != rowCount) {
+        return false;
+      }
+      for (int blockNumber : resident) {
+        RowBlock fresh = loadBlock(dbInterface, db, blockNumber);
+        synchronized (blocks) {
+          if (closed) {
+            return false;
+          }
+          int slot = findSlot(blockNumber);
+          if (slot != -1 && sameRows(blocks[slot], fresh)) {
+            continue;
+          }
+        }
+        storeBlock(blockNumber, fresh);
+        changed.add(fresh);
+      }
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+    for (RowBlock block : changed) {
+      notifyBlockLoaded(block);
+    }
+    return true;
+  }
+
+  /**
+   * @return whether two versions of a block hold the same versions of the same rows, going by
+   * the metadata every write, sync or conflict changes
+   */
+  private static boolean sameRows(RowBlock oldBlock, RowBlock newBlock) {
+    if (oldBlock.getNumberOfRows() != newBlock.getNumberOfRows()) {
+      return false;
+    }
+    int end = oldBlock.getFirstRow() + oldBlock.getNumberOfRows();
+    for (int i = oldBlock.getFirstRow(); i < end; ++i) {
+      TypedRow oldRow = oldBlock.getRow(i);
+      TypedRow newRow = newBlock.getRow(i);
+      for (String elementKey : ROW_VERSION_COLUMNS) {
+        String oldValue = oldRow.getStringValueByKey(elementKey);
+        String newValue = newRow.getStringValueByKey(elementKey);
+        if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Queries a single row, by its id, as long as it still matches the query. The row has every
+   * column, even for a wide table whose blocks only have some of them.
+   *
+   * @param rowId the id of the row
+   * @return a table holding the row, or no rows if it doesn't match
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public UserTable queryRowById(String rowId) throws ServicesAvailabilityException {
+    StringBuilder where = new StringBuilder();
+    if (query.whereClause != null && !query.whereClause.isEmpty()) {
+      where.append("(").append(query.whereClause).append(") AND ");
+    }
+    where.append(DataTableColumns.ID).append("=?");
+    ArrayList<Object> args = new ArrayList<>();
+    if (query.selectionArgs != null && query.selectionArgs.bindArgs != null) {
+      args.addAll(Arrays.asList(query.selectionArgs.bindArgs));
+    }
+    args.add(rowId);
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      db = dbInterface.openDatabase(appName);
+      return dbInterface
+          .simpleQuery(appName, db, tableId, columns, where.toString(),
+              new BindArgs(args.toArray(new Object[args.size()])), EMPTY_ARRAY, null, null, null,
+              null, null);
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+  }
+
+  /**
+   * Looks through the blocks in memory for a row. Must be called while holding the blocks lock.
+   *
+   * @param rowId the id of the row
+   * @return the query row of the row, or -1 if it isn't in memory
+   */
+  private int findQueryRow(String rowId) {
+    for (RowBlock block : blocks) {
+      if (block == null) {
+        continue;
+      }
+      int end = block.getFirstRow() + block.getNumberOfRows();
+      for (int i = block.getFirstRow(); i < end; ++i) {
+        if (rowId.equals(block.getRow(i).getStringValueByKey(DataTableColumns.ID))) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return whether any value the rows are grouped or sorted by differs between two versions of
+   * a row
+   */
+  private boolean keysChanged(TypedRow oldRow, TypedRow newRow) {
+    for (String[] keys : new String[][] { currentGroupBy, currentOrderBy }) {
+      for (String elementKey : keys) {
+        String oldValue = oldRow.getStringValueByKey(elementKey);
+        String newValue = newRow.getStringValueByKey(elementKey);
+        if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replaces the block in a slot with a copy that has one row replaced, or one row added at its
+   * end. The colors of the rest of the block are kept rather than evaluated again. Must be called
+   * while holding the blocks lock.
+   *
+   * @param slot     the slot of the block
+   * @param queryRow the query row to replace or add
+   * @param fetched  a table holding just the new row
+   * @return the new block
+   */
+  private RowBlock patchBlock(int slot, int queryRow, UserTable fetched) {
+    RowBlock old = blocks[slot];
+    RowBlock block = old.withRow(queryRow, fetched, formatDisplayText(fetched, null));
+    RowColorRules rules = colorRules;
+    if (rules != null && old.colorRules == rules && old.colors != null) {
+      block.colors = old.colors
+          .withRow(queryRow - old.getFirstRow(), rules.evaluate(fetched, displayColumns));
+      block.colorRules = rules;
+    } else {
+      applyColorRules(block);
+    }
+    blocks[slot] = block;
+    filterColumns.clear();
+    return block;
+  }
+
+  /**
+   * @return whether the rows were grouped in memory, so that their groups can be expanded in place
+   */
+  public boolean isGroupedInMemory() {
+    synchronized (blocks) {
+      return groupIndex != null && rowOrder != null;
+    }
+  }
+
+  /**
+   * @param rowIndex the index of a row as displayed
+   * @return the number of rows in the group that row is in, or 1 if the rows weren't grouped in
+   * memory
+   */
+  public int getGroupSize(int rowIndex) {
+    synchronized (blocks) {
+      if (groupIndex == null || rowOrder == null) {
+        return 1;
+      }
+      return groupIndex.getGroupSize(groupIndex.getGroup(toQueryRow(rowIndex)));
+    }
+  }
+
+  /**
+   * @param rowIndex the index of a row as displayed
+   * @return whether the group that row is in is showing all of its rows
+   */
+  public boolean isGroupExpanded(int rowIndex) {
+    synchronized (blocks) {
+      return groupIndex != null && rowOrder != null && expandedGroups
+          .get(groupIndex.getGroup(toQueryRow(rowIndex)));
+    }
+  }
+
+  /**
+   * Expands the group a row is in to show all of its rows right below the first one, or collapses
+   * it back down to just the first row. Only the layout changes, nothing is queried. The rows
+   * above the group keep their indexes, so the first row of the group stays where it is.
+   *
+   * @param rowIndex the index of a row as displayed
+   * @return true if the group was toggled, false if the rows weren't grouped in memory
+   */
+  public boolean toggleGroup(int rowIndex) {
+    synchronized (blocks) {
+      if (closed || groupIndex == null || rowOrder == null || rowIndex < 0
+          || rowIndex >= getRowCount()) {
+        return false;
+      }
+      expandedGroups.flip(groupIndex.getGroup(toQueryRow(rowIndex)));
+      rowOrder = groupIndex.layout(expandedGroups);
+      return true;
+    }
+  }
+
+  private static boolean isDescending(String[] directions, int i) {
+    return directions != null && i < directions.length && "DESC".equalsIgnoreCase(directions[i]);
+  }
+
+  /**
+   * Gets every block of the result, if they're all in memory. Must be called while holding the
+   * blocks lock.
+   *
+   * @return the blocks in order, or null if any of them hasn't been loaded
+   */
+  private RowBlock[] getResidentBlocks() {
+    int numBlocks = (rowCount + blockSize - 1) / blockSize;
+    if (numBlocks > blocks.length) {
+      return null;
+    }
+    RowBlock[] resident = new RowBlock[numBlocks];
+    for (int b = 0; b < numBlocks; ++b) {
+      int slot = findSlot(b);
+      if (slot == -1) {
+        return null;
+      }
+      resident[b] = blocks[slot];
+    }
+    return resident;
+  }
+
+  /**
+   * Sorts the rows of a fully loaded result
+   *
+   * @param resident          every block of the result, in order
+   * @param groupBy           the columns the rows are going to be grouped by, may be empty
+   * @param orderBy           the columns to sort by, empty to leave the rows in query order
+   * @param orderByDirections ASC or DESC for each sort column, may be null
+   * @return the query row of each row in the new order, or null for the order of the query
+   */
+  private int[] sortRows(RowBlock[] resident, String[] groupBy, String[] orderBy,
+      String[] orderByDirections) {
+    if (orderBy.length == 0 && groupBy.length == 0) {
+      return null;
+    }
+    RowOrdering ordering = new RowOrdering(rowCount);
+    if (orderBy.length != 0) {
+      for (int i = 0; i < orderBy.length; ++i) {
+        ordering.addSortKey(getDataType(orderBy[i]), getRawValues(resident, orderBy[i]),
+            isDescending(orderByDirections, i));
+      }
+    } else {
+      // without an order by, a group by comes back in order of the groups
+      for (String elementKey : groupBy) {
+        ordering.addSortKey(getDataType(elementKey), getRawValues(resident, elementKey), false);
+      }
+    }
+    return ordering.sort();
+  }
+
+  /**
+   * @return the type of a column, or string for one that isn't displayed, like a metadata column
+   */
+  private ElementDataType getDataType(String elementKey) {
+    Integer index = displayColumnIndexes.get(elementKey);
+    return index == null ? ElementDataType.string : displayColumns[index].getType().getDataType();
+  }
+
+  /**
+   * Pulls the raw value of a column out of every row of a fully loaded result
+   *
+   * @param resident   every block of the result, in order
+   * @param elementKey the column
+   * @return the value of the column in each row, indexed by query row
+   */
+  private String[] getRawValues(RowBlock[] resident, String elementKey) {
+    String[] values = new String[rowCount];
+    for (RowBlock block : resident) {
+      int end = block.getFirstRow() + Math.min(block.getNumberOfRows(),
+          rowCount - block.getFirstRow());
+      for (int i = block.getFirstRow(); i < end; ++i) {
+        values[i] = block.getRow(i).getStringValueByKey(elementKey);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Puts a freshly loaded block in the cache, in place of the least recently used one if the
+   * cache is full, and lowers the row count if the block came back short (the count query isn't
+   * subject to row level access filtering, so it may overshoot).
+   *
+   * @param blockNumber the block number
+   * @param block       the loaded block
+   */
+  private void storeBlock(int blockNumber, RowBlock block) {
+    synchronized (blocks) {
+      if (block.getNumberOfRows() < blockSize) {
+        int end = blockNumber * blockSize + block.getNumberOfRows();
+        if (end < rowCount) {
+          rowCount = end;
+        }
+      }
+      if (block.getNumberOfRows() == 0) {
+        return;
+      }
+      int slot = findSlot(blockNumber);
+      if (slot == -1) {
+        // an empty slot while there are fewer than cacheLimit, otherwise the least recently used
+        int free = -1;
+        int oldest = -1;
+        int resident = 0;
+        for (int i = 0; i < blocks.length; ++i) {
+          if (blocks[i] == null) {
+            if (free == -1) {
+              free = i;
+            }
+          } else {
+            ++resident;
+            if (oldest == -1 || blockLastUsed[i] < blockLastUsed[oldest]) {
+              oldest = i;
+            }
+          }
+        }
+        slot = resident < cacheLimit || oldest == -1 ? free : oldest;
+      }
+      blocks[slot] = block;
+      blockLastUsed[slot] = ++useClock;
+      filterColumns.clear();
+    }
+    // in case the rules changed while the block was being queried
+    applyColorRules(block);
+  }
+
+  /**
+   * Evaluates the current color rules against a block, unless that has already been done
+   *
+   * @param block the block to color
+   */
+  private void applyColorRules(RowBlock block) {
+    RowColorRules rules = colorRules;
+    if (block.colorRules != rules) {
+      RowColorRules.BlockColors colors = null;
+      if (rules != null) {
+        colors = rules.evaluate(block.getTable(), displayColumns, block.tableColumns);
+        for (int col = 0; col < block.fills.length; ++col) {
+          ColumnFill fill = block.fills[col];
+          int[] columnColors = fill == null ? null : rules
+              .evaluateColumn(col, displayColumns[col], fill.table, fill.rows, colors);
+          if (columnColors != null) {
+            colors = colors.withColumn(col, columnColors);
+          }
+        }
+        for (Map.Entry<Integer, UserTable> patch : block.patchedRows.entrySet()) {
+          colors = colors.withRow(patch.getKey(), rules.evaluate(patch.getValue(), displayColumns));
+        }
+      }
+      block.colors = colors;
+      block.colorRules = rules;
+    }
+  }
+
+  private void notifyBlockLoaded(final RowBlock block) {
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (closed) {
+          return;
+        }
+        for (Listener listener : listeners) {
+          listener.onBlockLoaded(block.getFirstRow(), block.getNumberOfRows());
+        }
+      }
+    });
+  }
+
+  private void notifyRowsMoved() {
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (closed) {
+          return;
+        }
+        for (Listener listener : listeners) {
+          listener.onRowsMoved();
+        }
+      }
+    });
+  }
+
+  /**
+   * Counts the rows that the query will return, taking any group by into account.
+   *
+   * @param dbInterface the database interface to use
+   * @param db          an open database handle
+   * @return the number of rows in the result
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  private int queryRowCount(UserDbInterface dbInterface, DbHandle db)
+      throws ServicesAvailabilityException {
+    StringBuilder sql = new StringBuilder();
+    sql.append("SELECT COUNT(*) AS ").append(COUNT_COLUMN).append(" FROM (SELECT * FROM ")
+        .append(tableId);
+    if (query.whereClause != null && !query.whereClause.isEmpty()) {
+      sql.append(" WHERE ").append(query.whereClause);
+    }
+    if (query.groupBy != null && query.groupBy.length != 0) {
+      sql.append(" GROUP BY ");
+      for (int i = 0; i < query.groupBy.length; ++i) {
+        if (i != 0) {
+          sql.append(", ");
+        }
+        sql.append(query.groupBy[i]);
+      }
+      if (query.having != null && !query.having.isEmpty()) {
+        sql.append(" HAVING ").append(query.having);
+      }
+    }
+    sql.append(")");
+    BaseTable result = dbInterface
+        .arbitrarySqlQuery(appName, db, tableId, sql.toString(), query.selectionArgs, null, null);
+    if (result == null || result.getNumberOfRows() == 0) {
+      return 0;
+    }
+    String count = result.getRowAtIndex(0).getRawStringByKey(COUNT_COLUMN);
+    return count == null ? 0 : Integer.parseInt(count);
+  }
+
+  /**
+   * Fetches a single block of rows with limit/offset. The block isn't cached, see
+   * {@link #storeBlock(int, RowBlock)}. For a wide table the block only has the pinned columns,
+   * see {@link #loadBlock(UserDbInterface, DbHandle, int)}.
+   *
+   * @param dbInterface the database interface to use
+   * @param db          an open database handle
+   * @param blockNumber which block to fetch
+   * @return the block
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  RowBlock queryBlock(UserDbInterface dbInterface, DbHandle db, int blockNumber)
+      throws ServicesAvailabilityException {
+    int firstRow = blockNumber * blockSize;
+    UserTable table;
+    BitSet tableColumns = null;
+    if (windowed) {
+      synchronized (blocks) {
+        tableColumns = rowColumns;
+      }
+      int[] pinned = new int[tableColumns.cardinality()];
+      for (int i = 0, col = tableColumns.nextSetBit(0); col >= 0;
+           ++i, col = tableColumns.nextSetBit(col + 1)) {
+        pinned[i] = col;
+      }
+      table = queryColumns(dbInterface, db, firstRow, pinned);
+    } else {
+      table = dbInterface
+          .simpleQuery(appName, db, tableId, columns, query.whereClause, query.selectionArgs,
+              query.groupBy == null ? EMPTY_ARRAY : query.groupBy, query.having,
+              pagingOrderBy, pagingDirections, blockSize, firstRow);
+    }
+    RowBlock block = new RowBlock(firstRow, table, formatDisplayText(table, tableColumns),
+        tableColumns);
+    applyColorRules(block);
+    return block;
+  }
+
+  /**
+   * Fetches a block like {@link #queryBlock(UserDbInterface, DbHandle, int)}, and for a wide
+   * table fills in the columns that were drawn most recently too, so that a block scrolled onto
+   * the screen doesn't need a second trip.
+   *
+   * @param dbInterface the database interface to use
+   * @param db          an open database handle
+   * @param blockNumber which block to fetch
+   * @return the block
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  private RowBlock loadBlock(UserDbInterface dbInterface, DbHandle db, int blockNumber)
+      throws ServicesAvailabilityException {
+    RowBlock block = queryBlock(dbInterface, db, blockNumber);
+    if (!windowed) {
+      return block;
+    }
+    List<Integer> columns = new ArrayList<>();
+    synchronized (blocks) {
+      for (int i = 0; i < numWantedColumnBlocks; ++i) {
+        for (int col : columnBlocks[wantedColumnBlocks[i]]) {
+          columns.add(col);
+        }
+      }
+    }
+    return fillColumns(dbInterface, db, block, toArray(columns));
+  }
+
+  /**
+   * Makes sure a block has every column, for things that look at all of them like working out
+   * column widths or searching. The block isn't cached.
+   *
+   * @param dbInterface the database interface to use
+   * @param db          an open database handle
+   * @param blockNumber which block
+   * @param block       the block if it's in memory, or null to query it
+   * @return the block with every column
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  RowBlock completeBlock(UserDbInterface dbInterface, DbHandle db, int blockNumber,
+      RowBlock block) throws ServicesAvailabilityException {
+    if (block == null) {
+      block = queryBlock(dbInterface, db, blockNumber);
+    }
+    if (block.isComplete()) {
+      return block;
+    }
+    int[] all = new int[displayColumns.length];
+    for (int col = 0; col < all.length; ++col) {
+      all[col] = col;
+    }
+    return fillColumns(dbInterface, db, block, all);
+  }
+
+  /**
+   * Queries just one column of a block, for sampling it like {@link FastScrollIndex} does. Only
+   * that column's display text is formatted, no color rules are run and the block isn't cached.
+   *
+   * @param dbInterface   the database interface to use
+   * @param db            an open database handle
+   * @param blockNumber   which block
+   * @param displayColumn the display column to fetch
+   * @return the block, with only the one column
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  RowBlock queryColumnBlock(UserDbInterface dbInterface, DbHandle db, int blockNumber,
+      int displayColumn) throws ServicesAvailabilityException {
+    int firstRow = blockNumber * blockSize;
+    BitSet tableColumns = new BitSet(displayColumns.length);
+    tableColumns.set(displayColumn);
+    UserTable table;
+    if (query.groupBy != null && query.groupBy.length != 0) {
+      // a grouped query can't be narrowed down to one column
+      table = dbInterface
+          .simpleQuery(appName, db, tableId, columns, query.whereClause, query.selectionArgs,
+              query.groupBy, query.having, pagingOrderBy, pagingDirections, blockSize, firstRow);
+    } else {
+      table = queryColumns(dbInterface, db, firstRow, new int[] { displayColumn });
+    }
+    return new RowBlock(firstRow, table, formatDisplayText(table, tableColumns), tableColumns);
+  }
+
+  /**
+   * Queries some columns of a wide table for the rows of a block and copies the block with them
+   * filled in
+   *
+   * @param block   the block
+   * @param columns the display columns to fill in, ones the block already has are skipped
+   * @return the copy, or the block itself if it already had every one of the columns
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  private RowBlock fillColumns(UserDbInterface dbInterface, DbHandle db, RowBlock block,
+      int[] columns) throws ServicesAvailabilityException {
+    int[] missing = block.getMissingColumns(columns);
+    if (missing.length == 0) {
+      return block;
+    }
+    return withFill(block, missing,
+        queryColumns(dbInterface, db, block.getFirstRow(), missing));
+  }
+
+  /**
+   * Puts columns that were queried for a block into the copy of the block that's in memory now,
+   * which may have had rows patched in since it was queried
+   *
+   * @param blockNumber the block
+   * @param missing     the display columns that were queried
+   * @param fill        the result of the query
+   * @return the new block, or null if the block isn't in memory anymore
+   */
+  private RowBlock storeFill(int blockNumber, int[] missing, UserTable fill) {
+    synchronized (blocks) {
+      int slot = findSlot(blockNumber);
+      if (slot == -1) {
+        return null;
+      }
+      RowBlock current = blocks[slot];
+      blocks[slot] = withFill(current, current.getMissingColumns(missing), fill);
+      return blocks[slot];
+    }
+  }
+
+  /**
+   * Copies a block with some more columns filled in. The queried rows are matched to the rows of
+   * the block by id, in case the table changed in between; rows that were patched in already
+   * have every column.
+   *
+   * @param block   the block
+   * @param missing the display columns to fill in, which the block doesn't have
+   * @param fill    the rows of the block with at least those columns
+   * @return the new block
+   */
+  private RowBlock withFill(RowBlock block, int[] missing, UserTable fill) {
+    if (missing.length == 0) {
+      return block;
+    }
+    Map<String, Integer> fillRows = new HashMap<>();
+    for (int i = 0; fill != null && i < fill.getNumberOfRows(); ++i) {
+      fillRows.put(fill.getRowAtIndex(i).getStringValueByKey(DataTableColumns.ID), i);
+    }
+    int numRows = block.getNumberOfRows();
+    int[] rows = new int[numRows];
+    for (int i = 0; i < numRows; ++i) {
+      int queryRow = block.getFirstRow() + i;
+      Integer fillRow = block.isPatched(queryRow) ? null :
+          fillRows.get(block.getRow(queryRow).getStringValueByKey(DataTableColumns.ID));
+      rows[i] = fillRow == null ? -1 : fillRow;
+    }
+    String[][] text = new String[missing.length][numRows];
+    for (int c = 0; c < missing.length; ++c) {
+      ColumnDefinition cd = displayColumns[missing[c]];
+      for (int i = 0; i < numRows; ++i) {
+        int queryRow = block.getFirstRow() + i;
+        if (block.isPatched(queryRow)) {
+          text[c][i] = block.getDisplayTextOfData(queryRow, cd);
+        } else if (rows[i] != -1) {
+          text[c][i] = fill.getDisplayTextOfData(rows[i], cd.getType(), cd.getElementKey());
+        }
+      }
+    }
+    RowBlock filled = block.withColumns(missing, text, new ColumnFill(fill, rows));
+    RowColorRules rules = colorRules;
+    if (rules != null && block.colorRules == rules && block.colors != null) {
+      RowColorRules.BlockColors colors = block.colors;
+      for (int col : missing) {
+        int[] columnColors = rules.evaluateColumn(col, displayColumns[col], fill, rows, colors);
+        if (columnColors != null) {
+          colors = colors.withColumn(col, columnColors);
+        }
+      }
+      filled.colors = colors;
+      filled.colorRules = rules;
+    } else {
+      applyColorRules(filled);
+    }
+    return filled;
+  }
+
+  /**
+   * Queries the rows of a block of a wide table with just the metadata columns and some of the
+   * others, in the order of the query. If the query is sorted, rows that sort the same are
+   * ordered by id, so that every query of the same block gets the same rows.
+   *
+   * @param dbInterface the database interface to use
+   * @param db          an open database handle
+   * @param firstRow    the first query row of the block
+   * @param userColumns the display columns to select
+   * @return the rows
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  private UserTable queryColumns(UserDbInterface dbInterface, DbHandle db, int firstRow,
+      int[] userColumns) throws ServicesAvailabilityException {
+    StringBuilder sql = new StringBuilder("SELECT ");
+    for (String adminColumn : adminColumns) {
+      sql.append(adminColumn).append(", ");
+    }
+    for (int col : userColumns) {
+      sql.append(displayColumns[col].getElementKey()).append(", ");
+    }
+    sql.setLength(sql.length() - 2);
+    sql.append(" FROM ").append(tableId);
+    if (query.whereClause != null && !query.whereClause.isEmpty()) {
+      sql.append(" WHERE ").append(query.whereClause);
+    }
+    sql.append(" ORDER BY ");
+    for (int i = 0; i < pagingOrderBy.length; ++i) {
+      if (i != 0) {
+        sql.append(", ");
+      }
+      sql.append(pagingOrderBy[i]).append(' ').append(pagingDirections[i]);
+    }
+    return dbInterface
+        .arbitrarySqlQuery(appName, db, tableId, columns, sql.toString(), query.selectionArgs,
+            blockSize, firstRow);
+  }
+
+  /**
+   * Formats the display text of every cell in a block, so that none of the date, number or
+   * choice list formatting has to happen while drawing.
+   *
+   * @param table        the rows of the block
+   * @param tableColumns the display columns the rows have, or null for all of them; the others
+   *                     are left null
+   * @return the display text, indexed by display column index and then row within the block
+   */
+  private String[][] formatDisplayText(UserTable table, BitSet tableColumns) {
+    int numRows = table == null ? 0 : table.getNumberOfRows();
+    String[][] displayText = new String[displayColumns.length][];
+    for (int col = 0; col < displayColumns.length; ++col) {
+      if (tableColumns != null && !tableColumns.get(col)) {
+        continue;
+      }
+      displayText[col] = new String[numRows];
+      ColumnDefinition cd = displayColumns[col];
+      String[] columnText = displayText[col];
+      for (int row = 0; row < numRows; ++row) {
+        columnText[row] = table.getDisplayTextOfData(row, cd.getType(), cd.getElementKey());
+      }
+    }
+    return displayText;
+  }
+
+  /**
+   * Notified on the UI thread whenever a block of rows finishes loading in the background
+   */
+  public interface Listener {
+    /**
+     * Called when a block of rows has been loaded and can be drawn
+     *
+     * @param firstRow the index of the first row in the block
+     * @param numRows  the number of rows in the block
+     */
+    void onBlockLoaded(int firstRow, int numRows);
+
+    /**
+     * Called when rows were added or moved in place, like a row that was patched in being sorted
+     * into its place, so any row may be somewhere else now
+     */
+    void onRowsMoved();
+  }
+
+  /**
+   * Columns of a wide table that were queried after the rest of a block: the rows they came in,
+   * and the row of that table for each row of the block, -1 for one it didn't have
+   */
+  private static final class ColumnFill {
+    private final UserTable table;
+    private final int[] rows;
+
+    ColumnFill(UserTable table, int[] rows) {
+      this.table = table;
+      this.rows = rows;
+    }
+  }
+
+  /**
+   * The order the rows were displayed in at one moment. It never changes, so a tile drawn from
+   * it has every row in the same order, even if the rows are reordered while it's drawn.
+   */
+  public static final class RowOrder {
+    private final int[] order;
+    private final boolean reversed;
+    private final int rowCount;
+
+    RowOrder(int[] order, boolean reversed, int rowCount) {
+      this.order = order;
+      this.reversed = reversed;
+      this.rowCount = rowCount;
+    }
+
+    /**
+     * @return the number of rows displayed
+     */
+    public int getRowCount() {
+      return order == null ? rowCount : order.length;
+    }
+
+    /**
+     * See {@link PagedRowSource#toQueryRow(int)}
+     *
+     * @param rowIndex the index of the row as displayed, less than {@link #getRowCount()}
+     * @return the index of the same row in the query result
+     */
+    public int toQueryRow(int rowIndex) {
+      if (order != null) {
+        return order[rowIndex];
+      }
+      return reversed ? rowCount - 1 - rowIndex : rowIndex;
+    }
+  }
+
+  /**
+   * A contiguous run of rows from the result, backed by a {@link UserTable} holding just those
+   * rows, along with the display text of each of their cells. A block is never modified once
+   * it's in the cache; patching a row or filling in columns replaces the whole block with a copy.
+   * <p>
+   * The block of a wide table may not have every column, see {@link #hasColumn(int)}.
+   */
+  public static final class RowBlock {
+    private final int firstRow;
+    private final UserTable table;
+    // The display columns the table has, null for all of them
+    private final BitSet tableColumns;
+    // The columns filled in after the table was queried, by display column index
+    private final ColumnFill[] fills;
+    /**
+     * Rows patched in since the block was queried, each a table of one row, by row within the
+     * block. One past the end of the table was added.
+     */
+    private final Map<Integer, UserTable> patchedRows;
+    private final int numRows;
+    private final String[][] displayText;
+    // Set by the row source, and replaced whenever the color rules change
+    private volatile RowColorRules.BlockColors colors = null;
+    private volatile RowColorRules colorRules = null;
+
+    RowBlock(int firstRow, UserTable table, String[][] displayText, BitSet tableColumns) {
+      this(firstRow, table, tableColumns, new ColumnFill[displayText.length],
+          Collections.<Integer, UserTable>emptyMap(), displayText);
+    }
+
+    /**
+     * A block with only display text and no table behind it, see
+     * {@link PagedRowSource#fromDisplayText(String, String, OrderedColumns, String[][], int)}
+     */
+    private RowBlock(int firstRow, int numRows, String[][] displayText) {
+      this(firstRow, null, null, new ColumnFill[displayText.length],
+          Collections.<Integer, UserTable>emptyMap(), displayText, numRows);
+    }
+
+    private RowBlock(int firstRow, UserTable table, BitSet tableColumns, ColumnFill[] fills,
+        Map<Integer, UserTable> patchedRows, String[][] displayText) {
+      this(firstRow, table, tableColumns, fills, patchedRows, displayText,
+          countRows(table, patchedRows));
+    }
+
+    private RowBlock(int firstRow, UserTable table, BitSet tableColumns, ColumnFill[] fills,
+        Map<Integer, UserTable> patchedRows, String[][] displayText, int numRows) {
+      this.firstRow = firstRow;
+      this.table = table;
+      this.tableColumns = tableColumns;
+      this.fills = fills;
+      this.patchedRows = patchedRows;
+      this.numRows = numRows;
+      this.displayText = displayText;
+    }
+
+    private static int countRows(UserTable table, Map<Integer, UserTable> patchedRows) {
+      int count = table == null ? 0 : table.getNumberOfRows();
+      for (int rowInBlock : patchedRows.keySet()) {
+        count = Math.max(count, rowInBlock + 1);
+      }
+      return count;
+    }
+
+    /**
+     * Copies this block with one row replaced, or with a row added at the end. The copy doesn't
+     * have any colors yet.
+     *
+     * @param rowIndex the query row, in this block or right after it
+     * @param row      a table holding just the new row
+     * @param rowText  the display text of the new row, indexed by display column index and then
+     *                 row, like the display text of a block
+     * @return the new block
+     */
+    RowBlock withRow(int rowIndex, UserTable row, String[][] rowText) {
+      int rowInBlock = rowIndex - firstRow;
+      int count = Math.max(numRows, rowInBlock + 1);
+      String[][] text = new String[displayText.length][];
+      for (int col = 0; col < displayText.length; ++col) {
+        // a column the block doesn't have stays missing, the row has it but the others don't
+        if (displayText[col] != null) {
+          text[col] = Arrays.copyOf(displayText[col], count);
+          text[col][rowInBlock] = rowText[col][0];
+        }
+      }
+      Map<Integer, UserTable> patches = new HashMap<>(patchedRows);
+      patches.put(rowInBlock, row);
+      return new RowBlock(firstRow, table, tableColumns, fills, patches, text);
+    }
+
+    /**
+     * Copies this block with some more columns filled in. The copy doesn't have any colors yet.
+     *
+     * @param columns the display column indexes of the columns
+     * @param text    the display text of each of the columns, indexed by row within the block
+     * @param fill    the rows the columns were queried in
+     * @return the new block
+     */
+    RowBlock withColumns(int[] columns, String[][] text, ColumnFill fill) {
+      String[][] newText = displayText.clone();
+      ColumnFill[] newFills = fills.clone();
+      for (int c = 0; c < columns.length; ++c) {
+        newText[columns[c]] = text[c];
+        newFills[columns[c]] = fill;
+      }
+      return new RowBlock(firstRow, table, tableColumns, newFills, patchedRows, newText);
+    }
+
+    /**
+     * Whether the block has a column yet. Only the block of a wide table can be missing any.
+     *
+     * @param displayColumn the index from {@link PagedRowSource#getDisplayColumnIndex(String)},
+     *                      or -1 for a column with no display text
+     * @return whether the display text of the column can be drawn
+     */
+    public boolean hasColumn(int displayColumn) {
+      return displayColumn == -1 || displayText[displayColumn] != null;
+    }
+
+    /**
+     * @return whether the block has every one of the given display columns
+     */
+    boolean hasColumns(int[] displayColumns) {
+      for (int col : displayColumns) {
+        if (displayText[col] == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the ones of the given display columns the block doesn't have
+     */
+    int[] getMissingColumns(int[] displayColumns) {
+      int count = 0;
+      int[] missing = new int[displayColumns.length];
+      for (int col : displayColumns) {
+        if (displayText[col] == null) {
+          missing[count++] = col;
+        }
+      }
+      return Arrays.copyOf(missing, count);
+    }
+
+    /**
+     * @return whether the block has every column
+     */
+    boolean isComplete() {
+      for (String[] columnText : displayText) {
+        if (columnText == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @param rowIndex the query row, from {@link PagedRowSource#toQueryRow(int)}
+     * @return whether the row was patched in since the block was queried, so has every column
+     */
+    boolean isPatched(int rowIndex) {
+      return !patchedRows.isEmpty() && patchedRows.containsKey(rowIndex - firstRow);
+    }
+
+    /**
+     * @return whether any row was patched in since the block was queried
+     */
+    boolean hasPatches() {
+      return !patchedRows.isEmpty();
+    }
+
+    public int getFirstRow() {
+      return firstRow;
+    }
+
+    public int getNumberOfRows() {
+      return numRows;
+    }
+
+    /**
+     * @return the rows of this block as they were queried. Row i of the table is row
+     * getFirstRow() + i of the result, unless it has been patched since, so use
+     * {@link #getRow(int)} to get the current values
+     */
+    public UserTable getTable() {
+      return table;
+    }
+
+    public boolean contains(int rowIndex) {
+      return rowIndex >= firstRow && rowIndex < firstRow + getNumberOfRows();
+    }
+
+    /**
+     * Gets a row by its index in the result of the query
+     *
+     * @param rowIndex the query row, from {@link PagedRowSource#toQueryRow(int)}
+     * @return the row, or null if it isn't in this block
+     */
+    public TypedRow getRow(int rowIndex) {
+      if (!contains(rowIndex)) {
+        return null;
+      }
+      UserTable patched = patchedRows.isEmpty() ? null : patchedRows.get(rowIndex - firstRow);
+      return patched != null ? patched.getRowAtIndex(0) : table.getRowAtIndex(rowIndex - firstRow);
+    }
+
+    /**
+     * Formats the value of any column of a row, including one that has no preformatted display
+     * text. The row must be in this block.
+     *
+     * @param rowIndex the query row, from {@link PagedRowSource#toQueryRow(int)}
+     * @param cd       the column
+     * @return the display text, or null if the cell is null
+     */
+    public String getDisplayTextOfData(int rowIndex, ColumnDefinition cd) {
+      UserTable patched = patchedRows.isEmpty() ? null : patchedRows.get(rowIndex - firstRow);
+      return patched != null ?
+          patched.getDisplayTextOfData(0, cd.getType(), cd.getElementKey()) :
+          table.getDisplayTextOfData(rowIndex - firstRow, cd.getType(), cd.getElementKey());
+    }
+
+    /**
+     * Gets the preformatted display text of a cell. The row must be in this block.
+     *
+     * @param displayColumn the index from {@link PagedRowSource#getDisplayColumnIndex(String)}
+     * @param rowIndex      the query row, from {@link PagedRowSource#toQueryRow(int)}
+     * @return the display text, or null if the cell is null or the block doesn't have the column
+     */
+    public String getDisplayText(int displayColumn, int rowIndex) {
+      String[] columnText = displayText[displayColumn];
+      return columnText == null ? null : columnText[rowIndex - firstRow];
+    }
+
+    /**
+     * @param displayColumn the index from {@link PagedRowSource#getDisplayColumnIndex(String)}
+     * @return the display text of the column, indexed by row within this block, or null if the
+     * block doesn't have the column. Not a copy, so don't modify it
+     */
+    String[] getColumnText(int displayColumn) {
+      return displayText[displayColumn];
+    }
+
+    /**
+     * @return the colors of the cells of this block, or null if there are no color rules
+     */
+    public RowColorRules.BlockColors getColors() {
+      return colors;
+    }
+  }
+}
@@ -16,11 +16,7 @@
 package org.opendatakit.tables.data;
 
 import org.opendatakit.data.TableViewType;
-import org.opendatakit.data.utilities.TableUtil;
 import org.opendatakit.database.data.OrderedColumns;
-import org.opendatakit.database.service.DbHandle;
-import org.opendatakit.database.service.UserDbInterface;
-import org.opendatakit.exception.ServicesAvailabilityException;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -49,17 +45,11 @@ public class PossibleTableViewTypes {
    * Constructs a new PossibleTableViewTypes object, which determines whether the user is able to
    * select a particular view type (spreadsheet, map, etc...)
    *
-   * @param dbInterface  The database interface to use
-   * @param appName      the app name
-   * @param db           a database handle
-   * @param tableId      the id of the table we're editing
+   * @param metadata     the settings of the table we're editing
    * @param orderedDefns the columns in the table
-   * @throws ServicesAvailabilityException if the database is down
    */
-  public PossibleTableViewTypes(UserDbInterface dbInterface, String appName, DbHandle db,
-      String tableId, OrderedColumns orderedDefns) throws ServicesAvailabilityException {
-    TableViewType defaultViewType = TableUtil.get()
-        .getDefaultViewType(dbInterface, appName, db, tableId);
+  public PossibleTableViewTypes(TableMetadataSnapshot metadata, OrderedColumns orderedDefns) {
+    TableViewType defaultViewType = metadata.getDefaultViewType();
     if (defaultViewType != null) {
       switch (defaultViewType) {
       case SPREADSHEET:
@@ -77,12 +67,12 @@ public class PossibleTableViewTypes {
     }
 
     mSpreadsheetIsValid = true; // always
-    mListFileName = TableUtil.get().getListViewFilename(dbInterface, appName, db, tableId);
+    mListFileName = metadata.getListViewFilename();
     mListIsValid = null != mListFileName;
-    mMapListFileName = TableUtil.get().getMapListViewFilename(dbInterface, appName, db, tableId);
+    mMapListFileName = metadata.getMapListViewFilename();
     mMapIsValid = null != mMapListFileName && orderedDefns.mapViewIsPossible();
 
-    mDetailFileName = TableUtil.get().getDetailViewFilename(dbInterface, appName, db, tableId);
+    mDetailFileName = metadata.getDetailViewFilename();
   }
 
   /**
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.UserTable;
+import org.opendatakit.database.queries.BindArgs;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+
+/**
+ * The results of the queries behind the views of a table, shared by every view in the process,
+ * so that flipping a table between its spreadsheet, list, map and navigate views, or opening the
+ * same collection again, doesn't run the same query twice.
+ * <p>
+ * A result is kept by app name, table id and every part of the query, along with the version of
+ * the table it was read at: the version {@link TableChangeNotifier} moves whenever the table is
+ * written to or synced, and the user the rows were read as. Neither takes a query of the table,
+ * and a result read at an older version is thrown away rather than returned. The app's own writes
+ * move the version as soon as they're made, through {@link TableChangeNotifier#tableWritten}. A
+ * table the notifier isn't following isn't cached at all, and nor is the result of an arbitrary
+ * SQL query, as it can read tables other than the one it's for, whose versions aren't kept.
+ * <p>
+ * The results are bounded by an estimate of their size, least recently used first out, and
+ * dropped when the system asks the app to trim its memory. A cached {@link UserTable} is shared,
+ * so it must not be modified.
+ */
+public final class QueryResultCache {
+
+  // Rough cost of a cell, the string and its slot in the row
+  private static final int BYTES_PER_CELL = 64;
+  // The metadata columns that come back with every row, on top of the user's columns
+  private static final int METADATA_COLUMNS = 16;
+
+  private static QueryResultCache instance = null;
+
+  private final LruCache<String, Entry> results;
+
+  private QueryResultCache(int maxBytes) {
+    results = new LruCache<String, Entry>(maxBytes) {
+      @Override
+      protected int sizeOf(String key, Entry entry) {
+        return entry.size;
+      }
+    };
+  }
+
+  /**
+   * @return the cache shared by every view in the process, sized to a sixteenth of the heap
+   */
+  public static synchronized QueryResultCache get() {
+    if (instance == null) {
+      long maxBytes = Runtime.getRuntime().maxMemory() / 16;
+      instance = new QueryResultCache((int) Math.min(Integer.MAX_VALUE, maxBytes));
+    }
+    return instance;
+  }
+
+  /**
+   * Works out the version of a table a result read now would be at: the version the change
+   * notifier has it at and the user the rows are read as
+   *
+   * @param dbInterface the database interface to use
+   * @param appName     the app name
+   * @param tableId     the table
+   * @return the version, only good for comparing with another version of the same table, or
+   * null if the notifier isn't following the table, so its results can't be cached
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  private static String getDataVersion(UserDbInterface dbInterface, String appName,
+      String tableId) throws ServicesAvailabilityException {
+    long version = TableChangeNotifier.get().getVersion(appName, tableId);
+    if (version == -1) {
+      return null;
+    }
+    return version + "/" + dbInterface.getActiveUser(appName);
+  }
+
+  /**
+   * Runs {@link UserDbInterface#simpleQuery}, unless its result for the current version of the
+   * table is already cached. The arguments are the same.
+   *
+   * @return the rows, shared with anyone else who asks for them, so don't modify them
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public UserTable simpleQuery(UserDbInterface dbInterface, String appName, DbHandle db,
+      String tableId, OrderedColumns columns, String whereClause, BindArgs selectionArgs,
+      String[] groupBy, String having, String[] orderByElementKeys, String[] orderByDirections,
+      Integer limit, Integer offset) throws ServicesAvailabilityException {
+    StringBuilder key = new StringBuilder("simple");
+    appendKey(key, appName, tableId, whereClause, selectionArgs);
+    appendKey(key, groupBy);
+    key.append('\u0000').append(having);
+    appendKey(key, orderByElementKeys);
+    appendKey(key, orderByDirections);
+    key.append('\u0000').append(limit).append('\u0000').append(offset);
+
+    String version = getDataVersion(dbInterface, appName, tableId);
+    UserTable table = lookUp(key.toString(), version);
+    if (table == null) {
+      table = dbInterface
+          .simpleQuery(appName, db, tableId, columns, whereClause, selectionArgs, groupBy, having,
+              orderByElementKeys, orderByDirections, limit, offset);
+      store(key.toString(), version, table, columns);
+    }
+    return table;
+  }
+
+  /**
+   * Lets go of some or all of the results, called from the application's onTrimMemory. Everything
+   * goes once the app is in the background or memory is critically low, half of it when memory
+   * is only getting low or the UI has been hidden.
+   *
+   * @param level the level passed to onTrimMemory
+   */
+  public void onTrimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      results.evictAll();
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      results.trimToSize(results.maxSize() / 2);
+    }
+  }
+
+  private UserTable lookUp(String key, String version) {
+    if (version == null) {
+      return null;
+    }
+    Entry entry = results.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (!entry.version.equals(version)) {
+      results.remove(key);
+      return null;
+    }
+    return entry.table;
+  }
+
+  private void store(String key, String version, UserTable table, OrderedColumns columns) {
+    if (table == null || version == null) {
+      return;
+    }
+    long cells = (long) table.getNumberOfRows()
+        * (columns.getColumnDefinitions().size() + METADATA_COLUMNS);
+    int size = (int) Math.min(Integer.MAX_VALUE, Math.max(1, cells * BYTES_PER_CELL));
+    // too big to be worth pushing everything else out for
+    if (size <= results.maxSize() / 2) {
+      results.put(key, new Entry(version, table, size));
+    }
+  }
+
+  private static void appendKey(StringBuilder key, String appName, String tableId, String sql,
+      BindArgs args) {
+    key.append('\u0000').append(appName).append('\u0000').append(tableId).append('\u0000')
+        .append(sql);
+    if (args != null && args.bindArgs != null) {
+      for (Object arg : args.bindArgs) {
+        // so that the string "1" and the number 1 aren't the same key
+        key.append('\u0000').append(arg == null ? "null" : arg.getClass().getSimpleName())
+            .append(':').append(arg);
+      }
+    }
+  }
+
+  private static void appendKey(StringBuilder key, String[] values) {
+    key.append('\u0000').append(values == null ? -1 : values.length);
+    if (values != null) {
+      for (String value : values) {
+        key.append('\u0000').append(value);
+      }
+    }
+  }
+
+  /**
+   * A cached result and the version of the table it was read at
+   */
+  private static final class Entry {
+    private final String version;
+    private final UserTable table;
+    private final int size;
+
+    Entry(String version, UserTable table, int size) {
+      this.version = version;
+      this.table = table;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import org.opendatakit.data.ColorGuide;
+import org.opendatakit.data.ColorGuideGroup;
+import org.opendatakit.data.ColorRule;
+import org.opendatakit.data.ColorRuleGroup;
+import org.opendatakit.database.data.ColumnDefinition;
+import org.opendatakit.database.data.UserTable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The table, status column and per column color rules of a table, evaluated a block of rows at
+ * a time into plain arrays of colors.
+ * <p>
+ * {@link PagedRowSource} runs {@link #evaluate(UserTable, ColumnDefinition[])} on its loader
+ * thread as each block comes in, so drawing a cell only has to read its colors out of the
+ * block's {@link BlockColors}. A column rule that matches overrides the table rule for that
+ * cell, and anything that no rule matches gets the default colors.
+ * <p>
+ * The rows of a wide table don't come with every column, so the table and status rules say
+ * which columns they need with {@link #getRowElementKeys()}, and the rules of a column can be
+ * evaluated on their own, against the rows its values were queried in, with
+ * {@link #evaluateColumn(int, ColumnDefinition, UserTable, int[], BlockColors)}.
+ */
+public final class RowColorRules {
+
+  private final ColorRuleGroup tableRules;
+  private final ColorRuleGroup statusRules;
+  private final Map<String, ColorRuleGroup> columnRules;
+  // The columns the table and status rules look at
+  private final Set<String> rowElementKeys;
+  private final int defaultForeground;
+  private final int defaultBackground;
+
+  /**
+   * @param tableRules        the rules that color whole rows, may be null
+   * @param statusRules       the rules that color the status column, may be null
+   * @param columnRules       the rules of each column by element key, may be missing columns
+   * @param defaultForeground the text color of a cell no rule matches
+   * @param defaultBackground the background color of a cell no rule matches
+   */
+  public RowColorRules(ColorRuleGroup tableRules, ColorRuleGroup statusRules,
+      Map<String, ColorRuleGroup> columnRules, int defaultForeground, int defaultBackground) {
+    this.tableRules = hasRules(tableRules) ? tableRules : null;
+    this.statusRules = hasRules(statusRules) ? statusRules : null;
+    this.columnRules = new HashMap<>();
+    for (Map.Entry<String, ColorRuleGroup> entry : columnRules.entrySet()) {
+      if (hasRules(entry.getValue())) {
+        this.columnRules.put(entry.getKey(), entry.getValue());
+      }
+    }
+    Set<String> keys = new HashSet<>();
+    for (ColorRuleGroup group : new ColorRuleGroup[] { this.tableRules, this.statusRules }) {
+      if (group != null) {
+        for (ColorRule rule : group.getColorRules()) {
+          keys.add(rule.getColumnElementKey());
+        }
+      }
+    }
+    this.rowElementKeys = Collections.unmodifiableSet(keys);
+    this.defaultForeground = defaultForeground;
+    this.defaultBackground = defaultBackground;
+  }
+
+  /**
+   * Makes a copy of these rules with the rules of some more columns, like ones that were looked
+   * up after the rest
+   *
+   * @param moreColumnRules the rules of each column by element key, replacing any it already had
+   * @return the new rules
+   */
+  public RowColorRules withColumnRules(Map<String, ColorRuleGroup> moreColumnRules) {
+    Map<String, ColorRuleGroup> merged = new HashMap<>(columnRules);
+    merged.putAll(moreColumnRules);
+    return new RowColorRules(tableRules, statusRules, merged, defaultForeground,
+        defaultBackground);
+  }
+
+  /**
+   * @return the columns the table and status rules look at, which have to be in every row they
+   * are evaluated against
+   */
+  public Set<String> getRowElementKeys() {
+    return rowElementKeys;
+  }
+
+  /**
+   * @param elementKey a column
+   * @return whether the column has rules of its own
+   */
+  public boolean hasColumnRules(String elementKey) {
+    return columnRules.containsKey(elementKey);
+  }
+
+  private static boolean hasRules(ColorRuleGroup group) {
+    return group != null && !group.getColorRules().isEmpty();
+  }
+
+  /**
+   * Evaluates every rule against every row of a block. Groups with no rules are skipped, and
+   * columns without rules of their own share the table colors rather than getting a copy.
+   *
+   * @param table          the rows of the block
+   * @param displayColumns the columns to evaluate, in display column index order
+   * @return the colors of each cell of the block
+   */
+  BlockColors evaluate(UserTable table, ColumnDefinition[] displayColumns) {
+    return evaluate(table, displayColumns, null);
+  }
+
+  /**
+   * Evaluates the rules against rows that only have some of the columns. Columns the rows don't
+   * have get the table colors, whatever their own rules.
+   *
+   * @param table          the rows of the block
+   * @param displayColumns the columns to evaluate, in display column index order
+   * @param tableColumns   the display column indexes of the columns the rows have, or null if
+   *                       they have all of them
+   * @return the colors of each cell of the block
+   */
+  BlockColors evaluate(UserTable table, ColumnDefinition[] displayColumns, BitSet tableColumns) {
+    int numRows = table == null ? 0 : table.getNumberOfRows();
+    int[] rowColors = evaluateGroup(tableRules, table, numRows, null);
+    int[] statusColors = evaluateGroup(statusRules, table, numRows, null);
+    int[][] columnColors = new int[displayColumns.length][];
+    for (int col = 0; col < displayColumns.length; ++col) {
+      ColorRuleGroup group = columnRules.get(displayColumns[col].getElementKey());
+      if (tableColumns != null && !tableColumns.get(col)) {
+        group = null;
+      }
+      columnColors[col] = group == null ?
+          rowColors :
+          evaluateGroup(group, table, numRows, rowColors);
+    }
+    return new BlockColors(rowColors, statusColors, columnColors);
+  }
+
+  /**
+   * Evaluates the rules of one column against rows that were queried apart from the rest of
+   * their block, like the columns of a wide table, which come in after the rows they're in.
+   *
+   * @param displayColumn the display column index of the column
+   * @param cd            the column
+   * @param table         rows with the values of the column
+   * @param tableRows     the row of the table for each row of the block, or -1 for a row the
+   *                      table doesn't have, which keeps the color it had
+   * @param colors        the colors of the block so far
+   * @return the colors of the column in each row of the block, or null if it has no rules
+   */
+  int[] evaluateColumn(int displayColumn, ColumnDefinition cd, UserTable table, int[] tableRows,
+      BlockColors colors) {
+    ColorRuleGroup group = columnRules.get(cd.getElementKey());
+    if (group == null) {
+      return null;
+    }
+    ColorGuideGroup guides = new ColorGuideGroup(group, table);
+    int[] result = Arrays.copyOf(colors.getColors(displayColumn), 2 * tableRows.length);
+    for (int i = 0; i < tableRows.length; ++i) {
+      if (tableRows[i] == -1) {
+        continue;
+      }
+      ColorGuide guide = guides.getColorGuideForRowIndex(tableRows[i]);
+      if (guide != null) {
+        result[2 * i] = guide.getForeground();
+        result[2 * i + 1] = guide.getBackground();
+      } else {
+        result[2 * i] = colors.rowColors[2 * i];
+        result[2 * i + 1] = colors.rowColors[2 * i + 1];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Evaluates one group of rules over a block
+   *
+   * @param group    the rules, or null if there aren't any
+   * @param table    the rows of the block
+   * @param numRows  the number of rows in the block
+   * @param fallback the colors of rows the group doesn't match, or null for the defaults
+   * @return the foreground and background of each row, packed as in {@link BlockColors}
+   */
+  private int[] evaluateGroup(ColorRuleGroup group, UserTable table, int numRows,
+      int[] fallback) {
+    if (group == null && fallback != null) {
+      return fallback;
+    }
+    int[] colors = new int[2 * numRows];
+    ColorGuideGroup guides = group == null ? null : new ColorGuideGroup(group, table);
+    for (int i = 0; i < numRows; ++i) {
+      ColorGuide guide = guides == null ? null : guides.getColorGuideForRowIndex(i);
+      if (guide != null) {
+        colors[2 * i] = guide.getForeground();
+        colors[2 * i + 1] = guide.getBackground();
+      } else if (fallback != null) {
+        colors[2 * i] = fallback[2 * i];
+        colors[2 * i + 1] = fallback[2 * i + 1];
+      } else {
+        colors[2 * i] = defaultForeground;
+        colors[2 * i + 1] = defaultBackground;
+      }
+    }
+    return colors;
+  }
+
+  /**
+   * The colors of every cell of a block of rows. Each array holds the foreground of row i at 2i
+   * and its background at 2i + 1, where i counts from the start of the block.
+   */
+  public static final class BlockColors {
+    private final int[] rowColors;
+    private final int[] statusColors;
+    private final int[][] columnColors;
+
+    BlockColors(int[] rowColors, int[] statusColors, int[][] columnColors) {
+      this.rowColors = rowColors;
+      this.statusColors = statusColors;
+      this.columnColors = columnColors;
+    }
+
+    /**
+     * @param displayColumn the index from {@link PagedRowSource#getDisplayColumnIndex(String)},
+     *                      or -1 for a column without one, which just gets the table colors
+     * @param rowInBlock    the row, counting from the start of the block
+     * @return the text color of the cell
+     */
+    public int getForeground(int displayColumn, int rowInBlock) {
+      return getColors(displayColumn)[2 * rowInBlock];
+    }
+
+    /**
+     * @param displayColumn the index from {@link PagedRowSource#getDisplayColumnIndex(String)},
+     *                      or -1 for a column without one, which just gets the table colors
+     * @param rowInBlock    the row, counting from the start of the block
+     * @return the background color of the cell
+     */
+    public int getBackground(int displayColumn, int rowInBlock) {
+      return getColors(displayColumn)[2 * rowInBlock + 1];
+    }
+
+    public int getStatusForeground(int rowInBlock) {
+      return statusColors[2 * rowInBlock];
+    }
+
+    public int getStatusBackground(int rowInBlock) {
+      return statusColors[2 * rowInBlock + 1];
+    }
+
+    private int[] getColors(int displayColumn) {
+      return displayColumn == -1 ? rowColors : columnColors[displayColumn];
+    }
+
+    /**
+     * Copies these colors with the colors of one column replaced
+     *
+     * @param displayColumn the display column index of the column
+     * @param colors        the new colors of the column, packed like the rest
+     * @return the new colors
+     */
+    BlockColors withColumn(int displayColumn, int[] colors) {
+      int[][] newColumnColors = columnColors.clone();
+      newColumnColors[displayColumn] = colors;
+      return new BlockColors(rowColors, statusColors, newColumnColors);
+    }
+
+    /**
+     * Copies these colors with the colors of one row replaced, or added at the end, for a block
+     * that had a row patched in. Arrays that are shared here are shared in the copy too.
+     *
+     * @param rowInBlock the row, counting from the start of the block
+     * @param row        the colors of just that row, evaluated against the same rules
+     * @return the new colors
+     */
+    BlockColors withRow(int rowInBlock, BlockColors row) {
+      Map<int[], int[]> copies = new IdentityHashMap<>();
+      int[][] newColumnColors = new int[columnColors.length][];
+      for (int col = 0; col < columnColors.length; ++col) {
+        newColumnColors[col] = splice(columnColors[col], rowInBlock, row.columnColors[col], copies);
+      }
+      return new BlockColors(splice(rowColors, rowInBlock, row.rowColors, copies),
+          splice(statusColors, rowInBlock, row.statusColors, copies), newColumnColors);
+    }
+
+    private static int[] splice(int[] colors, int rowInBlock, int[] rowColors,
+        Map<int[], int[]> copies) {
+      int[] copy = copies.get(colors);
+      if (copy == null) {
+        copy = Arrays.copyOf(colors, Math.max(colors.length, 2 * rowInBlock + 2));
+        copies.put(colors, copy);
+      }
+      copy[2 * rowInBlock] = rowColors[0];
+      copy[2 * rowInBlock + 1] = rowColors[1];
+      return copy;
+    }
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A condition on one column that the rows of the spreadsheet are narrowed down to, like "age is
+ * at least 18" or "name contains smith", picked from the filter bar.
+ * <p>
+ * It can be run two ways that give the same rows: as a where clause with bound arguments, for a
+ * table too big to have in memory, or against the values of the column held in memory, by
+ * {@link PagedRowSource#setFilter(RowFilter)}. For that the column is pulled out of the rows once
+ * into a {@link ColumnVector} of its type, so numbers are parsed once rather than per filter, and
+ * the rows that pass come out as a bitmap of query rows.
+ * <p>
+ * Which operators make sense depends on the type of the column, see
+ * {@link #getOperators(ElementDataType)}. Text matching ignores case, like LIKE does. A filter
+ * never changes once it's made.
+ */
+public final class RowFilter {
+
+  // What LIKE is told to treat as the escape character, see escapeLike
+  private static final char LIKE_ESCAPE = '\\';
+
+  /**
+   * The conditions a filter can put on a column
+   */
+  public enum Operator {
+    EQUALS, NOT_EQUALS, CONTAINS, STARTS_WITH, LESS_THAN, AT_MOST, GREATER_THAN, AT_LEAST,
+    IS_EMPTY, IS_NOT_EMPTY;
+
+    /**
+     * @return whether the operator compares against a value typed into the filter bar
+     */
+    public boolean takesValue() {
+      return this != IS_EMPTY && this != IS_NOT_EMPTY;
+    }
+  }
+
+  private static final Operator[] NUMERIC_OPERATORS = { Operator.EQUALS, Operator.NOT_EQUALS,
+      Operator.LESS_THAN, Operator.AT_MOST, Operator.GREATER_THAN, Operator.AT_LEAST,
+      Operator.IS_EMPTY, Operator.IS_NOT_EMPTY };
+  private static final Operator[] TEXT_OPERATORS = { Operator.CONTAINS, Operator.STARTS_WITH,
+      Operator.EQUALS, Operator.NOT_EQUALS, Operator.IS_EMPTY, Operator.IS_NOT_EMPTY };
+  private static final Operator[] OTHER_OPERATORS = { Operator.IS_EMPTY,
+      Operator.IS_NOT_EMPTY };
+
+  private final String elementKey;
+  private final ElementDataType type;
+  private final Operator operator;
+  private final String value;
+  // The value as a number, for a numeric column, or NaN
+  private final double number;
+
+  /**
+   * @param elementKey the column to filter on
+   * @param type       the type of the column
+   * @param operator   the condition, one of {@link #getOperators(ElementDataType)} for the type
+   * @param value      what to compare against, ignored if the operator doesn't take a value
+   */
+  public RowFilter(String elementKey, ElementDataType type, Operator operator, String value) {
+    this.elementKey = elementKey;
+    this.type = type;
+    this.operator = operator;
+    this.value = operator.takesValue() ? (value == null ? "" : value) : null;
+    this.number = isNumeric(type) && this.value != null ? parseNumber(this.value) : Double.NaN;
+  }
+
+  /**
+   * @param type the type of a column
+   * @return the operators that can be used on a column of that type, the most useful first
+   */
+  public static Operator[] getOperators(ElementDataType type) {
+    if (isNumeric(type)) {
+      return NUMERIC_OPERATORS.clone();
+    } else if (type == ElementDataType.string) {
+      return TEXT_OPERATORS.clone();
+    }
+    return OTHER_OPERATORS.clone();
+  }
+
+  private static boolean isNumeric(ElementDataType type) {
+    return type == ElementDataType.integer || type == ElementDataType.number;
+  }
+
+  private static double parseNumber(String text) {
+    try {
+      return Double.parseDouble(text.trim());
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  public String getElementKey() {
+    return elementKey;
+  }
+
+  public ElementDataType getType() {
+    return type;
+  }
+
+  public Operator getOperator() {
+    return operator;
+  }
+
+  /**
+   * @return what the column is compared against, or null if the operator doesn't take a value
+   */
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * @return whether the filter can be run, which it can't if it compares a numeric column against
+   * something that isn't a number
+   */
+  public boolean isValid() {
+    return !isNumeric(type) || !operator.takesValue() || !Double.isNaN(number);
+  }
+
+  /**
+   * Writes the filter as a condition for a where clause, with its value as a bound argument
+   * rather than in the SQL
+   *
+   * @param where the where clause to append to
+   * @param args  the bind arguments of the where clause, to add to
+   */
+  public void appendWhereClause(StringBuilder where, List<Object> args) {
+    switch (operator) {
+    case EQUALS:
+      where.append(elementKey).append(" = ?");
+      args.add(getArgument());
+      break;
+    case NOT_EQUALS:
+      // a null isn't equal to anything, so it's kept, the same as in memory
+      where.append("(").append(elementKey).append(" IS NULL OR ").append(elementKey)
+          .append(" <> ?)");
+      args.add(getArgument());
+      break;
+    case CONTAINS:
+      where.append(elementKey).append(" LIKE ? ESCAPE '").append(LIKE_ESCAPE).append("'");
+      args.add("%" + escapeLike(value) + "%");
+      break;
+    case STARTS_WITH:
+      where.append(elementKey).append(" LIKE ? ESCAPE '").append(LIKE_ESCAPE).append("'");
+      args.add(escapeLike(value) + "%");
+      break;
+    case LESS_THAN:
+      where.append(elementKey).append(" < ?");
+      args.add(getArgument());
+      break;
+    case AT_MOST:
+      where.append(elementKey).append(" <= ?");
+      args.add(getArgument());
+      break;
+    case GREATER_THAN:
+      where.append(elementKey).append(" > ?");
+      args.add(getArgument());
+      break;
+    case AT_LEAST:
+      where.append(elementKey).append(" >= ?");
+      args.add(getArgument());
+      break;
+    case IS_EMPTY:
+      where.append(elementKey).append(" IS NULL");
+      break;
+    case IS_NOT_EMPTY:
+      where.append(elementKey).append(" IS NOT NULL");
+      break;
+    }
+  }
+
+  /**
+   * @return the value to bind, a number for a numeric column so that it compares as one
+   */
+  private Object getArgument() {
+    return isNumeric(type) ? (Object) number : value;
+  }
+
+  private static String escapeLike(String text) {
+    StringBuilder escaped = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); ++i) {
+      char c = text.charAt(i);
+      if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+        escaped.append(LIKE_ESCAPE);
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+
+  /**
+   * Finds the rows that pass the filter
+   *
+   * @param column the values of the column the filter is on, in every row
+   * @return the query rows that pass
+   */
+  BitSet evaluate(ColumnVector column) {
+    int numRows = column.size();
+    BitSet passed = new BitSet(numRows);
+    String lowerValue = value == null ? null : value.toLowerCase(Locale.ROOT);
+    for (int row = 0; row < numRows; ++row) {
+      boolean isNull = column.isNull(row);
+      boolean passes;
+      switch (operator) {
+      case IS_EMPTY:
+        passes = isNull;
+        break;
+      case IS_NOT_EMPTY:
+        passes = !isNull;
+        break;
+      case NOT_EQUALS:
+        passes = isNull || (column.isNumeric() ?
+            column.getNumber(row) != number :
+            !column.getText(row).equals(value));
+        break;
+      default:
+        passes = !isNull && (column.isNumeric() ?
+            compareNumber(column.getNumber(row)) :
+            compareText(column.getText(row), column.getLowerText(row), lowerValue));
+        break;
+      }
+      if (passes) {
+        passed.set(row);
+      }
+    }
+    return passed;
+  }
+
+  private boolean compareNumber(double cell) {
+    switch (operator) {
+    case EQUALS:
+      return cell == number;
+    case LESS_THAN:
+      return cell < number;
+    case AT_MOST:
+      return cell <= number;
+    case GREATER_THAN:
+      return cell > number;
+    case AT_LEAST:
+      return cell >= number;
+    default:
+      return false;
+    }
+  }
+
+  private boolean compareText(String cell, String lowerCell, String lowerValue) {
+    switch (operator) {
+    case EQUALS:
+      return cell.equals(value);
+    case CONTAINS:
+      return lowerCell.contains(lowerValue);
+    case STARTS_WITH:
+      return lowerCell.startsWith(lowerValue);
+    default:
+      return false;
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof RowFilter)) {
+      return false;
+    }
+    RowFilter other = (RowFilter) o;
+    return elementKey.equals(other.elementKey) && type == other.type
+        && operator == other.operator && (value == null ?
+        other.value == null :
+        value.equals(other.value));
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = elementKey.hashCode() * 31 + operator.hashCode();
+    return value == null ? hash : hash * 31 + value.hashCode();
+  }
+
+  /**
+   * The values of one column in every row of a fully loaded result, pulled out once in the form
+   * the filter compares them in: numbers for a numeric column, the text and its lower case for
+   * any other. A cell of a numeric column that isn't a number is NaN, which no comparison passes.
+   */
+  static final class ColumnVector {
+    private final BitSet nulls;
+    private final double[] numbers;
+    private final String[] text;
+    private final String[] lowerText;
+
+    private ColumnVector(BitSet nulls, double[] numbers, String[] text, String[] lowerText) {
+      this.nulls = nulls;
+      this.numbers = numbers;
+      this.text = text;
+      this.lowerText = lowerText;
+    }
+
+    /**
+     * @param type   the type of the column
+     * @param values the raw value of the column in each row, indexed by query row
+     * @return the column
+     */
+    static ColumnVector build(ElementDataType type, String[] values) {
+      BitSet nulls = new BitSet(values.length);
+      for (int row = 0; row < values.length; ++row) {
+        if (values[row] == null) {
+          nulls.set(row);
+        }
+      }
+      if (RowFilter.isNumeric(type)) {
+        double[] numbers = new double[values.length];
+        for (int row = 0; row < values.length; ++row) {
+          numbers[row] = values[row] == null ? Double.NaN : parseNumber(values[row]);
+        }
+        return new ColumnVector(nulls, numbers, null, null);
+      }
+      String[] lowerText = new String[values.length];
+      for (int row = 0; row < values.length; ++row) {
+        lowerText[row] = values[row] == null ? null : values[row].toLowerCase(Locale.ROOT);
+      }
+      return new ColumnVector(nulls, null, values, lowerText);
+    }
+
+    int size() {
+      return numbers != null ? numbers.length : text.length;
+    }
+
+    boolean isNumeric() {
+      return numbers != null;
+    }
+
+    boolean isNull(int row) {
+      return nulls.get(row);
+    }
+
+    double getNumber(int row) {
+      return numbers[row];
+    }
+
+    String getText(int row) {
+      return text[row];
+    }
+
+    String getLowerText(int row) {
+      return lowerText[row];
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sorts the rows of a result in memory, the way the ORDER BY of the query would have.
+ * <p>
+ * The values of each sort column are pulled out of the rows once, into a primitive array of the
+ * column's type (so integers compare as integers rather than as strings), and the rows are then
+ * sorted as an int[] of row indexes without boxing anything. Like SQLite, nulls sort before
+ * everything else, so they come first in ascending order and last in descending order. Rows that
+ * compare equal on every key keep their original order.
+ */
+final class RowOrdering {
+
+  private final int numRows;
+  private final List<SortKey> keys = new ArrayList<>();
+
+  /**
+   * @param numRows the number of rows to sort
+   */
+  RowOrdering(int numRows) {
+    this.numRows = numRows;
+  }
+
+  /**
+   * Adds a column to sort by, after any that were added before it
+   *
+   * @param type       the type of the column, which decides how its values compare
+   * @param values     the raw value of the column in each row, null for a null
+   * @param descending whether to sort this column from largest to smallest
+   */
+  void addSortKey(ElementDataType type, String[] values, boolean descending) {
+    SortKey key = null;
+    if (type == ElementDataType.integer) {
+      key = LongSortKey.parse(values, descending);
+    } else if (type == ElementDataType.number) {
+      key = DoubleSortKey.parse(values, descending);
+    }
+    if (key == null) {
+      // a string column, or a numeric one holding something that isn't a number
+      key = new StringSortKey(values, descending);
+    }
+    keys.add(key);
+  }
+
+  /**
+   * @return the index of each row in sorted order
+   */
+  int[] sort() {
+    int[] order = new int[numRows];
+    for (int i = 0; i < numRows; ++i) {
+      order[i] = i;
+    }
+    if (!keys.isEmpty() && numRows > 1) {
+      mergeSort(order, new int[numRows], 0, numRows);
+    }
+    return order;
+  }
+
+  private int compare(int a, int b) {
+    for (int i = 0; i < keys.size(); ++i) {
+      int result = keys.get(i).compare(a, b);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return a < b ? -1 : (a == b ? 0 : 1);
+  }
+
+  /**
+   * Sorts order[from, to) using scratch as working space
+   */
+  private void mergeSort(int[] order, int[] scratch, int from, int to) {
+    if (to - from < 8) {
+      // insertion sort is quicker for short runs
+      for (int i = from + 1; i < to; ++i) {
+        int row = order[i];
+        int j = i - 1;
+        while (j >= from && compare(order[j], row) > 0) {
+          order[j + 1] = order[j];
+          --j;
+        }
+        order[j + 1] = row;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(order, scratch, from, mid);
+    mergeSort(order, scratch, mid, to);
+    if (compare(order[mid - 1], order[mid]) <= 0) {
+      // already in order
+      return;
+    }
+    System.arraycopy(order, from, scratch, from, to - from);
+    int left = from;
+    int right = mid;
+    for (int i = from; i < to; ++i) {
+      if (right >= to || (left < mid && compare(scratch[left], scratch[right]) <= 0)) {
+        order[i] = scratch[left++];
+      } else {
+        order[i] = scratch[right++];
+      }
+    }
+  }
+
+  /**
+   * The values of one sort column, pulled out of the rows
+   */
+  private abstract static class SortKey {
+    private final boolean descending;
+
+    SortKey(boolean descending) {
+      this.descending = descending;
+    }
+
+    final int compare(int a, int b) {
+      int result = compareAscending(a, b);
+      return descending ? -result : result;
+    }
+
+    abstract int compareAscending(int a, int b);
+  }
+
+  private static final class LongSortKey extends SortKey {
+    private final long[] values;
+    private final boolean[] nulls;
+
+    private LongSortKey(long[] values, boolean[] nulls, boolean descending) {
+      super(descending);
+      this.values = values;
+      this.nulls = nulls;
+    }
+
+    /**
+     * @return the key, or null if one of the values isn't an integer
+     */
+    static LongSortKey parse(String[] raw, boolean descending) {
+      long[] values = new long[raw.length];
+      boolean[] nulls = new boolean[raw.length];
+      try {
+        for (int i = 0; i < raw.length; ++i) {
+          if (raw[i] == null) {
+            nulls[i] = true;
+          } else {
+            values[i] = Long.parseLong(raw[i].trim());
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      return new LongSortKey(values, nulls, descending);
+    }
+
+    @Override
+    int compareAscending(int a, int b) {
+      if (nulls[a] || nulls[b]) {
+        return nulls[a] == nulls[b] ? 0 : (nulls[a] ? -1 : 1);
+      }
+      return values[a] < values[b] ? -1 : (values[a] == values[b] ? 0 : 1);
+    }
+  }
+
+  private static final class DoubleSortKey extends SortKey {
+    private final double[] values;
+    private final boolean[] nulls;
+
+    private DoubleSortKey(double[] values, boolean[] nulls, boolean descending) {
+      super(descending);
+      this.values = values;
+      this.nulls = nulls;
+    }
+
+    /**
+     * @return the key, or null if one of the values isn't a number
+     */
+    static DoubleSortKey parse(String[] raw, boolean descending) {
+      double[] values = new double[raw.length];
+      boolean[] nulls = new boolean[raw.length];
+      try {
+        for (int i = 0; i < raw.length; ++i) {
+          if (raw[i] == null) {
+            nulls[i] = true;
+          } else {
+            values[i] = Double.parseDouble(raw[i]);
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      return new DoubleSortKey(values, nulls, descending);
+    }
+
+    @Override
+    int compareAscending(int a, int b) {
+      if (nulls[a] || nulls[b]) {
+        return nulls[a] == nulls[b] ? 0 : (nulls[a] ? -1 : 1);
+      }
+      return Double.compare(values[a], values[b]);
+    }
+  }
+
+  private static final class StringSortKey extends SortKey {
+    private final String[] values;
+
+    StringSortKey(String[] values, boolean descending) {
+      super(descending);
+      this.values = values;
+    }
+
+    @Override
+    int compareAscending(int a, int b) {
+      String left = values[a];
+      String right = values[b];
+      if (left == null || right == null) {
+        return left == right ? 0 : (left == null ? -1 : 1);
+      }
+      return left.compareTo(right);
+    }
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.PagedRowSource.RowBlock;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the cells of a {@link PagedRowSource} whose display text matches a query, for the find
+ * bar of the spreadsheet.
+ * <p>
+ * Each search walks every block of the result on a background thread. A block that is in memory
+ * is used as it is, the rest are queried and not kept, the same as
+ * {@link PagedRowSource#sampleBlocks(int)}. Each block is indexed with a
+ * {@link BlockSearchIndex} the first time it's searched, and the most recently used indexes are
+ * kept, so typing a query a letter at a time doesn't keep re-reading the same rows. When a query
+ * only narrows the last one that finished, like "smi" after "sm", only the blocks that matched
+ * last time are looked at.
+ * <p>
+ * Starting a search stops the one before it before it gets to its next block. Matches are posted
+ * to the UI thread as they are found, with the intervals between updates growing so that a
+ * query that matches most of a big table doesn't spend its time sorting partial results.
+ */
+public class RowSearcher {
+
+  /**
+   * Maximum number of block indexes kept before the least recently used one is dropped
+   */
+  public static final int MAX_CACHED_INDEXES = 64;
+
+  // Used for logging
+  private static final String TAG = RowSearcher.class.getSimpleName();
+  // How long to wait before posting the first partial results of a search
+  private static final long FIRST_UPDATE_INTERVAL_MS = 100;
+
+  private final PagedRowSource rowSource;
+  // The display text index in the row source of each searched column, or -1 if it has none
+  private final int[] displayColumns;
+  private final ExecutorService worker;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // Bumped by every search and by cancel, a running search stops once it no longer matches
+  private final AtomicInteger generation = new AtomicInteger();
+  private volatile boolean closed = false;
+
+  /**
+   * Indexes by block number, least recently used first. Only touched on the worker thread.
+   */
+  private final LinkedHashMap<Integer, BlockSearchIndex> indexes = new LinkedHashMap<Integer,
+      BlockSearchIndex>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, BlockSearchIndex> eldest) {
+      return size() > MAX_CACHED_INDEXES;
+    }
+  };
+  /**
+   * The tokens of the last search that ran to the end, and the blocks it matched in. Only
+   * touched on the worker thread.
+   */
+  private String[] lastTokens = null;
+  private BitSet lastMatchedBlocks = null;
+
+  /**
+   * @param rowSource   the rows to search
+   * @param elementKeys the columns to search. Matches report a column as an index into this
+   */
+  public RowSearcher(PagedRowSource rowSource, String[] elementKeys) {
+    this.rowSource = rowSource;
+    this.displayColumns = new int[elementKeys.length];
+    for (int i = 0; i < elementKeys.length; ++i) {
+      displayColumns[i] = rowSource.getDisplayColumnIndex(elementKeys[i]);
+    }
+    this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+
+  public PagedRowSource getRowSource() {
+    return rowSource;
+  }
+
+  /**
+   * Starts searching for a query in the background, stopping any search already running. Must be
+   * called on the UI thread.
+   *
+   * @param query    what to look for
+   * @param listener told about the matches on the UI thread, never after another search has been
+   *                 started or this one cancelled
+   */
+  public void search(String query, final Listener listener) {
+    final int searchGeneration = generation.incrementAndGet();
+    final String[] tokens = BlockSearchIndex.tokenize(query);
+    if (closed) {
+      return;
+    }
+    worker.execute(new Runnable() {
+      @Override
+      public void run() {
+        searchInBackground(searchGeneration, tokens, listener);
+      }
+    });
+  }
+
+  /**
+   * Stops the search that is running, if any, without starting another
+   */
+  public void cancel() {
+    generation.incrementAndGet();
+  }
+
+  /**
+   * Stops searching for good. The searcher can't be used after this.
+   */
+  public void close() {
+    closed = true;
+    cancel();
+    worker.shutdownNow();
+  }
+
+  /**
+   * Runs on the worker thread. Goes through the blocks in order, stopping as soon as another
+   * search is started.
+   */
+  private void searchInBackground(int searchGeneration, String[] tokens, Listener listener) {
+    if (tokens.length == 0) {
+      publish(searchGeneration, new long[0], 0, true, listener);
+      return;
+    }
+    String appName = rowSource.getAppName();
+    int blockSize = rowSource.getBlockSize();
+    int numBlocks = rowSource.getNumberOfBlocks();
+    BitSet candidates = narrowsLastSearch(tokens) ? lastMatchedBlocks : null;
+    BitSet matchedBlocks = new BitSet();
+    long[] found = new long[16];
+    int numFound = 0;
+    long updateInterval = FIRST_UPDATE_INTERVAL_MS;
+    long nextUpdate = SystemClock.uptimeMillis() + updateInterval;
+    UserDbInterface dbInterface = null;
+    DbHandle db = null;
+    try {
+      for (int b = 0; b < numBlocks; ++b) {
+        if (generation.get() != searchGeneration) {
+          return;
+        }
+        if (candidates != null && !candidates.get(b)) {
+          continue;
+        }
+        BlockSearchIndex index = indexes.get(b);
+        if (index == null) {
+          RowBlock block = rowSource.getResidentBlock(b);
+          // the blocks of a wide table in memory only have the columns that were drawn
+          if (block == null || !block.isComplete()) {
+            if (db == null) {
+              dbInterface = Tables.getInstance().getDatabase();
+              db = dbInterface.openDatabase(appName);
+            }
+            block = rowSource.completeBlock(dbInterface, db, b, block);
+          }
+          index = buildIndex(block);
+          indexes.put(b, index);
+        }
+        BitSet cells = index.match(tokens);
+        int firstRow = b * blockSize;
+        for (int c = cells.nextSetBit(0); c >= 0; c = cells.nextSetBit(c + 1)) {
+          if (numFound == found.length) {
+            found = Arrays.copyOf(found, numFound * 2);
+          }
+          int queryRow = firstRow + c / displayColumns.length;
+          found[numFound++] = ((long) queryRow << 32) | (c % displayColumns.length);
+        }
+        if (!cells.isEmpty()) {
+          matchedBlocks.set(b);
+        }
+        if (SystemClock.uptimeMillis() >= nextUpdate) {
+          publish(searchGeneration, found, numFound, false, listener);
+          updateInterval *= 2;
+          nextUpdate = SystemClock.uptimeMillis() + updateInterval;
+        }
+      }
+      lastTokens = tokens;
+      lastMatchedBlocks = matchedBlocks;
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to search rows: " + e);
+    } finally {
+      if (db != null) {
+        try {
+          dbInterface.closeDatabase(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).printStackTrace(e);
+        }
+      }
+    }
+    // if the database went away, report what was found before it did
+    publish(searchGeneration, found, numFound, true, listener);
+  }
+
+  /**
+   * @return the index of the searched columns of a block
+   */
+  private BlockSearchIndex buildIndex(RowBlock block) {
+    String[][] columnText = new String[displayColumns.length][];
+    for (int i = 0; i < displayColumns.length; ++i) {
+      if (displayColumns[i] != -1) {
+        columnText[i] = block.getColumnText(displayColumns[i]);
+      }
+    }
+    return BlockSearchIndex.build(columnText, block.getNumberOfRows());
+  }
+
+  /**
+   * Every cell that matches a query also matches the last query if each token of the last query
+   * is the start of some token of this one, so only the blocks that matched last time need to be
+   * searched.
+   *
+   * @param tokens the tokens of the new query
+   * @return whether the new query can only match where the last finished search did
+   */
+  private boolean narrowsLastSearch(String[] tokens) {
+    if (lastTokens == null) {
+      return false;
+    }
+    for (String last : lastTokens) {
+      boolean extended = false;
+      for (String token : tokens) {
+        if (token.startsWith(last)) {
+          extended = true;
+          break;
+        }
+      }
+      if (!extended) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Puts the matches found so far in display order and posts them to the listener. Each entry of
+   * found holds the query row in its high half and the column in its low half.
+   */
+  private void publish(final int searchGeneration, long[] found, int numFound,
+      final boolean finished, final Listener listener) {
+    long[] cells = new long[numFound];
+    int numCells = 0;
+    for (int i = 0; i < numFound; ++i) {
+      int displayRow = rowSource.toDisplayRow((int) (found[i] >>> 32));
+      if (displayRow != -1) {
+        cells[numCells++] = ((long) displayRow << 32) | (found[i] & 0xffffffffL);
+      }
+    }
+    // in query order, which is usually display order already
+    Arrays.sort(cells, 0, numCells);
+    final Matches matches = new Matches(numCells == numFound ? cells :
+        Arrays.copyOf(cells, numCells));
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (!closed && generation.get() == searchGeneration) {
+          listener.onSearchProgress(matches, finished);
+        }
+      }
+    });
+  }
+
+  /**
+   * Notified on the UI thread as a search finds matches
+   */
+  public interface Listener {
+    /**
+     * Called as matches are found, and once more when the search is done
+     *
+     * @param matches  everything found so far, not only what is new since the last call
+     * @param finished whether every row has been searched
+     */
+    void onSearchProgress(Matches matches, boolean finished);
+  }
+
+  /**
+   * The cells that matched a query, sorted by row as displayed and then by column
+   */
+  public static final class Matches {
+    // the display row in the high half of each entry and the column in the low half
+    private final long[] cells;
+
+    Matches(long[] cells) {
+      this.cells = cells;
+    }
+
+    public int size() {
+      return cells.length;
+    }
+
+    /**
+     * @param i which match
+     * @return the index of the row of the match, as displayed
+     */
+    public int getRow(int i) {
+      return (int) (cells[i] >>> 32);
+    }
+
+    /**
+     * @param i which match
+     * @return the column of the match, as an index into the element keys that were searched
+     */
+    public int getColumn(int i) {
+      return (int) cells[i];
+    }
+
+    /**
+     * Finds the first match at or after a cell, to keep the same place as a search goes on
+     *
+     * @param row    the row as displayed
+     * @param column the column, as an index into the element keys that were searched
+     * @return the index of the first match that isn't before that cell, or size() if there isn't
+     * one
+     */
+    public int indexOfFirstFrom(int row, int column) {
+      int i = Arrays.binarySearch(cells, ((long) row << 32) | column);
+      return i >= 0 ? i : -i - 1;
+    }
+  }
+}
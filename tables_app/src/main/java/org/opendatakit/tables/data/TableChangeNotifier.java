@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import org.opendatakit.database.data.TableDefinitionEntry;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.logging.WebLogger;
+import org.opendatakit.provider.TablesProviderAPI;
+import org.opendatakit.tables.application.Tables;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells the open views of a table when its rows change underneath them, like when sync pulls
+ * rows down or another app writes to the table, so that they can refresh without the user
+ * having to leave the screen.
+ * <p>
+ * The tables provider reports every change to a table's uri, so the notifier counts those
+ * reports rather than looking at the table itself: each report moves the table's version (see
+ * {@link #getVersion(String, String)}), and the listeners are told once a burst of them, like the
+ * rows of one sync, is over. Nothing is polled. The only query is a cheap look at the data and
+ * schema etags sync leaves on the table, made when a table gets its first listener, which catches
+ * a sync that ran while nothing was listening, like while the sync screen was up.
+ * <p>
+ * Listeners are added and removed on the UI thread and notified on it. Once a table has had a
+ * listener its uri stays observed for the life of the process, so that its version can be
+ * trusted by the {@link QueryResultCache} while the user flips between the views of the table.
+ */
+public final class TableChangeNotifier {
+
+  // Used for logging
+  private static final String TAG = TableChangeNotifier.class.getSimpleName();
+  // How long a table has to go without changing before its listeners are told
+  private static final long QUIET_PERIOD_MS = 500;
+
+  private static TableChangeNotifier instance = null;
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService checker;
+  /**
+   * The watched tables, by app name and table id. Only added to on the UI thread, read from any.
+   */
+  private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+
+  private TableChangeNotifier() {
+    checker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * @return the notifier shared by every view in the process
+   */
+  public static synchronized TableChangeNotifier get() {
+    if (instance == null) {
+      instance = new TableChangeNotifier();
+    }
+    return instance;
+  }
+
+  /**
+   * Starts telling a listener about changes to a table. Must be called on the UI thread.
+   *
+   * @param appName  the app name
+   * @param tableId  the table to watch
+   * @param listener told on the UI thread whenever the rows of the table change
+   */
+  public void addListener(String appName, String tableId, Listener listener) {
+    String key = appName + "/" + tableId;
+    Watch watch = watches.get(key);
+    if (watch == null) {
+      watch = new Watch(appName, tableId);
+      watches.put(key, watch);
+      Uri tableUri = Uri.withAppendedPath(Uri.withAppendedPath(TablesProviderAPI.CONTENT_URI,
+          appName), tableId);
+      Tables.getInstance().getContentResolver().registerContentObserver(tableUri, true, watch);
+    }
+    if (watch.listeners.isEmpty()) {
+      watch.checkETagsSoon();
+    }
+    if (!watch.listeners.contains(listener)) {
+      watch.listeners.add(listener);
+    }
+  }
+
+  /**
+   * Stops telling a listener about changes, to whichever table it was listening to. Must be
+   * called on the UI thread.
+   *
+   * @param listener the listener to remove
+   */
+  public void removeListener(Listener listener) {
+    for (Watch watch : watches.values()) {
+      if (watch.listeners.remove(listener) && watch.listeners.isEmpty()) {
+        mainHandler.removeCallbacks(watch.deliver);
+      }
+    }
+  }
+
+  /**
+   * The version of a table's rows, as far as the notifier knows. It moves whenever the tables
+   * provider reports a change to the table, sync is found to have changed it or the app says it
+   * wrote to it, and never goes back. Safe to call from any thread.
+   *
+   * @param appName the app name
+   * @param tableId the table
+   * @return the version, or -1 if the table has never had a listener, so changes to it haven't
+   * been followed
+   */
+  public long getVersion(String appName, String tableId) {
+    Watch watch = watches.get(appName + "/" + tableId);
+    return watch == null ? -1 : watch.version.get();
+  }
+
+  /**
+   * Moves the version of a table straight after the app itself writes to it, so that a result
+   * cached before the write can't be handed out in the moment before the tables provider's report
+   * of the write comes in. The listeners are still told when that report does. Safe to call from
+   * any thread.
+   *
+   * @param appName the app name
+   * @param tableId the table that was written to
+   */
+  public void tableWritten(String appName, String tableId) {
+    Watch watch = watches.get(appName + "/" + tableId);
+    if (watch != null) {
+      watch.version.incrementAndGet();
+    }
+  }
+
+  /**
+   * Notified on the UI thread when the rows of a watched table change
+   */
+  public interface Listener {
+    /**
+     * Called once a burst of changes to the table is over
+     *
+     * @param appName the app name
+     * @param tableId the table that changed
+     */
+    void onTableChanged(String appName, String tableId);
+  }
+
+  /**
+   * A watched table: its listeners, its version and the observer of its provider uri
+   */
+  private final class Watch extends ContentObserver {
+    private final String appName;
+    private final String tableId;
+    // Only touched on the UI thread
+    private final List<Listener> listeners = new ArrayList<>();
+    // Moved on the UI thread, or by whichever thread wrote to the table
+    private final AtomicLong version = new AtomicLong();
+    // Only touched on the checker thread, null until the first check
+    private String eTags = null;
+    private final Runnable deliver = new Runnable() {
+      @Override
+      public void run() {
+        for (Listener listener : new ArrayList<>(listeners)) {
+          listener.onTableChanged(appName, tableId);
+        }
+      }
+    };
+
+    Watch(String appName, String tableId) {
+      super(mainHandler);
+      this.appName = appName;
+      this.tableId = tableId;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+      changed();
+    }
+
+    /**
+     * Moves the version and tells the listeners once it stops moving. Runs on the UI thread.
+     */
+    void changed() {
+      version.incrementAndGet();
+      mainHandler.removeCallbacks(deliver);
+      if (!listeners.isEmpty()) {
+        mainHandler.postDelayed(deliver, QUIET_PERIOD_MS);
+      }
+    }
+
+    void checkETagsSoon() {
+      checker.execute(new Runnable() {
+        @Override
+        public void run() {
+          checkETags();
+        }
+      });
+    }
+
+    /**
+     * Runs on the checker thread. Reads the data and schema etags of the table, and if they
+     * moved since the last look, reports a change.
+     */
+    void checkETags() {
+      UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+      if (dbInterface == null) {
+        return;
+      }
+      DbHandle db = null;
+      try {
+        db = dbInterface.openDatabase(appName);
+        TableDefinitionEntry definition = dbInterface
+            .getTableDefinitionEntry(appName, db, tableId);
+        String current = definition.getLastDataETag() + "/" + definition.getSchemaETag();
+        String last = eTags;
+        eTags = current;
+        if (last != null && !last.equals(current)) {
+          mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+              changed();
+            }
+          });
+        }
+      } catch (ServicesAvailabilityException e) {
+        WebLogger.getLogger(appName).printStackTrace(e);
+        WebLogger.getLogger(appName).e(TAG, "Unable to check table " + tableId + " for changes");
+      } finally {
+        if (db != null) {
+          try {
+            dbInterface.closeDatabase(appName, db);
+          } catch (ServicesAvailabilityException e) {
+            WebLogger.getLogger(appName).printStackTrace(e);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import org.opendatakit.data.TableViewType;
+import org.opendatakit.data.utilities.ColumnUtil;
+import org.opendatakit.data.utilities.TableUtil;
+import org.opendatakit.database.data.ColumnDefinition;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The key value store settings of a table that the activities, views and preference fragments
+ * keep asking for: display names, column order and widths, the index and sort columns, the
+ * default view type and the list, map and detail files.
+ * <p>
+ * Each of those is its own round trip through {@link TableUtil} or {@link ColumnUtil}, so a
+ * snapshot of all of them is kept for each table for the life of the process. Getting a
+ * snapshot that is already cached costs a single metadata read, to check that the revision of
+ * the table's metadata hasn't moved. It is thrown away and reloaded if the revision has moved,
+ * if the columns of the table changed (a new schema) or if it was built for a different locale.
+ * Anything in this app that writes one of these settings calls
+ * {@link #invalidate(String, String)} as well, rather than rely on the revision check.
+ * <p>
+ * The localized names of the columns are only looked up when they're first asked for, since a
+ * wide table can have hundreds of them and a spreadsheet only shows a few at a time. Apart from
+ * those, a snapshot never changes once it's built, and either way it can be shared between
+ * threads.
+ */
+public final class TableMetadataSnapshot {
+
+  // All the cached snapshots, by app name and table id
+  private static final Map<String, TableMetadataSnapshot> snapshots = new HashMap<>();
+
+  private final String revId;
+  private final String locale;
+  private final String appName;
+  private final String tableId;
+  // The element keys of the columns the snapshot was built from
+  private final List<String> elementKeys;
+
+  private final String localizedDisplayName;
+  private final String indexColumn;
+  private final List<String> columnOrder;
+  // Filled in as the names are asked for
+  private final Map<String, String> localizedColumnNames = new ConcurrentHashMap<>();
+  private final Map<String, Integer> columnWidths;
+  private final String sortColumn;
+  private final String sortOrder;
+  private final List<String> groupByColumns;
+  private final TableViewType defaultViewType;
+  private final String listViewFilename;
+  private final String mapListViewFilename;
+  private final String detailViewFilename;
+  private final TableUtil.MapViewColorRuleInfo mapListViewColorRuleInfo;
+
+  private TableMetadataSnapshot(UserDbInterface dbInterface, String appName, DbHandle db,
+      String tableId, OrderedColumns columns, String locale, String revId)
+      throws ServicesAvailabilityException {
+    TableUtil tableUtil = TableUtil.get();
+    ColumnUtil columnUtil = ColumnUtil.get();
+
+    this.revId = revId;
+    this.locale = locale;
+    this.appName = appName;
+    this.tableId = tableId;
+    this.elementKeys = getElementKeys(columns);
+
+    localizedDisplayName = tableUtil
+        .getLocalizedDisplayName(locale, dbInterface, appName, db, tableId);
+    indexColumn = tableUtil.getIndexColumn(dbInterface, appName, db, tableId);
+    columnOrder = Collections
+        .unmodifiableList(tableUtil.getColumnOrder(dbInterface, appName, db, tableId, columns));
+    columnWidths = Collections.unmodifiableMap(
+        columnUtil.getColumnWidths(dbInterface, appName, db, tableId, columns));
+
+    sortColumn = tableUtil.getSortColumn(dbInterface, appName, db, tableId);
+    sortOrder = tableUtil.getSortOrder(dbInterface, appName, db, tableId);
+    groupByColumns = Collections
+        .unmodifiableList(tableUtil.getGroupByColumns(dbInterface, appName, db, tableId));
+
+    defaultViewType = tableUtil.getDefaultViewType(dbInterface, appName, db, tableId);
+    listViewFilename = tableUtil.getListViewFilename(dbInterface, appName, db, tableId);
+    mapListViewFilename = tableUtil.getMapListViewFilename(dbInterface, appName, db, tableId);
+    detailViewFilename = tableUtil.getDetailViewFilename(dbInterface, appName, db, tableId);
+    mapListViewColorRuleInfo = tableUtil
+        .getMapListViewColorRuleInfo(dbInterface, appName, db, tableId);
+  }
+
+  /**
+   * Gets the snapshot of a table's settings, from the cache if it is still current or from the
+   * database if not.
+   *
+   * @param dbInterface the database interface to use
+   * @param appName     the app name
+   * @param db          an open database handle
+   * @param tableId     the table to get the settings of
+   * @param columns     the current columns of the table
+   * @param locale      the user selected default locale, to localize the display names into
+   * @return the settings of the table
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static TableMetadataSnapshot get(UserDbInterface dbInterface, String appName,
+      DbHandle db, String tableId, OrderedColumns columns, String locale)
+      throws ServicesAvailabilityException {
+    String key = getKey(appName, tableId);
+    TableMetadataSnapshot snapshot;
+    synchronized (snapshots) {
+      snapshot = snapshots.get(key);
+    }
+
+    // Passing in the revision we already have lets the database skip sending back the entries
+    // if it hasn't changed. Either way the revision it returns is the current one.
+    String revId = dbInterface
+        .getTableMetadata(appName, db, tableId, null, null, null,
+            snapshot == null ? null : snapshot.revId).getRevId();
+    if (snapshot != null && snapshot.isCurrent(revId, columns, locale)) {
+      return snapshot;
+    }
+    if (snapshot != null) {
+      // the metadata may have changed somewhere else, like in a sync, color rules and all
+      ColorRuleCache.invalidate(appName, tableId);
+    }
+
+    snapshot = new TableMetadataSnapshot(dbInterface, appName, db, tableId, columns, locale,
+        revId);
+    synchronized (snapshots) {
+      snapshots.put(key, snapshot);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Drops the cached snapshot of a table. Call this after writing any of the settings it holds.
+   *
+   * @param appName the app name
+   * @param tableId the table whose settings were changed
+   */
+  public static void invalidate(String appName, String tableId) {
+    synchronized (snapshots) {
+      snapshots.remove(getKey(appName, tableId));
+    }
+  }
+
+  private static String getKey(String appName, String tableId) {
+    return appName + "/" + tableId;
+  }
+
+  private static List<String> getElementKeys(OrderedColumns columns) {
+    List<ColumnDefinition> defns = columns.getColumnDefinitions();
+    List<String> keys = new ArrayList<>(defns.size());
+    for (ColumnDefinition cd : defns) {
+      keys.add(cd.getElementKey());
+    }
+    return keys;
+  }
+
+  private boolean isCurrent(String currentRevId, OrderedColumns columns, String currentLocale) {
+    return revId != null && revId.equals(currentRevId)
+        && (locale == null ? currentLocale == null : locale.equals(currentLocale))
+        && elementKeys.equals(getElementKeys(columns));
+  }
+
+  /**
+   * @return the display name of the table, localized into the locale of the snapshot
+   */
+  public String getLocalizedDisplayName() {
+    return localizedDisplayName;
+  }
+
+  /**
+   * @return the element key of the column that is frozen in the spreadsheet, or null
+   */
+  public String getIndexColumn() {
+    return indexColumn;
+  }
+
+  /**
+   * @return the element keys of the columns, in the order they should be displayed
+   */
+  public List<String> getColumnOrder() {
+    return columnOrder;
+  }
+
+  /**
+   * Gets the display name of a column, looking it up the first time it's asked for
+   *
+   * @param dbInterface the database interface to use
+   * @param db          an open database handle
+   * @param elementKey  a column from {@link #getColumnOrder()}
+   * @return the display name of the column, localized into the locale of the snapshot
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public String getLocalizedDisplayName(UserDbInterface dbInterface, DbHandle db,
+      String elementKey) throws ServicesAvailabilityException {
+    String name = localizedColumnNames.get(elementKey);
+    if (name == null) {
+      name = ColumnUtil.get()
+          .getLocalizedDisplayName(locale, dbInterface, appName, db, tableId, elementKey);
+      if (name != null) {
+        localizedColumnNames.put(elementKey, name);
+      }
+    }
+    return name;
+  }
+
+  /**
+   * @return the width of each column in the spreadsheet, by element key
+   */
+  public Map<String, Integer> getColumnWidths() {
+    return columnWidths;
+  }
+
+  public String getSortColumn() {
+    return sortColumn;
+  }
+
+  public String getSortOrder() {
+    return sortOrder;
+  }
+
+  public List<String> getGroupByColumns() {
+    return groupByColumns;
+  }
+
+  /**
+   * @return the view type the table opens in, or null if none was set
+   */
+  public TableViewType getDefaultViewType() {
+    return defaultViewType;
+  }
+
+  public String getListViewFilename() {
+    return listViewFilename;
+  }
+
+  public String getMapListViewFilename() {
+    return mapListViewFilename;
+  }
+
+  public String getDetailViewFilename() {
+    return detailViewFilename;
+  }
+
+  /**
+   * @return which color rules the map list view uses, may be null
+   */
+  public TableUtil.MapViewColorRuleInfo getMapListViewColorRuleInfo() {
+    return mapListViewColorRuleInfo;
+  }
+}
@@ -21,14 +21,37 @@ import org.opendatakit.database.data.OrderedColumns;
 import org.opendatakit.database.data.UserTable;
 import org.opendatakit.tables.activities.AbsTableActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
+import org.opendatakit.tables.data.PagedRowSource;
+import org.opendatakit.tables.data.TableChangeNotifier;
 
 /**
- * The base class for any {@link Fragment} that displays a table.
+ * The base class for any {@link Fragment} that displays a table. While it's resumed it listens
+ * for the rows of the table being changed by something else, like sync, and calls
+ * {@link #onTableDataChanged()}, or waits until it's shown again if it's hidden.
  *
  * @author sudar.sam@gmail.com
  */
 public abstract class AbsTableDisplayFragment extends AbsTablesFragment {
 
+  /**
+   * Whether the table changed while this fragment was hidden behind another view of it
+   */
+  private boolean tableChangedWhileHidden = false;
+  private final TableChangeNotifier.Listener tableChangeListener =
+      new TableChangeNotifier.Listener() {
+        @Override
+        public void onTableChanged(String appName, String tableId) {
+          if (getActivity() == null) {
+            return;
+          }
+          if (isHidden()) {
+            tableChangedWhileHidden = true;
+          } else {
+            onTableDataChanged();
+          }
+        }
+      };
+
   @Override
   public void onAttach(Context context) {
     super.onAttach(context);
@@ -38,6 +61,38 @@ public abstract class AbsTableDisplayFragment extends AbsTablesFragment {
     }
   }
 
+  @Override
+  public void onResume() {
+    super.onResume();
+    String tableId = getTableId();
+    if (tableId != null) {
+      TableChangeNotifier.get().addListener(getAppName(), tableId, tableChangeListener);
+    }
+  }
+
+  @Override
+  public void onPause() {
+    TableChangeNotifier.get().removeListener(tableChangeListener);
+    super.onPause();
+  }
+
+  @Override
+  public void onHiddenChanged(boolean hidden) {
+    super.onHiddenChanged(hidden);
+    if (!hidden && tableChangedWhileHidden) {
+      tableChangedWhileHidden = false;
+      onTableDataChanged();
+    }
+  }
+
+  /**
+   * Called on the UI thread when the rows of the table were changed by something other than
+   * this fragment, once a burst of changes is over. Fragments that show rows should bring them up
+   * to date. Does nothing by default.
+   */
+  protected void onTableDataChanged() {
+  }
+
   /**
    * Get the tableId of the active table.
    *
@@ -65,4 +120,13 @@ public abstract class AbsTableDisplayFragment extends AbsTablesFragment {
     return ((TableDisplayActivity) getActivity()).getUserTable();
   }
 
+  /**
+   * Get the {@link PagedRowSource} being held by the {@link TableDisplayActivity}.
+   *
+   * @return the paged view of the rows in the table from the enclosing activity
+   */
+  public PagedRowSource getPagedRowSource() {
+    return ((TableDisplayActivity) getActivity()).getPagedRowSource();
+  }
+
 }
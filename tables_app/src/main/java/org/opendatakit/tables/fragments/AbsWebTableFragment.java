@@ -99,6 +99,16 @@ public abstract class AbsWebTableFragment extends AbsTableDisplayFragment implem
     }
   }
 
+  /**
+   * Reloads the page, so that it queries the rows again
+   */
+  @Override
+  protected void onTableDataChanged() {
+    if (getView() != null && Tables.getInstance().getDatabase() != null) {
+      getWebKit().reloadPage();
+    }
+  }
+
   @Override
   public void databaseUnavailable() {
     if (getView() != null) {
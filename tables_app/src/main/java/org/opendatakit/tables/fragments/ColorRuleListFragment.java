@@ -44,6 +44,7 @@ import org.opendatakit.properties.PropertiesSingleton;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.ColorRuleCache;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.views.components.ColorRuleAdapter;
 
@@ -253,6 +254,7 @@ public class ColorRuleListFragment extends ListFragment {
           mColorRuleGroup.getColorRules().remove(position);
           try {
             mColorRuleGroup.saveRuleList(Tables.getInstance().getDatabase());
+            ColorRuleCache.invalidate(getAppName(), getTableId());
           } catch (ServicesAvailabilityException e) {
             WebLogger.getLogger(getAppName()).printStackTrace(e);
             WebLogger.getLogger(getAppName()).e(TAG, "Error while saving color rules");
@@ -291,6 +293,7 @@ public class ColorRuleListFragment extends ListFragment {
       List<ColorRule> newList = new ArrayList<>(ColorRuleUtil.getDefaultSyncStateColorRules());
       this.mColorRuleGroup.replaceColorRuleList(newList);
       this.mColorRuleGroup.saveRuleList(Tables.getInstance().getDatabase());
+      ColorRuleCache.invalidate(getAppName(), getTableId());
       this.mColorRuleAdapter.notifyDataSetChanged();
       break;
     case COLUMN:
@@ -299,6 +302,7 @@ public class ColorRuleListFragment extends ListFragment {
       List<ColorRule> emptyList = new ArrayList<>();
       this.mColorRuleGroup.replaceColorRuleList(emptyList);
       this.mColorRuleGroup.saveRuleList(Tables.getInstance().getDatabase());
+      ColorRuleCache.invalidate(getAppName(), getTableId());
       this.mColorRuleAdapter.notifyDataSetChanged();
       break;
     }
@@ -32,6 +32,7 @@ import org.opendatakit.properties.CommonToolProperties;
 import org.opendatakit.properties.PropertiesSingleton;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.ColorRuleCache;
 import org.opendatakit.tables.preferences.EditColorPreference;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.IntentUtil;
@@ -405,6 +406,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment
       this.mColorRuleGroup.getColorRules().set(mRulePosition, newRule);
     }
     mColorRuleGroup.saveRuleList(Tables.getInstance().getDatabase());
+    ColorRuleCache.invalidate(getAppName(), getTableId());
     updateStateOfSaveButton();
   }
 
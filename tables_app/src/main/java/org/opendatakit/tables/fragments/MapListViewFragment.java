@@ -18,8 +18,10 @@ package org.opendatakit.tables.fragments;
 import android.app.Activity;
 import android.os.Bundle;
 import android.util.Log;
+import androidx.fragment.app.Fragment;
 import org.opendatakit.activities.IOdkDataActivity;
 import org.opendatakit.logging.WebLogger;
+import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.views.webkits.OdkTablesWebView;
 
 /**
@@ -92,6 +94,19 @@ public class MapListViewFragment extends ListViewFragment implements IMapListVie
     currentView.reloadPage();
   }
 
+  /**
+   * Reloads the list and puts the markers back on the map, since both show the rows
+   */
+  @Override
+  protected void onTableDataChanged() {
+    resetView();
+    Fragment innerMap = getFragmentManager() == null ? null :
+        getFragmentManager().findFragmentByTag(Constants.FragmentTags.MAP_INNER_MAP);
+    if (innerMap instanceof TableMapInnerFragment && innerMap.getActivity() != null) {
+      ((TableMapInnerFragment) innerMap).clearAndInitializeMap();
+    }
+  }
+
   @Override
   public void onResume() {
     super.onResume();
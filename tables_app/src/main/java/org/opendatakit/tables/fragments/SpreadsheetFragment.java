@@ -17,24 +17,43 @@ package org.opendatakit.tables.fragments;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.InputType;
+import android.text.TextWatcher;
 import android.view.ContextMenu;
+import android.view.Gravity;
+import android.view.KeyEvent;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputMethodManager;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.FrameLayout;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
 import org.opendatakit.consts.RequestCodeConsts;
 import org.opendatakit.data.JoinColumn;
 import org.opendatakit.data.utilities.ColumnUtil;
 import org.opendatakit.database.data.ColumnDefinition;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.data.TypedRow;
 import org.opendatakit.database.queries.BindArgs;
 import org.opendatakit.database.service.DbHandle;
 import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.database.utilities.QueryUtil;
 import org.opendatakit.exception.ActionNotAuthorizedException;
 import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
@@ -44,12 +63,20 @@ import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.ISpreadsheetFragmentContainer;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.ColumnAggregator;
+import org.opendatakit.tables.data.PagedRowSource;
+import org.opendatakit.tables.data.RowFilter;
+import org.opendatakit.tables.data.RowSearcher;
+import org.opendatakit.tables.data.TableChangeNotifier;
 import org.opendatakit.tables.data.ViewFragmentType;
 import org.opendatakit.tables.utils.ActivityUtil;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.IntentUtil;
+import org.opendatakit.tables.utils.PreferenceUtil;
 import org.opendatakit.tables.utils.SQLQueryStruct;
 import org.opendatakit.tables.views.CellInfo;
+import org.opendatakit.tables.views.ColumnWidthFitter;
+import org.opendatakit.tables.views.SpreadsheetModel;
 import org.opendatakit.tables.views.SpreadsheetProps;
 import org.opendatakit.tables.views.SpreadsheetUserTable;
 import org.opendatakit.tables.views.SpreadsheetUserTable.SpreadsheetCell;
@@ -57,6 +84,8 @@ import org.opendatakit.tables.views.SpreadsheetView;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Fragment responsible for displaying a spreadsheet view. This class is a hideous monstrosity
@@ -88,6 +117,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
   private static final int MENU_ITEM_ID_SORT_ASC = 12;
   private static final int MENU_ITEM_ID_SORT_DESC = 13;
   private static final int MENU_ITEM_ID_PREFS = 14;
+  private static final int MENU_ITEM_ID_AUTO_FIT_COLUMNS = 15;
+  private static final int MENU_ITEM_ID_FILTER = 16;
+  // How long typing in the filter bar has to pause for before the filter is run
+  private static final long FILTER_DELAY_MS = 300;
 
   /**
    * The object that contains the actual rows of the table and their data
@@ -103,31 +136,123 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
    * used to post actions until all the lifecycle events have happened on them.
    */
   private View container;
+  /**
+   * Loads the spreadsheet model in the background, or null if it isn't running
+   */
+  private LoadModelTask loadTask = null;
+  /**
+   * Fits the column widths to their contents in the background, or null if it isn't running
+   */
+  private FitColumnWidthsTask fitTask = null;
+  /**
+   * The find bar above the spreadsheet, hidden until find is picked from the options menu
+   */
+  private View findBar;
+  private EditText findText;
+  private TextView findCount;
+  /**
+   * Searches the rows for the find bar in the background, or null if find hasn't been used on
+   * the current row source
+   */
+  private RowSearcher searcher = null;
+  /**
+   * The latest matches from searcher, whether they're all of them, and which one is showing
+   * (-1 for none yet)
+   */
+  private RowSearcher.Matches findMatches = null;
+  private boolean findFinished = false;
+  private int findPosition = -1;
+  /**
+   * Where the spreadsheet was scrolled to before its rows were reloaded in place, to put the new
+   * one back there, or null
+   */
+  private int[] scrollToRestore = null;
+  private final RowSearcher.Listener findListener = new RowSearcher.Listener() {
+    @Override
+    public void onSearchProgress(RowSearcher.Matches matches, boolean finished) {
+      onFindProgress(matches, finished);
+    }
+  };
+  /**
+   * Totals up the columns for the footer in the background, or null if the footer hasn't been
+   * shown for the current row source
+   */
+  private ColumnAggregator aggregator = null;
+  /**
+   * The filter bar above the spreadsheet, hidden until filter is picked from a column's menu,
+   * and the column it's filtering on, its type and the operators offered for it
+   */
+  private View filterBar;
+  private TextView filterColumn;
+  private Spinner filterOperator;
+  private EditText filterValue;
+  private String filterElementKey = null;
+  private ElementDataType filterType = null;
+  private RowFilter.Operator[] filterOperators = null;
+  /**
+   * Gets the rows ready to be filtered in the background, or null if it isn't running
+   */
+  private FilterTask filterTask = null;
+  /**
+   * Brings the rows up to date in the background after the table changed, or patches in the row
+   * survey added or edited, or null if it isn't running
+   */
+  private RefreshTask refreshTask = null;
+  /**
+   * Whether the table changed while the model was loading or a row was being patched in
+   */
+  private boolean changedWhileLoading = false;
+  private final Runnable applyFilter = new Runnable() {
+    @Override
+    public void run() {
+      applyFilter();
+    }
+  };
+  private final ColumnAggregator.Listener totalsListener = new ColumnAggregator.Listener() {
+    @Override
+    public void onAggregatesChanged(ColumnAggregator.Aggregates aggregates) {
+      SpreadsheetView spreadsheetView = getSpreadsheetView();
+      if (spreadsheetView != null) {
+        spreadsheetView.setAggregates(aggregates);
+      }
+    }
+  };
 
   /**
    * Called when the view needs to be displayed to the user. Since it might called before the
    * database is up, it just displays an error message that will be replaced when
    * databaseAvailable is called.
    *
-   * @param inflater           unused
+   * @param inflater           used to inflate the find and filter bars
    * @param container          unused
    * @param savedInstanceState unused
-   * @return A view with an error message
+   * @return A view with an error message, under the (hidden) find and filter bars
    */
   @Override
   public View onCreateView(android.view.LayoutInflater inflater, ViewGroup container,
       Bundle savedInstanceState) {
+    LinearLayout root = new LinearLayout(getActivity());
+    root.setOrientation(LinearLayout.VERTICAL);
+    findBar = inflater.inflate(R.layout.spreadsheet_find_bar, root, false);
+    initFindBar();
+    root.addView(findBar);
+    filterBar = inflater.inflate(R.layout.spreadsheet_filter_bar, root, false);
+    initFilterBar();
+    root.addView(filterBar);
     theView = new LinearLayout(getActivity());
     TextView textView = new TextView(getActivity());
     textView.setText(getString(R.string.error_accessing_database));
     theView.addView(textView);
+    root.addView(theView, new LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT, 0,
+        1));
     this.container = container;
-    return theView;
+    return root;
   }
 
   /**
-   * When the database becomes available, replace the view in theView with a new
-   * SpreadsheetUserTable, or an error message if we can't
+   * When the database becomes available, put a placeholder in theView and start loading the
+   * spreadsheet model in the background. Once it is loaded, onModelLoaded replaces the
+   * placeholder with a new SpreadsheetView, or an error message if we can't
    * <p>
    * It is a bit of a strange interaction, when the screen is rotated, first TableDisplayActivity
    * gets restored, then this gets restored, then databaseAvailable is called on
@@ -147,46 +272,218 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
   @Override
   public void databaseAvailable() {
     WebLogger.getLogger(getAppName()).i(TAG, "SpreadsheetFragment databaseAvailable called");
-    try {
+    if (getActivity() == null) {
+      return;
+    }
+    cancelModelLoad();
+    scrollToRestore = null;
+    theView.removeAllViews();
+    theView.addView(buildLoadingPlaceholder());
+    loadTask = new LoadModelTask(this);
+    loadTask.execute();
+  }
 
-      spreadsheetTable = new SpreadsheetUserTable(this);
-      if (!spreadsheetTable.hasData()) {
-        TextView textView = new TextView(getActivity());
-        textView.setText(getString(R.string.no_data));
-        theView.removeAllViews();
-        theView.addView(textView);
-      } else {
-        theView.removeAllViews();
-        final SpreadsheetView theSpreadsheetView = buildSpreadsheetView();
-        theView.addView(theSpreadsheetView);
-        final SpreadsheetProps props = getProps();
-        container.post(new Runnable() {
-          @Override
-          public void run() {
-            if (getActivity() == null) {
-              WebLogger.getLogger(mAppName).i(TAG, "activity was null in post, this fragment "
-                  + "was probably destroyed and recreated via showCurrentDisplayFragment before "
-                  + "the rotation completed.");
-            } else {
-              if (props.headerMenuOpen) {
-                theSpreadsheetView.openHeaderMenu();
-              } else if (props.dataMenuOpen) {
-                theSpreadsheetView.openDataMenu();
-              } else if (props.deleteDialogOpen) {
-                openDeleteDialog();
-              }
-            }
-          }
-        });
+  /**
+   * Brings the rows up to date after something else, like sync, changed the table. A change the
+   * spreadsheet already patched in is skipped, and otherwise the rows in memory are queried
+   * again in the background and only the blocks that changed are redrawn. The rows are only
+   * loaded again from scratch when that isn't enough, like when rows were added or taken away.
+   */
+  @Override
+  protected void onTableDataChanged() {
+    if (loadTask != null) {
+      // the rows being loaded may already have the change, so look once they're in
+      changedWhileLoading = true;
+      return;
+    }
+    if (refreshTask != null && refreshTask.patch) {
+      // the change may be the row being patched in, so look once it is
+      changedWhileLoading = true;
+      return;
+    }
+    if (!((TableDisplayActivity) getActivity()).isPagedRowSourceBehind()) {
+      return;
+    }
+    if (refreshTask != null) {
+      refreshTask.cancel(false);
+    }
+    PagedRowSource rowSource = spreadsheetTable == null ?
+        null :
+        spreadsheetTable.getModel().getRowSource();
+    refreshTask = new RefreshTask(this, rowSource, false);
+    refreshTask.execute();
+  }
+
+  /**
+   * Patches the row survey just added or edited into the rows on screen, in the background, so
+   * that only its block is redrawn, or every row if it moved, rather than the spreadsheet being
+   * built again. Called by TableDisplayActivity once it has the row to patch.
+   */
+  public void patchRowInPlace() {
+    if (loadTask != null) {
+      // the rows being loaded may not have it, so look once they're in
+      changedWhileLoading = true;
+      return;
+    }
+    if (refreshTask != null) {
+      refreshTask.cancel(false);
+    }
+    PagedRowSource rowSource = spreadsheetTable == null ?
+        null :
+        spreadsheetTable.getModel().getRowSource();
+    refreshTask = new RefreshTask(this, rowSource, true);
+    refreshTask.execute();
+  }
+
+  /**
+   * Called on the UI thread once the rows have been brought up to date in place, or couldn't
+   * be. In that case they're loaded again, leaving the spreadsheet up while the new rows load,
+   * unlike databaseAvailable, and the new one starts where it was scrolled to.
+   *
+   * @param inPlace whether the rows are up to date
+   */
+  private void onRefreshed(boolean inPlace) {
+    refreshTask = null;
+    if (inPlace) {
+      // the blocks that changed, or every row if rows moved, were redrawn as they came in, and
+      // totalled up again
+      ((TableDisplayActivity) getActivity()).invalidateUserTable();
+      refreshFind();
+      if (changedWhileLoading) {
+        changedWhileLoading = false;
+        onTableDataChanged();
       }
-    } catch (ServicesAvailabilityException e) {
-      WebLogger.getLogger(getAppName()).printStackTrace(e);
-      WebLogger.getLogger(getAppName()).e(TAG, "Error while constructing spreadsheet view: " + e);
+      return;
+    }
+    ((TableDisplayActivity) getActivity()).invalidatePagedRowSource();
+    SpreadsheetView spreadsheetView = getSpreadsheetView();
+    if (spreadsheetView != null) {
+      scrollToRestore = new int[] { spreadsheetView.getMainScrollX(),
+          spreadsheetView.getMainScrollY() };
+    }
+    cancelModelLoad();
+    loadTask = new LoadModelTask(this);
+    loadTask.execute();
+  }
+
+  /**
+   * Called on the UI thread when the background load started by databaseAvailable finishes.
+   * Builds the spreadsheet, or shows an error message if the model couldn't be loaded.
+   *
+   * @param model the loaded model, or null if the database was down
+   */
+  private void onModelLoaded(SpreadsheetModel model) {
+    loadTask = null;
+    int[] scroll = scrollToRestore;
+    scrollToRestore = null;
+    if (model == null) {
       TextView textView = new TextView(getActivity());
       textView.setText(getString(R.string.error_accessing_database));
       theView.removeAllViews();
       theView.addView(textView);
+      return;
+    }
+    spreadsheetTable = new SpreadsheetUserTable(this, model);
+    if (changedWhileLoading) {
+      changedWhileLoading = false;
+      onTableDataChanged();
     }
+    if (!spreadsheetTable.hasData()) {
+      TextView textView = new TextView(getActivity());
+      textView.setText(getString(R.string.no_data));
+      theView.removeAllViews();
+      theView.addView(textView);
+    } else {
+      theView.removeAllViews();
+      final SpreadsheetView theSpreadsheetView = buildSpreadsheetView();
+      if (scroll != null) {
+        theSpreadsheetView.setInitialScroll(scroll[0], scroll[1]);
+      }
+      theView.addView(theSpreadsheetView);
+      refreshFind();
+      refreshColumnTotals();
+      final SpreadsheetProps props = getProps();
+      // the rows were filtered before the screen was rotated
+      if (props.getFilter() != null && filterBar.getVisibility() != View.VISIBLE) {
+        showFilterBar(props.getFilter().getElementKey(), false);
+      }
+      container.post(new Runnable() {
+        @Override
+        public void run() {
+          if (getActivity() == null) {
+            WebLogger.getLogger(mAppName).i(TAG, "activity was null in post, this fragment "
+                + "was probably destroyed and recreated via showCurrentDisplayFragment before "
+                + "the rotation completed.");
+          } else {
+            if (props.headerMenuOpen) {
+              theSpreadsheetView.openHeaderMenu();
+            } else if (props.dataMenuOpen) {
+              theSpreadsheetView.openDataMenu();
+            } else if (props.deleteDialogOpen) {
+              openDeleteDialog();
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Builds the view shown while the spreadsheet model is loading, just a spinner in the middle
+   *
+   * @return the placeholder view
+   */
+  private View buildLoadingPlaceholder() {
+    FrameLayout placeholder = new FrameLayout(getActivity());
+    placeholder.setLayoutParams(new LinearLayout.LayoutParams(
+        LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.MATCH_PARENT));
+    ProgressBar spinner = new ProgressBar(getActivity());
+    spinner.setIndeterminate(true);
+    placeholder.addView(spinner, new FrameLayout.LayoutParams(
+        FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT,
+        Gravity.CENTER));
+    return placeholder;
+  }
+
+  /**
+   * Stops a background load of the spreadsheet model, if one is running, so that its result is
+   * never delivered
+   */
+  private void cancelModelLoad() {
+    if (loadTask != null) {
+      loadTask.cancel(false);
+      loadTask = null;
+    }
+  }
+
+  /**
+   * Stops loading the spreadsheet model if the view goes away before it's done
+   */
+  @Override
+  public void onDestroyView() {
+    cancelModelLoad();
+    filterBar.removeCallbacks(applyFilter);
+    if (filterTask != null) {
+      filterTask.cancel(false);
+      filterTask = null;
+    }
+    if (refreshTask != null) {
+      refreshTask.cancel(false);
+      refreshTask = null;
+    }
+    if (fitTask != null) {
+      fitTask.cancel(false);
+      fitTask = null;
+    }
+    if (searcher != null) {
+      searcher.close();
+      searcher = null;
+    }
+    if (aggregator != null) {
+      aggregator.close();
+      aggregator = null;
+    }
+    super.onDestroyView();
   }
 
   /**
@@ -200,9 +497,8 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
    * Build a {@link SpreadsheetView} view to display.
    *
    * @return a new spreadsheet view with the correct activity, table, etc..
-   * @throws ServicesAvailabilityException if the database is down
    */
-  SpreadsheetView buildSpreadsheetView() throws ServicesAvailabilityException {
+  SpreadsheetView buildSpreadsheetView() {
     return new SpreadsheetView(this.getActivity(), this, spreadsheetTable);
   }
 
@@ -321,6 +617,596 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
     }
   }
 
+  /**
+   * Applies a change to the sort or group by in props. The rows are reordered in memory when the
+   * row source can do that (every row is loaded, or only the sort direction changed), in which
+   * case only the views are rebuilt. Otherwise the query is run again.
+   */
+  private void reorderOrRecreate() {
+    Activity act = getActivity();
+    if (spreadsheetTable == null || act == null) {
+      destroyAndRecreateFragment();
+      return;
+    }
+    SpreadsheetProps props = getProps();
+    Bundle extras = act.getIntent().getExtras();
+    // in a collection the query is never grouped, see TableDisplayActivity
+    boolean inCollection = extras != null && extras.containsKey("inCollection");
+    String sortOrder = props.getSort() == null ? null : getSortOrder();
+    if (!spreadsheetTable.reorderRows(inCollection ? null : props.getGroupBy(),
+        QueryUtil.convertStringToArray(props.getSort()),
+        QueryUtil.convertStringToArray(sortOrder))) {
+      destroyAndRecreateFragment();
+      return;
+    }
+    if (act instanceof TableDisplayActivity) {
+      ((TableDisplayActivity) act).invalidateUserTable();
+    }
+    showSpreadsheet(spreadsheetTable.getModel());
+  }
+
+  /**
+   * Applies a change to the frozen column in props. That only changes the layout, so the views
+   * are rebuilt around the rows that are already loaded.
+   */
+  private void refreezeOrRecreate() {
+    if (spreadsheetTable == null || getActivity() == null) {
+      destroyAndRecreateFragment();
+      return;
+    }
+    showSpreadsheet(spreadsheetTable.getModel().withIndexColumn(getProps().getFrozen()));
+  }
+
+  /**
+   * Expands or collapses the group of the row the last data cell menu was opened on, right in
+   * the spreadsheet, without querying anything or starting a new activity
+   *
+   * @return true if the group was toggled, false if the rows weren't grouped in memory and the
+   * collection has to be opened the old way
+   */
+  private boolean toggleGroup() {
+    CellInfo cellInfo = getProps().lastDataCellMenued;
+    if (spreadsheetTable == null || cellInfo == null || !spreadsheetTable
+        .toggleGroup(cellInfo.rowId)) {
+      return false;
+    }
+    SpreadsheetView spreadsheetView = getSpreadsheetView();
+    if (spreadsheetView != null) {
+      spreadsheetView.onRowCountChanged();
+    }
+    refreshFind();
+    return true;
+  }
+
+  /**
+   * Called on the UI thread when the column widths have been fitted and saved in the background.
+   * Applies them to the spreadsheet on screen in place.
+   *
+   * @param widths the new width of each column, or null if they couldn't be saved
+   */
+  private void onColumnWidthsFitted(int[] widths) {
+    fitTask = null;
+    if (widths == null) {
+      Toast.makeText(getActivity(), R.string.change_column_width_error, Toast.LENGTH_LONG).show();
+      return;
+    }
+    if (spreadsheetTable == null) {
+      return;
+    }
+    SpreadsheetView spreadsheetView = getSpreadsheetView();
+    if (spreadsheetView != null) {
+      spreadsheetView.setColumnWidths(widths);
+    }
+  }
+
+  /**
+   * @return the spreadsheet on screen, or null if theView is showing a message or a placeholder
+   */
+  private SpreadsheetView getSpreadsheetView() {
+    if (theView.getChildCount() > 0 && theView.getChildAt(0) instanceof SpreadsheetView) {
+      return (SpreadsheetView) theView.getChildAt(0);
+    }
+    return null;
+  }
+
+  /**
+   * Wires up the views of the find bar. Typing searches as you go, the search key on the
+   * keyboard goes to the next match.
+   */
+  private void initFindBar() {
+    findText = (EditText) findBar.findViewById(R.id.find_text);
+    findCount = (TextView) findBar.findViewById(R.id.find_count);
+    findText.addTextChangedListener(new TextWatcher() {
+      @Override
+      public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+      }
+
+      @Override
+      public void onTextChanged(CharSequence s, int start, int before, int count) {
+      }
+
+      @Override
+      public void afterTextChanged(Editable s) {
+        runFind();
+      }
+    });
+    findText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+      @Override
+      public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
+        if (actionId == EditorInfo.IME_ACTION_SEARCH) {
+          moveToMatch(true);
+          return true;
+        }
+        return false;
+      }
+    });
+    findBar.findViewById(R.id.find_previous).setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        moveToMatch(false);
+      }
+    });
+    findBar.findViewById(R.id.find_next).setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        moveToMatch(true);
+      }
+    });
+    findBar.findViewById(R.id.find_close).setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        hideFindBar();
+      }
+    });
+  }
+
+  /**
+   * Opens the find bar above the spreadsheet and puts the keyboard up for it. Called by
+   * TableDisplayActivity when find is picked from the options menu.
+   */
+  public void showFindBar() {
+    if (findBar == null) {
+      return;
+    }
+    findBar.setVisibility(View.VISIBLE);
+    findText.requestFocus();
+    InputMethodManager imm = (InputMethodManager) getActivity()
+        .getSystemService(Context.INPUT_METHOD_SERVICE);
+    imm.showSoftInput(findText, InputMethodManager.SHOW_IMPLICIT);
+    runFind();
+  }
+
+  /**
+   * Closes the find bar and stops any search that's running
+   */
+  private void hideFindBar() {
+    findBar.setVisibility(View.GONE);
+    InputMethodManager imm = (InputMethodManager) getActivity()
+        .getSystemService(Context.INPUT_METHOD_SERVICE);
+    imm.hideSoftInputFromWindow(findText.getWindowToken(), 0);
+    if (searcher != null) {
+      searcher.cancel();
+    }
+    findMatches = null;
+    findPosition = -1;
+  }
+
+  /**
+   * Wires up the views of the filter bar. The filter is run once typing or picking an operator
+   * has paused for a moment, rather than on every key.
+   */
+  private void initFilterBar() {
+    filterColumn = (TextView) filterBar.findViewById(R.id.filter_column);
+    filterOperator = (Spinner) filterBar.findViewById(R.id.filter_operator);
+    filterValue = (EditText) filterBar.findViewById(R.id.filter_value);
+    filterValue.addTextChangedListener(new TextWatcher() {
+      @Override
+      public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+      }
+
+      @Override
+      public void onTextChanged(CharSequence s, int start, int before, int count) {
+      }
+
+      @Override
+      public void afterTextChanged(Editable s) {
+        scheduleFilter();
+      }
+    });
+    filterOperator.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+      @Override
+      public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+        if (filterOperators == null || position >= filterOperators.length) {
+          return;
+        }
+        filterValue.setVisibility(filterOperators[position].takesValue() ?
+            View.VISIBLE :
+            View.INVISIBLE);
+        scheduleFilter();
+      }
+
+      @Override
+      public void onNothingSelected(AdapterView<?> parent) {
+      }
+    });
+    filterBar.findViewById(R.id.filter_close).setOnClickListener(new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        hideFilterBar();
+      }
+    });
+  }
+
+  /**
+   * Opens the filter bar above the spreadsheet for a column, with the operators that make sense
+   * for its type. If the rows are already filtered on that column, the bar starts out with that
+   * filter, otherwise the filter is replaced once something is typed.
+   *
+   * @param elementKey   the column to filter on
+   * @param showKeyboard whether to put the keyboard up for the value
+   */
+  private void showFilterBar(String elementKey, boolean showKeyboard) {
+    ColumnDefinition column = spreadsheetTable == null ?
+        null :
+        spreadsheetTable.getColumnByElementKey(elementKey);
+    if (filterBar == null || column == null) {
+      return;
+    }
+    filterElementKey = elementKey;
+    filterType = column.getType().getDataType();
+    filterOperators = RowFilter.getOperators(filterType);
+    String[] labels = new String[filterOperators.length];
+    for (int i = 0; i < filterOperators.length; ++i) {
+      labels[i] = getString(getOperatorLabel(filterOperators[i]));
+    }
+    ArrayAdapter<String> adapter = new ArrayAdapter<>(getActivity(),
+        android.R.layout.simple_spinner_item, labels);
+    adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+    filterOperator.setAdapter(adapter);
+    filterColumn.setText(getColumnName(elementKey));
+    if (filterType == ElementDataType.integer || filterType == ElementDataType.number) {
+      filterValue.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL
+          | InputType.TYPE_NUMBER_FLAG_SIGNED);
+    } else {
+      filterValue.setInputType(InputType.TYPE_CLASS_TEXT
+          | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+    }
+    RowFilter current = getProps().getFilter();
+    int selected = 0;
+    String value = "";
+    if (current != null && current.getElementKey().equals(elementKey)) {
+      selected = Math.max(0, Arrays.asList(filterOperators).indexOf(current.getOperator()));
+      value = current.getValue() == null ? "" : current.getValue();
+    }
+    filterOperator.setSelection(selected);
+    filterValue.setText(value);
+    filterBar.setVisibility(View.VISIBLE);
+    if (showKeyboard) {
+      filterValue.requestFocus();
+      InputMethodManager imm = (InputMethodManager) getActivity()
+          .getSystemService(Context.INPUT_METHOD_SERVICE);
+      imm.showSoftInput(filterValue, InputMethodManager.SHOW_IMPLICIT);
+    }
+  }
+
+  /**
+   * @param elementKey a column
+   * @return the name of the column as shown in its header, or its element key if the name
+   * hasn't been loaded
+   */
+  private String getColumnName(String elementKey) {
+    SpreadsheetModel model = spreadsheetTable.getModel();
+    int index = Arrays.asList(model.getHeaderKeys()).indexOf(elementKey);
+    String name = index == -1 ? null : model.getColumnMetadata().getDisplayName(index);
+    return name == null ? elementKey : name;
+  }
+
+  private static int getOperatorLabel(RowFilter.Operator operator) {
+    switch (operator) {
+    case EQUALS:
+      return R.string.filter_equals;
+    case NOT_EQUALS:
+      return R.string.filter_not_equals;
+    case CONTAINS:
+      return R.string.filter_contains;
+    case STARTS_WITH:
+      return R.string.filter_starts_with;
+    case LESS_THAN:
+      return R.string.filter_less_than;
+    case AT_MOST:
+      return R.string.filter_at_most;
+    case GREATER_THAN:
+      return R.string.filter_greater_than;
+    case AT_LEAST:
+      return R.string.filter_at_least;
+    case IS_EMPTY:
+      return R.string.filter_is_empty;
+    default:
+      return R.string.filter_is_not_empty;
+    }
+  }
+
+  /**
+   * Closes the filter bar and shows every row again right away
+   */
+  private void hideFilterBar() {
+    filterBar.setVisibility(View.GONE);
+    InputMethodManager imm = (InputMethodManager) getActivity()
+        .getSystemService(Context.INPUT_METHOD_SERVICE);
+    imm.hideSoftInputFromWindow(filterValue.getWindowToken(), 0);
+    filterBar.removeCallbacks(applyFilter);
+    setFilter(null);
+  }
+
+  /**
+   * Runs the filter in the bar once it's been left alone for FILTER_DELAY_MS, so that typing a
+   * value doesn't filter the rows again for every character
+   */
+  private void scheduleFilter() {
+    filterBar.removeCallbacks(applyFilter);
+    filterBar.postDelayed(applyFilter, FILTER_DELAY_MS);
+  }
+
+  /**
+   * Builds a filter from what's in the filter bar and runs it. An empty value shows every row, a
+   * value that isn't a number yet for a numeric column leaves the rows as they are.
+   */
+  private void applyFilter() {
+    if (filterOperators == null || getActivity() == null
+        || filterBar.getVisibility() != View.VISIBLE) {
+      return;
+    }
+    int position = Math.max(0, filterOperator.getSelectedItemPosition());
+    RowFilter.Operator operator = filterOperators[Math.min(position, filterOperators.length - 1)];
+    String value = filterValue.getText().toString();
+    RowFilter filter = null;
+    if (!operator.takesValue() || !value.trim().isEmpty()) {
+      filter = new RowFilter(filterElementKey, filterType, operator, value);
+      if (!filter.isValid()) {
+        return;
+      }
+    }
+    setFilter(filter);
+  }
+
+  /**
+   * Narrows the rows down to the ones that pass a filter, replacing the one there was. A filter
+   * still getting ready for an earlier value is dropped, the database can't stop a query it's
+   * already running, but its result is never used.
+   *
+   * @param filter the filter, or null to show every row
+   */
+  private void setFilter(RowFilter filter) {
+    SpreadsheetProps props = getProps();
+    RowFilter current = props.getFilter();
+    if (filter == null ? current == null : filter.equals(current)) {
+      return;
+    }
+    props.setFilter(filter);
+    if (filterTask != null) {
+      filterTask.cancel(false);
+    }
+    PagedRowSource rowSource = spreadsheetTable == null ?
+        null :
+        spreadsheetTable.getModel().getRowSource();
+    filterTask = new FilterTask(this, rowSource, filter);
+    filterTask.execute();
+  }
+
+  /**
+   * Called on the UI thread once the rows are ready to be filtered. When every row is in memory
+   * they're filtered in place, like they're sorted, otherwise the query is run again with the
+   * filter in its where clause and the spreadsheet stays up until the new rows are in.
+   *
+   * @param rowSource the rows that were readied, or null
+   * @param filter    the filter, or null to show every row
+   * @param inMemory  whether the rows can be filtered in memory
+   */
+  private void onFilterReady(PagedRowSource rowSource, RowFilter filter, boolean inMemory) {
+    filterTask = null;
+    TableDisplayActivity activity = (TableDisplayActivity) getActivity();
+    if (inMemory && spreadsheetTable != null
+        && spreadsheetTable.getModel().getRowSource() == rowSource && rowSource
+        .setFilter(filter)) {
+      activity.invalidateUserTable();
+      // the totals were of the rows the old filter let through
+      if (aggregator != null) {
+        aggregator.close();
+        aggregator = null;
+      }
+      showSpreadsheet(spreadsheetTable.getModel());
+      return;
+    }
+    activity.invalidatePagedRowSource();
+    scrollToRestore = null;
+    cancelModelLoad();
+    loadTask = new LoadModelTask(this);
+    loadTask.execute();
+  }
+
+  /**
+   * Shows or hides the column totals under the spreadsheet. Called by TableDisplayActivity when
+   * column totals is picked from the options menu.
+   */
+  public void toggleColumnTotals() {
+    SpreadsheetProps props = getProps();
+    props.columnTotalsShown = !props.columnTotalsShown;
+    SpreadsheetView spreadsheetView = getSpreadsheetView();
+    if (spreadsheetView != null) {
+      spreadsheetView.setColumnTotalsShown(props.columnTotalsShown);
+    }
+    refreshColumnTotals();
+  }
+
+  /**
+   * Starts totalling up the columns for the footer if it's shown, or hands the spreadsheet the
+   * totals there already are. The aggregator is kept as long as the row source and its filter
+   * are, so a spreadsheet rebuilt over the same rows, like after a column is frozen, doesn't go
+   * over them again.
+   */
+  private void refreshColumnTotals() {
+    PagedRowSource rowSource = spreadsheetTable == null ?
+        null :
+        spreadsheetTable.getModel().getRowSource();
+    if (rowSource == null || !getProps().columnTotalsShown) {
+      return;
+    }
+    if (aggregator == null || aggregator.getRowSource() != rowSource) {
+      if (aggregator != null) {
+        aggregator.close();
+      }
+      String[] elementKeys = spreadsheetTable.getModel().getHeaderKeys();
+      ColumnDefinition[] columns = new ColumnDefinition[elementKeys.length];
+      for (int i = 0; i < elementKeys.length; ++i) {
+        columns[i] = spreadsheetTable.getColumnByElementKey(elementKeys[i]);
+      }
+      aggregator = new ColumnAggregator(rowSource, columns);
+    }
+    aggregator.start(totalsListener);
+  }
+
+  /**
+   * Runs the find again if the find bar is open, after the rows were reordered or the table
+   * reloaded, since the matches are kept by row as displayed
+   */
+  private void refreshFind() {
+    if (findBar != null && findBar.getVisibility() == View.VISIBLE) {
+      runFind();
+    }
+  }
+
+  /**
+   * Starts a background search for the text in the find bar, replacing the one that was running.
+   * The searcher is kept as long as the row source is, so that it can reuse what it has indexed.
+   */
+  private void runFind() {
+    findMatches = null;
+    findFinished = false;
+    findPosition = -1;
+    String query = findText.getText().toString();
+    PagedRowSource rowSource = spreadsheetTable == null ?
+        null :
+        spreadsheetTable.getModel().getRowSource();
+    if (rowSource == null || query.trim().isEmpty()) {
+      if (searcher != null) {
+        searcher.cancel();
+      }
+      findCount.setText(null);
+      return;
+    }
+    if (searcher == null || searcher.getRowSource() != rowSource) {
+      if (searcher != null) {
+        searcher.close();
+      }
+      searcher = new RowSearcher(rowSource, spreadsheetTable.getModel().getHeaderKeys());
+    }
+    findCount.setText(R.string.find_searching);
+    searcher.search(query, findListener);
+  }
+
+  /**
+   * Called on the UI thread as the search for the find bar goes. Shows the first match as soon as
+   * there is one, and after that stays on the match that's showing as more come in.
+   *
+   * @param matches  everything found so far
+   * @param finished whether the search is done
+   */
+  private void onFindProgress(RowSearcher.Matches matches, boolean finished) {
+    if (findMatches != null && findPosition != -1) {
+      findPosition = Math.min(matches.size() - 1, matches.indexOfFirstFrom(
+          findMatches.getRow(findPosition), findMatches.getColumn(findPosition)));
+    }
+    findMatches = matches;
+    findFinished = finished;
+    if (findPosition == -1 && matches.size() > 0) {
+      findPosition = 0;
+      showMatch();
+    }
+    updateFindCount();
+  }
+
+  /**
+   * Goes to the next or previous match, wrapping around at either end
+   *
+   * @param forward true for the next match, false for the previous one
+   */
+  private void moveToMatch(boolean forward) {
+    if (findMatches == null || findMatches.size() == 0) {
+      return;
+    }
+    int size = findMatches.size();
+    findPosition = forward ? (findPosition + 1) % size : (findPosition - 1 + size) % size;
+    showMatch();
+    updateFindCount();
+  }
+
+  /**
+   * Scrolls the spreadsheet to the current match and highlights it
+   */
+  private void showMatch() {
+    SpreadsheetView spreadsheetView = getSpreadsheetView();
+    if (spreadsheetView == null || spreadsheetTable == null) {
+      return;
+    }
+    String elementKey = spreadsheetTable.getModel().getHeaderKeys()[findMatches
+        .getColumn(findPosition)];
+    spreadsheetView.showCell(findMatches.getRow(findPosition), elementKey);
+  }
+
+  /**
+   * Asks for a row number and scrolls the spreadsheet straight to that row. Called by
+   * TableDisplayActivity when go to row is picked from the options menu.
+   */
+  public void openGoToRowDialog() {
+    final SpreadsheetView spreadsheetView = getSpreadsheetView();
+    if (spreadsheetView == null || spreadsheetTable == null) {
+      return;
+    }
+    final int numRows = spreadsheetTable.getModel().getRowSource().getRowCount();
+    View dialogView = getActivity().getLayoutInflater()
+        .inflate(R.layout.message_with_text_edit_field_dialog, null);
+    ((TextView) dialogView.findViewById(R.id.message))
+        .setText(getString(R.string.go_to_row_prompt, numRows));
+    final EditText rowField = (EditText) dialogView.findViewById(R.id.edit_field);
+    rowField.setInputType(InputType.TYPE_CLASS_NUMBER);
+    new AlertDialog.Builder(getActivity()).setTitle(R.string.go_to_row).setView(dialogView)
+        .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
+          @Override
+          public void onClick(DialogInterface dialog, int which) {
+            try {
+              // shown to the user counting from one
+              spreadsheetView.scrollToRow(Integer.parseInt(rowField.getText().toString()) - 1);
+            } catch (NumberFormatException ignored) {
+              // nothing typed, or too many digits to be a row
+            }
+          }
+        }).setNegativeButton(R.string.cancel, null).show();
+  }
+
+  private void updateFindCount() {
+    if (findMatches == null || findMatches.size() == 0) {
+      findCount.setText(findFinished ? R.string.find_no_matches : R.string.find_searching);
+      return;
+    }
+    findCount.setText(getString(findFinished ?
+        R.string.find_match_position :
+        R.string.find_match_position_searching, findPosition + 1, findMatches.size()));
+  }
+
+  /**
+   * Replaces the spreadsheet with a new one built from the given model, without going to the
+   * database
+   *
+   * @param model the model to build the spreadsheet from
+   */
+  private void showSpreadsheet(SpreadsheetModel model) {
+    spreadsheetTable = new SpreadsheetUserTable(this, model);
+    theView.removeAllViews();
+    theView.addView(buildSpreadsheetView());
+    refreshFind();
+    refreshColumnTotals();
+  }
+
   /**
    * Deletes a row from the table
    *
@@ -335,6 +1221,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
       db = Tables.getInstance().getDatabase().openDatabase(getAppName());
       Tables.getInstance().getDatabase()
           .deleteRowWithId(getAppName(), db, getTableId(), getColumnDefinitions(), rowId);
+      TableChangeNotifier.get().tableWritten(getAppName(), getTableId());
     } finally {
       if (db != null) {
         Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
@@ -342,6 +1229,27 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
     }
   }
 
+  /**
+   * Gets the cell that the last data cell menu was opened on. The row may need to be paged in
+   * from the database, so if that fails the user is told and null is returned.
+   *
+   * @return the last menued cell, or null if it couldn't be loaded
+   */
+  private SpreadsheetCell getLastMenuedDataCell() {
+    try {
+      SpreadsheetCell cell = spreadsheetTable.getSpreadsheetCell(getProps().lastDataCellMenued);
+      if (cell == null) {
+        WebLogger.getLogger(getAppName()).e(TAG, "menued row is no longer in the table");
+      }
+      return cell;
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(getAppName()).printStackTrace(e);
+      WebLogger.getLogger(getAppName()).e(TAG, "Error while accessing database");
+      Toast.makeText(getActivity(), "Error while accessing database", Toast.LENGTH_LONG).show();
+      return null;
+    }
+  }
+
   /**
    * Gets the spreadsheet properties from the activity.
    *
@@ -382,11 +1290,17 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
 
     switch (item.getItemId()) {
     // When the user long taps or double taps on a cell, and they have edit permission, and the
-    // table has group buys, then this option is displayed in the drop down menu. It opens a
+    // table has group buys, then this option is displayed in the drop down menu. It expands or
+    // collapses the group in place if the rows were grouped in memory, otherwise it opens a
     // collection
     case MENU_ITEM_ID_OPEN_COLLECTION:
-      cell = spreadsheetTable.getSpreadsheetCell(getProps().lastDataCellMenued);
-      openCollectionView(cell);
+      if (toggleGroup()) {
+        return true;
+      }
+      cell = getLastMenuedDataCell();
+      if (cell != null) {
+        openCollectionView(cell);
+      }
       return true;
     // This is in the Row Actions menu that pops up when you double click or long tap on a cell
     // if you have the permissions to open the menu
@@ -395,7 +1309,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
       return true;
     // This is in the same Row Actions menu as delete row
     case MENU_ITEM_ID_EDIT_ROW:
-      cell = spreadsheetTable.getSpreadsheetCell(getProps().lastDataCellMenued);
+      cell = getLastMenuedDataCell();
+      if (cell == null) {
+        return true;
+      }
       // It is possible that a custom form has been defined for this table.
       // We will get the strings we need, and then set the parameter object.
       try {
@@ -410,7 +1327,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
       return true;
     // Also in the row actions menu, but only if applicable
     case MENU_ITEM_ID_OPEN_JOIN_TABLE:
-      cell = spreadsheetTable.getSpreadsheetCell(getProps().lastDataCellMenued);
+      cell = getLastMenuedDataCell();
+      if (cell == null) {
+        return true;
+      }
       ColumnDefinition cd = spreadsheetTable.getColumnByElementKey(cell.elementKey);
       // Get the JoinColumn.
       ArrayList<JoinColumn> joinColumns;
@@ -506,30 +1426,30 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
     // In the context menu when you double click on a column heading.
     case MENU_ITEM_ID_SET_COLUMN_AS_GROUP_BY:
       addGroupByColumn(getProps().lastHeaderCellMenued.elementKey);
-      destroyAndRecreateFragment();
+      reorderOrRecreate();
       return true;
     // In the same context menu you get from double tapping on a column heading
     case MENU_ITEM_ID_UNSET_COLUMN_AS_GROUP_BY:
       removeGroupByColumn(getProps().lastHeaderCellMenued.elementKey);
-      destroyAndRecreateFragment();
+      reorderOrRecreate();
       return true;
     // In the same context menu you get from double tapping on a column heading
     case MENU_ITEM_ID_SET_COLUMN_AS_SORT:
       getProps().setSort(getProps().lastHeaderCellMenued.elementKey);
-      destroyAndRecreateFragment();
+      reorderOrRecreate();
       return true;
     // In the same context menu
     case MENU_ITEM_ID_UNSET_COLUMN_AS_SORT:
       getProps().setSort(null);
-      destroyAndRecreateFragment();
+      reorderOrRecreate();
       return true;
     case MENU_ITEM_ID_SET_AS_INDEXED_COL:
       getProps().setFrozen(getProps().lastHeaderCellMenued.elementKey);
-      destroyAndRecreateFragment();
+      refreezeOrRecreate();
       return true;
     case MENU_ITEM_ID_UNSET_AS_INDEXED_COL:
       getProps().setFrozen(null);
-      destroyAndRecreateFragment();
+      refreezeOrRecreate();
       return true;
     // In the same context menu you get from double tapping on a column heading
     case MENU_ITEM_ID_EDIT_COLUMN_COLOR_RULES:
@@ -541,11 +1461,11 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
       return true;
     case MENU_ITEM_ID_SORT_ASC:
       getProps().setSortOrder("ASC");
-      destroyAndRecreateFragment();
+      reorderOrRecreate();
       return true;
     case MENU_ITEM_ID_SORT_DESC:
       getProps().setSortOrder("DESC");
-      destroyAndRecreateFragment();
+      reorderOrRecreate();
       return true;
     case MENU_ITEM_ID_PREFS:
       ActivityUtil
@@ -553,6 +1473,15 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
               getProps().lastHeaderCellMenued.elementKey);
       destroyAndRecreateFragment();
       return true;
+    case MENU_ITEM_ID_FILTER:
+      showFilterBar(getProps().lastHeaderCellMenued.elementKey, true);
+      return true;
+    case MENU_ITEM_ID_AUTO_FIT_COLUMNS:
+      if (spreadsheetTable != null && fitTask == null) {
+        fitTask = new FitColumnWidthsTask(this, spreadsheetTable.getModel());
+        fitTask.execute();
+      }
+      return true;
     default:
       WebLogger.getLogger(getAppName())
           .e(TAG, "unrecognized menu item selected: " + item.getItemId());
@@ -595,14 +1524,22 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
     // Set the title to rowActions
     menu.setHeaderTitle(getString(R.string.row_actions));
 
-    // If we have group buys, give the user the "View collection" option
+    // If we have group buys, give the user the "View collection" option, or the option to expand
+    // or collapse the group if that can be done in place
     if (this.hasGroupBys() && !getActivity().getIntent().getExtras().containsKey("inCollection")) {
-      menu.add(ContextMenu.NONE, MENU_ITEM_ID_OPEN_COLLECTION, ContextMenu.NONE,
-          R.string.view_collection);
+      if (spreadsheetTable.isGroupedInMemory()) {
+        menu.add(ContextMenu.NONE, MENU_ITEM_ID_OPEN_COLLECTION, ContextMenu.NONE,
+            spreadsheetTable.isGroupExpanded(cellInfo.rowId) ?
+                getString(R.string.collapse_group) :
+                getString(R.string.expand_group, spreadsheetTable.getGroupSize(cellInfo.rowId)));
+      } else {
+        menu.add(ContextMenu.NONE, MENU_ITEM_ID_OPEN_COLLECTION, ContextMenu.NONE,
+            R.string.view_collection);
+      }
     }
 
-    String access = spreadsheetTable.getRowAtIndex(cellInfo.rowId)
-        .getStringValueByKey(DataTableColumns.EFFECTIVE_ACCESS);
+    TypedRow row = spreadsheetTable.getRowAtIndex(cellInfo.rowId);
+    String access = row == null ? null : row.getStringValueByKey(DataTableColumns.EFFECTIVE_ACCESS);
     if (access == null)
       access = "";
 
@@ -706,9 +1643,17 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
           getString(R.string.freeze_column));
     }
 
+    menu.add(ContextMenu.NONE, MENU_ITEM_ID_FILTER, ContextMenu.NONE,
+        getString(R.string.filter_by_column));
+
     menu.add(ContextMenu.NONE, MENU_ITEM_ID_PREFS, ContextMenu.NONE,
         getString(R.string.column_prefs));
 
+    if (fitTask == null) {
+      menu.add(ContextMenu.NONE, MENU_ITEM_ID_AUTO_FIT_COLUMNS, ContextMenu.NONE,
+          getString(R.string.auto_fit_column_widths));
+    }
+
     menu.add(ContextMenu.NONE, MENU_ITEM_ID_EDIT_COLUMN_COLOR_RULES, ContextMenu.NONE,
         getString(R.string.edit_column_color_rules));
 
@@ -739,7 +1684,11 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
   private void openDeleteDialog() {
     // Make sure it will re-open if we rotate the screen
     getProps().deleteDialogOpen = true;
-    SpreadsheetCell cell = spreadsheetTable.getSpreadsheetCell(getProps().lastDataCellMenued);
+    SpreadsheetCell cell = getLastMenuedDataCell();
+    if (cell == null) {
+      getProps().deleteDialogOpen = false;
+      return;
+    }
     AlertDialog confirmDeleteAlert;
     // Prompt an alert box
     final String rowId = cell.row.getStringValueByKey(DataTableColumns.ID);
@@ -802,4 +1751,202 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment
     confirmDeleteAlert.show();
   }
 
+
+  /**
+   * Loads the {@link SpreadsheetModel} (and opens the row source) off the UI thread, then hands
+   * it back to the fragment. Everything it needs from the fragment is read when it's created,
+   * on the UI thread.
+   */
+  private static class LoadModelTask extends AsyncTask<Void, Void, SpreadsheetModel> {
+    private final SpreadsheetFragment fragment;
+    private final TableDisplayActivity activity;
+    private final Context context;
+    private final String appName;
+    private final String tableId;
+    private final OrderedColumns columns;
+    private final SpreadsheetProps props;
+
+    LoadModelTask(SpreadsheetFragment fragment) {
+      this.fragment = fragment;
+      this.activity = (TableDisplayActivity) fragment.getActivity();
+      this.context = fragment.getCommonApplication();
+      this.appName = fragment.getAppName();
+      this.tableId = fragment.getTableId();
+      this.columns = fragment.getColumnDefinitions();
+      this.props = fragment.getProps();
+    }
+
+    @Override
+    protected SpreadsheetModel doInBackground(Void... params) {
+      try {
+        PagedRowSource rowSource = activity.getPagedRowSource();
+        if (isCancelled()) {
+          return null;
+        }
+        return SpreadsheetModel.load(context, appName, tableId, columns, props, rowSource);
+      } catch (ServicesAvailabilityException e) {
+        WebLogger.getLogger(appName).printStackTrace(e);
+        WebLogger.getLogger(appName).e(TAG, "Error while loading spreadsheet model: " + e);
+        return null;
+      }
+    }
+
+    @Override
+    protected void onPostExecute(SpreadsheetModel model) {
+      // not called if the task was cancelled, but the fragment may still have been detached
+      if (fragment.getActivity() != null) {
+        fragment.onModelLoaded(model);
+      }
+    }
+  }
+
+  /**
+   * Gets the rows ready to be filtered in memory off the UI thread: every block is loaded, if
+   * they all fit, with the column filtered on. The filtering itself is done on the UI thread
+   * afterwards, like sorting in memory, so the rows never change under the spreadsheet while it's
+   * being drawn. Rows from a query that was run with a filter can't be filtered again in memory,
+   * since the rows it left out aren't there.
+   */
+  private static class FilterTask extends AsyncTask<Void, Void, Boolean> {
+    private final SpreadsheetFragment fragment;
+    private final TableDisplayActivity activity;
+    private final PagedRowSource rowSource;
+    private final RowFilter filter;
+    private final String appName;
+
+    FilterTask(SpreadsheetFragment fragment, PagedRowSource rowSource, RowFilter filter) {
+      this.fragment = fragment;
+      this.activity = (TableDisplayActivity) fragment.getActivity();
+      this.rowSource = rowSource;
+      this.filter = filter;
+      this.appName = fragment.getAppName();
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+      if (rowSource == null || activity.getRowSourceQueryFilter() != null) {
+        return false;
+      }
+      if (filter == null) {
+        return true;
+      }
+      try {
+        rowSource.pinColumns(Collections.singleton(filter.getElementKey()));
+        return !isCancelled() && rowSource.loadAllIfFits();
+      } catch (ServicesAvailabilityException e) {
+        WebLogger.getLogger(appName).printStackTrace(e);
+        WebLogger.getLogger(appName).e(TAG, "Error while loading rows to filter: " + e);
+        return false;
+      }
+    }
+
+    @Override
+    protected void onPostExecute(Boolean inMemory) {
+      // not called if the task was cancelled, but the fragment may still have been detached
+      if (fragment.getActivity() != null) {
+        fragment.onFilterReady(rowSource, filter, inMemory);
+      }
+    }
+  }
+
+  /**
+   * Queries the rows in memory again off the UI thread after the table changed, see
+   * {@link TableDisplayActivity#refreshPagedRowSource(PagedRowSource)}, or just the row survey
+   * added or edited, see {@link TableDisplayActivity#patchPagedRowSource(PagedRowSource)}
+   */
+  private static class RefreshTask extends AsyncTask<Void, Void, Boolean> {
+    private final SpreadsheetFragment fragment;
+    private final TableDisplayActivity activity;
+    private final PagedRowSource rowSource;
+    private final boolean patch;
+    private final String appName;
+
+    RefreshTask(SpreadsheetFragment fragment, PagedRowSource rowSource, boolean patch) {
+      this.fragment = fragment;
+      this.activity = (TableDisplayActivity) fragment.getActivity();
+      this.rowSource = rowSource;
+      this.patch = patch;
+      this.appName = fragment.getAppName();
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+      try {
+        if (patch) {
+          return activity.patchPagedRowSource(rowSource);
+        }
+        return rowSource != null && activity.refreshPagedRowSource(rowSource);
+      } catch (ServicesAvailabilityException e) {
+        WebLogger.getLogger(appName).printStackTrace(e);
+        WebLogger.getLogger(appName).e(TAG, "Error while refreshing rows: " + e);
+        return false;
+      }
+    }
+
+    @Override
+    protected void onPostExecute(Boolean inPlace) {
+      // not called if the task was cancelled, but the fragment may still have been detached
+      if (fragment.getActivity() != null) {
+        fragment.onRefreshed(inPlace);
+      }
+    }
+  }
+
+  /**
+   * Fits the widths of the columns to a sample of their contents and saves them, off the UI
+   * thread, since that measures a lot of text and may have to query some rows
+   */
+  private static class FitColumnWidthsTask extends AsyncTask<Void, Void, int[]> {
+    private final SpreadsheetFragment fragment;
+    private final SpreadsheetModel model;
+    private final String appName;
+    private final String tableId;
+
+    FitColumnWidthsTask(SpreadsheetFragment fragment, SpreadsheetModel model) {
+      this.fragment = fragment;
+      this.model = model;
+      this.appName = fragment.getAppName();
+      this.tableId = fragment.getTableId();
+    }
+
+    @Override
+    protected int[] doInBackground(Void... params) {
+      try {
+        int[] widths = ColumnWidthFitter.fit(model);
+        if (isCancelled()) {
+          return null;
+        }
+        // only write the columns that changed
+        String[] elementKeys = model.getHeaderKeys();
+        int[] oldWidths = model.getColumnWidths();
+        List<String> changedKeys = new ArrayList<>();
+        List<Integer> changedWidths = new ArrayList<>();
+        for (int i = 0; i < elementKeys.length; ++i) {
+          if (widths[i] != oldWidths[i]) {
+            changedKeys.add(elementKeys[i]);
+            changedWidths.add(widths[i]);
+          }
+        }
+        int[] toWrite = new int[changedWidths.size()];
+        for (int i = 0; i < toWrite.length; ++i) {
+          toWrite[i] = changedWidths.get(i);
+        }
+        PreferenceUtil.setColumnWidths(appName, tableId,
+            changedKeys.toArray(new String[changedKeys.size()]), toWrite);
+        return widths;
+      } catch (ServicesAvailabilityException e) {
+        WebLogger.getLogger(appName).printStackTrace(e);
+        WebLogger.getLogger(appName).e(TAG, "Error while fitting column widths: " + e);
+        return null;
+      }
+    }
+
+    @Override
+    protected void onPostExecute(int[] widths) {
+      // not called if the task was cancelled, but the fragment may still have been detached
+      if (fragment.getActivity() != null) {
+        fragment.onColumnWidthsFitted(widths);
+      }
+    }
+  }
 }
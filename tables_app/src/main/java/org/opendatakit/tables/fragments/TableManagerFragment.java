@@ -48,6 +48,7 @@ import org.opendatakit.tables.activities.MainActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.TableChangeNotifier;
 import org.opendatakit.tables.utils.ActivityUtil;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.TableNameStruct;
@@ -243,6 +244,7 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
               db = Tables.getInstance().getDatabase().openDatabase(appName);
               Tables.getInstance().getDatabase()
                   .deleteTableAndAllData(appName, db, tableIdOfSelectedItem);
+              TableChangeNotifier.get().tableWritten(appName, tableIdOfSelectedItem);
             } finally {
               if (db != null) {
                 Tables.getInstance().getDatabase().closeDatabase(appName, db);
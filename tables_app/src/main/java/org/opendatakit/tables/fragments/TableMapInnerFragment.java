@@ -53,6 +53,7 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.QueryResultCache;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.utilities.ODKFileUtils;
 import org.opendatakit.utilities.RuntimePermissionUtils;
@@ -342,16 +343,19 @@ public class TableMapInnerFragment extends SupportMapFragment implements OnMapRe
     ResumableQuery resumableQuery = activity.getViewQuery(Constants.FragmentTags.MAP_INNER_MAP);
 
     UserTable table;
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
     try {
+      db = dbInterface.openDatabase(activity.getAppName());
       if (resumableQuery instanceof ArbitraryQuery) {
+        // can read other tables, so can't be cached
         ArbitraryQuery query = (ArbitraryQuery) resumableQuery;
-        table = Tables.getInstance().getDatabase().arbitrarySqlQuery(activity.getAppName(),
-            Tables.getInstance().getDatabase().openDatabase(activity.getAppName()),
-            query.getTableId(), orderedDefns, query.getSqlCommand(), query.getSqlBindArgs(), -1, 0);
+        table = dbInterface.arbitrarySqlQuery(activity.getAppName(), db, query.getTableId(),
+            orderedDefns, query.getSqlCommand(), query.getSqlBindArgs(), -1, 0);
       } else if (resumableQuery instanceof SimpleQuery || resumableQuery instanceof SingleRowQuery) {
+        // flipping between the list and the map runs the same query, so share its rows
         SimpleQuery query = (SimpleQuery) resumableQuery;
-        table = Tables.getInstance().getDatabase().simpleQuery(activity.getAppName(),
-            Tables.getInstance().getDatabase().openDatabase(activity.getAppName()),
+        table = QueryResultCache.get().simpleQuery(dbInterface, activity.getAppName(), db,
             query.getTableId(), orderedDefns, query.getWhereClause(), query.getSqlBindArgs(),
             query.getGroupByArgs(), query.getHavingClause(), query.getOrderByColNames(),
             query.getOrderByDirections(), -1, 0);
@@ -365,6 +369,14 @@ public class TableMapInnerFragment extends SupportMapFragment implements OnMapRe
       WebLogger.getLogger(appName).e(TAG, "simpleQuery failed");
       WebLogger.getLogger(appName).printStackTrace(sae);
       return;
+    } finally {
+      if (db != null) {
+        try {
+          dbInterface.closeDatabase(activity.getAppName(), db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
+        }
+      }
     }
 
     if (table != null && orderedDefns != null) {
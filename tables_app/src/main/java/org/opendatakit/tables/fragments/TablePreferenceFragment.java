@@ -44,6 +44,7 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsTableActivity;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 import org.opendatakit.tables.preferences.DefaultViewTypePreference;
 import org.opendatakit.tables.preferences.FileSelectorPreference;
 import org.opendatakit.tables.types.FormType;
@@ -229,6 +230,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
       TableUtil.get()
           .atomicSetListViewFilename(Tables.getInstance().getDatabase(), getAppName(),
               getTableId(), relativePath);
+      TableMetadataSnapshot.invalidate(getAppName(), getTableId());
     } catch (ServicesAvailabilityException ignored) {
       Toast.makeText(getActivity(), "Unable to save List View filename", Toast.LENGTH_LONG).show();
     }
@@ -244,6 +246,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
       TableUtil.get()
           .atomicSetDetailViewFilename(Tables.getInstance().getDatabase(), getAppName(),
               getTableId(), relativePath);
+      TableMetadataSnapshot.invalidate(getAppName(), getTableId());
     } catch (ServicesAvailabilityException ignored) {
       Toast.makeText(getActivity(), "Unable to set Detail View filename", Toast.LENGTH_LONG).show();
     }
@@ -259,6 +262,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
       TableUtil.get()
           .atomicSetMapListViewFilename(Tables.getInstance().getDatabase(), getAppName(),
               getTableId(), relativePath);
+      TableMetadataSnapshot.invalidate(getAppName(), getTableId());
     } catch (ServicesAvailabilityException ignored) {
       Toast.makeText(getActivity(), "Unable to set Map List View Filename", Toast.LENGTH_LONG)
           .show();
@@ -308,17 +312,21 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
         return;
       }
       db = temp.openDatabase(getAppName());
+      PropertiesSingleton props = CommonToolProperties.get(getActivity(), getAppName());
+      TableMetadataSnapshot metadata = TableMetadataSnapshot
+          .get(temp, getAppName(), db, getTableId(), getColumnDefinitions(),
+              props.getUserSelectedDefaultLocale());
 
-      this.initializeDisplayNamePreference(db);
+      this.initializeDisplayNamePreference(metadata);
       this.initializeTableIdPreference();
       this.initializeDefaultForm();
       this.initializeDefaultViewType();
       this.initializeTableColorRules();
       this.initializeStatusColorRules();
-      this.initializeMapColorRule(db);
-      this.initializeDetailFile(db);
-      this.initializeListFile(db);
-      this.initializeMapListFile(db);
+      this.initializeMapColorRule(metadata);
+      this.initializeDetailFile(metadata);
+      this.initializeListFile(metadata);
+      this.initializeMapListFile(metadata);
       this.initializeColumns();
     } finally {
       if (db != null) {
@@ -330,10 +338,9 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
   /**
    * Sets up the (not editable) table display name preference's text
    *
-   * @param db the database to pull the display name out of
-   * @throws ServicesAvailabilityException if the database is down
+   * @param metadata the settings of the table, which hold its display name
    */
-  private void initializeDisplayNamePreference(DbHandle db) throws ServicesAvailabilityException {
+  private void initializeDisplayNamePreference(TableMetadataSnapshot metadata) {
     EditTextPreference displayPref = this
         .findEditTextPreference(Constants.PreferenceKeys.Table.DISPLAY_NAME);
 
@@ -342,11 +349,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
      * .getDatabase(), getAppName(), db, getTableId());
      */
 
-    PropertiesSingleton props = CommonToolProperties.get(getActivity(), getAppName());
-    String userSelectedDefaultLocale = props.getUserSelectedDefaultLocale();
-    String localizedDisplayName = TableUtil.get().getLocalizedDisplayName(userSelectedDefaultLocale,
-        Tables.getInstance().getDatabase(), getAppName(), db, getTableId());
-    displayPref.setSummary(localizedDisplayName);
+    displayPref.setSummary(metadata.getLocalizedDisplayName());
 
   }
 
@@ -488,33 +491,27 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
   /**
    * Sets up the file picker option to select the list file to use
    *
-   * @param db the database to use
-   * @throws ServicesAvailabilityException if the database is down
+   * @param metadata the settings of the table
    */
-  private void initializeListFile(DbHandle db) throws ServicesAvailabilityException {
+  private void initializeListFile(TableMetadataSnapshot metadata) {
     FileSelectorPreference listPref = (FileSelectorPreference) this
         .findPreference(Constants.PreferenceKeys.Table.LIST_FILE);
     listPref.setFields(this, RequestCodeConsts.RequestCodes.CHOOSE_LIST_FILE,
         ((IAppAwareActivity) getActivity()).getAppName());
-    listPref.setSummary(TableUtil.get()
-        .getListViewFilename(Tables.getInstance().getDatabase(), getAppName(), db,
-            getTableId()));
+    listPref.setSummary(metadata.getListViewFilename());
   }
 
   /**
    * Sets up the file picker option to select the map file to use
    *
-   * @param db the database to use
-   * @throws ServicesAvailabilityException if the database is down
+   * @param metadata the settings of the table
    */
-  private void initializeMapListFile(DbHandle db) throws ServicesAvailabilityException {
+  private void initializeMapListFile(TableMetadataSnapshot metadata) {
     FileSelectorPreference mapListPref = (FileSelectorPreference) this
         .findPreference(Constants.PreferenceKeys.Table.MAP_LIST_FILE);
     mapListPref.setFields(this, RequestCodeConsts.RequestCodes.CHOOSE_MAP_FILE,
         ((IAppAwareActivity) getActivity()).getAppName());
-    String mapListViewFileName = TableUtil.get()
-        .getMapListViewFilename(Tables.getInstance().getDatabase(), getAppName(), db,
-            getTableId());
+    String mapListViewFileName = metadata.getMapListViewFilename();
     WebLogger.getLogger(getAppName())
         .d(TAG, "[initializeMapListFile] file is: " + mapListViewFileName);
     mapListPref.setSummary(mapListViewFileName);
@@ -523,17 +520,14 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
   /**
    * Sets up the file picker option to select the detail view file to use
    *
-   * @param db the database to use
-   * @throws ServicesAvailabilityException if the database is down
+   * @param metadata the settings of the table
    */
-  private void initializeDetailFile(DbHandle db) throws ServicesAvailabilityException {
+  private void initializeDetailFile(TableMetadataSnapshot metadata) {
     FileSelectorPreference detailPref = (FileSelectorPreference) this
         .findPreference(Constants.PreferenceKeys.Table.DETAIL_FILE);
     detailPref.setFields(this, RequestCodeConsts.RequestCodes.CHOOSE_DETAIL_FILE,
         ((IAppAwareActivity) getActivity()).getAppName());
-    detailPref.setSummary(TableUtil.get()
-        .getDetailViewFilename(Tables.getInstance().getDatabase(), getAppName(), db,
-            getTableId()));
+    detailPref.setSummary(metadata.getDetailViewFilename());
   }
 
   /**
@@ -558,16 +552,13 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
    * Handles the (editable) "Color Rule for Map" dropdown, with options "None", "Table Color
    * Rules" and "Status Column Color Rules"
    *
-   * @param db the database to use
-   * @throws ServicesAvailabilityException if the database is down
+   * @param metadata the settings of the table
    */
-  private void initializeMapColorRule(DbHandle db) throws ServicesAvailabilityException {
+  private void initializeMapColorRule(TableMetadataSnapshot metadata) {
     ListPreference mapColorPref = this
         .findListPreference(Constants.PreferenceKeys.Table.MAP_COLOR_RULE);
 
-    TableUtil.MapViewColorRuleInfo mvcri = TableUtil.get()
-        .getMapListViewColorRuleInfo(Tables.getInstance().getDatabase(), getAppName(), db,
-            getTableId());
+    TableUtil.MapViewColorRuleInfo mvcri = metadata.getMapListViewColorRuleInfo();
 
     String initColorType;
 
@@ -618,6 +609,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment
               null);
           TableUtil.get().setMapListViewColorRuleInfo(Tables.getInstance().getDatabase(),
               getAppName(), db, getTableId(), mvcri);
+          TableMetadataSnapshot.invalidate(getAppName(), getTableId());
           return true;
 
         } catch (ServicesAvailabilityException re) {
@@ -21,15 +21,16 @@ import android.util.AttributeSet;
 import android.view.ContextThemeWrapper;
 import org.opendatakit.activities.IAppAwareActivity;
 import org.opendatakit.data.TableViewType;
-import org.opendatakit.data.utilities.TableUtil;
 import org.opendatakit.database.data.OrderedColumns;
 import org.opendatakit.database.service.DbHandle;
 import org.opendatakit.database.service.UserDbInterface;
 import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
+import org.opendatakit.properties.CommonToolProperties;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.data.PossibleTableViewTypes;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 
 import java.util.Arrays;
 
@@ -80,14 +81,17 @@ public class DefaultViewTypePreference extends ListPreference {
     CharSequence[] mEntryValues = mContext.getResources()
         .getTextArray(R.array.table_view_types_values);
 
+    String userSelectedDefaultLocale = CommonToolProperties.get(mContext, mAppName)
+        .getUserSelectedDefaultLocale();
     UserDbInterface dbInterface = Tables.getInstance().getDatabase();
     DbHandle db = null;
     try {
       db = dbInterface.openDatabase(mAppName);
-      mPossibleViewTypes = new PossibleTableViewTypes(dbInterface, mAppName, db, tableId,
-          orderedDefns);
+      TableMetadataSnapshot metadata = TableMetadataSnapshot
+          .get(dbInterface, mAppName, db, tableId, orderedDefns, userSelectedDefaultLocale);
+      mPossibleViewTypes = new PossibleTableViewTypes(metadata, orderedDefns);
       // Let's set the currently selected one.
-      defaultViewType = TableUtil.get().getDefaultViewType(dbInterface, mAppName, db, tableId);
+      defaultViewType = metadata.getDefaultViewType();
     } finally {
       if (db != null) {
         dbInterface.closeDatabase(mAppName, db);
@@ -78,6 +78,10 @@ public final class Constants {
      * Used in AbsBaseActivity to store the current action table id in the saved instance state
      */
     public static final String ACTION_TABLE_ID = org.opendatakit.views.OdkData.IntentKeys.ACTION_TABLE_ID;
+    /**
+     * Used in AbsBaseActivity to store the id of the row survey was launched to add or edit
+     */
+    public static final String ACTION_ROW_ID = "actionRowId";
     /**
      * tables that have conflict rows
      */
@@ -330,6 +334,13 @@ public final class Constants {
      */
     public static final String ODK_TABLES_IF = "odkTablesIf";
 
+    /**
+     * The event fired on the window of the sub list of a detail with list view when the detail
+     * view gives it a new query. A page that calls preventDefault() on it gets the new data with
+     * odkData.getViewData and redraws itself, anything else is reloaded.
+     */
+    public static final String SUB_LIST_UPDATE_EVENT = "odktablessublistupdate";
+
     /**
      * Do not instantiate this class
      */
@@ -26,6 +26,7 @@ import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 
 /**
  * @author sudar.sam@gmail.com
@@ -59,6 +60,7 @@ public final class PreferenceUtil {
       TableUtil.get()
           .atomicSetDefaultViewType(Tables.getInstance().getDatabase(), appName, tableId,
               viewType);
+      TableMetadataSnapshot.invalidate(appName, tableId);
     } catch (ServicesAvailabilityException ignored) {
       Toast.makeText(context, R.string.unable_to_change_default_view_type, Toast.LENGTH_LONG)
           .show();
@@ -107,10 +109,36 @@ public final class PreferenceUtil {
       ColumnUtil.get()
           .atomicSetColumnWidth(Tables.getInstance().getDatabase(), appName, tableId,
               elementKey, newColumnWidth);
+      TableMetadataSnapshot.invalidate(appName, tableId);
     } catch (ServicesAvailabilityException e) {
       Toast.makeText(context, R.string.change_column_width_error, Toast.LENGTH_LONG).show();
       WebLogger.getLogger(appName).printStackTrace(e);
     }
   }
 
+  /**
+   * Sets the widths of several columns in the database at once, like after they were fitted to
+   * their contents. Unlike {@link #setColumnWidth(Context, String, String, String, int)} this
+   * doesn't show any errors itself, so it can be called off the UI thread.
+   *
+   * @param appName     the app name
+   * @param tableId     the id of the table that has the columns
+   * @param elementKeys the ids of the columns to change the widths of
+   * @param widths      the new width of each of those columns, in pixels
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static void setColumnWidths(String appName, String tableId, String[] elementKeys,
+      int[] widths) throws ServicesAvailabilityException {
+    try {
+      for (int i = 0; i < elementKeys.length; ++i) {
+        ColumnUtil.get()
+            .atomicSetColumnWidth(Tables.getInstance().getDatabase(), appName, tableId,
+                elementKeys[i], widths[i]);
+      }
+    } finally {
+      // even if only some of them were written
+      TableMetadataSnapshot.invalidate(appName, tableId);
+    }
+  }
+
 }
@@ -99,7 +99,8 @@ public final class SurveyUtil {
    *                             automatically generated, and the screen path to the form
    * @param elementKeyToValue    a mapping of elementName to value for the values
    *                             that you wish to prepopulate in the add row.
-   * @return an intent to open Survey to a particular form
+   * @return an intent to open Survey to a particular form, with the id of the new row in its
+   * extras
    */
   public static Intent getIntentForOdkSurveyAddRow(String appName, String tableId,
       SurveyFormParameters surveyFormParameters, Map<String, Object> elementKeyToValue) {
@@ -112,8 +113,15 @@ public final class SurveyUtil {
     intent.setComponent(
         new ComponentName(SURVEY_PACKAGE_NAME, SURVEY_MAIN_MENU_ACTIVITY_COMPONENT_NAME));
     intent.setAction(Intent.ACTION_EDIT);
-    Uri addUri = getUriForSurveyAddRow(appName, tableId, surveyFormParameters, elementKeyToValue);
+    // We'll create a UUID, as that will tell survey we want a new one.
+    String newUuid = INSTANCE_UUID_PREFIX + UUID.randomUUID();
+    Uri addUri = getUriForSurveyAddRow(appName, tableId, surveyFormParameters, newUuid,
+        elementKeyToValue);
     intent.setData(addUri);
+    // so that the new row can be found once survey returns
+    Bundle extras = new Bundle();
+    IntentUtil.addRowIdToBundle(extras, newUuid);
+    intent.putExtras(extras);
     return intent;
   }
 
@@ -158,13 +166,13 @@ public final class SurveyUtil {
    * @param tableId              the table id for the table that we want to add a row to
    * @param surveyFormParameters an object that contains a form id, whether the form was
    *                             automatically generated, and the screen path to the form
+   * @param newUuid              a freshly generated id for the new row
    * @param elementKeyToValue    a map of prepopulated values to add to the form.
    * @return a URI that can be used to add a row using survey
    */
   private static Uri getUriForSurveyAddRow(String appName, String tableId,
-      SurveyFormParameters surveyFormParameters, Map<String, Object> elementKeyToValue) {
-    // We'll create a UUID, as that will tell survey we want a new one.
-    String newUuid = INSTANCE_UUID_PREFIX + UUID.randomUUID();
+      SurveyFormParameters surveyFormParameters, String newUuid,
+      Map<String, Object> elementKeyToValue) {
     return getUriForSurveyHelper(appName, tableId, surveyFormParameters, newUuid,
         elementKeyToValue);
   }
@@ -235,6 +243,8 @@ public final class SurveyUtil {
     Context ctxt = activityToAwaitReturn.getApplicationContext();
     if (DependencyChecker.isPackageInstalled(ctxt, DependencyChecker.surveyAppPkgName)) {
       activityToAwaitReturn.setActionTableId(tableId);
+      activityToAwaitReturn
+          .setActionRowId(IntentUtil.retrieveRowIdFromBundle(surveyAddIntent.getExtras()));
       activityToAwaitReturn
           .startActivityForResult(surveyAddIntent, RequestCodeConsts.RequestCodes.ADD_ROW_SURVEY);
 
@@ -302,6 +312,7 @@ public final class SurveyUtil {
     Context ctxt = activityToAwaitReturn.getApplicationContext();
     if (DependencyChecker.isPackageInstalled(ctxt, DependencyChecker.surveyAppPkgName)) {
       activityToAwaitReturn.setActionTableId(tableId);
+      activityToAwaitReturn.setActionRowId(rowId);
       activityToAwaitReturn
           .startActivityForResult(surveyEditIntent, RequestCodeConsts.RequestCodes.EDIT_ROW_SURVEY);
     } else {
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * Draws the cells of a {@link TabularView}.
+ * <p>
+ * Drawing a cell is split in two. {@link #fitText(String, boolean, int)} measures a string
+ * against the width of a column and, if it is too wide, cuts it down and ends it with an
+ * ellipsis. That is done once for each value, when its row is first drawn, and the result is
+ * kept. {@link #drawCell(Canvas, int, int, int, String, boolean, int, int)} then only fills the
+ * background and draws the already fitted text, so it doesn't allocate or need a clip.
+ */
+final class CellRenderer {
+
+  // Space between the left edge of a cell and its text. The text may run until three times this
+  // from the right edge.
+  private static final int HORIZONTAL_CELL_PADDING = 5;
+  private static final int VERTICAL_CELL_PADDING = 9;
+  private static final String ELLIPSIS = "\u2026";
+  // Typeface.create returns a cached instance, but it still does a lookup each time it's called
+  private static final Typeface NORMAL_TYPEFACE = Typeface.create(Typeface.DEFAULT,
+      Typeface.NORMAL);
+  private static final Typeface ITALIC_TYPEFACE = Typeface.create(Typeface.DEFAULT,
+      Typeface.ITALIC);
+
+  private final int rowHeight;
+  private final Paint normalPaint;
+  private final Paint italicPaint;
+  private final Paint bgPaint;
+  private final float normalEllipsisWidth;
+  private final float italicEllipsisWidth;
+
+  /**
+   * @param fontSize  the text size of the cells
+   * @param rowHeight the height of a cell, not counting its borders
+   */
+  CellRenderer(int fontSize, int rowHeight) {
+    this.rowHeight = rowHeight;
+    normalPaint = buildTextPaint(fontSize, NORMAL_TYPEFACE);
+    italicPaint = buildTextPaint(fontSize, ITALIC_TYPEFACE);
+    bgPaint = new Paint();
+    normalEllipsisWidth = normalPaint.measureText(ELLIPSIS);
+    italicEllipsisWidth = italicPaint.measureText(ELLIPSIS);
+  }
+
+  private static Paint buildTextPaint(int fontSize, Typeface typeface) {
+    Paint paint = new Paint();
+    paint.setAntiAlias(true);
+    paint.setTextSize(fontSize);
+    paint.setTypeface(typeface);
+    return paint;
+  }
+
+  /**
+   * The width that the text of a cell may take up
+   *
+   * @param columnWidth the width of the cell
+   * @return the room left for text once the padding is taken off
+   */
+  private static int getTextWidth(int columnWidth) {
+    return Math.max(0, columnWidth - 3 * HORIZONTAL_CELL_PADDING);
+  }
+
+  /**
+   * The narrowest column a string fits into without being cut short, the inverse of
+   * {@link #getTextWidth(int)}. The paints aren't thread safe, so a renderer used for this off
+   * the UI thread must not be used for drawing.
+   *
+   * @param text   the string to measure
+   * @param italic whether it will be drawn in italics
+   * @return the width of the column, not counting its borders
+   */
+  int measureColumnWidth(String text, boolean italic) {
+    if (text == null || text.isEmpty()) {
+      return 3 * HORIZONTAL_CELL_PADDING;
+    }
+    Paint paint = italic ? italicPaint : normalPaint;
+    return (int) Math.ceil(paint.measureText(text)) + 3 * HORIZONTAL_CELL_PADDING;
+  }
+
+  /**
+   * Fits a string into a column, cutting it short and adding an ellipsis if it is too wide.
+   * This measures the text, so call it once per value and keep the result.
+   *
+   * @param text        the string to fit
+   * @param italic      whether it will be drawn in italics
+   * @param columnWidth the width of the cell it will be drawn in
+   * @return text itself if it fits, otherwise the longest prefix of it that fits followed by an
+   * ellipsis
+   */
+  String fitText(String text, boolean italic, int columnWidth) {
+    if (text == null || text.isEmpty()) {
+      return text;
+    }
+    Paint paint = italic ? italicPaint : normalPaint;
+    float textWidth = getTextWidth(columnWidth);
+    int end = paint.breakText(text, true, textWidth, null);
+    if (end >= text.length()) {
+      return text;
+    }
+    float ellipsisWidth = italic ? italicEllipsisWidth : normalEllipsisWidth;
+    if (ellipsisWidth > textWidth) {
+      // not even the ellipsis fits, just show as much of the text as will
+      return text.substring(0, trimToCodePoint(text, end));
+    }
+    end = paint.breakText(text, true, textWidth - ellipsisWidth, null);
+    return text.substring(0, trimToCodePoint(text, end)) + ELLIPSIS;
+  }
+
+  /**
+   * Makes sure a cut at end doesn't split a surrogate pair
+   */
+  private static int trimToCodePoint(String text, int end) {
+    if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+      return end - 1;
+    }
+    return end;
+  }
+
+  /**
+   * Draws a single cell. Doesn't allocate anything.
+   *
+   * @param canvas          the canvas to draw on
+   * @param x               the left edge of the cell
+   * @param y               the top edge of the cell
+   * @param columnWidth     the width of the cell
+   * @param fittedText      text from {@link #fitText(String, boolean, int)}, may be null or
+   *                        empty to draw just the background
+   * @param italic          whether to draw the text in italics. Must match what it was fitted
+   *                        with
+   * @param backgroundColor the color to fill the cell with
+   * @param foregroundColor the color of the text
+   */
+  void drawCell(Canvas canvas, int x, int y, int columnWidth, String fittedText, boolean italic,
+      int backgroundColor, int foregroundColor) {
+    bgPaint.setColor(backgroundColor);
+    canvas.drawRect(x, y, x + columnWidth, y + rowHeight, bgPaint);
+    if (fittedText == null || fittedText.isEmpty()) {
+      return;
+    }
+    Paint paint = italic ? italicPaint : normalPaint;
+    paint.setColor(foregroundColor);
+    canvas.drawText(fittedText, x + HORIZONTAL_CELL_PADDING,
+        y + rowHeight - VERTICAL_CELL_PADDING, paint);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import org.opendatakit.database.LocalKeyValueStoreConstants;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.tables.data.PagedColumnMetadata;
+import org.opendatakit.tables.data.PagedRowSource;
+import org.opendatakit.tables.data.PagedRowSource.RowBlock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Works out a width for each column of a spreadsheet from what is in it.
+ * <p>
+ * Measuring every cell of a big table would take too long, so the display text of a sample of the
+ * rows is measured instead: a handful of blocks spread evenly through the table, from
+ * {@link PagedRowSource#sampleBlocks(int)}. Each column is made wide enough for its header and for
+ * all but the widest few percent of its sampled values, so that one long outlier doesn't make the
+ * whole column wide, and is capped at
+ * {@link LocalKeyValueStoreConstants.Spreadsheet#MAX_COL_WIDTH}.
+ * <p>
+ * This may query the database, including the names of any columns of a wide table that haven't
+ * been loaded yet, and measures a lot of text, so it should be run on a background thread.
+ */
+public final class ColumnWidthFitter {
+
+  /**
+   * How many blocks of rows to measure
+   */
+  static final int SAMPLE_BLOCKS = 8;
+  /**
+   * The fraction of the sampled values of a column that have to fit without being cut short
+   */
+  static final double FIT_FRACTION = 0.95;
+  // Narrow enough for a column of check marks, wide enough to still tap on
+  private static final int MIN_COL_WIDTH = 40;
+
+  private ColumnWidthFitter() {
+  }
+
+  /**
+   * Works out the widths of the columns of a spreadsheet
+   *
+   * @param model the loaded spreadsheet, with its header names, font size and row source
+   * @return the fitted width of each column, in the same order as the header
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static int[] fit(SpreadsheetModel model) throws ServicesAvailabilityException {
+    PagedColumnMetadata header = model.getColumnMetadata();
+    header.loadAll();
+    String[] headerKeys = model.getHeaderKeys();
+    int fontSize = model.getFontSize();
+    // The row height doesn't matter for measuring. The paints aren't thread safe, so this
+    // renderer is never shared with a view.
+    CellRenderer renderer = new CellRenderer(fontSize, fontSize);
+
+    PagedRowSource rowSource = model.getRowSource();
+    List<RowBlock> sample = rowSource == null ?
+        Collections.<RowBlock>emptyList() :
+        rowSource.sampleBlocks(SAMPLE_BLOCKS);
+    int numSampled = 0;
+    for (RowBlock block : sample) {
+      numSampled += block.getNumberOfRows();
+    }
+
+    int[] widths = new int[headerKeys.length];
+    int[] measured = new int[numSampled];
+    for (int col = 0; col < headerKeys.length; ++col) {
+      int width = Math
+          .max(MIN_COL_WIDTH, renderer.measureColumnWidth(header.getDisplayName(col), false));
+      int displayColumn = rowSource == null ?
+          -1 :
+          rowSource.getDisplayColumnIndex(headerKeys[col]);
+      if (displayColumn != -1 && numSampled > 0) {
+        int numMeasured = 0;
+        for (RowBlock block : sample) {
+          int first = block.getFirstRow();
+          for (int i = 0; i < block.getNumberOfRows(); ++i) {
+            String text = block.getDisplayText(displayColumn, first + i);
+            if (text != null) {
+              measured[numMeasured++] = renderer.measureColumnWidth(text, false);
+            }
+          }
+        }
+        if (numMeasured > 0) {
+          Arrays.sort(measured, 0, numMeasured);
+          int index = Math.min(numMeasured - 1, (int) Math.ceil(numMeasured * FIT_FRACTION) - 1);
+          width = Math.max(width, measured[Math.max(0, index)]);
+        }
+      }
+      widths[col] = Math.min(width, LocalKeyValueStoreConstants.Spreadsheet.MAX_COL_WIDTH);
+    }
+    return widths;
+  }
+}
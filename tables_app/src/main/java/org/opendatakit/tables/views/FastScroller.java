@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.DisplayMetrics;
+
+/**
+ * The fast scroll thumb of a {@link SpreadsheetView}, drawn over the right edge of its data
+ * rows, and the bubble that shows where the thumb is while it's being dragged.
+ * <p>
+ * The position of the thumb on its track stands for the vertical scroll offset, so dragging it
+ * from the top of the track to the bottom goes through the whole table in one gesture. This
+ * only draws the thumb and maps between touches and scroll offsets, the view owns the scroll
+ * offset and decides when the thumb is shown.
+ */
+final class FastScroller {
+
+  // Only tables at least this many screens tall get a thumb
+  private static final int MIN_PAGES = 4;
+  private static final int THUMB_WIDTH_DP = 8;
+  private static final int THUMB_HEIGHT_DP = 48;
+  // How far from the right edge a touch still grabs the thumb
+  private static final int TOUCH_WIDTH_DP = 32;
+  private static final int BUBBLE_TEXT_SIZE_SP = 24;
+  private static final int BUBBLE_PADDING_DP = 12;
+  private static final int BUBBLE_MAX_WIDTH_DP = 240;
+  private static final int THUMB_COLOR = 0x99404040;
+  private static final int DRAGGED_THUMB_COLOR = 0xff536379;
+  private static final int BUBBLE_COLOR = 0xe0536379;
+
+  private final int thumbWidth;
+  private final int thumbHeight;
+  private final int touchWidth;
+  private final int bubblePadding;
+  private final int bubbleMaxWidth;
+  private final Paint thumbPaint;
+  private final Paint bubblePaint;
+  private final TextPaint textPaint;
+  // Where the thumb runs, in the coordinates of the spreadsheet view
+  private final Rect track = new Rect();
+  private final RectF thumbRect = new RectF();
+  private final RectF bubbleRect = new RectF();
+  // How far below the top of the thumb it was grabbed
+  private float grabOffset = 0;
+
+  FastScroller(Context context) {
+    DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+    thumbWidth = Math.round(THUMB_WIDTH_DP * metrics.density);
+    thumbHeight = Math.round(THUMB_HEIGHT_DP * metrics.density);
+    touchWidth = Math.round(TOUCH_WIDTH_DP * metrics.density);
+    bubblePadding = Math.round(BUBBLE_PADDING_DP * metrics.density);
+    bubbleMaxWidth = Math.round(BUBBLE_MAX_WIDTH_DP * metrics.density);
+    thumbPaint = new Paint();
+    thumbPaint.setAntiAlias(true);
+    bubblePaint = new Paint();
+    bubblePaint.setAntiAlias(true);
+    bubblePaint.setColor(BUBBLE_COLOR);
+    textPaint = new TextPaint();
+    textPaint.setAntiAlias(true);
+    textPaint.setColor(Color.WHITE);
+    textPaint.setTextSize(BUBBLE_TEXT_SIZE_SP * metrics.scaledDensity);
+  }
+
+  /**
+   * Sets where the thumb runs, usually the bounds of the main data table
+   */
+  void setTrack(int left, int top, int right, int bottom) {
+    track.set(left, top, right, bottom);
+  }
+
+  /**
+   * @param contentHeight the height of every row of the table
+   * @return whether the table is tall enough for the thumb to be worth showing
+   */
+  boolean isNeeded(int contentHeight) {
+    return track.height() > thumbHeight && contentHeight > MIN_PAGES * track.height();
+  }
+
+  private float getThumbTop(int scrollY, int maxScrollY) {
+    float fraction = maxScrollY <= 0 ? 0 : (float) scrollY / maxScrollY;
+    return track.top + fraction * (track.height() - thumbHeight);
+  }
+
+  /**
+   * @return whether a touch at the given point, in the coordinates of the spreadsheet view, is
+   * on the thumb. The thumb is easier to grab than it looks, it's wider to touch than it's drawn.
+   */
+  boolean isOnThumb(float x, float y, int scrollY, int maxScrollY) {
+    float top = getThumbTop(scrollY, maxScrollY);
+    return x >= track.right - touchWidth && x <= track.right && y >= top - thumbHeight / 2
+        && y <= top + thumbHeight * 3 / 2;
+  }
+
+  /**
+   * Starts dragging the thumb, keeping the point it was grabbed at under the finger
+   *
+   * @param y the y coordinate of the touch, in the coordinates of the spreadsheet view
+   */
+  void startDrag(float y, int scrollY, int maxScrollY) {
+    grabOffset = Math.max(0, Math.min(thumbHeight, y - getThumbTop(scrollY, maxScrollY)));
+  }
+
+  /**
+   * @param y the y coordinate of the touch, in the coordinates of the spreadsheet view
+   * @return the scroll offset that puts the thumb under the finger
+   */
+  int getScrollYForDrag(float y, int maxScrollY) {
+    int range = track.height() - thumbHeight;
+    if (range <= 0) {
+      return 0;
+    }
+    float fraction = (y - grabOffset - track.top) / range;
+    return Math.round(Math.max(0, Math.min(1, fraction)) * maxScrollY);
+  }
+
+  /**
+   * Draws the thumb, and the bubble next to it while it's being dragged
+   *
+   * @param canvas   the canvas of the spreadsheet view
+   * @param dragging whether the thumb is being dragged
+   * @param label    the text for the bubble, only used while dragging, may be null for none
+   */
+  void draw(Canvas canvas, int scrollY, int maxScrollY, boolean dragging, String label) {
+    float top = getThumbTop(scrollY, maxScrollY);
+    thumbRect.set(track.right - thumbWidth, top, track.right, top + thumbHeight);
+    thumbPaint.setColor(dragging ? DRAGGED_THUMB_COLOR : THUMB_COLOR);
+    canvas.drawRoundRect(thumbRect, thumbWidth / 2f, thumbWidth / 2f, thumbPaint);
+    if (!dragging || label == null || label.isEmpty()) {
+      return;
+    }
+    int maxTextWidth = Math.min(bubbleMaxWidth, track.width() - touchWidth) - 2 * bubblePadding;
+    if (maxTextWidth <= 0) {
+      return;
+    }
+    String text = TextUtils.ellipsize(label, textPaint, maxTextWidth, TextUtils.TruncateAt.END)
+        .toString();
+    Paint.FontMetrics fm = textPaint.getFontMetrics();
+    float textHeight = fm.descent - fm.ascent;
+    float bubbleHeight = textHeight + 2 * bubblePadding;
+    float bubbleRight = track.right - touchWidth;
+    float bubbleTop = Math.max(track.top, Math.min(track.bottom - bubbleHeight,
+        top + thumbHeight / 2f - bubbleHeight / 2));
+    bubbleRect.set(bubbleRight - textPaint.measureText(text) - 2 * bubblePadding, bubbleTop,
+        bubbleRight, bubbleTop + bubbleHeight);
+    canvas.drawRoundRect(bubbleRect, bubblePadding, bubblePadding, bubblePaint);
+    canvas.drawText(text, bubbleRect.left + bubblePadding, bubbleTop + bubblePadding - fm.ascent,
+        textPaint);
+  }
+}
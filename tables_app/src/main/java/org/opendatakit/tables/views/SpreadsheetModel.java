@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import android.content.Context;
+import androidx.annotation.VisibleForTesting;
+import org.opendatakit.data.ColorRuleGroup;
+import org.opendatakit.data.utilities.TableUtil;
+import org.opendatakit.database.data.OrderedColumns;
+import org.opendatakit.database.service.DbHandle;
+import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.exception.ServicesAvailabilityException;
+import org.opendatakit.properties.CommonToolProperties;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.ColorRuleCache;
+import org.opendatakit.tables.data.PagedColumnMetadata;
+import org.opendatakit.tables.data.PagedRowSource;
+import org.opendatakit.tables.data.RowColorRules;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything about a table that a {@link SpreadsheetView} needs from the database before it can
+ * be built: the column order and localized header names, the frozen column, the column widths,
+ * the font size and the row source with its first block of rows. Loading it also hands the
+ * color rules of the table to the row source.
+ * <p>
+ * The header names and column color rules of a table with more than
+ * {@link PagedRowSource#WIDE_TABLE_COLUMNS} columns are only loaded for the first columns and the
+ * frozen one, the rest come in as they're scrolled to, see {@link PagedColumnMetadata}.
+ * <p>
+ * The key value store settings come from the cached {@link TableMetadataSnapshot}, but the
+ * color rules and the row source still take several database lookups, so
+ * {@link #load(Context, String, String, OrderedColumns, SpreadsheetProps, PagedRowSource)} is
+ * meant to be run on a background thread. Once loaded it doesn't change, apart from the column
+ * metadata filling in, so it can be handed to the UI thread as is.
+ */
+public final class SpreadsheetModel {
+
+  // The row source that pages in the rows of the table
+  private final PagedRowSource rowSource;
+  // Which column is indexed, if any
+  private final String indexColumnElementKey;
+  // The localized display names of the columns, and their element keys, in column order
+  private final PagedColumnMetadata columnMetadata;
+  private final String[] headerKeys;
+  private final Map<String, Integer> elementKeyToIndex;
+  // The width of each column, in column order
+  private final int[] columnWidths;
+  private final int fontSize;
+
+  private SpreadsheetModel(PagedRowSource rowSource, String indexColumnElementKey,
+      PagedColumnMetadata columnMetadata, String[] headerKeys,
+      Map<String, Integer> elementKeyToIndex, int[] columnWidths, int fontSize) {
+    this.rowSource = rowSource;
+    this.indexColumnElementKey = indexColumnElementKey;
+    this.columnMetadata = columnMetadata;
+    this.headerKeys = headerKeys;
+    this.elementKeyToIndex = Collections.unmodifiableMap(elementKeyToIndex);
+    this.columnWidths = columnWidths;
+    this.fontSize = fontSize;
+  }
+
+  /**
+   * Reads everything the spreadsheet needs out of the database. Does not touch any views, so it
+   * can (and should) be called off the UI thread.
+   *
+   * @param context   used to look up the app properties and the default font size
+   * @param appName   the app name
+   * @param tableId   the table to display
+   * @param columns   the column definitions of the table
+   * @param props     the spreadsheet props of the enclosing activity, or null if it has none
+   * @param rowSource the row source for the table, may be null if it couldn't be opened
+   * @return the loaded model
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public static SpreadsheetModel load(Context context, String appName, String tableId,
+      OrderedColumns columns, SpreadsheetProps props, PagedRowSource rowSource)
+      throws ServicesAvailabilityException {
+    String userSelectedDefaultLocale = CommonToolProperties.get(context, appName)
+        .getUserSelectedDefaultLocale();
+
+    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
+    DbHandle db = null;
+    try {
+      db = dbInterface.openDatabase(appName);
+      TableMetadataSnapshot metadata = TableMetadataSnapshot
+          .get(dbInterface, appName, db, tableId, columns, userSelectedDefaultLocale);
+      String indexColumnElementKey;
+      if (props != null) {
+        indexColumnElementKey = props.getFrozen();
+      } else {
+        indexColumnElementKey = metadata.getIndexColumn();
+      }
+      List<String> colOrder = metadata.getColumnOrder();
+
+      String[] headerKeys = new String[colOrder.size()];
+      Map<String, Integer> elementKeyToIndex = new HashMap<>();
+      for (int i = 0; i < colOrder.size(); ++i) {
+        String elementKey = colOrder.get(i);
+        headerKeys[i] = elementKey;
+        elementKeyToIndex.put(elementKey, i);
+      }
+
+      Map<String, Integer> widthsByKey = metadata.getColumnWidths();
+      int[] columnWidths = new int[headerKeys.length];
+      for (int i = 0; i < headerKeys.length; ++i) {
+        columnWidths[i] = widthsByKey.get(headerKeys[i]);
+      }
+
+      // if a custom font size is defined in the KeyValueStore, use that if not, use the general
+      // font size defined in preferences. Not part of the snapshot, since the general font size
+      // can change without the table's metadata changing
+      int fontSize = TableUtil.get()
+          .getSpreadsheetViewFontSize(context, dbInterface, appName, db, tableId);
+
+      String[] adminColumns = dbInterface.getAdminColumns();
+      ColorRuleGroup statusRules = ColorRuleCache
+          .getStatusRules(dbInterface, appName, db, tableId, adminColumns);
+      ColorRuleGroup tableRules = ColorRuleCache
+          .getTableRules(dbInterface, appName, db, tableId, adminColumns);
+      // the column rules are merged in as the columns are loaded
+      RowColorRules colorRules = new RowColorRules(tableRules, statusRules,
+          Collections.<String, ColorRuleGroup>emptyMap(), TabularView.DEFAULT_FOREGROUND_COLOR,
+          TabularView.DEFAULT_DATA_BACKGROUND_COLOR);
+      if (rowSource != null) {
+        // evaluated by the row source against each block of rows as it's paged in, not per cell
+        rowSource.setColorRules(colorRules);
+        rowSource.setColumnOrder(headerKeys);
+      }
+      PagedColumnMetadata columnMetadata = new PagedColumnMetadata(appName, tableId, headerKeys,
+          metadata, adminColumns, colorRules, rowSource);
+      Integer frozen = indexColumnElementKey == null ? null :
+          elementKeyToIndex.get(indexColumnElementKey);
+      if (headerKeys.length <= PagedRowSource.WIDE_TABLE_COLUMNS) {
+        columnMetadata.loadBlocking(dbInterface, db, 0, headerKeys.length - 1);
+      } else {
+        columnMetadata.loadBlocking(dbInterface, db, 0, 0);
+        if (frozen != null) {
+          columnMetadata.loadBlocking(dbInterface, db, frozen, frozen);
+        }
+      }
+      if (rowSource != null) {
+        // only does anything for a wide table, the rows of any other come with every column
+        rowSource.loadColumns(0, 0);
+        if (frozen != null) {
+          rowSource.loadColumns(frozen, frozen);
+        }
+      }
+
+      return new SpreadsheetModel(rowSource, indexColumnElementKey, columnMetadata, headerKeys,
+          elementKeyToIndex, columnWidths, fontSize);
+    } finally {
+      if (db != null) {
+        dbInterface.closeDatabase(appName, db);
+      }
+    }
+  }
+
+  /**
+   * Makes a model around a row source that's already open, without reading anything from the
+   * database. The columns have no header names or color rules. For drawing a spreadsheet in
+   * tests.
+   *
+   * @param rowSource    the row source
+   * @param headerKeys   the element keys of the columns, in column order
+   * @param columnWidths the width of each column, in the same order
+   * @param fontSize     the font size
+   * @return the model
+   */
+  @VisibleForTesting
+  static SpreadsheetModel forRowSource(PagedRowSource rowSource, String[] headerKeys,
+      int[] columnWidths, int fontSize) {
+    Map<String, Integer> elementKeyToIndex = new HashMap<>();
+    for (int i = 0; i < headerKeys.length; ++i) {
+      elementKeyToIndex.put(headerKeys[i], i);
+    }
+    rowSource.setColumnOrder(headerKeys);
+    return new SpreadsheetModel(rowSource, null, null, headerKeys, elementKeyToIndex,
+        columnWidths, fontSize);
+  }
+
+  /**
+   * Makes a copy of this model with a different frozen column. Freezing a column only changes
+   * how the spreadsheet is laid out, so nothing has to be read again.
+   *
+   * @param elementKey the column to freeze, or null to not freeze any
+   * @return the new model
+   */
+  public SpreadsheetModel withIndexColumn(String elementKey) {
+    return new SpreadsheetModel(rowSource, elementKey, columnMetadata, headerKeys,
+        elementKeyToIndex, columnWidths, fontSize);
+  }
+
+  /**
+   * Makes a copy of this model with different column widths, like after they were fitted to
+   * their contents
+   *
+   * @param widths the width of each column, in the same order as the header
+   * @return the new model
+   */
+  public SpreadsheetModel withColumnWidths(int[] widths) {
+    return new SpreadsheetModel(rowSource, indexColumnElementKey, columnMetadata, headerKeys,
+        elementKeyToIndex, widths, fontSize);
+  }
+
+  PagedRowSource getRowSource() {
+    return rowSource;
+  }
+
+  String getIndexColumnElementKey() {
+    return indexColumnElementKey;
+  }
+
+  /**
+   * @return the localized display names and color rules of the columns, in column order, which
+   * may not all be loaded yet
+   */
+  public PagedColumnMetadata getColumnMetadata() {
+    return columnMetadata;
+  }
+
+  /**
+   * @return the element keys of the columns, in column order
+   */
+  public String[] getHeaderKeys() {
+    return headerKeys;
+  }
+
+  Map<String, Integer> getElementKeyToIndex() {
+    return elementKeyToIndex;
+  }
+
+  /**
+   * @return the width of each column, in the same order as the header
+   */
+  public int[] getColumnWidths() {
+    return columnWidths;
+  }
+
+  int getFontSize() {
+    return fontSize;
+  }
+}
@@ -4,6 +4,8 @@ import android.app.Activity;
 import android.content.Intent;
 import android.os.Parcel;
 import android.os.Parcelable;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.tables.data.RowFilter;
 
 /**
  * Created by Niles on 6/20/17.
@@ -34,6 +36,14 @@ public class SpreadsheetProps implements Parcelable {
    * Boolean to hold whether a delete row dialog is open, so it can be re-opened after rotate
    */
   public boolean deleteDialogOpen = false;
+  /**
+   * Boolean to hold whether the column totals footer is shown, so it stays up after rotate
+   */
+  public boolean columnTotalsShown = false;
+  /**
+   * Which total the footer shows, the ordinal of a SpreadsheetView.ColumnTotal
+   */
+  public int columnTotal = 0;
   /**
    * cellInfo stored so that the delete dialog and row actions menu know which cell was double
    * tapped or long tapped in order to open them.
@@ -51,6 +61,10 @@ public class SpreadsheetProps implements Parcelable {
   private String sortOrder;
   private String frozen;
   private String[] groupBy;
+  /**
+   * The filter from the filter bar, or null if the rows aren't filtered
+   */
+  private RowFilter filter;
   /**
    * the activity to put the properties into in order to update the parent about changes to the
    * four sql properties
@@ -78,13 +92,21 @@ public class SpreadsheetProps implements Parcelable {
       groupBy = new String[length];
       in.readStringArray(groupBy);
     }
-    boolean[] bools = new boolean[3];
+    boolean[] bools = new boolean[4];
     in.readBooleanArray(bools);
     dataMenuOpen = bools[0];
     headerMenuOpen = bools[1];
     deleteDialogOpen = bools[2];
+    columnTotalsShown = bools[3];
+    columnTotal = in.readInt();
     lastDataCellMenued = readCellInfo(in);
     lastHeaderCellMenued = readCellInfo(in);
+    if (in.readByte() == 1) {
+      String elementKey = in.readString();
+      ElementDataType type = ElementDataType.valueOf(in.readString());
+      RowFilter.Operator operator = RowFilter.Operator.valueOf(in.readString());
+      filter = new RowFilter(elementKey, type, operator, readString(in));
+    }
   }
 
   /**
@@ -161,9 +183,20 @@ public class SpreadsheetProps implements Parcelable {
       dest.writeInt(groupBy.length);
       dest.writeStringArray(groupBy);
     }
-    dest.writeBooleanArray(new boolean[] { dataMenuOpen, headerMenuOpen, deleteDialogOpen });
+    dest.writeBooleanArray(
+        new boolean[] { dataMenuOpen, headerMenuOpen, deleteDialogOpen, columnTotalsShown });
+    dest.writeInt(columnTotal);
     writeCellInfo(dest, lastDataCellMenued);
     writeCellInfo(dest, lastHeaderCellMenued);
+    if (filter == null) {
+      dest.writeByte((byte) 0);
+    } else {
+      dest.writeByte((byte) 1);
+      dest.writeString(filter.getElementKey());
+      dest.writeString(filter.getType().name());
+      dest.writeString(filter.getOperator().name());
+      writeString(dest, filter.getValue());
+    }
   }
 
   public String getSort() {
@@ -202,11 +235,20 @@ public class SpreadsheetProps implements Parcelable {
     updateParent();
   }
 
+  public RowFilter getFilter() {
+    return filter;
+  }
+
+  public void setFilter(RowFilter filter) {
+    this.filter = filter;
+    updateParent();
+  }
+
   /**
    * Puts props in the result so the calling intent will know about any changes made to the sql
-   * properties. For example, if you open a collection view, freeze a column and reverse the sort
-   * direction while there, then go back, your changes won't get undone because the calling
-   * activity will
+   * properties, the filter included. For example, if you open a collection view, freeze a column
+   * and reverse the sort direction while there, then go back, your changes won't get undone
+   * because the calling activity will
    * <p>
    * Originally I wanted to try using act.getCallingActivity(), seeing if it was an instance of
    * ISpreadsheetFragmentContainer and if it was, using getProps().setFrozen(), etc.. on it, but
@@ -16,21 +16,17 @@
 package org.opendatakit.tables.views;
 
 import android.app.Activity;
-import org.opendatakit.data.ColorRuleGroup;
-import org.opendatakit.data.utilities.ColumnUtil;
-import org.opendatakit.data.utilities.TableUtil;
+import androidx.annotation.VisibleForTesting;
 import org.opendatakit.database.data.*;
-import org.opendatakit.database.service.DbHandle;
-import org.opendatakit.database.service.UserDbInterface;
+import org.opendatakit.database.utilities.QueryUtil;
 import org.opendatakit.exception.ServicesAvailabilityException;
-import org.opendatakit.properties.CommonToolProperties;
-import org.opendatakit.properties.PropertiesSingleton;
+import org.opendatakit.provider.DataTableColumns;
 import org.opendatakit.tables.activities.ISpreadsheetFragmentContainer;
-import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.PagedColumnMetadata;
+import org.opendatakit.tables.data.PagedRowSource;
+import org.opendatakit.tables.data.PagedRowSource.RowBlock;
 import org.opendatakit.tables.fragments.AbsTableDisplayFragment;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -45,23 +41,29 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
 
   // Which column is indexed, if any
   private final String indexColumnElementKey;
-  // The localized display names for the columns of the table
-  private final String[] header;
+  // The localized display names for the columns of the table, loaded as they're scrolled to
+  private final PagedColumnMetadata header;
   private final String[] header_keys;
   //
   private final String[] spreadsheetIndexToElementKey;
   private final Map<String, Integer> elementKeyToSpreadsheetIndex;
   private SpreadsheetProps props;
-  private UserTable userTable;
+  // Pages the rows in from the database as they are scrolled to
+  private final PagedRowSource rowSource;
+  // Everything that was read from the database to build the spreadsheet. Only replaced to change
+  // the column widths
+  private SpreadsheetModel model;
 
   /**
-   * Constructs a SpreadsheetUserTable
+   * Constructs a SpreadsheetUserTable. Doesn't touch the database, everything it needs has
+   * already been read into the model.
    *
-   * @param frag the fragment we're embedded in
-   * @throws ServicesAvailabilityException if the database is down
+   * @param frag  the fragment we're embedded in
+   * @param model the column order, header names and row source of the table
    */
-  public SpreadsheetUserTable(AbsTableDisplayFragment frag) throws ServicesAvailabilityException {
+  public SpreadsheetUserTable(AbsTableDisplayFragment frag, SpreadsheetModel model) {
     this.fragment = frag;
+    this.model = model;
     props = null;
     if (frag == null) {
       throw new IllegalStateException("Must have a fragment to get appname to open database");
@@ -70,48 +72,32 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
     if (act instanceof ISpreadsheetFragmentContainer) {
       props = ((ISpreadsheetFragmentContainer) act).getProps();
     }
-    PropertiesSingleton props = CommonToolProperties.get(frag.getCommonApplication(), getAppName());
-    String userSelectedDefaultLocale = props.getUserSelectedDefaultLocale();
-
-    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
-    ArrayList<String> colOrder;
-    DbHandle db = null;
-    try {
-      db = dbInterface.openDatabase(frag.getAppName());
-      userTable = getUserTable();
-      if (this.props != null) {
-        indexColumnElementKey = this.props.getFrozen();
-      } else {
-        indexColumnElementKey = TableUtil.get()
-            .getIndexColumn(dbInterface, getAppName(), db, getTableId());
-        //indexColumnElementKey = null;
-      }
-      colOrder = TableUtil.get()
-          .getColumnOrder(dbInterface, frag.getAppName(), db, frag.getTableId(),
-              frag.getColumnDefinitions());
-
-      header = new String[colOrder.size()];
-      header_keys = new String[colOrder.size()];
-      spreadsheetIndexToElementKey = new String[colOrder.size()];
-      elementKeyToSpreadsheetIndex = new HashMap<>();
-
-      for (int i = 0; i < colOrder.size(); ++i) {
-        String elementKey = colOrder.get(i);
-        String localizedDisplayName;
-        localizedDisplayName = ColumnUtil.get()
-            .getLocalizedDisplayName(userSelectedDefaultLocale, dbInterface, getAppName(), db,
-                frag.getTableId(), elementKey);
-
-        header[i] = localizedDisplayName;
-        header_keys[i] = elementKey;
-        spreadsheetIndexToElementKey[i] = elementKey;
-        elementKeyToSpreadsheetIndex.put(elementKey, i);
-      }
-    } finally {
-      if (db != null) {
-        dbInterface.closeDatabase(frag.getAppName(), db);
-      }
-    }
+    rowSource = model.getRowSource();
+    indexColumnElementKey = model.getIndexColumnElementKey();
+    header = model.getColumnMetadata();
+    header_keys = model.getHeaderKeys();
+    spreadsheetIndexToElementKey = model.getHeaderKeys();
+    elementKeyToSpreadsheetIndex = model.getElementKeyToIndex();
+  }
+
+  /**
+   * Constructs a SpreadsheetUserTable that isn't in a fragment, for drawing a spreadsheet in
+   * tests. The app name and table id come from the row source.
+   *
+   * @param model the column order and row source of the table
+   * @param props the spreadsheet props, may be null
+   */
+  @VisibleForTesting
+  SpreadsheetUserTable(SpreadsheetModel model, SpreadsheetProps props) {
+    this.fragment = null;
+    this.model = model;
+    this.props = props;
+    rowSource = model.getRowSource();
+    indexColumnElementKey = model.getIndexColumnElementKey();
+    header = model.getColumnMetadata();
+    header_keys = model.getHeaderKeys();
+    spreadsheetIndexToElementKey = model.getHeaderKeys();
+    elementKeyToSpreadsheetIndex = model.getElementKeyToIndex();
   }
 
   public SpreadsheetProps getProps() {
@@ -119,62 +105,252 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
   }
 
   public String getTableId() {
-    return fragment.getTableId();
+    return fragment == null ? rowSource.getTableId() : fragment.getTableId();
   }
 
   public String getAppName() {
-    return fragment.getAppName();
+    return fragment == null ? rowSource.getAppName() : fragment.getAppName();
   }
 
   public OrderedColumns getColumnDefinitions() {
     return fragment.getColumnDefinitions();
   }
 
+  public SpreadsheetModel getModel() {
+    return model;
+  }
+
   /**
-   * TODO document
+   * Changes the column widths held in the model, so that a spreadsheet rebuilt from it keeps them
    *
-   * @param dbInterface
-   * @param db
-   * @param elementKey
-   * @param adminColumns
-   * @return
-   * @throws ServicesAvailabilityException
+   * @param widths the width of each column, in the same order as the header
    */
-  ColorRuleGroup getColumnColorRuleGroup(UserDbInterface dbInterface, DbHandle db,
-      String elementKey, String[] adminColumns) throws ServicesAvailabilityException {
-    return ColorRuleGroup
-        .getColumnColorRuleGroup(dbInterface, getAppName(), db, getTableId(), elementKey,
-            adminColumns);
+  void setColumnWidths(int[] widths) {
+    model = model.withColumnWidths(widths);
   }
 
   int getNumberOfRows() {
-    UserTable table = fragment.getUserTable();
-    if (table == null) {
+    if (rowSource == null) {
       return 0;
     }
-    return table.getNumberOfRows();
+    return rowSource.getRowCount();
   }
 
   /**
-   * Gets the row at the requested index from the table, or null if the index is out of bounds
+   * Gets the row at the requested index from the table, or null if the index is out of bounds.
+   * If the row hasn't been paged in yet, this queries the database on the calling thread, so
+   * it shouldn't be used while drawing.
    *
    * @param index the index of the row
    * @return the requested row or null
+   * @throws ServicesAvailabilityException if the database is down
+   */
+  public TypedRow getRowAtIndex(int index) throws ServicesAvailabilityException {
+    if (rowSource == null) {
+      return null;
+    }
+    return rowSource.getRowBlocking(index);
+  }
+
+  /**
+   * @return the order the rows are displayed in right now, or null if there are no rows. See
+   * {@link PagedRowSource#getRowOrder()}.
+   */
+  PagedRowSource.RowOrder getRowOrder() {
+    return rowSource == null ? null : rowSource.getRowOrder();
+  }
+
+  /**
+   * Gets the block of rows containing the requested index, if it has already been loaded
+   *
+   * @param order the order the rows are in, from {@link #getRowOrder()}
+   * @param index the index of the row in that order
+   * @return the loaded block containing that row, or null if it is still loading
+   */
+  RowBlock getLoadedRowBlock(PagedRowSource.RowOrder order, int index) {
+    if (rowSource == null || order == null) {
+      return null;
+    }
+    return rowSource.peekBlock(order, index);
+  }
+
+  /**
+   * Re-sorts and re-groups the rows in memory, if the row source can do that without going back
+   * to the database. See {@link PagedRowSource#reorder(String[], String[], String[])}.
+   *
+   * @param groupBy            the columns to group by, may be null
+   * @param orderByElementKeys the columns to sort by, may be null
+   * @param orderByDirections  ASC or DESC for each sort column, may be null
+   * @return true if the rows are now in the new order, false if the query has to be run again
+   */
+  public boolean reorderRows(String[] groupBy, String[] orderByElementKeys,
+      String[] orderByDirections) {
+    return rowSource != null && rowSource.reorder(groupBy, orderByElementKeys, orderByDirections);
+  }
+
+  /**
+   * @return whether the rows were grouped in memory, so that a group can be expanded in place
+   */
+  public boolean isGroupedInMemory() {
+    return rowSource != null && rowSource.isGroupedInMemory();
+  }
+
+  /**
+   * @param index the index of a row as displayed
+   * @return whether the group that row is in is currently expanded
+   */
+  public boolean isGroupExpanded(int index) {
+    return rowSource != null && rowSource.isGroupExpanded(index);
+  }
+
+  /**
+   * @param index the index of a row as displayed
+   * @return the number of rows in the group that row is in
+   */
+  public int getGroupSize(int index) {
+    return rowSource == null ? 1 : rowSource.getGroupSize(index);
+  }
+
+  /**
+   * Expands or collapses the group a row is in, without going to the database. See
+   * {@link PagedRowSource#toggleGroup(int)}.
+   *
+   * @param index the index of a row as displayed
+   * @return true if the group was toggled, false if the rows weren't grouped in memory
+   */
+  public boolean toggleGroup(int index) {
+    return rowSource != null && rowSource.toggleGroup(index);
+  }
+
+  /**
+   * Gets where a row is in the blocks of the row source, which differs from where it's displayed
+   * once the rows have been reordered in memory
+   *
+   * @param index the index of the row as displayed
+   * @return the index to look the row up in its {@link RowBlock} with
+   */
+  int toQueryRow(int index) {
+    return rowSource == null ? index : rowSource.toQueryRow(index);
+  }
+
+  /**
+   * Finds where some rows of the query result are displayed, if they're displayed one after
+   * another
+   *
+   * @param firstQueryRow the first of the rows, as an index into the query result
+   * @param numRows       the number of rows
+   * @return the first and last of the rows as displayed, or null if they aren't displayed
+   * together, like once they've been sorted in memory or some are in a collapsed group
    */
-  public TypedRow getRowAtIndex(int index) {
-    UserTable table = fragment.getUserTable();
-    if (table == null) {
+  int[] toDisplayRange(int firstQueryRow, int numRows) {
+    if (rowSource == null || numRows <= 0) {
       return null;
     }
-    return table.getRowAtIndex(index);
+    int first = Integer.MAX_VALUE;
+    int last = -1;
+    for (int i = firstQueryRow; i < firstQueryRow + numRows; ++i) {
+      int row = rowSource.toDisplayRow(i);
+      if (row == -1) {
+        return null;
+      }
+      first = Math.min(first, row);
+      last = Math.max(last, row);
+    }
+    // reversed rows are still together, shuffled ones aren't
+    return last - first + 1 == numRows ? new int[] { first, last } : null;
+  }
+
+  /**
+   * Asks for the rows in the given range to be loaded in the background if they aren't already
+   *
+   * @param firstRow the first row on screen
+   * @param lastRow  the last row on screen
+   */
+  void ensureRowsLoaded(int firstRow, int lastRow) {
+    if (rowSource != null) {
+      rowSource.ensureLoaded(firstRow, lastRow);
+    }
+  }
+
+  /**
+   * Asks for the columns of a wide table in the given range to be filled into the rows on screen
+   * in the background, see {@link PagedRowSource#ensureColumnsLoaded(int, int, int, int)}
+   *
+   * @param firstRow    the first row on screen
+   * @param lastRow     the last row on screen
+   * @param firstColumn the first column on screen
+   * @param lastColumn  the last column on screen
+   */
+  void ensureCellsLoaded(int firstRow, int lastRow, int firstColumn, int lastColumn) {
+    if (rowSource != null) {
+      rowSource.ensureColumnsLoaded(firstRow, lastRow, firstColumn, lastColumn);
+    }
+  }
+
+  /**
+   * Asks for the header names of the columns in the given range to be loaded in the background
+   * if they aren't already
+   *
+   * @param firstColumn the first column on screen
+   * @param lastColumn  the last column on screen
+   */
+  void ensureColumnsLoaded(int firstColumn, int lastColumn) {
+    header.ensureLoaded(firstColumn, lastColumn);
   }
 
-  UserTable getUserTable() {
-    return fragment.getUserTable();
+  void addColumnMetadataListener(PagedColumnMetadata.Listener listener) {
+    header.addListener(listener);
   }
 
-  UserTable getCachedUserTable() {
-    return userTable;
+  void removeColumnMetadataListener(PagedColumnMetadata.Listener listener) {
+    header.removeListener(listener);
+  }
+
+  /**
+   * Gets the index of a column's preformatted text in the loaded row blocks
+   *
+   * @param elementKey the column
+   * @return the index to pass to {@link RowBlock#getDisplayText(int, int)}, or -1
+   */
+  int getDisplayColumnIndex(String elementKey) {
+    if (rowSource == null) {
+      return -1;
+    }
+    return rowSource.getDisplayColumnIndex(elementKey);
+  }
+
+  /**
+   * Picks the column the fast scroll bubble shows: the first column the rows are sorted by, or
+   * failing that the first one they're grouped by, since that's what the rows are in order of
+   *
+   * @return the element key of the column, or null if the rows aren't in order of any column
+   * that has display text
+   */
+  String getFastScrollElementKey() {
+    if (props == null) {
+      return null;
+    }
+    String[] sort = QueryUtil.convertStringToArray(props.getSort());
+    String[] groupBy = props.getGroupBy();
+    String elementKey = null;
+    if (sort != null && sort.length > 0) {
+      elementKey = sort[0];
+    } else if (groupBy != null && groupBy.length > 0) {
+      elementKey = groupBy[0];
+    }
+    return elementKey == null || getDisplayColumnIndex(elementKey) == -1 ? null : elementKey;
+  }
+
+  void addRowSourceListener(PagedRowSource.Listener listener) {
+    if (rowSource != null) {
+      rowSource.addListener(listener);
+    }
+  }
+
+  void removeRowSourceListener(PagedRowSource.Listener listener) {
+    if (rowSource != null) {
+      rowSource.removeListener(listener);
+    }
   }
 
   // Whether or not we have a frozen column...
@@ -196,27 +372,45 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
    * @return whether there is data in the user table
    */
   public boolean hasData() {
-    UserTable table = fragment.getUserTable();
-    return !(table == null || header.length == 0);
+    return !(rowSource == null || header_keys.length == 0);
   }
 
   /**
    * Gets a cell from the given CellInfo object. Used in SpreadsheetFragment
    *
    * @param cellInfo an object that has a row id and column (elementKey) in it
-   * @return a SpreadsheetCell object from the CellInfo object
+   * @return a SpreadsheetCell object from the CellInfo object, or null if the row is gone
+   * @throws ServicesAvailabilityException if the row had to be loaded and the database is down
    */
-  public SpreadsheetCell getSpreadsheetCell(CellInfo cellInfo) {
+  public SpreadsheetCell getSpreadsheetCell(CellInfo cellInfo)
+      throws ServicesAvailabilityException {
+    RowBlock block = rowSource == null ? null : rowSource.getBlockBlocking(cellInfo.rowId);
+    if (block == null) {
+      return null;
+    }
+    int queryRow = toQueryRow(cellInfo.rowId);
     SpreadsheetCell cell = new SpreadsheetCell();
-    userTable = getUserTable();
     cell.rowNum = cellInfo.rowId;
-    cell.row = userTable.getRowAtIndex(cellInfo.rowId);
+    cell.row = block.getRow(queryRow);
     cell.elementKey = cellInfo.elementKey;
-    OrderedColumns orderedDefns = getColumnDefinitions();
-    ColumnDefinition cd = orderedDefns.find(cellInfo.elementKey);
-    getTableId();
-    cell.displayText = userTable
-        .getDisplayTextOfData(cellInfo.rowId, cd.getType(), cellInfo.elementKey);
+    int displayColumn = getDisplayColumnIndex(cellInfo.elementKey);
+    if (rowSource.isWindowed()) {
+      // the blocks of a wide table only have some of its columns, so get the whole row
+      UserTable complete = rowSource
+          .queryRowById(cell.row.getStringValueByKey(DataTableColumns.ID));
+      if (complete == null || complete.getNumberOfRows() == 0) {
+        return null;
+      }
+      cell.row = complete.getRowAtIndex(0);
+      ColumnDefinition cd = getColumnDefinitions().find(cellInfo.elementKey);
+      cell.displayText = complete.getDisplayTextOfData(0, cd.getType(), cd.getElementKey());
+    } else if (displayColumn != -1) {
+      cell.displayText = block.getDisplayText(displayColumn, queryRow);
+    } else {
+      OrderedColumns orderedDefns = getColumnDefinitions();
+      ColumnDefinition cd = orderedDefns.find(cellInfo.elementKey);
+      cell.displayText = block.getDisplayTextOfData(queryRow, cd);
+    }
     cell.value = cell.row.getStringValueByKey(cellInfo.elementKey);
     return cell;
   }
@@ -242,7 +436,7 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
   }
 
   public int getWidth() {
-    return header.length;
+    return header_keys.length;
   }
 
   /**
@@ -256,11 +450,16 @@ public class SpreadsheetUserTable implements ISpreadsheetFragmentContainer {
   }
 
   int getNumberOfDisplayColumns() {
-    return header.length;
+    return header_keys.length;
   }
 
+  /**
+   * @param colNum the column
+   * @return the localized name of the column, or an empty string until it has been loaded
+   */
   String getHeader(int colNum) {
-    return header[colNum];
+    String name = header.getDisplayName(colNum);
+    return name == null ? "" : name;
   }
 
   String getHeaderKey(int colNum) {
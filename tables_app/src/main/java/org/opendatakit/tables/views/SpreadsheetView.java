@@ -16,25 +16,30 @@
 package org.opendatakit.tables.views;
 
 import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.AsyncTask;
+import androidx.core.view.ViewCompat;
 import android.view.ContextMenu;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
-import android.widget.HorizontalScrollView;
 import android.widget.LinearLayout;
-import android.widget.ScrollView;
+import android.widget.OverScroller;
 import android.widget.Toast;
-import org.opendatakit.data.ColorRuleGroup;
-import org.opendatakit.data.utilities.ColumnUtil;
-import org.opendatakit.data.utilities.TableUtil;
 import org.opendatakit.database.data.ColumnDefinition;
-import org.opendatakit.database.service.DbHandle;
-import org.opendatakit.database.service.UserDbInterface;
 import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
-import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.ColumnAggregator.Aggregates;
+import org.opendatakit.tables.data.ColumnStats;
+import org.opendatakit.tables.data.FastScrollIndex;
+import org.opendatakit.tables.data.PagedColumnMetadata;
+import org.opendatakit.tables.data.PagedRowSource;
 
+import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -44,6 +49,23 @@ import java.util.Map;
  * A view similar to a spreadsheet. Builds TabularViews for the header and body
  * (builds two sets of these if a column is frozen to the left).
  * <p>
+ * The data TabularViews are only as tall as the screen, and the main (non frozen) ones only as
+ * wide as the space left next to the frozen and status columns. Rather than putting them in
+ * ScrollViews, this view keeps a single logical scroll offset, driven by one OverScroller for
+ * drags and flings on both axes, and each TabularView draws whichever cells fall under that
+ * offset. The panes can't drift apart because there is only one offset, and a scroll step
+ * invalidates each pane it moves once rather than laying anything out again.
+ * <p>
+ * A table many screens tall gets a fast scroll thumb on the right of its rows while it's being
+ * scrolled. Dragging the thumb jumps straight to a row, so only the rows that end up on screen
+ * are loaded, and a bubble next to it shows the value of the sort column there, from a
+ * {@link FastScrollIndex} built in the background.
+ * <p>
+ * Under the rows there can be a footer with one total of each column, like the sum or the number
+ * of distinct values, worked out in the background by a
+ * {@link org.opendatakit.tables.data.ColumnAggregator} and passed in by the controller. Tapping
+ * the footer goes on to the next kind of total.
+ * <p>
  * SS: I made some changes to this to try and make scrolling more efficient. I
  * am leaving some of the seemingly unreferenced and now unnecessary
  * methods/fields in case changes someone has made to this class in parallel
@@ -52,7 +74,8 @@ import java.util.Map;
  * @author sudar.sam@gmail.com
  * @author unknown
  */
-public class SpreadsheetView extends LinearLayout implements TabularView.Controller {
+public class SpreadsheetView extends LinearLayout
+    implements TabularView.Controller, PagedRowSource.Listener, PagedColumnMetadata.Listener {
 
   private static final String TAG = SpreadsheetView.class.getSimpleName();
 
@@ -60,29 +83,62 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
   private static final int MIN_CLICK_DURATION = 0;
   private static final int MAX_DOUBLE_CLICK_TIME = 500;
   private static final int MIN_LONG_CLICK_DURATION = 1000;
+  // How long the fast scroll thumb stays up after the table stops moving
+  private static final long FAST_SCROLL_HIDE_DELAY = 1500;
 
   private final Context context;
   private final Controller controller;
   private final SpreadsheetUserTable table;
   private final int fontSize;
-  private final int completeColWidths[];
+  private int completeColWidths[];
 
-  private final Map<String, ColorRuleGroup> mElementKeyToColorRuleGroup;
+  // The scroll position of the data. All the data tables share the vertical offset, the main
+  // header and data tables share the horizontal one
+  private final OverScroller scroller;
+  private final int touchSlop;
+  private final int minFlingVelocity;
+  private final int maxFlingVelocity;
+  private VelocityTracker velocityTracker = null;
+  private int dataScrollX = 0;
+  private int dataScrollY = 0;
+  private float downX;
+  private float downY;
+  private float lastMotionX;
+  private float lastMotionY;
+  private boolean isBeingDragged = false;
+  // Which axes the current drag moves, decided by which way it first passed the touch slop
+  private boolean isDraggingX = false;
+  private boolean isDraggingY = false;
 
-  private final ColorRuleGroup mStatusColumnRuleGroup;
-  private final ColorRuleGroup mTableColorRuleGroup;
-
-  // Keeping this for now in case someone else needs to work with the code
-  // and relied on this variable.
-  private ScrollView dataStatusScroll;
-  private HorizontalScrollView wrapScroll;
+  private final FastScroller fastScroller;
+  // The column the fast scroll bubble shows, or null to show row numbers
+  private final String fastScrollElementKey;
+  private boolean fastScrollShown = false;
+  private boolean isDraggingThumb = false;
+  // Samples of fastScrollElementKey for the rows that aren't loaded, null until they're built
+  private FastScrollIndex fastScrollIndex = null;
+  private BuildFastScrollIndexTask fastScrollTask = null;
+  private final Rect trackRect = new Rect();
+  private final Runnable hideFastScroll = new Runnable() {
+    @Override
+    public void run() {
+      if (!isDraggingThumb) {
+        fastScrollShown = false;
+        invalidate();
+      }
+    }
+  };
 
-  private ScrollView mainScroll = null;
-  private ScrollView indexScroll;
   private TabularView mainData = null;
   private TabularView mainHeader = null;
   private TabularView indexData;
   private TabularView indexHeader;
+  private TabularView statusData;
+  private TabularView mainFooter;
+  private TabularView indexFooter;
+  private TabularView statusFooter;
+  // The latest column totals, null until the controller has some
+  private Aggregates aggregates = null;
 
   private View.OnTouchListener mainDataCellClickListener;
   private View.OnTouchListener mainHeaderCellClickListener;
@@ -96,54 +152,30 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
   private CellInfo lastLastHighlightedCellId;
 
   /**
-   * Initializes a new spreadsheet view to the specified table. It pulls the app name out of the
-   * context, detects the correct font size, gets the column definitions from the database, and
-   * handles whether the table is indexed or not
+   * Initializes a new spreadsheet view to the specified table. The font size, column widths and
+   * everything else it needs from the database has already been loaded into the table's
+   * {@link SpreadsheetModel}, so this only builds views and is safe to call on the UI thread.
    *
    * @param context    The context the spreadsheet is executing in, saved
    * @param controller a SpreadsheetFragment
    * @param table      the table to be displayed by the spreadsheet
-   * @throws ServicesAvailabilityException if the database is down
    */
-  public SpreadsheetView(Context context, Controller controller, SpreadsheetUserTable table)
-      throws ServicesAvailabilityException {
+  public SpreadsheetView(Context context, Controller controller, SpreadsheetUserTable table) {
     super(context);
     this.context = context;
     this.controller = controller;
     this.table = table;
 
-    // TODO: figure out if we can invalidate a screen region to get it to render the screen
-    // rather than disabling the hardware acceleration on this view. Disable it so that you don't
-    // have to tap the screen to after a scroll action to see the new portion of the spreadsheet.
-    this.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+    ViewConfiguration configuration = ViewConfiguration.get(context);
+    this.scroller = new OverScroller(context);
+    this.touchSlop = configuration.getScaledTouchSlop();
+    this.minFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+    this.maxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
 
-    // We have to initialize the items that will be shared across the TabularView objects.
-    this.mElementKeyToColorRuleGroup = new HashMap<>();
-
-    // if a custom font size is defined in the KeyValueStore, use that if not, use the general
-    // font size defined in preferences
-    String appName = table.getAppName();
-    UserDbInterface dbInterface = Tables.getInstance().getDatabase();
-    DbHandle db = null;
-    try {
-      db = dbInterface.openDatabase(appName);
-      String[] adminColumns = dbInterface.getAdminColumns();
-      for (ColumnDefinition cd : table.getColumnDefinitions().getColumnDefinitions()) {
-        mElementKeyToColorRuleGroup.put(cd.getElementKey(),
-            table.getColumnColorRuleGroup(dbInterface, db, cd.getElementKey(), adminColumns));
-      }
-      mStatusColumnRuleGroup = ColorRuleGroup
-          .getStatusColumnRuleGroup(dbInterface, appName, db, table.getTableId(), adminColumns);
-      mTableColorRuleGroup = ColorRuleGroup
-          .getTableColorRuleGroup(dbInterface, appName, db, table.getTableId(), adminColumns);
-      completeColWidths = getColumnWidths(db);
-      fontSize = TableUtil.get()
-          .getSpreadsheetViewFontSize(getContext(), dbInterface, appName, db, table.getTableId());
-    } finally {
-      if (db != null) {
-        dbInterface.closeDatabase(appName, db);
-      }
-    }
+    this.completeColWidths = table.getModel().getColumnWidths();
+    this.fontSize = table.getModel().getFontSize();
+    this.fastScroller = new FastScroller(context);
+    this.fastScrollElementKey = table.getFastScrollElementKey();
 
     initListeners();
     if (!table.isIndexed()) {
@@ -155,6 +187,19 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     }
     mainData.setOnTouchListener(mainDataCellClickListener);
     mainHeader.setOnTouchListener(mainHeaderCellClickListener);
+    View.OnClickListener footerClickListener = new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        showNextColumnTotal();
+      }
+    };
+    mainFooter.setOnClickListener(footerClickListener);
+    statusFooter.setOnClickListener(footerClickListener);
+    if (indexFooter != null) {
+      indexFooter.setOnClickListener(footerClickListener);
+    }
+    SpreadsheetProps props = table.getProps();
+    setColumnTotalsShown(props != null && props.columnTotalsShown);
   }
 
   /**
@@ -388,49 +433,29 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
 
   /**
    * Internal helper method to build a non indexed table, called by the SpreadsheetView constructor
-   * It constructs some views and sets the onTouch event for the main scroll view
+   * It lays out the status column and the main columns, which get whatever width is left
    */
   private void buildNonIndexedTable() {
     // the false is to indicate that we're building a non-indexed table
-    View wrapper = buildTable(null, false);
-    wrapScroll = new HorizontalScrollView(context);
-    wrapScroll.addView(wrapper, LinearLayout.LayoutParams.WRAP_CONTENT,
-        LinearLayout.LayoutParams.MATCH_PARENT);
-    // this was all here before
-    LinearLayout.LayoutParams wrapLp = new LinearLayout.LayoutParams(
-        LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT);
-    wrapLp.weight = 1;
-    wrapScroll.setHorizontalFadingEdgeEnabled(true); // works
+    View mainWrapper = buildTable(null, false);
 
     ViewGroup completeWrapper = new LinearLayout(context);
     View statusWrapper = buildStatusTable();
     statusWrapper.setHorizontalFadingEdgeEnabled(true);
     statusWrapper.setVerticalFadingEdgeEnabled(true);
     completeWrapper.addView(statusWrapper);
-    completeWrapper.addView(wrapScroll);
+    completeWrapper.addView(mainWrapper, buildMainWrapperLayoutParams());
     completeWrapper.setHorizontalFadingEdgeEnabled(true);
     completeWrapper.setVerticalFadingEdgeEnabled(true);
 
-    addView(completeWrapper, wrapLp);
-    mainScroll.setOnTouchListener(new View.OnTouchListener() {
-      @Override
-      public boolean onTouch(View view, MotionEvent event) {
-        dataStatusScroll.scrollTo(dataStatusScroll.getScrollX(), view.getScrollY());
-        /*
-        if (event.getAction() == MotionEvent.ACTION_UP) {
-          mainScroll.startScrollerTask();
-        }
-        */
-        return false;
-      }
-    });
+    addView(completeWrapper, buildCompleteWrapperLayoutParams());
   }
 
   /**
    * This is also called by the SpreadsheetView constructor. It makes a non indexed table for the
-   * main wrapper, an indexed table for the index wrapper, and a status wrapper. It puts them in a
-   * scroll view and adds it, then it sets the on touch listener to get the x and y values from
-   * the scroll view and lock one of them while the other scrolls
+   * main wrapper, an indexed table for the index wrapper, and a status wrapper. Only the main
+   * wrapper scrolls horizontally, off of dataScrollX; all three scroll vertically together off of
+   * dataScrollY
    */
   private void buildIndexedTable() {
     String indexElementKey = table.getIndexedColumnElementKey();
@@ -438,49 +463,35 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     View mainWrapper = buildTable(indexElementKey, false);
     // Here the true indicates that we are building an indexed table
     View indexWrapper = buildTable(indexElementKey, true);
-    wrapScroll = new HorizontalScrollView(context);
-    wrapScroll.addView(mainWrapper, LinearLayout.LayoutParams.WRAP_CONTENT,
-        LinearLayout.LayoutParams.MATCH_PARENT);
-    wrapScroll.setHorizontalFadingEdgeEnabled(true);
-    ViewGroup wrapper = new LinearLayout(context);
-    wrapper.addView(indexWrapper);
-    wrapper.addView(wrapScroll);
 
     ViewGroup completeWrapper = new LinearLayout(context);
     View statusWrapper = buildStatusTable();
     completeWrapper.addView(statusWrapper);
-    completeWrapper.addView(wrapper);
+    completeWrapper.addView(indexWrapper);
+    completeWrapper.addView(mainWrapper, buildMainWrapperLayoutParams());
 
-    addView(completeWrapper);
+    addView(completeWrapper, buildCompleteWrapperLayoutParams());
+  }
 
-    indexScroll.setOnTouchListener(new View.OnTouchListener() {
-      @Override
-      public boolean onTouch(View view, MotionEvent event) {
-        mainScroll.scrollTo(mainScroll.getScrollX(), view.getScrollY());
-        dataStatusScroll.scrollTo(mainScroll.getScrollX(), view.getScrollY());
-        /*
-        if (event.getAction() == MotionEvent.ACTION_UP) {
-          indexScroll.startScrollerTask();
-          mainScroll.startScrollerTask();
-        }
-        */
-        return false;
-      }
-    });
-    mainScroll.setOnTouchListener(new View.OnTouchListener() {
-      @Override
-      public boolean onTouch(View view, MotionEvent event) {
-        indexScroll.scrollTo(indexScroll.getScrollX(), view.getScrollY());
-        dataStatusScroll.scrollTo(indexScroll.getScrollX(), view.getScrollY());
-        /*
-        if (event.getAction() == MotionEvent.ACTION_UP) {
-          indexScroll.startScrollerTask();
-          mainScroll.startScrollerTask();
-        }
-        */
-        return false;
-      }
-    });
+  /**
+   * @return layout params that give the main columns the width left over by the frozen and status
+   * columns
+   */
+  private static LinearLayout.LayoutParams buildMainWrapperLayoutParams() {
+    LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(0,
+        LinearLayout.LayoutParams.MATCH_PARENT);
+    lp.weight = 1;
+    return lp;
+  }
+
+  /**
+   * @return layout params that make the spreadsheet fill this view
+   */
+  private static LinearLayout.LayoutParams buildCompleteWrapperLayoutParams() {
+    LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(
+        LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT);
+    lp.weight = 1;
+    return lp;
   }
 
   /**
@@ -499,100 +510,416 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     int[] colWidths;
     TabularView dataTable;
     TabularView headerTable;
+    TabularView footerTable;
     if (isIndexed) {
       ColumnDefinition cd = table.getColumnByElementKey(indexElementKey);
       elementKeysToDisplay.add(cd.getElementKey());
-      colWidths = new int[1];
-      colWidths[0] = completeColWidths[table.getColumnIndexOfElementKey(indexElementKey)];
+      colWidths = getIndexColumnWidths(indexElementKey);
       dataTable = TabularView
-          .getIndexDataTable(context, this, table, elementKeysToDisplay, colWidths, fontSize,
-              this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+          .getIndexDataTable(context, this, table, elementKeysToDisplay, colWidths, fontSize);
       headerTable = TabularView
-          .getIndexHeaderTable(context, this, table, elementKeysToDisplay, colWidths, fontSize,
-              this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+          .getIndexHeaderTable(context, this, table, elementKeysToDisplay, colWidths, fontSize);
+      footerTable = TabularView
+          .getIndexFooterTable(context, this, table, elementKeysToDisplay, colWidths, fontSize);
     } else {
-      int width = indexElementKey == null || indexElementKey.isEmpty() ?
-          table.getWidth() :
-          table.getWidth() - 1;
-      colWidths = new int[width];
-      int addIndex = 0;
       for (int i = 0; i < table.getWidth(); i++) {
         ColumnDefinition cd = table.getColumnByIndex(i);
         if (cd.getElementKey().equals(indexElementKey)) {
           continue;
         }
         elementKeysToDisplay.add(cd.getElementKey());
-        colWidths[addIndex] = completeColWidths[i];
-        addIndex++;
       }
+      colWidths = getMainColumnWidths(indexElementKey);
       dataTable = TabularView
-          .getMainDataTable(context, this, table, elementKeysToDisplay, colWidths, fontSize,
-              this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+          .getMainDataTable(context, this, table, elementKeysToDisplay, colWidths, fontSize);
       headerTable = TabularView
-          .getMainHeaderTable(context, this, table, elementKeysToDisplay, colWidths, fontSize,
-              this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+          .getMainHeaderTable(context, this, table, elementKeysToDisplay, colWidths, fontSize);
+      footerTable = TabularView
+          .getMainFooterTable(context, this, table, elementKeysToDisplay, colWidths, fontSize);
     }
 
-    ScrollView dataScroll = new ScrollView(context);
-    dataScroll.addView(dataTable,
-        new ViewGroup.LayoutParams(dataTable.getTableWidth(), dataTable.getTableHeight()));
-    dataScroll.setVerticalFadingEdgeEnabled(true);
-    dataScroll.setHorizontalFadingEdgeEnabled(true);
     if (isIndexed) {
       indexData = dataTable;
       indexHeader = headerTable;
-      indexScroll = dataScroll;
+      indexFooter = footerTable;
     } else {
       mainData = dataTable;
       mainHeader = headerTable;
-      mainScroll = dataScroll;
+      mainFooter = footerTable;
     }
     LinearLayout wrapper = new LinearLayout(context);
     wrapper.setOrientation(LinearLayout.VERTICAL);
-    wrapper.addView(headerTable, headerTable.getTableWidth(), headerTable.getTableHeight());
-    LinearLayout.LayoutParams dataLp = new LinearLayout.LayoutParams(
-        LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT);
+    // the main tables only get the width that is left on screen, not the width of every column
+    int width = isIndexed ? headerTable.getTableWidth() : LinearLayout.LayoutParams.MATCH_PARENT;
+    wrapper.addView(headerTable, width, headerTable.getTableHeight());
+    // the data table only gets the height that is left on screen, not the height of every row
+    LinearLayout.LayoutParams dataLp = new LinearLayout.LayoutParams(width, 0);
     dataLp.weight = 1;
-    wrapper.addView(dataScroll, dataLp);
+    wrapper.addView(dataTable, dataLp);
+    wrapper.addView(footerTable, width, footerTable.getTableHeight());
     return wrapper;
   }
 
+  /**
+   * @param indexElementKey the frozen column
+   * @return the width of the frozen column, as the widths of the index tables
+   */
+  private int[] getIndexColumnWidths(String indexElementKey) {
+    return new int[] { completeColWidths[table.getColumnIndexOfElementKey(indexElementKey)] };
+  }
+
+  /**
+   * @param indexElementKey the frozen column, or null
+   * @return the widths of every column but the frozen one, as the widths of the main tables
+   */
+  private int[] getMainColumnWidths(String indexElementKey) {
+    int width = indexElementKey == null || indexElementKey.isEmpty() ?
+        table.getWidth() :
+        table.getWidth() - 1;
+    int[] colWidths = new int[width];
+    int addIndex = 0;
+    for (int i = 0; i < table.getWidth(); i++) {
+      ColumnDefinition cd = table.getColumnByIndex(i);
+      if (cd.getElementKey().equals(indexElementKey)) {
+        continue;
+      }
+      colWidths[addIndex] = completeColWidths[i];
+      addIndex++;
+    }
+    return colWidths;
+  }
+
+  /**
+   * Changes the widths of the columns in place, without rebuilding any of the views or losing the
+   * scroll position. The new widths are kept in the table's model too, so a spreadsheet rebuilt
+   * from it has them.
+   *
+   * @param widths the width of each column, in the same order as the header
+   */
+  public void setColumnWidths(int[] widths) {
+    completeColWidths = widths;
+    table.setColumnWidths(widths);
+    String indexElementKey = table.isIndexed() ? table.getIndexedColumnElementKey() : null;
+    int[] mainWidths = getMainColumnWidths(indexElementKey);
+    mainData.setColumnWidths(mainWidths);
+    mainHeader.setColumnWidths(mainWidths);
+    mainFooter.setColumnWidths(mainWidths);
+    if (indexData != null) {
+      int[] indexWidths = getIndexColumnWidths(indexElementKey);
+      indexData.setColumnWidths(indexWidths);
+      indexHeader.setColumnWidths(indexWidths);
+      indexFooter.setColumnWidths(indexWidths);
+      // the frozen column is laid out at its exact width
+      indexData.getLayoutParams().width = indexData.getTableWidth();
+      indexHeader.getLayoutParams().width = indexHeader.getTableWidth();
+      indexFooter.getLayoutParams().width = indexFooter.getTableWidth();
+    }
+    // the totals are fitted to the columns too
+    showColumnTotals();
+    // once the main tables have their new width, make sure we aren't scrolled past the last
+    // column
+    post(new Runnable() {
+      @Override
+      public void run() {
+        scrollDataTo(dataScrollX, dataScrollY);
+      }
+    });
+  }
+
   /**
    * Helper method to build a status table, used by both buildIndexedTable and buildNonIndexedTable
    *
-   * @return a view that contains the TabularViews for the StatusDataTable and StatusHeaderTable
-   * in a wrapper
+   * @return a view that contains the TabularViews for the StatusDataTable, StatusHeaderTable and
+   * StatusFooterTable in a wrapper
    */
   private View buildStatusTable() {
     int[] colWidths;
     colWidths = new int[1];
     colWidths[0] = TabularView.DEFAULT_STATUS_COLUMN_WIDTH;
 
-    dataStatusScroll = new ScrollView(context);
     TabularView dataTable = TabularView
-        .getStatusDataTable(context, this, table, colWidths, fontSize,
-            this.mElementKeyToColorRuleGroup, mStatusColumnRuleGroup);
+        .getStatusDataTable(context, this, table, colWidths, fontSize);
+    statusData = dataTable;
     dataTable.setVerticalFadingEdgeEnabled(true);
     dataTable.setVerticalScrollBarEnabled(false);
-    dataStatusScroll.addView(dataTable,
-        new ViewGroup.LayoutParams(dataTable.getTableWidth(), dataTable.getTableHeight()));
-    dataStatusScroll.setVerticalFadingEdgeEnabled(true);
-    dataStatusScroll.setHorizontalFadingEdgeEnabled(true);
     TabularView headerTable = TabularView
-        .getStatusHeaderTable(context, this, table, colWidths, fontSize,
-            this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+        .getStatusHeaderTable(context, this, table, colWidths, fontSize);
     LinearLayout wrapper = new LinearLayout(context);
     wrapper.setOrientation(LinearLayout.VERTICAL);
     wrapper.addView(headerTable, headerTable.getTableWidth(), headerTable.getTableHeight());
-    LinearLayout.LayoutParams dataLp = new LinearLayout.LayoutParams(
-        LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT);
+    LinearLayout.LayoutParams dataLp = new LinearLayout.LayoutParams(dataTable.getTableWidth(),
+        0);
     dataLp.weight = 1;
-    wrapper.addView(dataStatusScroll, dataLp);
+    wrapper.addView(dataTable, dataLp);
+    statusFooter = TabularView.getStatusFooterTable(context, this, table, colWidths, fontSize);
+    wrapper.addView(statusFooter, statusFooter.getTableWidth(), statusFooter.getTableHeight());
     wrapper.setVerticalFadingEdgeEnabled(true);
     wrapper.setHorizontalFadingEdgeEnabled(true);
     return wrapper;
   }
 
+  /**
+   * Starts listening for rows and columns being paged in once we're on screen
+   */
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    table.addRowSourceListener(this);
+    table.addColumnMetadataListener(this);
+  }
+
+  /**
+   * Stops listening for rows and columns being paged in, so that the row source doesn't keep us
+   * alive
+   */
+  @Override
+  protected void onDetachedFromWindow() {
+    table.removeRowSourceListener(this);
+    table.removeColumnMetadataListener(this);
+    removeCallbacks(hideFastScroll);
+    cancelFastScrollIndex();
+    super.onDetachedFromWindow();
+  }
+
+  /**
+   * Called on the UI thread when a block of rows has been loaded in the background. Redraws the
+   * data tables so that any placeholder rows get filled in.
+   *
+   * @param firstRow the index of the first row in the block
+   * @param numRows  the number of rows in the block
+   */
+  @Override
+  public void onBlockLoaded(int firstRow, int numRows) {
+    mainData.invalidateCells(firstRow, numRows);
+    if (indexData != null) {
+      indexData.invalidateCells(firstRow, numRows);
+    }
+    if (statusData != null) {
+      statusData.invalidate();
+    }
+  }
+
+  /**
+   * Called on the UI thread when rows were added or moved in place, like a row survey added being
+   * sorted into its place. Resizes the data tables and redraws all of them, since any row may have
+   * moved.
+   */
+  @Override
+  public void onRowsMoved() {
+    onRowCountChanged();
+    mainData.invalidateCells();
+    if (indexData != null) {
+      indexData.invalidateCells();
+    }
+  }
+
+  /**
+   * Called on the UI thread when the names and color rules of some more columns have been loaded
+   * in the background. Fits the header names again and redraws the data, whose colors may have
+   * changed.
+   */
+  @Override
+  public void onColumnsLoaded() {
+    mainHeader.refreshHeaders();
+    if (indexHeader != null) {
+      indexHeader.refreshHeaders();
+    }
+    mainData.invalidateCells();
+    if (indexData != null) {
+      indexData.invalidateCells();
+    }
+    if (statusData != null) {
+      statusData.invalidate();
+    }
+  }
+
+  /**
+   * Called after rows were added to or taken out of the table in place, like a group being
+   * expanded or collapsed. Resizes the data tables and keeps the scroll offset, clamped to the
+   * new height.
+   */
+  public void onRowCountChanged() {
+    mainData.onRowCountChanged();
+    if (indexData != null) {
+      indexData.onRowCountChanged();
+    }
+    if (statusData != null) {
+      statusData.onRowCountChanged();
+    }
+    // the samples were taken by row, which have moved
+    cancelFastScrollIndex();
+    scrollDataTo(dataScrollX, dataScrollY);
+  }
+
+  /**
+   * Shows or hides the column totals footer. The data tables take up the room it leaves.
+   *
+   * @param shown whether to show the footer
+   */
+  public void setColumnTotalsShown(boolean shown) {
+    int visibility = shown ? View.VISIBLE : View.GONE;
+    mainFooter.setVisibility(visibility);
+    statusFooter.setVisibility(visibility);
+    if (indexFooter != null) {
+      indexFooter.setVisibility(visibility);
+    }
+    // the data tables just got shorter or taller, so make sure we aren't past the last row
+    post(new Runnable() {
+      @Override
+      public void run() {
+        scrollDataTo(dataScrollX, dataScrollY);
+      }
+    });
+  }
+
+  /**
+   * Shows new column totals in the footer. They're italic until every row has been totalled up.
+   *
+   * @param aggregates the totals, from the controller's ColumnAggregator
+   */
+  public void setAggregates(Aggregates aggregates) {
+    this.aggregates = aggregates;
+    showColumnTotals();
+  }
+
+  /**
+   * Moves the footer on to the next kind of total, and remembers it in the props
+   */
+  private void showNextColumnTotal() {
+    SpreadsheetProps props = table.getProps();
+    if (props == null) {
+      return;
+    }
+    props.columnTotal = (props.columnTotal + 1) % ColumnTotal.values().length;
+    showColumnTotals();
+  }
+
+  /**
+   * Formats the kind of total picked in the props for each column and puts them in the footers
+   */
+  private void showColumnTotals() {
+    if (aggregates == null) {
+      return;
+    }
+    SpreadsheetProps props = table.getProps();
+    ColumnTotal[] totals = ColumnTotal.values();
+    ColumnTotal total = props == null ? ColumnTotal.COUNT :
+        totals[Math.max(0, Math.min(props.columnTotal, totals.length - 1))];
+    NumberFormat numberFormat = NumberFormat.getInstance();
+    numberFormat.setMaximumFractionDigits(4);
+    ColumnStats stats = aggregates.getStats();
+    Map<String, String> text = new HashMap<>();
+    for (int i = 0; i < table.getWidth(); i++) {
+      String elementKey = table.getColumnByIndex(i).getElementKey();
+      int column = aggregates.indexOf(elementKey);
+      if (column == -1) {
+        continue;
+      }
+      String value = null;
+      int format = 0;
+      switch (total) {
+      case COUNT:
+        value = numberFormat.format(stats.getCount(column));
+        format = R.string.column_total_count;
+        break;
+      case SUM:
+        value = stats.hasNumbers(column) ? numberFormat.format(stats.getSum(column)) : null;
+        format = R.string.column_total_sum;
+        break;
+      case MEAN:
+        value = stats.hasNumbers(column) ? numberFormat.format(stats.getMean(column)) : null;
+        format = R.string.column_total_mean;
+        break;
+      case MIN:
+        value = stats.getMin(column);
+        format = R.string.column_total_min;
+        break;
+      case MAX:
+        value = stats.getMax(column);
+        format = R.string.column_total_max;
+        break;
+      case DISTINCT:
+        value = numberFormat.format(aggregates.getDistinct(column));
+        format = aggregates.isDistinctExact(column) ?
+            R.string.column_total_distinct :
+            R.string.column_total_distinct_estimate;
+        break;
+      }
+      if (value != null) {
+        text.put(elementKey, context.getString(format, value));
+      }
+    }
+    boolean partial = !aggregates.isFinished();
+    mainFooter.setFooterText(text, partial);
+    if (indexFooter != null) {
+      indexFooter.setFooterText(text, partial);
+    }
+  }
+
+  /**
+   * Starts the view scrolled to where an earlier view of the same table was, like after its rows
+   * were reloaded. Call it before the view is laid out, the offset is clamped to the data once it
+   * is.
+   *
+   * @param x the horizontal scroll offset
+   * @param y the vertical scroll offset
+   */
+  public void setInitialScroll(int x, int y) {
+    dataScrollX = Math.max(0, x);
+    dataScrollY = Math.max(0, y);
+  }
+
+  /**
+   * Scrolls so that a row is at the top of the screen, or as close to it as the table allows.
+   * Only the rows that end up on screen get loaded, not the ones in between.
+   *
+   * @param rowIndex the row, as displayed
+   */
+  public void scrollToRow(int rowIndex) {
+    scroller.forceFinished(true);
+    rowIndex = Math.max(0, Math.min(rowIndex, table.getNumberOfRows() - 1));
+    scrollDataTo(dataScrollX, mainData.getRowTop(rowIndex));
+  }
+
+  /**
+   * Highlights a cell and scrolls it into view if it isn't already on screen, for find. A row
+   * that has to be scrolled to is put in the middle of the screen, so the rows around it show
+   * too.
+   *
+   * @param rowIndex   the row of the cell, as displayed
+   * @param elementKey the column of the cell
+   */
+  public void showCell(int rowIndex, String elementKey) {
+    boolean frozen = indexData != null && elementKey.equals(table.getIndexedColumnElementKey());
+    TabularView view = frozen ? indexData : mainData;
+    CellInfo cell = view.findCell(elementKey, rowIndex);
+    if (cell == null) {
+      return;
+    }
+    scroller.forceFinished(true);
+    mainData.highlight(frozen ? null : cell);
+    if (indexData != null) {
+      indexData.highlight(frozen ? cell : null);
+    }
+    int x = dataScrollX;
+    int y = dataScrollY;
+    int top = view.getRowTop(rowIndex);
+    int rowHeight = view.getRowHeight();
+    if (top < y || top + rowHeight > y + mainData.getHeight()) {
+      y = top - (mainData.getHeight() - rowHeight) / 2;
+    }
+    if (!frozen) {
+      int left = mainData.getColumnLeft(cell.colPos);
+      int right = left + mainData.getColumnWidth(cell.colPos);
+      if (left < x || right - left > mainData.getWidth()) {
+        x = left;
+      } else if (right > x + mainData.getWidth()) {
+        x = right - mainData.getWidth();
+      }
+    }
+    scrollDataTo(x, y);
+  }
+
   /**
    * Gets the x translation of the scroll. This is in particular how far you
    * have scrolled to look at columns that do not begin onscreen.
@@ -601,9 +928,7 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
    */
   @Override
   public int getMainScrollX() {
-    // this is getting the correct x
-    return wrapScroll.getScrollX();
-    // return from wrapScroll, because getMainScrollY uses mainScroll
+    return dataScrollX;
   }
 
   /**
@@ -615,9 +940,320 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
    */
   @Override
   public int getMainScrollY() {
-    // this is getting the correct y
-    return mainScroll.getScrollY();
-    // return from mainScroll, because getMainScrollX uses wrapScroll
+    return dataScrollY;
+  }
+
+  /**
+   * The furthest down the data can be scrolled, so that the last row sits at the bottom of the
+   * screen
+   *
+   * @return the maximum value of the vertical scroll offset
+   */
+  private int getMaxScrollY() {
+    return Math.max(0, mainData.getTableHeight() - mainData.getHeight());
+  }
+
+  /**
+   * The furthest right the main columns can be scrolled, so that the last column sits at the
+   * right edge of the screen
+   *
+   * @return the maximum value of the horizontal scroll offset
+   */
+  private int getMaxScrollX() {
+    return Math.max(0, mainData.getTableWidth() - mainData.getWidth());
+  }
+
+  /**
+   * Moves the data to the given offset (clamped to the data) and redraws the tables that moved,
+   * each of them once
+   *
+   * @param x the new horizontal scroll offset
+   * @param y the new vertical scroll offset
+   */
+  private void scrollDataTo(int x, int y) {
+    x = Math.max(0, Math.min(x, getMaxScrollX()));
+    y = Math.max(0, Math.min(y, getMaxScrollY()));
+    boolean movedX = x != dataScrollX;
+    boolean movedY = y != dataScrollY;
+    if (!movedX && !movedY) {
+      return;
+    }
+    dataScrollX = x;
+    dataScrollY = y;
+    mainData.invalidate();
+    if (movedX) {
+      mainHeader.invalidate();
+      mainFooter.invalidate();
+    }
+    if (movedY) {
+      if (indexData != null) {
+        indexData.invalidate();
+      }
+      if (statusData != null) {
+        statusData.invalidate();
+      }
+      showFastScroll();
+    }
+  }
+
+  /**
+   * Puts the fast scroll thumb up, if the table is tall enough for it, and (re)starts the timer
+   * that takes it down again. Starts sampling the rows for the bubble the first time.
+   */
+  private void showFastScroll() {
+    if (!fastScroller.isNeeded(mainData.getTableHeight())) {
+      return;
+    }
+    fastScrollShown = true;
+    removeCallbacks(hideFastScroll);
+    if (!isDraggingThumb) {
+      postDelayed(hideFastScroll, FAST_SCROLL_HIDE_DELAY);
+    }
+    PagedRowSource rowSource = table.getModel().getRowSource();
+    if (fastScrollIndex == null && fastScrollTask == null && fastScrollElementKey != null
+        && rowSource != null) {
+      fastScrollTask = new BuildFastScrollIndexTask(this, rowSource, fastScrollElementKey);
+      fastScrollTask.execute();
+    }
+    invalidate();
+  }
+
+  /**
+   * Throws away the fast scroll samples, stopping them from being built if they still are
+   */
+  private void cancelFastScrollIndex() {
+    if (fastScrollTask != null) {
+      fastScrollTask.cancel(false);
+      fastScrollTask = null;
+    }
+    fastScrollIndex = null;
+  }
+
+  /**
+   * Called on the UI thread when the fast scroll samples have been built
+   *
+   * @param task  the task that built them, ignored if it has been replaced or cancelled since
+   * @param index the samples, or null if they couldn't be built
+   */
+  private void onFastScrollIndexBuilt(BuildFastScrollIndexTask task, FastScrollIndex index) {
+    if (task != fastScrollTask) {
+      return;
+    }
+    fastScrollTask = null;
+    fastScrollIndex = index;
+    if (isDraggingThumb) {
+      invalidate();
+    }
+  }
+
+  /**
+   * Gets what the fast scroll bubble says about the row at the top of the screen: the value of
+   * the sort column if the row is loaded, otherwise the closest sample of it, or the row number
+   * if the rows aren't sorted
+   *
+   * @return the text for the bubble, or null for no bubble
+   */
+  private String getFastScrollLabel() {
+    int row = Math.max(0, Math.min(mainData.getRowAt(dataScrollY), table.getNumberOfRows() - 1));
+    if (fastScrollElementKey == null) {
+      return context.getString(R.string.fast_scroll_row, row + 1);
+    }
+    // the rows may be reordered in the background, so look the row up in one order
+    PagedRowSource.RowOrder order = table.getRowOrder();
+    PagedRowSource.RowBlock block = table.getLoadedRowBlock(order, row);
+    if (block != null) {
+      return block.getDisplayText(table.getDisplayColumnIndex(fastScrollElementKey),
+          order.toQueryRow(row));
+    }
+    return fastScrollIndex == null ? null : fastScrollIndex.getLabel(row);
+  }
+
+  /**
+   * Keeps the fast scroll track lined up with the main data table
+   */
+  @Override
+  protected void onLayout(boolean changed, int l, int t, int r, int b) {
+    super.onLayout(changed, l, t, r, b);
+    trackRect.set(0, 0, mainData.getWidth(), mainData.getHeight());
+    offsetDescendantRectToMyCoords(mainData, trackRect);
+    fastScroller.setTrack(trackRect.left, trackRect.top, trackRect.right, trackRect.bottom);
+  }
+
+  /**
+   * Draws the fast scroll thumb over the tables, when it's up
+   */
+  @Override
+  protected void dispatchDraw(Canvas canvas) {
+    super.dispatchDraw(canvas);
+    if (fastScrollShown) {
+      fastScroller.draw(canvas, dataScrollY, getMaxScrollY(), isDraggingThumb,
+          isDraggingThumb ? getFastScrollLabel() : null);
+    }
+  }
+
+  /**
+   * Re-clamps the scroll offset once the data tables have been laid out at their new size, so
+   * that a rotation doesn't leave empty space below the last row or right of the last column
+   */
+  @Override
+  protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    super.onSizeChanged(w, h, oldw, oldh);
+    post(new Runnable() {
+      @Override
+      public void run() {
+        scrollDataTo(dataScrollX, dataScrollY);
+      }
+    });
+  }
+
+  /**
+   * Keeps a fling going, called as part of drawing this view
+   */
+  @Override
+  public void computeScroll() {
+    if (scroller.computeScrollOffset()) {
+      scrollDataTo(scroller.getCurrX(), scroller.getCurrY());
+      if (!scroller.isFinished()) {
+        ViewCompat.postInvalidateOnAnimation(this);
+      }
+    }
+  }
+
+  /**
+   * Watches touches going to the TabularViews and takes them over once they turn into a drag in
+   * either direction. Taps and long taps are left to the children.
+   *
+   * @param event the touch event
+   * @return whether we're taking over the gesture
+   */
+  @Override
+  public boolean onInterceptTouchEvent(MotionEvent event) {
+    trackVelocity(event);
+    switch (event.getActionMasked()) {
+    case MotionEvent.ACTION_DOWN:
+      if (fastScrollShown && fastScroller
+          .isOnThumb(event.getX(), event.getY(), dataScrollY, getMaxScrollY())) {
+        // the thumb takes the whole gesture, nothing under it sees the touch
+        scroller.forceFinished(true);
+        isDraggingThumb = true;
+        fastScroller.startDrag(event.getY(), dataScrollY, getMaxScrollY());
+        removeCallbacks(hideFastScroll);
+        getParent().requestDisallowInterceptTouchEvent(true);
+        invalidate();
+        return true;
+      }
+      downX = event.getX();
+      downY = event.getY();
+      lastMotionX = downX;
+      lastMotionY = downY;
+      // a touch during a fling stops the fling and is treated as the start of a new drag, along
+      // the same axes
+      isBeingDragged = !scroller.isFinished();
+      scroller.forceFinished(true);
+      break;
+    case MotionEvent.ACTION_MOVE:
+      if (!isBeingDragged) {
+        float dx = Math.abs(event.getX() - downX);
+        float dy = Math.abs(event.getY() - downY);
+        if (dx > touchSlop || dy > touchSlop) {
+          isBeingDragged = true;
+          isDraggingX = dx > touchSlop;
+          isDraggingY = dy > touchSlop;
+          lastMotionX = event.getX();
+          lastMotionY = event.getY();
+          getParent().requestDisallowInterceptTouchEvent(true);
+        }
+      }
+      break;
+    case MotionEvent.ACTION_UP:
+    case MotionEvent.ACTION_CANCEL:
+      isBeingDragged = false;
+      recycleVelocityTracker();
+      break;
+    }
+    return isBeingDragged;
+  }
+
+  /**
+   * Scrolls the data while the user drags and starts a fling when they let go. A drag only moves
+   * the data along the axes it started out along, so that scrolling down a long column doesn't
+   * wander sideways.
+   *
+   * @param event the touch event
+   * @return true, we handle the whole gesture once we've taken it over
+   */
+  @Override
+  public boolean onTouchEvent(MotionEvent event) {
+    if (isDraggingThumb) {
+      onThumbTouchEvent(event);
+      return true;
+    }
+    trackVelocity(event);
+    switch (event.getActionMasked()) {
+    case MotionEvent.ACTION_DOWN:
+      lastMotionX = event.getX();
+      lastMotionY = event.getY();
+      scroller.forceFinished(true);
+      break;
+    case MotionEvent.ACTION_MOVE:
+      int deltaX = isDraggingX ? (int) (lastMotionX - event.getX()) : 0;
+      int deltaY = isDraggingY ? (int) (lastMotionY - event.getY()) : 0;
+      lastMotionX = event.getX();
+      lastMotionY = event.getY();
+      scrollDataTo(dataScrollX + deltaX, dataScrollY + deltaY);
+      break;
+    case MotionEvent.ACTION_UP:
+      velocityTracker.computeCurrentVelocity(1000, maxFlingVelocity);
+      int velocityX = isDraggingX ? (int) velocityTracker.getXVelocity() : 0;
+      int velocityY = isDraggingY ? (int) velocityTracker.getYVelocity() : 0;
+      if (Math.abs(velocityX) > minFlingVelocity || Math.abs(velocityY) > minFlingVelocity) {
+        scroller.fling(dataScrollX, dataScrollY, -velocityX, -velocityY, 0, getMaxScrollX(), 0,
+            getMaxScrollY());
+        ViewCompat.postInvalidateOnAnimation(this);
+      }
+      isBeingDragged = false;
+      recycleVelocityTracker();
+      break;
+    case MotionEvent.ACTION_CANCEL:
+      isBeingDragged = false;
+      recycleVelocityTracker();
+      break;
+    }
+    return true;
+  }
+
+  /**
+   * Moves the data with the fast scroll thumb while it's dragged
+   *
+   * @param event the touch event
+   */
+  private void onThumbTouchEvent(MotionEvent event) {
+    switch (event.getActionMasked()) {
+    case MotionEvent.ACTION_MOVE:
+      scrollDataTo(dataScrollX, fastScroller.getScrollYForDrag(event.getY(), getMaxScrollY()));
+      break;
+    case MotionEvent.ACTION_UP:
+    case MotionEvent.ACTION_CANCEL:
+      isDraggingThumb = false;
+      recycleVelocityTracker();
+      postDelayed(hideFastScroll, FAST_SCROLL_HIDE_DELAY);
+      invalidate();
+      break;
+    }
+  }
+
+  private void trackVelocity(MotionEvent event) {
+    if (velocityTracker == null) {
+      velocityTracker = VelocityTracker.obtain();
+    }
+    velocityTracker.addMovement(event);
+  }
+
+  private void recycleVelocityTracker() {
+    if (velocityTracker != null) {
+      velocityTracker.recycle();
+      velocityTracker = null;
+    }
   }
 
   /**
@@ -657,34 +1293,10 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
   }
 
   /**
-   * Get the column widths for the table. The values in the array match the
-   * order specified in the column order.
-   * <p>
-   * NB: If getting this from outside of spreadsheet view, you should really
-   * consider if you need to be accessing column widths.
-   *
-   * @param db The database to use
-   * @return an array of the widths for each column, taken from the database
-   * @throws ServicesAvailabilityException if the database is down
-   */
-  public int[] getColumnWidths(DbHandle db) throws ServicesAvailabilityException {
-    // So what we want to do is go through and get the column widths for each
-    // column. A problem here is that there is no caching, and if you have a
-    // lot of columns you're really working the gut of the database.
-    int numberOfDisplayColumns = table.getNumberOfDisplayColumns();
-    int[] columnWidths = new int[numberOfDisplayColumns];
-    String appName = table.getAppName();
-
-    Map<String, Integer> colWidths = ColumnUtil.get()
-        .getColumnWidths(Tables.getInstance().getDatabase(), appName, db,
-            table.getTableId(), table.getColumnDefinitions());
-
-    for (int i = 0; i < numberOfDisplayColumns; i++) {
-      ColumnDefinition cd = table.getColumnByIndex(i);
-      String elementKey = cd.getElementKey();
-      columnWidths[i] = colWidths.get(elementKey);
-    }
-    return columnWidths;
+   * The kinds of total the footer can show, in the order tapping it goes through them
+   */
+  enum ColumnTotal {
+    COUNT, SUM, MEAN, MIN, MAX, DISTINCT
   }
 
   /**
@@ -802,4 +1414,38 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
 
     protected abstract void takeDoubleClickAction(int rawX, int rawY);
   }
+
+  /**
+   * Samples the fast scroll column off the UI thread, since that may query a block at each
+   * sample
+   */
+  private static class BuildFastScrollIndexTask extends AsyncTask<Void, Void, FastScrollIndex> {
+    private final SpreadsheetView view;
+    private final PagedRowSource rowSource;
+    private final String elementKey;
+
+    BuildFastScrollIndexTask(SpreadsheetView view, PagedRowSource rowSource, String elementKey) {
+      this.view = view;
+      this.rowSource = rowSource;
+      this.elementKey = elementKey;
+    }
+
+    @Override
+    protected FastScrollIndex doInBackground(Void... params) {
+      try {
+        return FastScrollIndex.build(rowSource, elementKey);
+      } catch (ServicesAvailabilityException e) {
+        WebLogger.getLogger(rowSource.getAppName()).printStackTrace(e);
+        WebLogger.getLogger(rowSource.getAppName())
+            .e(TAG, "Error while sampling rows for fast scroll: " + e);
+        return null;
+      }
+    }
+
+    @Override
+    protected void onPostExecute(FastScrollIndex index) {
+      // not called if the task was cancelled
+      view.onFastScrollIndexBuilt(this, index);
+    }
+  }
 }
@@ -19,35 +19,52 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Typeface;
-import android.util.DisplayMetrics;
 import android.view.ContextMenu;
 import android.view.View;
+import androidx.annotation.VisibleForTesting;
 import org.opendatakit.activities.IAppAwareActivity;
-import org.opendatakit.data.ColorGuide;
-import org.opendatakit.data.ColorGuideGroup;
-import org.opendatakit.data.ColorRuleGroup;
-import org.opendatakit.database.data.ColumnDefinition;
 import org.opendatakit.database.data.Row;
-import org.opendatakit.database.data.TypedRow;
 import org.opendatakit.logging.WebLogger;
-import org.opendatakit.provider.DataTableColumns;
+import org.opendatakit.tables.data.PagedRowSource.RowBlock;
+import org.opendatakit.tables.data.PagedRowSource.RowOrder;
+import org.opendatakit.tables.data.RowColorRules.BlockColors;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.WeakHashMap;
 
 /**
  * A view that draws a single table. A single table is essentially a grid of of
  * cells filled with text. For instance a Spreadsheet might consist of a header
  * (labels for the columns) and a table of data. Each of these would be an
  * individual TabularView.
+ * <p>
+ * Data TabularViews are only as tall as the space they are given on screen, not as tall as all
+ * of their rows. They draw the rows under the vertical scroll offset kept by their
+ * {@link Controller}, so the cost of a frame doesn't depend on the number of rows.
+ * <p>
+ * Once a block of rows has been drawn, drawing it again doesn't allocate anything. The text of
+ * each cell is fitted to its column (see {@link CellRenderer}) the first time the block is drawn,
+ * the colors of each cell come with the block from the row source, and the header cells are
+ * worked out when the view is built.
+ * <p>
+ * The main and frozen data tables go one step further and keep what they've drawn, in tiles
+ * drawn on a background thread (see {@link TileCache}), so that a frame of a fling is mostly
+ * copying bitmaps. A tile is only drawn again when rows under it are loaded or recolored. The
+ * highlighted cell is drawn over the tiles, so moving it costs nothing. The tiles are drawn from
+ * a {@link Snapshot} of the layout and the order of the rows, so the UI thread can lay the table
+ * out again while a tile is being drawn.
+ * Changing the sort, group by or frozen column rebuilds the views, so that is all that's needed
+ * to keep the headers in step with the props.
+ * <p>
+ * Footer TabularViews are drawn like headers, one row of fixed text, which is whatever totals
+ * of each column the spreadsheet has given them (see {@link #setFooterText(Map, boolean)}).
  *
  * @author sudar.sam@gmail.com
  */
-final class TabularView extends View {
+final class TabularView extends View implements TileCache.Painter<TabularView.Snapshot> {
 
   public static final String TAG = TabularView.class.getSimpleName();
   public static final int DEFAULT_STATUS_COLUMN_WIDTH = 10;
@@ -56,27 +73,29 @@ final class TabularView extends View {
    */
   private static final String DEFAULT_STATUS_COLUMN_VALUE = " ";
   // These are the default colors for the various standard table types.
-  private static final int DEFAULT_FOREGROUND_COLOR = Color.BLACK;
-  private static final int DEFAULT_DATA_BACKGROUND_COLOR = Color.WHITE;
+  static final int DEFAULT_FOREGROUND_COLOR = Color.BLACK;
+  static final int DEFAULT_DATA_BACKGROUND_COLOR = Color.WHITE;
   private static final int DEFAULT_BORDER_COLOR = Color.GRAY;
   private static final int DEFAULT_HEADER_BACKGROUND_COLOR = Color.CYAN;
+  private static final int DEFAULT_FOOTER_BACKGROUND_COLOR = Color.rgb(0xe0, 0xf7, 0xfa); // pale
   private static final int GROUP_BY_COLOR = Color.rgb(0xaa, 0xc3, 0x6c); // light green
   private static final int SORT_COLOR = Color.rgb(0xff, 0x80, 0x80); // pink-ish
   private static final int FROZEN_COLOR = Color.rgb(0xcc, 0xcc, 0xcc); // a lighter grey
   private static final int NULL_COLOR = Color.rgb(127, 127, 127); // grey
   private static final int ROW_HEIGHT_PADDING = 14;
-  private static final int HORIZONTAL_CELL_PADDING = 5;
-  private static final int VERTICAL_CELL_PADDING = 9;
   private static final int BORDER_WIDTH = 1;
   //private static final String NULL_DATA_TEXT = "(NULL)";
   private static final String NULL_DATA_TEXT = "null";
+  // Drawn in the cells of rows that are still being loaded in the background
+  private static final String LOADING_DATA_TEXT = "";
   private final Controller controller;
   private final int defaultBackgroundColor;
   private final int defaultForegroundColor;
-  private final int[] columnWidths;
+  private int[] columnWidths;
   private final TableLayoutType type;
+  private final int fontSize;
   private final int rowHeight;
-  private final Paint textPaint;
+  private final CellRenderer renderer;
   private final Paint bgPaint;
   private final Paint borderPaint;
   private final Paint highlightPaint;
@@ -90,13 +109,51 @@ final class TabularView extends View {
    * displaying. It is a (not strict) subset.
    */
   private final List<String> mElementKeys;
-  // trying to get the dimensions of the screen
-  private final DisplayMetrics metrics;
+  /**
+   * For each of mElementKeys, where its preformatted text lives in a loaded row block
+   */
+  private final int[] mDisplayColumnIndexes;
+  /**
+   * For each of mElementKeys, its position in the column order of the whole spreadsheet, which
+   * is what the columns of a wide table are paged in by. -1 for one that isn't in it.
+   */
+  private final int[] mSpreadsheetColumns;
+  /**
+   * The fitted text, colors and typeface of each header cell, resolved against the props when
+   * the view is built. Only used by header tables.
+   */
+  private String[] mHeaderText;
+  private int[] mHeaderForegrounds;
+  private int[] mHeaderBackgrounds;
+  private boolean[] mHeaderItalic;
+  /**
+   * The text of each footer cell, by element key, and whether it's only worked out over some of
+   * the rows so far. Only used by footer tables.
+   */
+  private Map<String, String> mFooterText = null;
+  private boolean mFooterPartial = false;
+  /**
+   * NULL_DATA_TEXT fitted to each column
+   */
+  private String[] mNullText;
   private int totalHeight;
   private int totalWidth;
   private CellInfo highlightedCellInfo;
-  private Map<String, ColorGuideGroup> mColumnColorGuideGroup = null;
-  private ColorGuideGroup mRowColorGuideGroup = null;
+  /**
+   * The fitted text of each block of rows, computed the first time the block is drawn. Weakly
+   * keyed so that it goes away when the row source evicts the block. Replaced rather than
+   * cleared when the columns change width, since a tile may still be drawing from the old one.
+   */
+  private Map<RowBlock, BlockCells> mBlockCells = new WeakHashMap<>();
+  /**
+   * The last snapshot handed out, kept until the layout or the order of the rows changes
+   */
+  private Snapshot mSnapshot = null;
+  /**
+   * What the data has been drawn into, while this is on screen. Null for headers and the status
+   * column, which are cheap enough to draw directly.
+   */
+  private TileCache<Snapshot> mTiles = null;
   // this should hold the x location of the column. so xs[12] should hold the
   // x displacement of the left side of that column.
   private int[] xs;
@@ -133,17 +190,21 @@ final class TabularView extends View {
    * @param columnWidths
    * @param type
    * @param fontSize
-   * @param elementKeyToColorRuleGroup mapping of element key to their corresponding
-   *                                   {@link ColorRuleGroup} objects.
    */
   private TabularView(Context context, Controller controller, SpreadsheetUserTable table,
       List<String> elementKeys, int defaultForegroundColor, int defaultBackgroundColor,
-      int borderColor, int[] columnWidths, TableLayoutType type, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      int borderColor, int[] columnWidths, TableLayoutType type, int fontSize) {
     super(context);
     this.controller = controller;
     this.mTable = table;
     this.mElementKeys = elementKeys;
+    this.mDisplayColumnIndexes = new int[elementKeys.size()];
+    this.mSpreadsheetColumns = new int[elementKeys.size()];
+    for (int i = 0; i < elementKeys.size(); ++i) {
+      mDisplayColumnIndexes[i] = table.getDisplayColumnIndex(elementKeys.get(i));
+      Integer position = table.getColumnIndexOfElementKey(elementKeys.get(i));
+      mSpreadsheetColumns[i] = position == null ? -1 : position;
+    }
     this.defaultBackgroundColor = defaultBackgroundColor;
     this.defaultForegroundColor = defaultForegroundColor;
     this.columnWidths = columnWidths;
@@ -152,45 +213,20 @@ final class TabularView extends View {
         || this.type == TableLayoutType.STATUS_DATA) {
       this.mNumberOfRows = this.mTable.getNumberOfRows();
     } else if (this.type == TableLayoutType.INDEX_HEADER || this.type == TableLayoutType.MAIN_HEADER
-        || this.type == TableLayoutType.STATUS_HEADER) {
+        || this.type == TableLayoutType.STATUS_HEADER || isFooterTable()) {
       this.mNumberOfRows = 1;
     } else {
       WebLogger.getLogger(this.mTable.getAppName())
           .e(TAG, "Unrecognized TableType in constructor: " + this.type.name());
       this.mNumberOfRows = this.mTable.getNumberOfRows();
     }
-    /*
-    The map of element key to {@link ColorRuleGroup} objects for the columns of
-    the table. This will be responsible for coloring the cells of a column.
-   */
-
-    /*
-    The {@link ColorRuleGroup} object for the table. This will be responsible
-    for things like determining row color.
-   */
-
-    // Initialized the ColorGuideGroups
-    if (mTable != null) {
-      this.mRowColorGuideGroup = new ColorGuideGroup(rowColorRuleGroup, mTable.getUserTable());
-
-      for (Map.Entry<String, ColorRuleGroup> stringColorRuleGroupEntry : elementKeyToColorRuleGroup
-          .entrySet()) {
-        ColorRuleGroup crg = stringColorRuleGroupEntry.getValue();
-        if (crg != null) {
-          if (this.mColumnColorGuideGroup == null) {
-            this.mColumnColorGuideGroup = new TreeMap<>();
-          }
-          this.mColumnColorGuideGroup.put(stringColorRuleGroupEntry.getKey(),
-              new ColorGuideGroup(crg, mTable.getUserTable()));
-        }
-      }
-    }
+    // The colors of the cells are worked out by the row source, a block of rows at a time, as
+    // the rows are paged in
 
+    this.fontSize = fontSize;
     rowHeight = fontSize + ROW_HEIGHT_PADDING;
     highlightedCellInfo = null;
-    textPaint = new Paint();
-    textPaint.setAntiAlias(true);
-    textPaint.setTextSize(fontSize);
+    renderer = new CellRenderer(fontSize, rowHeight);
     bgPaint = new Paint();
     bgPaint.setColor(defaultBackgroundColor);
     borderPaint = new Paint();
@@ -199,17 +235,47 @@ final class TabularView extends View {
     highlightPaint.setColor(Color.CYAN);
     highlightPaint.setStrokeWidth(3);
     totalHeight = (rowHeight + BORDER_WIDTH) * this.mNumberOfRows + BORDER_WIDTH;
-    totalWidth = BORDER_WIDTH;
-    for (int cw : columnWidths) {
-      totalWidth += cw + BORDER_WIDTH;
-    }
     setVerticalScrollBarEnabled(true);
     setVerticalFadingEdgeEnabled(true);
     setHorizontalFadingEdgeEnabled(true);
-    setMinimumHeight(totalHeight);
-    setMinimumWidth(totalWidth);
+    if (!isDataTable()) {
+      // data tables get whatever height is left on screen and scroll their content within it
+      setMinimumHeight(totalHeight);
+    }
     setClickable(true);
-    this.metrics = getResources().getDisplayMetrics();
+    layoutColumns();
+  }
+
+  /**
+   * Changes the widths of the columns in place, like after they were fitted to their contents.
+   * The fitted text of every cell is thrown away, to be fitted to the new widths as it's drawn.
+   *
+   * @param columnWidths the new width of each column, in the same order as before
+   */
+  void setColumnWidths(int[] columnWidths) {
+    this.columnWidths = columnWidths;
+    mBlockCells = new WeakHashMap<>();
+    layoutColumns();
+    if (mTiles != null) {
+      mTiles.setTableSize(totalWidth, totalHeight);
+    }
+    requestLayout();
+    invalidate();
+  }
+
+  /**
+   * Works out where each column starts from the column widths, and fits the header text to them
+   */
+  private void layoutColumns() {
+    totalWidth = BORDER_WIDTH;
+    for (int cw : columnWidths) {
+      totalWidth += cw + BORDER_WIDTH;
+    }
+    if (!scrollsHorizontally()) {
+      // the main tables get whatever width is left on screen and scroll their columns within it
+      setMinimumWidth(totalWidth);
+    }
+    resolveFixedCells();
     if (this.mNumberOfRows > 0) {
       this.xs = new int[this.mElementKeys.size()];
       if (xs.length == 0) {
@@ -234,6 +300,94 @@ final class TabularView extends View {
     }
   }
 
+  /**
+   * Fits the header cells again, once more of the column names have been loaded
+   */
+  void refreshHeaders() {
+    if (!isDataTable()) {
+      resolveFixedCells();
+      invalidate();
+    }
+  }
+
+  /**
+   * Shows new totals in a footer table
+   *
+   * @param text    the text of each column's cell, by element key. A column without any is blank.
+   * @param partial whether the totals are only over some of the rows so far, which is shown by
+   *                drawing them in italics
+   */
+  void setFooterText(Map<String, String> text, boolean partial) {
+    if (isFooterTable()) {
+      mFooterText = text;
+      mFooterPartial = partial;
+      resolveFixedCells();
+      invalidate();
+    }
+  }
+
+  /**
+   * Fits the text that doesn't depend on the rows: the header cells, with their group by, sort
+   * and frozen colors, the footer cells, and the null placeholder of each column.
+   */
+  private void resolveFixedCells() {
+    int numColumns = mElementKeys.size();
+    mNullText = new String[numColumns];
+    for (int j = 0; j < numColumns; ++j) {
+      mNullText[j] = renderer.fitText(NULL_DATA_TEXT, true, columnWidths[j]);
+    }
+    if (isDataTable()) {
+      return;
+    }
+    mHeaderText = new String[numColumns];
+    mHeaderForegrounds = new int[numColumns];
+    mHeaderBackgrounds = new int[numColumns];
+    mHeaderItalic = new boolean[numColumns];
+    SpreadsheetProps props = mTable.getProps();
+    List<String> groupBy = props == null || props.getGroupBy() == null ?
+        new ArrayList<String>() :
+        Arrays.asList(props.getGroupBy());
+    for (int j = 0; j < numColumns; ++j) {
+      String datum;
+      String columnKey = null;
+      if (type == TableLayoutType.STATUS_HEADER || type == TableLayoutType.STATUS_FOOTER) {
+        datum = DEFAULT_STATUS_COLUMN_VALUE;
+      } else if (isFooterTable()) {
+        datum = mFooterText == null ? null : mFooterText.get(mElementKeys.get(j));
+        mHeaderBackgrounds[j] = defaultBackgroundColor;
+        mHeaderText[j] = datum == null ? "" : renderer.fitText(datum, mFooterPartial,
+            columnWidths[j]);
+        mHeaderForegrounds[j] = defaultForegroundColor;
+        mHeaderItalic[j] = mFooterPartial;
+        continue;
+      } else {
+        Integer idx = mTable.getColumnIndexOfElementKey(mElementKeys.get(j));
+        datum = idx == null ? null : mTable.getHeader(idx);
+        columnKey = idx == null ? null : mTable.getHeaderKey(idx);
+      }
+      int backgroundColor = defaultBackgroundColor;
+      if (columnKey != null && props != null) {
+        if (groupBy.contains(columnKey)) {
+          backgroundColor = GROUP_BY_COLOR;
+        } else if (columnKey.equals(props.getSort())) {
+          backgroundColor = SORT_COLOR;
+        }
+        if (columnKey.equals(props.getFrozen())) {
+          backgroundColor = FROZEN_COLOR;
+        }
+      }
+      mHeaderBackgrounds[j] = backgroundColor;
+      if (datum == null) {
+        mHeaderText[j] = mNullText[j];
+        mHeaderForegrounds[j] = NULL_COLOR;
+        mHeaderItalic[j] = true;
+      } else {
+        mHeaderText[j] = renderer.fitText(datum, false, columnWidths[j]);
+        mHeaderForegrounds[j] = defaultForegroundColor;
+      }
+    }
+  }
+
   /**
    * Construct the data portion of the main portion of the table. Default colors
    * are applied.
@@ -244,17 +398,14 @@ final class TabularView extends View {
    * @param elementKeysToDisplay
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getMainDataTable(Context context, Controller controller,
       SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup,
-      ColorRuleGroup rowColorRuleGroup) {
+      int fontSize) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths,
-        TableLayoutType.MAIN_DATA, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        TableLayoutType.MAIN_DATA, fontSize);
   }
 
   /**
@@ -267,18 +418,14 @@ final class TabularView extends View {
    * @param elementKeysToDisplay
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getMainHeaderTable(Context context, Controller controller,
       SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup,
-      ColorRuleGroup rowColorRuleGroup) {
+      int fontSize) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.MAIN_HEADER, fontSize, elementKeyToColorRuleGroup,
-        rowColorRuleGroup);
+        columnWidths, TableLayoutType.MAIN_HEADER, fontSize);
   }
 
   /**
@@ -291,17 +438,14 @@ final class TabularView extends View {
    * @param elementKeysToDisplay
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getIndexDataTable(Context context, Controller controller,
       SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup,
-      ColorRuleGroup rowColorRuleGroup) {
+      int fontSize) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths,
-        TableLayoutType.INDEX_DATA, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        TableLayoutType.INDEX_DATA, fontSize);
   }
 
   /**
@@ -314,18 +458,14 @@ final class TabularView extends View {
    * @param elementKeysToDisplay
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getIndexHeaderTable(Context context, Controller controller,
       SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup,
-      ColorRuleGroup rowColorRuleGroup) {
+      int fontSize) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.INDEX_HEADER, fontSize, elementKeyToColorRuleGroup,
-        rowColorRuleGroup);
+        columnWidths, TableLayoutType.INDEX_HEADER, fontSize);
   }
 
   /**
@@ -337,20 +477,17 @@ final class TabularView extends View {
    * @param table
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getStatusDataTable(Context context, Controller controller,
-      SpreadsheetUserTable table, int[] columnWidths, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      SpreadsheetUserTable table, int[] columnWidths, int fontSize) {
     List<String> dummyElementKeys = new ArrayList<String>();
     // We need to make this a size one so that the status table knows there's
     // something to display.
     dummyElementKeys.add("data");
     return new TabularView(context, controller, table, dummyElementKeys, DEFAULT_FOREGROUND_COLOR,
         DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths,
-        TableLayoutType.STATUS_DATA, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        TableLayoutType.STATUS_DATA, fontSize);
   }
 
   /**
@@ -362,22 +499,180 @@ final class TabularView extends View {
    * @param table
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getStatusHeaderTable(Context context, Controller controller,
-      SpreadsheetUserTable table, int[] columnWidths, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      SpreadsheetUserTable table, int[] columnWidths, int fontSize) {
     List<String> dummyElementKeys = new ArrayList<String>();
     // We need to make this a size one so that the status table knows there's
     // something to display.
     dummyElementKeys.add("header");
     return new TabularView(context, controller, table, dummyElementKeys, DEFAULT_FOREGROUND_COLOR,
         DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths,
-        TableLayoutType.STATUS_HEADER, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        TableLayoutType.STATUS_HEADER, fontSize);
+  }
+
+  /**
+   * Construct the footer of the main portion of the table, which shows the totals of each
+   * column. Default colors are applied.
+   *
+   * @param context
+   * @param controller
+   * @param table
+   * @param elementKeysToDisplay
+   * @param columnWidths
+   * @param fontSize
+   * @return
+   */
+  public static TabularView getMainFooterTable(Context context, Controller controller,
+      SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
+      int fontSize) {
+    return new TabularView(context, controller, table, elementKeysToDisplay,
+        DEFAULT_FOREGROUND_COLOR, DEFAULT_FOOTER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
+        columnWidths, TableLayoutType.MAIN_FOOTER, fontSize);
+  }
+
+  /**
+   * Construct the footer of the indexed portion of the table. Default colors are applied.
+   *
+   * @param context
+   * @param controller
+   * @param table
+   * @param elementKeysToDisplay
+   * @param columnWidths
+   * @param fontSize
+   * @return
+   */
+  public static TabularView getIndexFooterTable(Context context, Controller controller,
+      SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
+      int fontSize) {
+    return new TabularView(context, controller, table, elementKeysToDisplay,
+        DEFAULT_FOREGROUND_COLOR, DEFAULT_FOOTER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
+        columnWidths, TableLayoutType.INDEX_FOOTER, fontSize);
+  }
+
+  /**
+   * Construct the footer for the status table. Default colors are applied. No data is displayed
+   * in the status column.
+   *
+   * @param context
+   * @param controller
+   * @param table
+   * @param columnWidths
+   * @param fontSize
+   * @return
+   */
+  public static TabularView getStatusFooterTable(Context context, Controller controller,
+      SpreadsheetUserTable table, int[] columnWidths, int fontSize) {
+    List<String> dummyElementKeys = new ArrayList<String>();
+    // We need to make this a size one so that the status table knows there's
+    // something to display.
+    dummyElementKeys.add("footer");
+    return new TabularView(context, controller, table, dummyElementKeys, DEFAULT_FOREGROUND_COLOR,
+        DEFAULT_FOOTER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths,
+        TableLayoutType.STATUS_FOOTER, fontSize);
+  }
+
+  /**
+   * Picks up a change in the number of rows, like a group being expanded or collapsed in place,
+   * without rebuilding the view. Only data tables have a row per row of the table.
+   */
+  void onRowCountChanged() {
+    if (!isDataTable()) {
+      return;
+    }
+    mNumberOfRows = mTable.getNumberOfRows();
+    totalHeight = (rowHeight + BORDER_WIDTH) * mNumberOfRows + BORDER_WIDTH;
+    if (mTiles != null) {
+      mTiles.setTableSize(totalWidth, totalHeight);
+    }
+    invalidate();
+  }
+
+  /**
+   * Redraws every cell, like after the colors of a column changed
+   */
+  void invalidateCells() {
+    if (mTiles != null) {
+      mTiles.invalidateAll();
+    }
+    invalidate();
+  }
+
+  /**
+   * Redraws the cells of some rows that were loaded or changed
+   *
+   * @param firstQueryRow the first of the rows, as an index into the query result
+   * @param numRows       the number of rows
+   */
+  void invalidateCells(int firstQueryRow, int numRows) {
+    if (mTiles != null) {
+      int[] range = mTable.toDisplayRange(firstQueryRow, numRows);
+      if (range == null) {
+        // the rows are spread out over the screen, or some of them are hidden
+        mTiles.invalidateAll();
+      } else {
+        mTiles.invalidate(range[0] * (rowHeight + BORDER_WIDTH),
+            (range[1] + 1) * (rowHeight + BORDER_WIDTH) + BORDER_WIDTH);
+      }
+    }
+    invalidate();
+  }
+
+  /**
+   * Starts keeping the data in tiles once we're on screen
+   */
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    startTiles();
+  }
+
+  /**
+   * Stops the tile thread and lets go of the tiles
+   */
+  @Override
+  protected void onDetachedFromWindow() {
+    stopTiles();
+    super.onDetachedFromWindow();
+  }
+
+  /**
+   * Starts drawing the data through tiles, if this is a table that keeps them
+   */
+  @VisibleForTesting
+  void startTiles() {
+    if (mTiles == null && isDataTable() && this.type != TableLayoutType.STATUS_DATA) {
+      mTiles = new TileCache<>(this, this, new CellRenderer(fontSize, rowHeight));
+      mTiles.setTableSize(totalWidth, totalHeight);
+    }
+  }
+
+  /**
+   * @return whether no tile is being drawn in the background
+   */
+  @VisibleForTesting
+  boolean areTilesSettled() {
+    return mTiles == null || mTiles.isSettled();
+  }
+
+  /**
+   * Stops drawing through tiles, and stops the tile thread
+   */
+  @VisibleForTesting
+  void stopTiles() {
+    if (mTiles != null) {
+      mTiles.release();
+      mTiles = null;
+    }
   }
 
+  /**
+   * The height of all of this view's rows. For a data table this is the height of the scrollable
+   * content, not the height of the view.
+   *
+   * @return the height needed to draw every row
+   */
   public int getTableHeight() {
     return totalHeight;
   }
@@ -386,7 +681,22 @@ final class TabularView extends View {
     return totalWidth;
   }
 
+  /**
+   * Finds the cell under a point in this view
+   *
+   * @param x the x coordinate of the point, relative to this view
+   * @param y the y coordinate of the point, relative to this view
+   * @return the cell under that point, or null if it isn't over a column
+   */
   public CellInfo getCellInfo(int x, int y) {
+    if (isDataTable()) {
+      // the rows are drawn shifted up by the scroll offset
+      y += Math.max(0, controller.getMainScrollY());
+    }
+    if (scrollsHorizontally()) {
+      // and the main columns shifted left
+      x += Math.max(0, controller.getMainScrollX());
+    }
     int row = y / (rowHeight + BORDER_WIDTH);
     int col = -1;
     while (x > 0) {
@@ -411,6 +721,75 @@ final class TabularView extends View {
     return info;
   }
 
+  private boolean isDataTable() {
+    return type == TableLayoutType.MAIN_DATA || type == TableLayoutType.INDEX_DATA
+        || type == TableLayoutType.STATUS_DATA;
+  }
+
+  /**
+   * @return whether this table holds the main (non frozen) columns, which scroll sideways
+   */
+  private boolean scrollsHorizontally() {
+    return type == TableLayoutType.MAIN_DATA || type == TableLayoutType.MAIN_HEADER
+        || type == TableLayoutType.MAIN_FOOTER;
+  }
+
+  private boolean isFooterTable() {
+    return type == TableLayoutType.MAIN_FOOTER || type == TableLayoutType.INDEX_FOOTER
+        || type == TableLayoutType.STATUS_FOOTER;
+  }
+
+  /**
+   * Finds a cell of this view by its column and row, rather than by where it is on screen
+   *
+   * @param elementKey the column of the cell
+   * @param rowIndex   the row of the cell, as displayed
+   * @return the cell, or null if the column isn't in this view or the row is out of range
+   */
+  CellInfo findCell(String elementKey, int rowIndex) {
+    int col = mElementKeys.indexOf(elementKey);
+    if (col == -1 || col >= xs.length || rowIndex < 0 || rowIndex >= mNumberOfRows) {
+      return null;
+    }
+    return new CellInfo(elementKey, col, rowIndex);
+  }
+
+  /**
+   * @param rowIndex the row, as displayed
+   * @return the y coordinate of the top of the row, before scrolling
+   */
+  int getRowTop(int rowIndex) {
+    return (rowIndex + 1) * BORDER_WIDTH + rowIndex * rowHeight;
+  }
+
+  /**
+   * @param y a y coordinate, before scrolling
+   * @return the row at that height, which may be past the last row
+   */
+  int getRowAt(int y) {
+    return Math.max(0, y) / (rowHeight + BORDER_WIDTH);
+  }
+
+  int getRowHeight() {
+    return rowHeight;
+  }
+
+  /**
+   * @param colPos the position of the column in this view, from a {@link CellInfo}
+   * @return the x coordinate of the left edge of the column, before scrolling
+   */
+  int getColumnLeft(int colPos) {
+    return xs[colPos];
+  }
+
+  /**
+   * @param colPos the position of the column in this view, from a {@link CellInfo}
+   * @return the width of the column
+   */
+  int getColumnWidth(int colPos) {
+    return columnWidths[colPos];
+  }
+
   public void highlight(CellInfo highlightedCellInfo) {
     this.highlightedCellInfo = highlightedCellInfo;
     invalidate();
@@ -424,8 +803,120 @@ final class TabularView extends View {
       return;
     }
 
-    // drawing the background--so you're redrawing the background every time...
-    canvas.drawRect(0, 0, totalWidth, totalHeight, bgPaint);
+    int xScroll = scrollsHorizontally() ? controller.getMainScrollX() : 0;
+    int yScroll = isDataTable() ? controller.getMainScrollY() : 0;
+    if (xScroll < 0) {
+      xScroll = 0;
+    }
+    if (yScroll < 0) {
+      yScroll = 0;
+    }
+    // anything not yet paged in gets drawn as a placeholder and redrawn when it arrives
+    requestVisibleCells(xScroll, yScroll, xScroll + getWidth(), yScroll + getHeight());
+
+    // Everything below is drawn in the coordinates of the whole table; shift it so that the cell
+    // at xScroll, yScroll lands at the top left of this view
+    canvas.save();
+    canvas.translate(-xScroll, -yScroll);
+    if (mTiles != null) {
+      // the cells were drawn into tiles ahead of time, so this mostly just copies bitmaps
+      mTiles.draw(canvas, renderer, xScroll, yScroll, xScroll + getWidth(),
+          yScroll + getHeight());
+    } else {
+      drawRegion(canvas, renderer, snapshot(), xScroll, yScroll, xScroll + getWidth(),
+          yScroll + getHeight());
+    }
+    // highlighting cell (if necessary)
+    if (highlightedCellInfo != null) {
+      int rowNum = highlightedCellInfo.rowId;
+      int colPos = highlightedCellInfo.colPos;
+      highlightCell(canvas, xs[colPos], (rowNum + 1) * BORDER_WIDTH + rowNum * rowHeight,
+          columnWidths[colPos]);
+    }
+    canvas.restore();
+  }
+
+  /**
+   * Asks for the rows in part of the table to be paged in, and for a wide table the columns and
+   * their names too, if they aren't already
+   *
+   * @param left   the left edge of the part on screen, in the coordinates of the whole table
+   * @param top    the top edge
+   * @param right  the right edge
+   * @param bottom the bottom edge
+   */
+  private void requestVisibleCells(int left, int top, int right, int bottom) {
+    int topmost = 0;
+    int bottommost = 0;
+    if (isDataTable()) {
+      topmost = top / (BORDER_WIDTH + rowHeight);
+      bottommost = Math.min(bottom / (BORDER_WIDTH + rowHeight), mNumberOfRows - 1);
+      mTable.ensureRowsLoaded(topmost, bottommost);
+    }
+    if (this.type == TableLayoutType.STATUS_DATA || this.type == TableLayoutType.STATUS_HEADER
+        || this.type == TableLayoutType.STATUS_FOOTER) {
+      return;
+    }
+    int firstColumn = Integer.MAX_VALUE;
+    int lastColumn = -1;
+    int indexOfRightmostColumn = getLeftmostColumnBasedOnXScroll(spans, right);
+    for (int j = getLeftmostColumnBasedOnXScroll(spans, left); j < indexOfRightmostColumn + 1;
+        j++) {
+      if (mSpreadsheetColumns[j] != -1) {
+        firstColumn = Math.min(firstColumn, mSpreadsheetColumns[j]);
+        lastColumn = Math.max(lastColumn, mSpreadsheetColumns[j]);
+      }
+    }
+    if (lastColumn != -1 && isDataTable()) {
+      mTable.ensureCellsLoaded(topmost, bottommost, firstColumn, lastColumn);
+    } else if (lastColumn != -1) {
+      mTable.ensureColumnsLoaded(firstColumn, lastColumn);
+    }
+  }
+
+  /**
+   * Hands out what drawing needs to know of the layout and the order of the rows, making a new
+   * snapshot only when one of them has changed since the last
+   *
+   * @return the snapshot
+   */
+  @Override
+  public Snapshot snapshot() {
+    RowOrder rows = isDataTable() ? mTable.getRowOrder() : null;
+    Snapshot snapshot = mSnapshot;
+    if (snapshot == null || snapshot.xs != xs || snapshot.nullText != mNullText
+        || snapshot.rows != rows || snapshot.blockCells != mBlockCells) {
+      snapshot = new Snapshot(xs, spans, columnWidths, mNullText, totalWidth, rows,
+          rows == null ? mNumberOfRows : rows.getRowCount(), mBlockCells);
+      mSnapshot = snapshot;
+    }
+    return snapshot;
+  }
+
+  /**
+   * Draws the part of the table within a rectangle, in the coordinates of the whole table. Rows
+   * that haven't been paged in are drawn as placeholders. Data tables may call this on the tile
+   * thread, with a renderer of its own, so everything that can change under it is read from the
+   * snapshot rather than from the view.
+   *
+   * @param canvas   the canvas, translated to the coordinates of the whole table
+   * @param renderer the renderer to fit and draw the cells with
+   * @param snapshot the layout and order of the rows to draw with
+   * @param xScroll  the left edge of the part to draw
+   * @param yScroll  the top edge
+   * @param right    the right edge
+   * @param bottom   the bottom edge
+   */
+  @Override
+  public void drawRegion(Canvas canvas, CellRenderer renderer, Snapshot snapshot, int xScroll,
+      int yScroll, int right, int bottom) {
+    int[] xs = snapshot.xs;
+    int[] columnWidths = snapshot.columnWidths;
+    int numberOfRows = snapshot.numberOfRows;
+    int totalHeight = (rowHeight + BORDER_WIDTH) * numberOfRows + BORDER_WIDTH;
+    // drawing the background of the part of the table that is in the rectangle
+    canvas.drawRect(xScroll, yScroll, Math.min(snapshot.totalWidth, right),
+        Math.min(totalHeight, bottom), bgPaint);
 
     /*
      * SS: I am going to try and fix this method. There are several things that
@@ -444,10 +935,8 @@ final class TabularView extends View {
      *
      * We do not want to draw the whole spreadsheet, as this would be slower and
      * slower the more data you add. Instead we want to only draw the necessary
-     * bits for the screen to display. We have the dimensions of the screen in
-     * the metrics field, which is a DisplayMetrics object. We are currently
-     * drawing the whole canvas. This seems ok, and we might even need to do
-     * that for clipping rects.
+     * bits for the screen to display. Our own width and height are the width
+     * and height of the part of the table on screen.
      *
      * In the diagram below, we have a phone (the asterisks) viewing a small set
      * of the table. I am not bothering to draw all the rows that would fall
@@ -545,14 +1034,6 @@ final class TabularView extends View {
      * | | | |leftmost | | | | | | |
      */
 
-    int xScroll = controller.getMainScrollX();
-    int yScroll = controller.getMainScrollY();
-    if (xScroll < 0) {
-      xScroll = 0;
-    }
-    if (yScroll < 0) {
-      yScroll = 0;
-    }
     int topmost;
     int topmostBorder;
     int leftmostBorder;
@@ -566,19 +1047,18 @@ final class TabularView extends View {
 
     // The first thing we must do is recognize that we have to undergo
     // different procedures if we are dealing with a header.
-    // First we will get the correct topmost row. If this is a header of any
-    // sort, the first row should be 0.
-    if (this.type == TableLayoutType.INDEX_HEADER || this.type == TableLayoutType.MAIN_HEADER
-        || this.type == TableLayoutType.STATUS_HEADER) {
+    // First we will get the correct topmost row. If this is a header or footer
+    // of any sort, the first row should be 0.
+    if (!isDataTable()) {
       topmost = 0;
       bottommost = 0;
     } else {
       // Otherwise, we need to compute the value.
       // First let's get the row.
       topmost = yScroll / (BORDER_WIDTH + rowHeight);
-      bottommost = (yScroll + metrics.heightPixels) / (BORDER_WIDTH + rowHeight);
-      if (bottommost >= this.mNumberOfRows) {
-        bottommost = this.mNumberOfRows - 1; // don't want to go beyond the last
+      bottommost = bottom / (BORDER_WIDTH + rowHeight);
+      if (bottommost >= numberOfRows) {
+        bottommost = numberOfRows - 1; // don't want to go beyond the last
         // row
       }
     }
@@ -588,12 +1068,12 @@ final class TabularView extends View {
     bottomBottommost = topBottommostBorder + BORDER_WIDTH + rowHeight;
     // And now let's get the correct column. The math here can't be as simple,
     // b/c unlike rowHeight, columnWidth is not a fixed unit.
-    int indexOfLeftmostColumn = getLeftmostColumnBasedOnXScroll(xScroll);
+    int indexOfLeftmostColumn = getLeftmostColumnBasedOnXScroll(snapshot.spans, xScroll);
     @SuppressWarnings("unused") String leftmostElementKey = this.mElementKeys
         .get(indexOfLeftmostColumn);
     leftLeftmost = xs[indexOfLeftmostColumn];
     leftmostBorder = leftLeftmost - BORDER_WIDTH;
-    int indexOfRightmostColumn = getLeftmostColumnBasedOnXScroll(xScroll + metrics.widthPixels);
+    int indexOfRightmostColumn = getLeftmostColumnBasedOnXScroll(snapshot.spans, right);
     @SuppressWarnings("unused") String rightmostElementKey = this.mElementKeys
         .get(indexOfRightmostColumn);
     leftRightmost = xs[indexOfRightmostColumn];
@@ -617,115 +1097,117 @@ final class TabularView extends View {
       xCoord += i == this.mElementKeys.size() ? 0 : columnWidths[i] + BORDER_WIDTH;
     }
 
-    // precompute the correspondence between the displayed elementKeys and the
-    // SpreadsheetUserTable userData index
-    int[] userDataIndex = new int[indexOfRightmostColumn + 1];
-    for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; ++j) {
-      String elementKey = this.mElementKeys.get(j);
-      Integer idx = this.mTable.getColumnIndexOfElementKey(elementKey);
-      userDataIndex[j] = idx == null ? -1 : idx;
-    }
-
     // drawing the cells
     int y = topTopmost;
     for (int theRowIndex = topmost; theRowIndex < bottommost + 1; theRowIndex++) {
-      TypedRow theRow = null;
+      RowBlock theBlock = null;
+      BlockCells theCells = null;
+      BlockColors theColors = null;
+      int rowInBlock = 0;
 
       // we only need to fetch this once for a given row...
-      ColorGuide rowGuide = null;
-      if (this.type == TableLayoutType.STATUS_DATA || this.type == TableLayoutType.INDEX_DATA
-          || this.type == TableLayoutType.MAIN_DATA) {
-        // these are the only cases (below) where this value is used...
-        theRow = mTable.getRowAtIndex(theRowIndex);
-
-        // theRow is a wrapper of the row. Therefore, theRow should
-        // be null whenever an index that is out of bounds of the given
-        // table will also return null. If this is the case, this loop
-        // should break to stop drawing.
-        if (theRow != null) {
-          String checkNull = theRow.getStringValueByKey(DataTableColumns.ID);
-          if (checkNull != null) {
-            rowGuide = mRowColorGuideGroup.getColorGuideForRowId(checkNull);
-          }
-        } else {
-          break;
+      if (isDataTable()) {
+        // theBlock is null while the row is still being paged in, in which case the row is
+        // drawn as a placeholder
+        theBlock = mTable.getLoadedRowBlock(snapshot.rows, theRowIndex);
+        if (theBlock != null) {
+          theCells = getBlockCells(snapshot, theBlock);
+          theColors = theBlock.getColors();
+          rowInBlock = snapshot.rows.toQueryRow(theRowIndex) - theBlock.getFirstRow();
         }
       }
 
       for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; j++) {
-        String datum;
-        String columnKey = null;
-        if (this.type == TableLayoutType.STATUS_DATA
-            || this.type == TableLayoutType.STATUS_HEADER) {
-          datum = DEFAULT_STATUS_COLUMN_VALUE;
-        } else if (this.type == TableLayoutType.INDEX_HEADER
-            || this.type == TableLayoutType.MAIN_HEADER) {
-          datum = this.mTable.getHeader(userDataIndex[j]);
-          columnKey = mTable.getHeaderKey(userDataIndex[j]);
-        } else if (this.type == TableLayoutType.INDEX_DATA
-            || this.type == TableLayoutType.MAIN_DATA) {
-
-          ColumnDefinition cd = this.mTable.getColumnByIndex(userDataIndex[j]);
-          datum = this.mTable.getCachedUserTable()
-              .getDisplayTextOfData(theRowIndex, cd.getType(), cd.getElementKey());
-        } else {
-          WebLogger.getLogger(this.mTable.getAppName())
-              .e(TAG, "unrecognized table type: " + this.type.name());
-          datum = null;
-        }
+        String text;
+        boolean italic = false;
         int foregroundColor = this.defaultForegroundColor;
         int backgroundColor = this.defaultBackgroundColor;
-        if (type == TableLayoutType.INDEX_DATA || type == TableLayoutType.MAIN_DATA) {
-          // First we check for a row rule.
-          if (rowGuide != null) {
-            foregroundColor = rowGuide.getForeground();
-            backgroundColor = rowGuide.getBackground();
-          }
-          //ColorGuide columnGuide = mColumnColorRules.get(this.mElementKeys.get(j)).getColorGuide(this.mTable.getColumnDefinitions(), theRow);
-          String checkNull = theRow.getStringValueByKey(DataTableColumns.ID);
-          ColorGuide columnGuide = null;
-          if (checkNull != null) {
-            rowGuide = mRowColorGuideGroup.getColorGuideForRowId(checkNull);
+        if (this.type == TableLayoutType.STATUS_DATA) {
+          text = DEFAULT_STATUS_COLUMN_VALUE;
+          if (theColors != null) {
+            foregroundColor = theColors.getStatusForeground(rowInBlock);
+            backgroundColor = theColors.getStatusBackground(rowInBlock);
           }
-          // Override the role rule if a column rule matched.
-          if (columnGuide != null) {
-            foregroundColor = columnGuide.getForeground();
-            backgroundColor = columnGuide.getBackground();
-          }
-        }
-        if (type == TableLayoutType.STATUS_DATA) {
-          if (rowGuide != null) {
-            foregroundColor = rowGuide.getForeground();
-            backgroundColor = rowGuide.getBackground();
-          }
-        }
-        if (type == TableLayoutType.MAIN_HEADER || type == TableLayoutType.INDEX_HEADER
-            || type == TableLayoutType.STATUS_HEADER) {
-          if (Arrays.asList(mTable.getProps().getGroupBy()).contains(columnKey)) {
-            backgroundColor = GROUP_BY_COLOR;
-          } else if (columnKey != null && columnKey.equals(mTable.getProps().getSort())) {
-            backgroundColor = SORT_COLOR;
+        } else if (!isDataTable()) {
+          text = mHeaderText[j];
+          italic = mHeaderItalic[j];
+          foregroundColor = mHeaderForegrounds[j];
+          backgroundColor = mHeaderBackgrounds[j];
+        } else if (theBlock == null || !theBlock.hasColumn(mDisplayColumnIndexes[j])) {
+          text = LOADING_DATA_TEXT;
+        } else {
+          // fitted to the column the first time the block was drawn, so this is just an array
+          // lookup
+          text = getFittedColumn(renderer, snapshot, theBlock, theCells, j)[rowInBlock];
+          if (theColors != null) {
+            // the column's own rules have already been laid over the table rules
+            foregroundColor = theColors.getForeground(mDisplayColumnIndexes[j], rowInBlock);
+            backgroundColor = theColors.getBackground(mDisplayColumnIndexes[j], rowInBlock);
           }
-          if (columnKey != null && columnKey.equals(mTable.getProps().getFrozen())) {
-            backgroundColor = FROZEN_COLOR;
+          if (text == null) {
+            // Override any of that if the data is actually null
+            text = snapshot.nullText[j];
+            italic = true;
+            foregroundColor = NULL_COLOR;
           }
         }
-        // Override any of that if the data is actually null
-        if (datum == null) {
-          datum = NULL_DATA_TEXT;
-          foregroundColor = NULL_COLOR;
-        }
-        drawCell(canvas, xs[j], y, datum, backgroundColor, foregroundColor, columnWidths[j]);
+        renderer.drawCell(canvas, xs[j], y, columnWidths[j], text, italic, backgroundColor,
+            foregroundColor);
       }
       y += rowHeight + BORDER_WIDTH;
       // adding to try and fix draw
     }
-    // highlighting cell (if necessary)
-    if (highlightedCellInfo != null) {
-      int rowNum = highlightedCellInfo.rowId;
-      int colPos = highlightedCellInfo.colPos;
-      highlightCell(canvas, xs[colPos], (rowNum + 1) * BORDER_WIDTH + rowNum * rowHeight,
-          columnWidths[colPos]);
+  }
+
+  /**
+   * Gets the cached cells of a block, making an empty entry for it the first time any row from
+   * it is drawn.
+   *
+   * @param snapshot the layout the cells are fitted to
+   * @param block    the loaded block
+   * @return the cells of that block
+   */
+  private BlockCells getBlockCells(Snapshot snapshot, RowBlock block) {
+    Map<RowBlock, BlockCells> blockCells = snapshot.blockCells;
+    synchronized (blockCells) {
+      BlockCells cells = blockCells.get(block);
+      if (cells == null) {
+        cells = new BlockCells(mElementKeys.size());
+        blockCells.put(block, cells);
+      }
+      return cells;
+    }
+  }
+
+  /**
+   * Gets the text of one column of a block, fitted to the width of the column. Each column is
+   * only fitted the first time it is drawn, so columns that are never scrolled to cost nothing.
+   *
+   * @param renderer the renderer of the calling thread
+   * @param snapshot the layout to fit the text to
+   * @param block    the loaded block
+   * @param cells    the cached cells of that block
+   * @param j        the column, as an index into mElementKeys
+   * @return the fitted text of each row of the block, null where the value is null
+   */
+  private String[] getFittedColumn(CellRenderer renderer, Snapshot snapshot, RowBlock block,
+      BlockCells cells, int j) {
+    // the UI thread and the tile thread may both get to a column first
+    synchronized (cells) {
+      String[] column = cells.text[j];
+      if (column == null) {
+        int numRows = block.getNumberOfRows();
+        column = new String[numRows];
+        if (mDisplayColumnIndexes[j] != -1) {
+          for (int i = 0; i < numRows; ++i) {
+            String datum = block
+                .getDisplayText(mDisplayColumnIndexes[j], block.getFirstRow() + i);
+            column[i] = renderer.fitText(datum, false, snapshot.columnWidths[j]);
+          }
+        }
+        cells.text[j] = column;
+      }
+      return column;
     }
   }
 
@@ -734,9 +1216,9 @@ final class TabularView extends View {
    * displayed on the screen, where the screen position is specified by the
    * xScroll int.
    */
-  private int getLeftmostColumnBasedOnXScroll(int xScroll) {
+  private static int getLeftmostColumnBasedOnXScroll(int[] spans, int xScroll) {
     int bsResult; // will hold the binary search result.
-    bsResult = Arrays.binarySearch(this.spans, xScroll);
+    bsResult = Arrays.binarySearch(spans, xScroll);
     // now we need to do some checking. If we've found an exact match, we know
     // that we can just return it.
     if (bsResult >= 0) {
@@ -748,7 +1230,7 @@ final class TabularView extends View {
       col -= 1; // to set it correctly.
       // however, we need to do another check. it is possible that we will have
       // added a new element to the array. Let's do this check.
-      if (col >= xs.length) {
+      if (col >= spans.length) {
         return col - 1;
       } else {
         return col;
@@ -756,31 +1238,6 @@ final class TabularView extends View {
     }
   }
 
-  private void drawCell(Canvas canvas, int x, int y, String datum, int backgroundColor,
-      int foregroundColor, int columnWidth) {
-    // have to do this check to reset to the default, otherwise it uses the
-    // old object which was previously saved and paints all the columns the
-    // wrong color.
-    if (backgroundColor != this.defaultBackgroundColor) {
-      bgPaint.setColor(backgroundColor);
-    } else {
-      bgPaint.setColor(this.defaultBackgroundColor);
-    }
-    canvas.drawRect(x, y, x + columnWidth, y + rowHeight, bgPaint);
-    canvas.save();
-    canvas.clipRect(x + HORIZONTAL_CELL_PADDING, y, x + columnWidth - 2 * HORIZONTAL_CELL_PADDING,
-        y + rowHeight);
-    textPaint.setColor(foregroundColor);
-    if (datum.equals(NULL_DATA_TEXT)) {
-      textPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.ITALIC));
-    } else {
-      textPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.NORMAL));
-    }
-    canvas.drawText(datum, x + HORIZONTAL_CELL_PADDING, y + rowHeight - VERTICAL_CELL_PADDING,
-        textPaint);
-    canvas.restore();
-  }
-
   private void highlightCell(Canvas canvas, int x, int y, int columnWidth) {
     canvas.drawLine(x, y, x + columnWidth, y, highlightPaint);
     canvas.drawLine(x, y, x, y + rowHeight, highlightPaint);
@@ -801,17 +1258,66 @@ final class TabularView extends View {
       return;
     case STATUS_DATA:
     case STATUS_HEADER:
+    case MAIN_FOOTER:
+    case INDEX_FOOTER:
+    case STATUS_FOOTER:
       break;
     }
   }
 
+  /**
+   * What has been worked out about the cells of a block of rows
+   */
+  private static final class BlockCells {
+    /**
+     * The fitted text of each column, indexed by column then row within the block. A column is
+     * null until it is first drawn.
+     */
+    final String[][] text;
+
+    BlockCells(int numColumns) {
+      this.text = new String[numColumns][];
+    }
+  }
+
+  /**
+   * The layout of the columns and the order of the rows as they were at one moment, which is
+   * everything {@link #drawRegion} needs that the UI thread might change while a tile is being
+   * drawn. Never changes once made.
+   */
+  static final class Snapshot {
+    private final int[] xs;
+    private final int[] spans;
+    private final int[] columnWidths;
+    private final String[] nullText;
+    private final int totalWidth;
+    // null for headers and footers
+    private final RowOrder rows;
+    private final int numberOfRows;
+    // the fitted text of the blocks, for these column widths
+    private final Map<RowBlock, BlockCells> blockCells;
+
+    Snapshot(int[] xs, int[] spans, int[] columnWidths, String[] nullText, int totalWidth,
+        RowOrder rows, int numberOfRows, Map<RowBlock, BlockCells> blockCells) {
+      this.xs = xs;
+      this.spans = spans;
+      this.columnWidths = columnWidths.clone();
+      this.nullText = nullText;
+      this.totalWidth = totalWidth;
+      this.rows = rows;
+      this.numberOfRows = numberOfRows;
+      this.blockCells = blockCells;
+    }
+  }
+
   private enum TableLayoutType {
     // NB: After the change to use SpreadsheetUserTable more heavily, there is
     // essentially no difference between the MAIN and INDEX table types. They
     // remain for now just for ease of debugging if for some reason it matters
     // in a way I don't yet see. They will probably be safe to consolidate in the
     // future.
-    MAIN_DATA, MAIN_HEADER, INDEX_DATA, INDEX_HEADER, STATUS_DATA, STATUS_HEADER
+    MAIN_DATA, MAIN_HEADER, INDEX_DATA, INDEX_HEADER, STATUS_DATA, STATUS_HEADER, MAIN_FOOTER,
+    INDEX_FOOTER, STATUS_FOOTER
   }
 
   interface Controller {
@@ -821,7 +1327,8 @@ final class TabularView extends View {
 
     /**
      * Gets the x translation of the scroll. This is in particular how far you
-     * have scrolled to look at columns that do not begin onscreen.
+     * have scrolled to look at columns that do not begin onscreen. Only the
+     * main tables scroll sideways.
      *
      * @return
      */
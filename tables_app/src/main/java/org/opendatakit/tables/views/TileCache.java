@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.LongSparseArray;
+import android.view.View;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Square tiles of a data {@link TabularView}, drawn into bitmaps on a background thread so that
+ * a frame of a scroll or fling only has to copy a handful of bitmaps to the screen rather than
+ * fit and draw the text of every cell on it.
+ * <p>
+ * The tiles are {@link #TILE_SIZE} pixels on a side, in the coordinates of the whole table, so
+ * that every bitmap is the same size and can be reused for another tile once its own has
+ * scrolled away. A tile is only drawn again when it's marked stale, which the view does when
+ * rows under it are loaded or change color. Until then, and while it's being drawn again, the
+ * bitmap it already has stays on screen. The tiles just past the edges of the screen are drawn
+ * ahead of time, so that a scroll usually finds them ready.
+ * <p>
+ * Everything but the drawing of a tile happens on the UI thread. Each tile is drawn from a
+ * snapshot the painter took on the UI thread when the tile was queued (see
+ * {@link Painter#snapshot()}), so a tile is all of a piece even if the table is laid out again or
+ * its rows reordered while it's being drawn. A frame that needs a tile that has never been drawn
+ * is drawn the slow way, straight onto the screen, so nothing is ever left blank.
+ * <p>
+ * A frame whose tiles are all drawn doesn't allocate anything: the tiles are kept in a map keyed
+ * by a primitive long, thrown away tiles and their bitmaps are reused, and the tiles go to and
+ * from the tile thread in pooled messages.
+ *
+ * @param <S> what the painter draws a tile from
+ */
+final class TileCache<S> {
+
+  /**
+   * The width and height of a tile, in pixels
+   */
+  static final int TILE_SIZE = 256;
+
+  // Used for logging
+  private static final String TAG = TileCache.class.getSimpleName();
+  // The fewest tiles kept, however few are on screen
+  private static final int MIN_TILES = 48;
+  // The most spare bitmaps kept for reuse
+  private static final int MAX_POOLED_BITMAPS = 16;
+
+  private final View view;
+  private final Painter<S> painter;
+  // Only used on the tile thread
+  private final CellRenderer tileRenderer;
+  // Only used on the tile thread, pointed at the bitmap of each tile in turn
+  private final Canvas tileCanvas = new Canvas();
+  private final HandlerThread tileThread;
+  private final Handler tileHandler;
+  private final Handler mainHandler;
+  /**
+   * The tiles, keyed by their column and row. Only touched on the UI thread.
+   */
+  private final LongSparseArray<Tile<S>> tiles = new LongSparseArray<>();
+  // Tiles that were thrown away, to be reused for others. Only touched on the UI thread.
+  private final ArrayDeque<Tile<S>> spareTiles = new ArrayDeque<>();
+  // Bitmaps that are free to be drawn into. Only touched on the UI thread.
+  private final ArrayDeque<Bitmap> pool = new ArrayDeque<>();
+  /**
+   * Bitmaps that were taken off their tiles. The last frame may still have drawn them, and with
+   * hardware acceleration it may not be on screen yet, so they only go back into the pool once
+   * another frame has been drawn. Only touched on the UI thread.
+   */
+  private final List<Bitmap> retired = new ArrayList<>();
+  private final List<Bitmap> retiredLastFrame = new ArrayList<>();
+  // The tiles evict could throw away, kept between frames. Only touched on the UI thread.
+  private final List<Tile<S>> candidates = new ArrayList<>(MIN_TILES);
+  /**
+   * Moved on by {@link #clear()}, so that a tile drawn before the table was laid out again is
+   * thrown away rather than shown
+   */
+  private volatile int generation = 0;
+  private long frame = 0;
+  // The number of tiles handed to the tile thread and not yet handed back
+  private int pendingTiles = 0;
+  private int tableWidth = 0;
+  private int tableHeight = 0;
+  private boolean released = false;
+
+  /**
+   * Draws the tile a message is for, on the tile thread
+   */
+  private final Handler.Callback renderJob = new Handler.Callback() {
+    @Override
+    public boolean handleMessage(Message msg) {
+      @SuppressWarnings("unchecked") Tile<S> tile = (Tile<S>) msg.obj;
+      render(tile);
+      mainHandler.obtainMessage(0, tile).sendToTarget();
+      return true;
+    }
+  };
+
+  /**
+   * Puts the tile a message is for in place once it's drawn, on the UI thread
+   */
+  private final Handler.Callback installJob = new Handler.Callback() {
+    @Override
+    public boolean handleMessage(Message msg) {
+      @SuppressWarnings("unchecked") Tile<S> tile = (Tile<S>) msg.obj;
+      install(tile);
+      return true;
+    }
+  };
+
+  /**
+   * @param view     the view the tiles are of, redrawn whenever a tile is ready
+   * @param painter  draws part of the table into a tile
+   * @param renderer the renderer for the tile thread, not shared with anything else
+   */
+  TileCache(View view, Painter<S> painter, CellRenderer renderer) {
+    this.view = view;
+    this.painter = painter;
+    this.tileRenderer = renderer;
+    this.tileThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DEFAULT);
+    tileThread.start();
+    this.tileHandler = new Handler(tileThread.getLooper(), renderJob);
+    this.mainHandler = new Handler(Looper.getMainLooper(), installJob);
+  }
+
+  /**
+   * Sets the size of the whole table, throwing the tiles away if it changed, since the cells
+   * under them will have moved
+   *
+   * @param width  the width of the table, in pixels
+   * @param height the height of the table
+   */
+  void setTableSize(int width, int height) {
+    if (width != tableWidth || height != tableHeight) {
+      clear();
+      tableWidth = width;
+      tableHeight = height;
+    }
+  }
+
+  /**
+   * Draws part of the table from the tiles, and queues any tile in or next to it that is
+   * missing or stale to be drawn in the background
+   *
+   * @param canvas   the canvas, translated to the coordinates of the whole table
+   * @param renderer the renderer of the UI thread, for anything that has to be drawn directly
+   * @param left     the left edge of the part to draw, in the coordinates of the whole table
+   * @param top      the top edge
+   * @param right    the right edge
+   * @param bottom   the bottom edge
+   */
+  void draw(Canvas canvas, CellRenderer renderer, int left, int top, int right, int bottom) {
+    right = Math.min(right, tableWidth);
+    bottom = Math.min(bottom, tableHeight);
+    if (right <= left || bottom <= top) {
+      return;
+    }
+    ++frame;
+    S snapshot = painter.snapshot();
+    int firstColumn = left / TILE_SIZE;
+    int lastColumn = (right - 1) / TILE_SIZE;
+    int firstRow = top / TILE_SIZE;
+    int lastRow = (bottom - 1) / TILE_SIZE;
+    boolean ready = true;
+    for (int row = firstRow; row <= lastRow; ++row) {
+      for (int column = firstColumn; column <= lastColumn; ++column) {
+        Tile<S> tile = getTile(column, row);
+        tile.lastUsed = frame;
+        ready &= tile.bitmap != null;
+        requestRender(tile, snapshot);
+      }
+    }
+    // the ring of tiles around the screen, so that they're ready before they're scrolled to
+    int lastTileColumn = Math.min(lastColumn + 1, (tableWidth - 1) / TILE_SIZE);
+    int lastTileRow = Math.min(lastRow + 1, (tableHeight - 1) / TILE_SIZE);
+    for (int row = firstRow - 1; row <= lastTileRow; ++row) {
+      for (int column = firstColumn - 1; column <= lastTileColumn; ++column) {
+        if (row < 0 || column < 0 || (row >= firstRow && row <= lastRow && column >= firstColumn
+            && column <= lastColumn)) {
+          continue;
+        }
+        Tile<S> tile = getTile(column, row);
+        tile.lastUsed = frame;
+        requestRender(tile, snapshot);
+      }
+    }
+
+    canvas.save();
+    // the tiles at the edges go past the end of the table
+    canvas.clipRect(left, top, right, bottom);
+    if (ready) {
+      for (int row = firstRow; row <= lastRow; ++row) {
+        for (int column = firstColumn; column <= lastColumn; ++column) {
+          Tile<S> tile = tiles.get(key(column, row));
+          canvas.drawBitmap(tile.bitmap, column * TILE_SIZE, row * TILE_SIZE, null);
+        }
+      }
+    } else {
+      painter.drawRegion(canvas, renderer, snapshot, left, top, right, bottom);
+    }
+    canvas.restore();
+
+    int used = (lastColumn - firstColumn + 3) * (lastRow - firstRow + 3);
+    evict(Math.max(MIN_TILES, 2 * used));
+    // a frame has gone by since these were taken off their tiles
+    for (int i = 0; i < retiredLastFrame.size(); ++i) {
+      recycle(retiredLastFrame.get(i));
+    }
+    retiredLastFrame.clear();
+    for (int i = 0; i < retired.size(); ++i) {
+      retiredLastFrame.add(retired.get(i));
+    }
+    retired.clear();
+  }
+
+  /**
+   * Marks the tiles over part of the table stale. They keep being shown until they've been
+   * drawn again.
+   *
+   * @param top    the top edge of the part that changed, in the coordinates of the whole table
+   * @param bottom the bottom edge
+   */
+  void invalidate(int top, int bottom) {
+    int firstRow = top / TILE_SIZE;
+    int lastRow = (bottom - 1) / TILE_SIZE;
+    for (int i = 0; i < tiles.size(); ++i) {
+      Tile<S> tile = tiles.valueAt(i);
+      if (tile.row >= firstRow && tile.row <= lastRow) {
+        ++tile.version;
+      }
+    }
+  }
+
+  /**
+   * Marks every tile stale, like after the colors of a column changed
+   */
+  void invalidateAll() {
+    for (int i = 0; i < tiles.size(); ++i) {
+      ++tiles.valueAt(i).version;
+    }
+  }
+
+  /**
+   * Throws every tile away, for when the table has been laid out again and none of them are in
+   * the right place anymore
+   */
+  void clear() {
+    ++generation;
+    for (int i = 0; i < tiles.size(); ++i) {
+      discard(tiles.valueAt(i));
+    }
+    tiles.clear();
+  }
+
+  /**
+   * Stops the tile thread and lets go of the bitmaps, once the view is off screen
+   */
+  void release() {
+    clear();
+    released = true;
+    tileThread.quit();
+    mainHandler.removeCallbacksAndMessages(null);
+    retired.clear();
+    retiredLastFrame.clear();
+    pool.clear();
+    spareTiles.clear();
+  }
+
+  /**
+   * @return whether every tile that was queued has been drawn and put in place
+   */
+  boolean isSettled() {
+    return pendingTiles == 0;
+  }
+
+  private static long key(int column, int row) {
+    return ((long) column << 32) | (row & 0xffffffffL);
+  }
+
+  private Tile<S> getTile(int column, int row) {
+    long key = key(column, row);
+    Tile<S> tile = tiles.get(key);
+    if (tile == null) {
+      tile = spareTiles.poll();
+      if (tile == null) {
+        tile = new Tile<>();
+      }
+      tile.reset(column, row);
+      tiles.put(key, tile);
+    }
+    return tile;
+  }
+
+  /**
+   * Queues a tile to be drawn in the background, unless it's up to date or already queued
+   *
+   * @param tile     the tile
+   * @param snapshot what to draw it from
+   */
+  private void requestRender(Tile<S> tile, S snapshot) {
+    if (tile.queued || (tile.bitmap != null && tile.renderedVersion == tile.version)
+        || released) {
+      return;
+    }
+    tile.queued = true;
+    tile.jobVersion = tile.version;
+    tile.jobGeneration = generation;
+    tile.jobSnapshot = snapshot;
+    tile.jobBitmap = obtainBitmap();
+    tile.jobDrawn = false;
+    ++pendingTiles;
+    tileHandler.obtainMessage(0, tile).sendToTarget();
+  }
+
+  /**
+   * Runs on the tile thread. Draws a tile into the bitmap it was queued with, unless the screen
+   * has moved on since.
+   */
+  private void render(Tile<S> tile) {
+    if (tile.evicted || tile.jobGeneration != generation) {
+      return;
+    }
+    int left = tile.column * TILE_SIZE;
+    int top = tile.row * TILE_SIZE;
+    tileCanvas.setBitmap(tile.jobBitmap);
+    tileCanvas.save();
+    tileCanvas.translate(-left, -top);
+    painter.drawRegion(tileCanvas, tileRenderer, tile.jobSnapshot, left, top, left + TILE_SIZE,
+        top + TILE_SIZE);
+    tileCanvas.restore();
+    tileCanvas.setBitmap(null);
+    tile.jobDrawn = true;
+  }
+
+  /**
+   * Runs on the UI thread once a tile has been drawn, or skipped
+   */
+  private void install(Tile<S> tile) {
+    --pendingTiles;
+    tile.queued = false;
+    Bitmap bitmap = tile.jobBitmap;
+    tile.jobBitmap = null;
+    tile.jobSnapshot = null;
+    if (!tile.jobDrawn || tile.evicted || tile.jobGeneration != generation) {
+      // nothing has drawn this bitmap to the screen yet
+      recycle(bitmap);
+      if (tile.evicted) {
+        spareTiles.add(tile);
+      }
+      return;
+    }
+    if (tile.bitmap != null) {
+      retired.add(tile.bitmap);
+    }
+    tile.bitmap = bitmap;
+    tile.renderedVersion = tile.jobVersion;
+    view.invalidate();
+  }
+
+  /**
+   * Throws away the least recently used tiles that weren't drawn this frame, until at most the
+   * given number are left
+   */
+  private void evict(int maxTiles) {
+    if (tiles.size() <= maxTiles) {
+      return;
+    }
+    for (int i = 0; i < tiles.size(); ++i) {
+      Tile<S> tile = tiles.valueAt(i);
+      if (tile.lastUsed != frame) {
+        candidates.add(tile);
+      }
+    }
+    // oldest first; there are only a few dozen of them
+    for (int i = 1; i < candidates.size(); ++i) {
+      Tile<S> tile = candidates.get(i);
+      int j = i - 1;
+      while (j >= 0 && candidates.get(j).lastUsed > tile.lastUsed) {
+        candidates.set(j + 1, candidates.get(j));
+        --j;
+      }
+      candidates.set(j + 1, tile);
+    }
+    for (int i = 0; i < candidates.size() && tiles.size() > maxTiles; ++i) {
+      Tile<S> tile = candidates.get(i);
+      tiles.remove(key(tile.column, tile.row));
+      discard(tile);
+    }
+    candidates.clear();
+  }
+
+  /**
+   * Takes a tile out of use, reusing it right away unless the tile thread still has it
+   */
+  private void discard(Tile<S> tile) {
+    tile.evicted = true;
+    if (tile.bitmap != null) {
+      retired.add(tile.bitmap);
+      tile.bitmap = null;
+    }
+    if (!tile.queued) {
+      spareTiles.add(tile);
+    }
+  }
+
+  private Bitmap obtainBitmap() {
+    Bitmap bitmap = pool.poll();
+    if (bitmap == null) {
+      // the cells are opaque, so there's no need for an alpha channel
+      bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.RGB_565);
+    }
+    return bitmap;
+  }
+
+  private void recycle(Bitmap bitmap) {
+    if (!released && pool.size() < MAX_POOLED_BITMAPS) {
+      pool.add(bitmap);
+    }
+  }
+
+  /**
+   * Draws part of the table, on whichever thread calls it
+   *
+   * @param <S> what the painter draws from
+   */
+  interface Painter<S> {
+    /**
+     * Takes what drawing needs to know of the table, like where the columns are and the order
+     * of the rows, as it is now. Called on the UI thread. Should hand out the same snapshot until
+     * something in it changes, so that drawing a frame doesn't allocate.
+     *
+     * @return the snapshot, which must never change
+     */
+    S snapshot();
+
+    /**
+     * Draws the cells within a rectangle, in the coordinates of the whole table
+     *
+     * @param canvas   the canvas, translated to the coordinates of the whole table
+     * @param renderer the renderer to fit and draw the cells with, only used by the calling
+     *                 thread
+     * @param snapshot the snapshot to draw from, taken on the UI thread
+     * @param left     the left edge of the rectangle
+     * @param top      the top edge
+     * @param right    the right edge
+     * @param bottom   the bottom edge
+     */
+    void drawRegion(Canvas canvas, CellRenderer renderer, S snapshot, int left, int top,
+        int right, int bottom);
+  }
+
+  /**
+   * A tile, the bitmap it was last drawn into, and whether that's up to date. Thrown away tiles
+   * are reused for others, once the tile thread is done with them.
+   */
+  private static final class Tile<S> {
+    // Only changed while the tile isn't in use, read by the tile thread
+    private int column;
+    private int row;
+    // Set once the tile is thrown away, read by the tile thread
+    private volatile boolean evicted = false;
+    // These are only touched on the UI thread
+    private Bitmap bitmap = null;
+    private int version = 0;
+    private int renderedVersion = -1;
+    private boolean queued = false;
+    private long lastUsed = 0;
+    /**
+     * What the tile is being drawn from and into while it's queued. Set on the UI thread before
+     * it's handed to the tile thread, and jobDrawn on the tile thread before it's handed back.
+     */
+    private int jobVersion;
+    private int jobGeneration;
+    private S jobSnapshot;
+    private Bitmap jobBitmap;
+    private boolean jobDrawn;
+
+    void reset(int column, int row) {
+      this.column = column;
+      this.row = row;
+      evicted = false;
+      bitmap = null;
+      version = 0;
+      renderedVersion = -1;
+      queued = false;
+      lastUsed = 0;
+    }
+  }
+}
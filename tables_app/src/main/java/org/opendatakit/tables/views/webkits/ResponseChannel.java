@@ -0,0 +1,612 @@
+/*
+ * Copyright (C) 2017 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.tables.views.webkits;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * The responses waiting to be picked up by one web view, handed over in the order they came in.
+ * <p>
+ * A page that fires off a lot of queries at once can get its responses faster than it reads
+ * them, and each one can be megabytes of JSON. So the channel keeps track of how much it's
+ * holding in memory, and once that's over its limit, another response is written straight to a
+ * file and only read back in when the page gets to it. The thread offering it, usually the
+ * database thread every web view shares, never waits for the page. A response is always held in
+ * memory when the channel is empty, however big it is.
+ * <p>
+ * The channel keeps counts of how deep it has got and how long responses waited to be picked up,
+ * see {@link #getStats()}. It has its own lock, so the web views of a split screen don't wait on
+ * each other.
+ * <p>
+ * The responses still waiting when the activity saves its state are saved with it, but a big
+ * one would take the state past what can be passed to the system. So {@link #save(File, long)}
+ * writes those out to files and saves only their names. A response that was written out stays
+ * there, rather than in memory, until the page takes it, when it's read back in and the file
+ * deleted. In case the file is gone by then, the callback of the response is noted when it's
+ * written out, and the page is sent an error for that callback instead, so it isn't left
+ * waiting.
+ */
+public final class ResponseChannel {
+
+  /**
+   * How much the responses waiting in a channel can add up to in memory before more are written
+   * to files
+   */
+  public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+
+  /**
+   * Responses this big or bigger are written to files by save rather than saved with the state
+   */
+  public static final long DEFAULT_MIN_SPILL_BYTES = 16L * 1024;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String SPILL_FILE_PREFIX = "response-";
+  // The keys of a response the page matches up with its callback
+  private static final String CALLBACK_KEY = "callbackJSON";
+  private static final String ERROR_KEY = "error";
+  private static final String SPILL_READ_ERROR = "The response was lost before it could be read";
+
+  private final long maxBytes;
+
+  // The responses waiting, oldest first, and how much of them is in memory
+  private final ArrayDeque<Entry> responses = new ArrayDeque<>();
+  private long bytes = 0;
+
+  // Counts for getStats, all guarded by this
+  private int maxDepth = 0;
+  private long maxBytesHeld = 0;
+  private long delivered = 0;
+  private long totalLatencyNanos = 0;
+  private long maxLatencyNanos = 0;
+  private long spills = 0;
+  private long overflows = 0;
+  private long lost = 0;
+
+  public ResponseChannel() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param maxBytes how much the waiting responses can add up to in memory before more are
+   *                 written to files
+   */
+  public ResponseChannel(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param response a response
+   * @return roughly how much memory the response takes up, two bytes a character
+   */
+  static long sizeOf(String response) {
+    return 2L * response.length();
+  }
+
+  /**
+   * Queues a response behind the ones already waiting. If the channel is full the response is
+   * written to a file, off the lock, rather than held in memory, so the calling thread never waits
+   * for the page. It takes its place in the queue before it's written, so one offered later can't
+   * get ahead of it, and if it's taken while still being written it's handed out from memory. One
+   * that can't be written is held in memory anyway.
+   *
+   * @param response the response
+   * @param spillDir an app private directory to write the response to if the channel is full
+   */
+  public void offer(String response, File spillDir) {
+    Entry entry = new Entry(response, null, null, System.nanoTime());
+    synchronized (this) {
+      boolean full = isFull(entry.getBytes());
+      entry.writing = full;
+      add(entry);
+      if (!full) {
+        return;
+      }
+    }
+    File file = newSpillFile(spillDir);
+    boolean written;
+    try {
+      spillDir.mkdirs();
+      writeFile(file, response);
+      written = true;
+    } catch (IOException e) {
+      written = false;
+    }
+    synchronized (this) {
+      entry.writing = false;
+      if (written && !entry.taken) {
+        bytes -= entry.getBytes();
+        entry.spill(file);
+        ++spills;
+        return;
+      }
+      if (!written) {
+        ++overflows;
+      }
+    }
+    file.delete();
+  }
+
+  private boolean isFull(long size) {
+    return !responses.isEmpty() && bytes + size > maxBytes;
+  }
+
+  private void add(Entry entry) {
+    responses.addLast(entry);
+    bytes += entry.getBytes();
+    maxDepth = Math.max(maxDepth, responses.size());
+    maxBytesHeld = Math.max(maxBytesHeld, bytes);
+  }
+
+  /**
+   * Takes the oldest response. A response that was written to a file is read back in, off the
+   * lock, and the file deleted. One whose file can't be read is replaced by an error for its
+   * callback, or skipped if it didn't have one.
+   *
+   * @return the response, or null if none are waiting
+   */
+  public String poll() {
+    while (true) {
+      Entry entry;
+      synchronized (this) {
+        entry = responses.pollFirst();
+        if (entry == null) {
+          return null;
+        }
+        entry.taken = true;
+        bytes -= entry.getBytes();
+      }
+      String response = entry.response;
+      boolean unreadable = false;
+      if (entry.spillFile != null) {
+        try {
+          response = readFile(entry.spillFile);
+        } catch (IOException e) {
+          response = entry.errorResponse;
+          unreadable = true;
+        }
+        entry.spillFile.delete();
+      }
+      long latency = System.nanoTime() - entry.offeredAt;
+      synchronized (this) {
+        if (unreadable) {
+          ++lost;
+        }
+        if (response == null) {
+          continue;
+        }
+        ++delivered;
+        totalLatencyNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+      }
+      return response;
+    }
+  }
+
+  /**
+   * Gets the responses waiting ready to be saved with the state of the activity. Those of at
+   * least minSpillBytes are written to files in spillDir, if they haven't been already, and from
+   * then on are kept there rather than in memory. One that can't be written is saved as it is.
+   *
+   * @param spillDir      an app private directory to write the big responses to
+   * @param minSpillBytes how big a response has to be to be written to a file
+   * @return the responses to save
+   */
+  public synchronized SavedResponses save(File spillDir, long minSpillBytes) {
+    String[] saved = new String[responses.size()];
+    String[] spillFiles = new String[responses.size()];
+    int failures = 0;
+    int i = 0;
+    for (Entry entry : responses) {
+      if (entry.spillFile == null && !entry.writing && entry.getBytes() >= minSpillBytes) {
+        File file = newSpillFile(spillDir);
+        try {
+          spillDir.mkdirs();
+          writeFile(file, entry.response);
+          bytes -= entry.getBytes();
+          entry.spill(file);
+        } catch (IOException e) {
+          file.delete();
+          ++failures;
+        }
+      }
+      if (entry.spillFile != null) {
+        spillFiles[i] = entry.spillFile.getName();
+        saved[i] = entry.errorResponse;
+      } else {
+        saved[i] = entry.response;
+      }
+      ++i;
+    }
+    return new SavedResponses(saved, spillFiles, failures);
+  }
+
+  /**
+   * Puts back responses that were saved with the state of the activity, in front of any that
+   * came in since. They count as having come in now. Those that were written to files are left
+   * there until they're taken.
+   *
+   * @param saved      the responses, oldest first, or for one that was written to a file the
+   *                   error to send if the file can't be read back in, which may be null
+   * @param spillFiles the name of the file each response was written to, null for one that
+   *                   wasn't, or null if none were
+   * @param spillDir   the directory the files are in
+   */
+  public synchronized void restore(String[] saved, String[] spillFiles, File spillDir) {
+    Entry[] newer = responses.toArray(new Entry[responses.size()]);
+    responses.clear();
+    bytes = 0;
+    long now = System.nanoTime();
+    for (int i = 0; i < saved.length; ++i) {
+      String spillFile = spillFiles == null || i >= spillFiles.length ? null : spillFiles[i];
+      if (spillFile != null) {
+        add(new Entry(null, new File(spillDir, spillFile), saved[i], now));
+      } else if (saved[i] != null) {
+        add(new Entry(saved[i], null, null, now));
+      }
+    }
+    for (Entry entry : newer) {
+      add(entry);
+    }
+  }
+
+  /**
+   * @return the responses waiting, oldest first, reading back any that were written to files
+   * without taking them. Mostly for tests.
+   * @throws IOException if a file couldn't be read
+   */
+  synchronized String[] peekAll() throws IOException {
+    String[] all = new String[responses.size()];
+    int i = 0;
+    for (Entry entry : responses) {
+      all[i++] = entry.spillFile == null ? entry.response : readFile(entry.spillFile);
+    }
+    return all;
+  }
+
+  /**
+   * Drops every response waiting and deletes the files of any written out, for when the web
+   * view is going away for good, or the page has moved on and won't want them
+   *
+   * @return the number of responses dropped
+   */
+  public synchronized int discard() {
+    int dropped = responses.size();
+    for (Entry entry : responses) {
+      entry.taken = true;
+      if (entry.spillFile != null) {
+        entry.spillFile.delete();
+      }
+    }
+    responses.clear();
+    bytes = 0;
+    return dropped;
+  }
+
+  /**
+   * Deletes the files of responses that were written out a long time ago and never taken, like
+   * by an activity whose process was killed and that was never gone back to
+   *
+   * @param spillDir the directory the files were written to
+   * @param maxAgeMs how old a file has to be to be deleted
+   */
+  public static void deleteStaleSpillFiles(File spillDir, long maxAgeMs) {
+    File[] files = spillDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    long cutoff = System.currentTimeMillis() - maxAgeMs;
+    for (File file : files) {
+      if (file.getName().startsWith(SPILL_FILE_PREFIX) && file.lastModified() < cutoff) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Works out the error to send the page in place of a response that was lost, by finding the
+   * callback in the response without parsing all of it
+   *
+   * @param response a response
+   * @return the error for the callback of the response, or null if it doesn't have one
+   */
+  static String errorResponseFor(String response) {
+    String key = "\"" + CALLBACK_KEY + "\"";
+    int length = response.length();
+    for (int at = response.indexOf(key); at != -1; at = response.indexOf(key, at + 1)) {
+      // the name of a key is followed by a colon, the same text as a value isn't
+      int start = skipWhitespace(response, at + key.length());
+      if (start == length || response.charAt(start) != ':') {
+        continue;
+      }
+      start = skipWhitespace(response, start + 1);
+      int end = start;
+      if (end < length && response.charAt(end) == '"') {
+        for (++end; end < length && response.charAt(end) != '"'; ++end) {
+          if (response.charAt(end) == '\\') {
+            ++end;
+          }
+        }
+        ++end;
+      } else {
+        while (end < length && ",}] \t\r\n".indexOf(response.charAt(end)) == -1) {
+          ++end;
+        }
+      }
+      if (end == start || end > length) {
+        return null;
+      }
+      return "{" + key + ":" + response.substring(start, end) + ",\"" + ERROR_KEY + "\":\""
+          + SPILL_READ_ERROR + "\"}";
+    }
+    return null;
+  }
+
+  private static int skipWhitespace(String text, int from) {
+    while (from < text.length() && Character.isWhitespace(text.charAt(from))) {
+      ++from;
+    }
+    return from;
+  }
+
+  private static File newSpillFile(File spillDir) {
+    return new File(spillDir, SPILL_FILE_PREFIX + UUID.randomUUID() + ".json");
+  }
+
+  private static void writeFile(File file, String response) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+    try {
+      writer.write(response);
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static String readFile(File file) throws IOException {
+    Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+    try {
+      StringBuilder response = new StringBuilder((int) Math.min(file.length(), Integer.MAX_VALUE));
+      char[] buffer = new char[8192];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        response.append(buffer, 0, read);
+      }
+      return response.toString();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * @return how deep the channel is now and has been, and how long responses have waited in it
+   */
+  public synchronized Stats getStats() {
+    return new Stats(responses.size(), bytes, maxDepth, maxBytesHeld, delivered,
+        delivered == 0 ? 0 : totalLatencyNanos / delivered / 1000000L,
+        maxLatencyNanos / 1000000L, spills, overflows, lost);
+  }
+
+  /**
+   * A response waiting, either in memory or in a file, and when it came in, in nanoseconds. One
+   * in a file has the error to send in its place if the file is lost, if it had a callback.
+   */
+  private static final class Entry {
+    private String response;
+    private File spillFile;
+    private String errorResponse;
+    private final long offeredAt;
+    /**
+     * Whether the response is being written to a file, and is still held in memory until it has
+     */
+    private boolean writing;
+    /**
+     * Whether the response has been taken or dropped, so a file it's being written to isn't wanted
+     */
+    private boolean taken;
+
+    Entry(String response, File spillFile, String errorResponse, long offeredAt) {
+      this.response = response;
+      this.spillFile = spillFile;
+      this.errorResponse = errorResponse;
+      this.offeredAt = offeredAt;
+    }
+
+    /**
+     * @return how much memory the response takes up, nothing if it's in a file
+     */
+    long getBytes() {
+      return response == null ? 0 : sizeOf(response);
+    }
+
+    void spill(File file) {
+      errorResponse = errorResponseFor(response);
+      spillFile = file;
+      response = null;
+    }
+  }
+
+  /**
+   * The responses of a channel as they're saved with the state of the activity
+   */
+  public static final class SavedResponses {
+    private final String[] responses;
+    private final String[] spillFiles;
+    private final int failures;
+
+    SavedResponses(String[] responses, String[] spillFiles, int failures) {
+      this.responses = responses;
+      this.spillFiles = spillFiles;
+      this.failures = failures;
+    }
+
+    /**
+     * @return the responses, oldest first, or for one that was written to a file the error to
+     * send if it can't be read back in, null if it had no callback
+     */
+    public String[] getResponses() {
+      return responses;
+    }
+
+    /**
+     * @return the name of the file each response was written to, null for one that wasn't
+     */
+    public String[] getSpillFiles() {
+      return spillFiles;
+    }
+
+    /**
+     * @return whether any of the responses were written to files
+     */
+    public boolean hasSpillFiles() {
+      for (String spillFile : spillFiles) {
+        if (spillFile != null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return the number of big responses that couldn't be written to files, and are in
+     * {@link #getResponses()} instead
+     */
+    public int getFailures() {
+      return failures;
+    }
+  }
+
+  /**
+   * The counts of a channel at one point
+   */
+  public static final class Stats {
+    private final int depth;
+    private final long bytes;
+    private final int maxDepth;
+    private final long maxBytes;
+    private final long delivered;
+    private final long meanLatencyMs;
+    private final long maxLatencyMs;
+    private final long spills;
+    private final long overflows;
+    private final long lost;
+
+    Stats(int depth, long bytes, int maxDepth, long maxBytes, long delivered, long meanLatencyMs,
+        long maxLatencyMs, long spills, long overflows, long lost) {
+      this.depth = depth;
+      this.bytes = bytes;
+      this.maxDepth = maxDepth;
+      this.maxBytes = maxBytes;
+      this.delivered = delivered;
+      this.meanLatencyMs = meanLatencyMs;
+      this.maxLatencyMs = maxLatencyMs;
+      this.spills = spills;
+      this.overflows = overflows;
+      this.lost = lost;
+    }
+
+    /**
+     * @return the number of responses waiting
+     */
+    public int getDepth() {
+      return depth;
+    }
+
+    /**
+     * @return roughly how much memory the responses waiting take up, not counting any that were
+     * written to files
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @return the most responses that have been waiting at once
+     */
+    public int getMaxDepth() {
+      return maxDepth;
+    }
+
+    /**
+     * @return the most memory the responses waiting have taken up at once
+     */
+    public long getMaxBytes() {
+      return maxBytes;
+    }
+
+    /**
+     * @return the number of responses picked up by the page
+     */
+    public long getDelivered() {
+      return delivered;
+    }
+
+    /**
+     * @return how long the responses picked up waited for it on average, in milliseconds
+     */
+    public long getMeanLatencyMs() {
+      return meanLatencyMs;
+    }
+
+    /**
+     * @return the longest a response picked up waited for it, in milliseconds
+     */
+    public long getMaxLatencyMs() {
+      return maxLatencyMs;
+    }
+
+    /**
+     * @return the number of responses written straight to files because the channel was full
+     */
+    public long getSpills() {
+      return spills;
+    }
+
+    /**
+     * @return the number of responses held in memory over the limit, because they couldn't be
+     * written to files
+     */
+    public long getOverflows() {
+      return overflows;
+    }
+
+    /**
+     * @return the number of responses written to files that couldn't be read back in, each sent
+     * to the page as an error for its callback instead, if it had one
+     */
+    public long getLost() {
+      return lost;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US,
+          "depth %d (%d bytes), max depth %d (%d bytes), delivered %d, latency mean %d ms "
+              + "max %d ms, spills %d, overflows %d, lost %d", depth, bytes, maxDepth, maxBytes,
+          delivered, meanLatencyMs, maxLatencyMs, spills, overflows, lost);
+    }
+  }
+}
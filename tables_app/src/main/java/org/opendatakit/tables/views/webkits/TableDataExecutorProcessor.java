@@ -28,16 +28,32 @@ import org.opendatakit.exception.ServicesAvailabilityException;
 import org.opendatakit.logging.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.IOdkTablesActivity;
+import org.opendatakit.tables.data.ColorRuleCache;
 import org.opendatakit.views.ExecutorContext;
 import org.opendatakit.views.ExecutorProcessor;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * Adds the colors the color rules give the rows of a query to its metadata, for the web views.
+ * <p>
+ * The colors go out in one of two forms. By default it's {@code rowColors}, {@code statusColors}
+ * and {@code columnColors}, what deployed pages read: a list of the rows a rule matched, each
+ * with its row id, row number and colors, and for the columns a map of such lists by element key.
+ * A table whose {@link ColorRuleCache#KEY_COMPACT_COLORS} property is true gets the compact form
+ * instead, for pages that ask for thousands of rows at once. {@code colorPalette} lists each
+ * distinct pair of colors the rules gave any row, as an object with a {@code foregroundColor} and
+ * a {@code backgroundColor} like "#RRGGBB". Then {@code rowColorIndexes} and
+ * {@code statusColorIndexes} hold, for each row of the result in order, the index into the
+ * palette of the colors the table and status column rules give it, or -1 if no rule matched it.
+ * {@code columnColorIndexes} holds the same for each column, by element key. Any of the index keys
+ * is left out if no rule matched a single row, so for a table without color rules the compact
+ * form is just an empty palette. Either way only the rows of the result are gone over, and each
+ * color is only turned into text once, however many rows have it.
+ *
  * @author mitchellsundt@gmail.com
  */
 public class TableDataExecutorProcessor extends ExecutorProcessor {
@@ -45,7 +61,14 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
   private static final String ROW_COLORS = "rowColors";
   private static final String STATUS_COLORS = "statusColors";
   private static final String COLUMN_COLORS = "columnColors";
+  private static final String COLOR_PALETTE = "colorPalette";
+  private static final String ROW_COLOR_INDEXES = "rowColorIndexes";
+  private static final String STATUS_COLOR_INDEXES = "statusColorIndexes";
+  private static final String COLUMN_COLOR_INDEXES = "columnColorIndexes";
   private static final String MAP_INDEX = "mapIndex";
+  // The keys of the colors of a palette entry
+  private static final String FOREGROUND_COLOR = "foregroundColor";
+  private static final String BACKGROUND_COLOR = "backgroundColor";
   private IOdkTablesActivity mActivity;
 
   /**
@@ -60,67 +83,110 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
     mActivity = activity;
   }
 
-  private static void constructRowColorObjects(UserDbInterface dbInterface, DbHandle db,
-      UserTable userTable, String[] adminCols, Collection<RowColorObject> colors, Object crType,
+  /**
+   * Works out which colors one group of rules gives each row of the result
+   *
+   * @return the index into the palette of the colors of each row, -1 for a row no rule matched,
+   * or null if none matched any row
+   */
+  private static int[] constructRowColorIndexes(UserDbInterface dbInterface, DbHandle db,
+      UserTable userTable, String[] adminCols, ColorPalette palette, Object crType,
       String elementKey) throws ServicesAvailabilityException {
     // Should reuse this code for column and status color rules
 
     ColorRuleGroup crg;
 
-    // Get the table color rules and determine which rows are affected
+    // Get the table color rules and determine which rows are affected. They're cached, so a
+    // query only reads them from the key value store the first time or after they were edited.
     if (crType == ColorRuleType.TABLE) {
-      crg = ColorRuleGroup
-          .getTableColorRuleGroup(dbInterface, userTable.getAppName(), db, userTable.getTableId(),
+      crg = ColorRuleCache
+          .getTableRules(dbInterface, userTable.getAppName(), db, userTable.getTableId(),
               adminCols);
     } else if (crType == ColorRuleType.COLUMN) {
-      crg = ColorRuleGroup
-          .getColumnColorRuleGroup(dbInterface, userTable.getAppName(), db, userTable.getTableId(),
+      crg = ColorRuleCache
+          .getColumnRules(dbInterface, userTable.getAppName(), db, userTable.getTableId(),
               elementKey, adminCols);
     } else if (crType == ColorRuleType.STATUS) {
-      crg = ColorRuleGroup
-          .getStatusColumnRuleGroup(dbInterface, userTable.getAppName(), db, userTable.getTableId(),
+      crg = ColorRuleCache
+          .getStatusRules(dbInterface, userTable.getAppName(), db, userTable.getTableId(),
               adminCols);
 
     } else {
-      return;
+      return null;
+    }
+
+    // most columns have no rules, and going over the rows for them would color nothing
+    if (crg == null || crg.getColorRules().isEmpty()) {
+      return null;
     }
 
     ColorGuideGroup cgg = new ColorGuideGroup(crg, userTable);
 
     // Loop through the rows
-    for (int i = 0; i < userTable.getNumberOfRows(); i++) {
+    int[] indexes = new int[userTable.getNumberOfRows()];
+    boolean matched = false;
+    for (int i = 0; i < indexes.length; i++) {
       ColorGuide tcg = cgg.getColorGuideForRowIndex(i);
 
       if (tcg != null) {
-        //String hexFgString = "#" + Integer.toHexString(0x00FFFFFF & tcg.getForeground());
-        //noinspection MagicNumber NOTE THAT NUMBER IS ONLY 3 BYTES, NOT 4!
-        String hexFgString = String.format("#%06X", 0xFFFFFF & tcg.getForeground());
-        //String hexBgString = "#" + Integer.toHexString(0x00FFFFFF & tcg.getBackground());
-        //noinspection MagicNumber
-        String hexBgString = String.format("#%06X", 0xFFFFFF & tcg.getBackground());
-        RowColorObject rco = new RowColorObject(userTable.getRowId(i), i, hexFgString, hexBgString);
-        colors.add(rco);
+        indexes[i] = palette.indexOf(tcg.getForeground(), tcg.getBackground());
+        matched = true;
+      } else {
+        indexes[i] = -1;
+      }
+    }
+    return matched ? indexes : null;
+  }
+
+  /**
+   * Lists the rows a group of rules matched the way deployed pages expect them, one object per
+   * row with its colors. The colors are the palette's text, so each is only formatted once.
+   *
+   * @param userTable the result
+   * @param indexes   the palette index of each row, from constructRowColorIndexes, may be null
+   * @param palette   the palette the indexes point into
+   * @return the rows that had colors, in order
+   */
+  private static ArrayList<RowColorObject> toRowColorObjects(UserTable userTable, int[] indexes,
+      ColorPalette palette) {
+    ArrayList<RowColorObject> colors = new ArrayList<>();
+    if (indexes == null) {
+      return colors;
+    }
+    for (int i = 0; i < indexes.length; i++) {
+      if (indexes[i] != -1) {
+        Map<String, String> entry = palette.getEntries().get(indexes[i]);
+        colors.add(new RowColorObject(userTable.getRowId(i), i, entry.get(FOREGROUND_COLOR),
+            entry.get(BACKGROUND_COLOR)));
       }
     }
+    return colors;
   }
 
   @Override
   protected void extendQueryMetadata(UserDbInterface dbInterface, DbHandle db,
       List<KeyValueStoreEntry> entries, UserTable userTable, Map<String, Object> metadata) {
-    // TODO: construct color rule data here...
     String[] adminCols = ADMIN_COLUMNS.toArray(new String[ADMIN_COLUMNS.size()]);
 
-    Collection<RowColorObject> rowColors = new ArrayList<>();
-    Collection<RowColorObject> statusColors = new ArrayList<>();
-    Map<String, ArrayList<RowColorObject>> colColors = new HashMap<>();
+    ColorPalette palette = new ColorPalette();
+    int[] rowColors = null;
+    int[] statusColors = null;
+    Map<String, int[]> colColors = new HashMap<>();
+    boolean compactColors = false;
 
     try {
+      // the rules are cached, but a sync or an import may have changed them since
+      ColorRuleCache.checkRevision(dbInterface, userTable.getAppName(), db,
+          userTable.getTableId());
+      compactColors = ColorRuleCache
+          .isCompactColors(userTable.getAppName(), userTable.getTableId());
+
       // Need to get the tables color rules and determine which rows are affected
-      constructRowColorObjects(dbInterface, db, userTable, adminCols, rowColors,
+      rowColors = constructRowColorIndexes(dbInterface, db, userTable, adminCols, palette,
           ColorRuleType.TABLE, null);
 
       // Need to get the status color rules and determine which rows are affected
-      constructRowColorObjects(dbInterface, db, userTable, adminCols, statusColors,
+      statusColors = constructRowColorIndexes(dbInterface, db, userTable, adminCols, palette,
           ColorRuleType.STATUS, null);
 
       // Need to get column color rules working
@@ -132,11 +198,10 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
       @SuppressWarnings("unchecked")
       Map<String, Integer> elementKeyMap = (Map<String, Integer>) ekm;
       for (String elementKey : elementKeyMap.keySet()) {
-        ArrayList<RowColorObject> colColorGuide = new ArrayList<>();
-        constructRowColorObjects(dbInterface, db, userTable, adminCols, colColorGuide,
-            ColorRuleType.COLUMN, elementKey);
-        if (!colColorGuide.isEmpty()) {
-          colColors.put(elementKey, colColorGuide);
+        int[] colColorIndexes = constructRowColorIndexes(dbInterface, db, userTable, adminCols,
+            palette, ColorRuleType.COLUMN, elementKey);
+        if (colColorIndexes != null) {
+          colColors.put(elementKey, colColorIndexes);
         }
       }
 
@@ -148,9 +213,27 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
       }
     }
 
-    metadata.put(ROW_COLORS, rowColors);
-    metadata.put(STATUS_COLORS, statusColors);
-    metadata.put(COLUMN_COLORS, colColors);
+    if (compactColors) {
+      metadata.put(COLOR_PALETTE, palette.getEntries());
+      if (rowColors != null) {
+        metadata.put(ROW_COLOR_INDEXES, rowColors);
+      }
+      if (statusColors != null) {
+        metadata.put(STATUS_COLOR_INDEXES, statusColors);
+      }
+      if (!colColors.isEmpty()) {
+        metadata.put(COLUMN_COLOR_INDEXES, colColors);
+      }
+    } else {
+      metadata.put(ROW_COLORS, toRowColorObjects(userTable, rowColors, palette));
+      metadata.put(STATUS_COLORS, toRowColorObjects(userTable, statusColors, palette));
+      Map<String, ArrayList<RowColorObject>> colColorObjects = new HashMap<>();
+      for (Map.Entry<String, int[]> entry : colColors.entrySet()) {
+        colColorObjects
+            .put(entry.getKey(), toRowColorObjects(userTable, entry.getValue(), palette));
+      }
+      metadata.put(COLUMN_COLORS, colColorObjects);
+    }
 
     if (mActivity != null) {
       Integer indexOfSelectedItem = mActivity.getIndexOfSelectedItem();
@@ -160,6 +243,43 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
     }
   }
 
+  /**
+   * The distinct pairs of colors given to the rows of one response, in the order they were first
+   * seen, each written out as text just once
+   */
+  private static final class ColorPalette {
+    private final Map<Long, Integer> indexes = new HashMap<>();
+    private final List<Map<String, String>> entries = new ArrayList<>();
+
+    /**
+     * @param foreground the text color, as an ARGB int
+     * @param background the background color, as an ARGB int
+     * @return the index of the pair in the palette, added if it's new
+     */
+    int indexOf(int foreground, int background) {
+      Long key = ((long) foreground << 32) | (background & 0xFFFFFFFFL);
+      Integer index = indexes.get(key);
+      if (index == null) {
+        index = entries.size();
+        indexes.put(key, index);
+        Map<String, String> entry = new HashMap<>();
+        entry.put(FOREGROUND_COLOR, toHex(foreground));
+        entry.put(BACKGROUND_COLOR, toHex(background));
+        entries.add(entry);
+      }
+      return index;
+    }
+
+    List<Map<String, String>> getEntries() {
+      return entries;
+    }
+
+    private static String toHex(int color) {
+      //noinspection MagicNumber NOTE THAT NUMBER IS ONLY 3 BYTES, NOT 4!
+      return String.format("#%06X", 0xFFFFFF & color);
+    }
+  }
+
   /**
    * Not to be confused with ColorRule.Type or ColorRuleGroup.Type
    */